@@ -433,6 +433,19 @@ public final class Rijndael {
         makeKey(cipherKey, keyBits, DIR_BOTH);
     }
 
+    /**
+     * Overwrite the key schedules, after which a new key must be set before
+     * encrypting or decrypting.
+     */
+    public void wipeKey() {
+        if (rek != null) {
+            java.util.Arrays.fill(rek, 0);
+        }
+        if (rdk != null) {
+            java.util.Arrays.fill(rdk, 0);
+        }
+    }
+
     /**
      * Encrypt exactly one block (BLOCK_SIZE bytes) of plaintext.
      *
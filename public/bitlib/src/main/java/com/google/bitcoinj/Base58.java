@@ -21,9 +21,7 @@ package com.google.bitcoinj;
  */
 
 import com.mrd.bitlib.util.HashUtils;
-import com.mrd.bitlib.util.Sha256Hash;
 
-import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.util.Arrays;
 
@@ -48,6 +46,13 @@ import java.util.Arrays;
  * <li>Doubleclicking selects the whole number as one word if it's all
  * alphanumeric.</li>
  * </ul>
+ * <p>
+ * The conversion works on 32-bit limbs and handles five base58 digits per
+ * pass, since 58^5 fits in 30 bits. Intermediate buffers are kept per thread,
+ * so encoding and decoding into the buffers of the caller does not allocate.
+ * As private keys pass through here, the used part of the buffers is zeroed
+ * before returning.
+ * </p>
  */
 public class Base58 {
    public static final char[] ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
@@ -62,45 +67,179 @@ public class Base58 {
       }
    }
 
+   private static final int CHECKSUM_LENGTH = 4;
+
+   // The number of base58 digits handled with one pass over the limbs
+   private static final int DIGITS_PER_LIMB = 5;
+
+   // POWERS[i] = 58^i
+   private static final long[] POWERS = new long[DIGITS_PER_LIMB + 1];
+   static {
+      POWERS[0] = 1;
+      for (int i = 1; i < POWERS.length; i++) {
+         POWERS[i] = POWERS[i - 1] * 58;
+      }
+   }
+
+   private static final long LIMB_DIVISOR = POWERS[DIGITS_PER_LIMB];
+
+   private static final long LIMB_MASK = 0xFFFFFFFFL;
+
+   /**
+    * Buffers reused by the calls on a thread
+    */
+   private static class Scratch {
+      private int[] limbs = new int[32];
+      private char[] chars = new char[128];
+      private byte[] bytes = new byte[128];
+      private final byte[] hash = new byte[32];
+
+      private int[] limbs(int size) {
+         if (limbs.length < size) {
+            limbs = new int[size];
+         }
+         return limbs;
+      }
+
+      private char[] chars(int size) {
+         if (chars.length < size) {
+            chars = new char[size];
+         }
+         return chars;
+      }
+
+      private byte[] bytes(int size) {
+         if (bytes.length < size) {
+            bytes = new byte[size];
+         }
+         return bytes;
+      }
+
+      /**
+       * Zero the characters written by {@link #encode(byte[], int, int, Scratch)},
+       * including the digits of the last group which were stripped before start
+       */
+      private void wipeChars(int start) {
+         Arrays.fill(chars, Math.max(0, start - DIGITS_PER_LIMB), chars.length, (char) 0);
+      }
+
+      private void wipeBytes(int length) {
+         Arrays.fill(bytes, 0, length, (byte) 0);
+         Arrays.fill(hash, (byte) 0);
+      }
+   }
+
+   private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+      @Override
+      protected Scratch initialValue() {
+         return new Scratch();
+      }
+   };
+
+   /**
+    * Get the maximum number of characters needed to encode a number of bytes
+    */
+   public static int maxEncodedLength(int length) {
+      // log(256) / log(58) is a little less than 1.38
+      return length * 138 / 100 + 1;
+   }
+
    /** Encodes the given bytes in base58. No checksum is appended. */
    public static String encode(byte[] input) {
       if (input.length == 0) {
          return "";
       }
-      input = copyOfRange(input, 0, input.length);
+      Scratch scratch = SCRATCH.get();
+      int start = encode(input, 0, input.length, scratch);
+      try {
+         return new String(scratch.chars, start, scratch.chars.length - start);
+      } finally {
+         scratch.wipeChars(start);
+      }
+   }
+
+   /**
+    * Encode a range of bytes in base58 into a buffer of the caller. No
+    * checksum is appended.
+    *
+    * @param out       the buffer to write to, it must have room for
+    *                  {@link #maxEncodedLength} characters
+    * @param outOffset the position in the buffer to write at
+    * @return the number of characters written
+    */
+   public static int encode(byte[] input, int offset, int length, char[] out, int outOffset) {
+      Scratch scratch = SCRATCH.get();
+      int start = encode(input, offset, length, scratch);
+      int count = scratch.chars.length - start;
+      try {
+         System.arraycopy(scratch.chars, start, out, outOffset, count);
+      } finally {
+         scratch.wipeChars(start);
+      }
+      return count;
+   }
+
+   /**
+    * Encode into the end of the character buffer of the scratch. The limbs
+    * are all zero again when done, the characters must be wiped by the caller.
+    *
+    * @return the position of the first character
+    */
+   private static int encode(byte[] input, int offset, int length, Scratch scratch) {
+      // Room for the digits of the last group which end up being stripped
+      char[] chars = scratch.chars(maxEncodedLength(length) + DIGITS_PER_LIMB);
+      int end = chars.length;
+      int position = end;
+
       // Count leading zeroes.
       int zeroCount = 0;
-      while (zeroCount < input.length && input[zeroCount] == 0) {
+      while (zeroCount < length && input[offset + zeroCount] == 0) {
          ++zeroCount;
       }
-      // The actual encoding.
-      byte[] temp = new byte[input.length * 2];
-      int j = temp.length;
 
-      int startAt = zeroCount;
-      while (startAt < input.length) {
-         byte mod = divmod58(input, startAt);
-         if (input[startAt] == 0) {
+      // Load the rest as big endian limbs, the first limb takes the odd bytes
+      int byteCount = length - zeroCount;
+      int limbCount = (byteCount + 3) / 4;
+      int[] limbs = scratch.limbs(limbCount);
+      int index = offset + zeroCount;
+      for (int i = 0; i < limbCount; i++) {
+         int take = i == 0 ? byteCount - (limbCount - 1) * 4 : 4;
+         int limb = 0;
+         for (int j = 0; j < take; j++) {
+            limb = (limb << 8) | (input[index++] & 0xFF);
+         }
+         limbs[i] = limb;
+      }
+
+      // Divide by 58^5 until nothing is left, each remainder gives five digits
+      int startAt = 0;
+      while (startAt < limbCount) {
+         long remainder = 0;
+         for (int i = startAt; i < limbCount; i++) {
+            long current = (remainder << 32) | (limbs[i] & LIMB_MASK);
+            long quotient = current / LIMB_DIVISOR;
+            limbs[i] = (int) quotient;
+            remainder = current - quotient * LIMB_DIVISOR;
+         }
+         while (startAt < limbCount && limbs[startAt] == 0) {
             ++startAt;
          }
-         temp[--j] = (byte) ALPHABET[mod];
+         int digits = (int) remainder;
+         for (int j = 0; j < DIGITS_PER_LIMB; j++) {
+            chars[--position] = ALPHABET[digits % 58];
+            digits /= 58;
+         }
       }
 
-      // Strip extra '1' if there are some after decoding.
-      while (j < temp.length && temp[j] == ALPHABET[0]) {
-         ++j;
+      // Strip extra '1' if there are some after encoding.
+      while (position < end && chars[position] == ALPHABET[0]) {
+         ++position;
       }
       // Add as many leading '1' as there were leading zeros.
       while (--zeroCount >= 0) {
-         temp[--j] = (byte) ALPHABET[0];
-      }
-
-      byte[] output = copyOfRange(temp, j, temp.length);
-      try {
-         return new String(output, "US-ASCII");
-      } catch (UnsupportedEncodingException e) {
-         throw new RuntimeException(e); // Cannot happen.
+         chars[--position] = ALPHABET[0];
       }
+      return position;
    }
 
    /**
@@ -108,13 +247,33 @@ public class Base58 {
     * address encoding
     */
    public static String encodeWithChecksum(byte[] input) {
-      byte[] b = new byte[input.length + 4];
-      System.arraycopy(input, 0, b, 0, input.length);
-      Sha256Hash checkSum = HashUtils.doubleSha256(b, 0, input.length);
-      System.arraycopy(checkSum.getBytes(), 0, b, input.length, 4);
-      return encode(b);
+      Scratch scratch = SCRATCH.get();
+      int length = input.length + CHECKSUM_LENGTH;
+      byte[] b = scratch.bytes(length);
+      int start = scratch.chars.length;
+      try {
+         System.arraycopy(input, 0, b, 0, input.length);
+         HashUtils.doubleSha256(input, 0, input.length, scratch.hash, 0);
+         System.arraycopy(scratch.hash, 0, b, input.length, CHECKSUM_LENGTH);
+         start = encode(b, 0, length, scratch);
+         return new String(scratch.chars, start, scratch.chars.length - start);
+      } finally {
+         scratch.wipeBytes(length);
+         scratch.wipeChars(start);
+      }
+   }
+
+   /**
+    * Encode many arrays of bytes as Base58 with an appended checksum
+    */
+   public static String[] encodeWithChecksum(byte[][] inputs) {
+      String[] result = new String[inputs.length];
+      for (int i = 0; i < inputs.length; i++) {
+         result[i] = encodeWithChecksum(inputs[i]);
+      }
+      return result;
    }
-   
+
    public static byte[] decode(String input) {
 
       if (input.length() == 0) {
@@ -123,47 +282,100 @@ public class Base58 {
       // Get rid of any UTF-8 BOM marker. Those should not be present, but might have slipped in nonetheless,
       // since Java does not automatically discard them when reading a stream. Only remove it, if at the beginning
       // of the string. Otherwise, something is probably seriously wrong.
-      if (input.charAt(0) == '\uFEFF') input = input.substring(1);
-
-      byte[] input58 = new byte[input.length()];
-      // Transform the String to a base58 byte sequence
-      for (int i = 0; i < input.length(); ++i) {
-         char c = input.charAt(i);
-
-         int digit58 = -1;
-         if (c >= 0 && c < 128) {
-            digit58 = INDEXES[c];
-         }
-         if (digit58 < 0) {
+      int offset = input.charAt(0) == '\uFEFF' ? 1 : 0;
+      int length = input.length() - offset;
+      Scratch scratch = SCRATCH.get();
+      byte[] bytes = scratch.bytes(length);
+      try {
+         int count = decode(input, offset, length, bytes, 0, scratch);
+         if (count < 0) {
             return null;
          }
-
-         input58[i] = (byte) digit58;
+         return Arrays.copyOf(bytes, count);
+      } finally {
+         scratch.wipeBytes(length);
       }
+   }
+
+   /**
+    * Decode a range of base58 characters into a buffer of the caller
+    *
+    * @param out       the buffer to write to, it must have room for as many
+    *                  bytes as there are characters
+    * @param outOffset the position in the buffer to write at
+    * @return the number of bytes written, or -1 if the input contains
+    *         characters which are not base58
+    */
+   public static int decode(CharSequence input, int offset, int length, byte[] out, int outOffset) {
+      return decode(input, offset, length, out, outOffset, SCRATCH.get());
+   }
+
+   private static int decode(CharSequence input, int offset, int length, byte[] out, int outOffset, Scratch scratch) {
       // Count leading zeroes
       int zeroCount = 0;
-      while (zeroCount < input58.length && input58[zeroCount] == 0) {
+      while (zeroCount < length && input.charAt(offset + zeroCount) == ALPHABET[0]) {
          ++zeroCount;
       }
-      // The encoding
-      byte[] temp = new byte[input.length()];
-      int j = temp.length;
 
-      int startAt = zeroCount;
-      while (startAt < input58.length) {
-         byte mod = divmod256(input58, startAt);
-         if (input58[startAt] == 0) {
-            ++startAt;
+      // Every digit adds a little less than 6 bits
+      int end = (length - zeroCount) * 733 / 1000 / 4 + 2;
+      int[] limbs = scratch.limbs(end);
+      try {
+         return decode(input, offset + zeroCount, length - zeroCount, zeroCount, out, outOffset, limbs, end);
+      } finally {
+         Arrays.fill(limbs, 0, end, 0);
+      }
+   }
+
+   private static int decode(CharSequence input, int index, int length, int zeroCount, byte[] out, int outOffset,
+         int[] limbs, int end) {
+      // The number lives in limbs[startAt..end) with the most significant
+      // limb first
+      int startAt = end;
+
+      int stop = index + length;
+      while (index < stop) {
+         // Multiply by 58^k and add up to five digits in one pass
+         int digitCount = Math.min(DIGITS_PER_LIMB, stop - index);
+         int value = 0;
+         for (int j = 0; j < digitCount; j++) {
+            char c = input.charAt(index++);
+            int digit58 = c < 128 ? INDEXES[c] : -1;
+            if (digit58 < 0) {
+               return -1;
+            }
+            value = value * 58 + digit58;
+         }
+         long multiplier = POWERS[digitCount];
+         long carry = value;
+         for (int i = end - 1; i >= startAt; i--) {
+            long current = (limbs[i] & LIMB_MASK) * multiplier + carry;
+            limbs[i] = (int) current;
+            carry = current >>> 32;
+         }
+         if (carry != 0) {
+            limbs[--startAt] = (int) carry;
          }
+      }
 
-         temp[--j] = mod;
+      int position = outOffset;
+      for (int i = 0; i < zeroCount; i++) {
+         out[position++] = 0;
       }
-      // Do no add extra leading zeroes, move j to first non null byte.
-      while (j < temp.length && temp[j] == 0) {
-         ++j;
+      // Only the first limb can have leading zero bytes
+      boolean leading = true;
+      for (int i = startAt; i < end; i++) {
+         int limb = limbs[i];
+         for (int shift = 24; shift >= 0; shift -= 8) {
+            byte b = (byte) (limb >>> shift);
+            if (leading && b == 0) {
+               continue;
+            }
+            leading = false;
+            out[position++] = b;
+         }
       }
-
-      return copyOfRange(temp, j - zeroCount, temp.length);
+      return position - outOffset;
    }
 
    public static BigInteger decodeToBigInteger(String input) {
@@ -175,60 +387,70 @@ public class Base58 {
     * rest are correct. The checksum is removed from the returned data.
     */
    public static byte[] decodeChecked(String input) {
-      byte tmp[] = decode(input);
-      if (tmp == null || tmp.length < 4) {
-         return null;
-      }
-      byte[] bytes = copyOfRange(tmp, 0, tmp.length - 4);
-      byte[] checksum = copyOfRange(tmp, tmp.length - 4, tmp.length);
+      return decodeChecked(input, -1);
+   }
 
-      Sha256Hash sha256Hash = HashUtils.doubleSha256(bytes);
-      byte[] hash = sha256Hash.firstFourBytes();
-      if (!Arrays.equals(checksum, hash)) {
+   /**
+    * Like {@link #decodeChecked(String)}, but only accepts data of a given
+    * size. Input which is too long for the size is rejected before decoding,
+    * and no checksum is calculated for data of the wrong size.
+    *
+    * @param payloadLength the number of bytes expected without the checksum,
+    *                      for instance 21 for an address or 78 for a HD key
+    *                      node, or -1 to accept any size
+    * @return the data without the checksum, or null if the input is invalid or
+    *         of the wrong size
+    */
+   public static byte[] decodeChecked(String input, int payloadLength) {
+      int offset = input.length() > 0 && input.charAt(0) == '\uFEFF' ? 1 : 0;
+      int length = input.length() - offset;
+      if (payloadLength >= 0 && length > maxEncodedLength(payloadLength + CHECKSUM_LENGTH)) {
          return null;
       }
-
-      return bytes;
-   }
-
-   //
-   // number -> number / 58, returns number % 58
-   //
-   private static byte divmod58(byte[] number, int startAt) {
-      int remainder = 0;
-      for (int i = startAt; i < number.length; i++) {
-         int digit256 = (int) number[i] & 0xFF;
-         int temp = remainder * 256 + digit256;
-
-         number[i] = (byte) (temp / 58);
-
-         remainder = temp % 58;
+      Scratch scratch = SCRATCH.get();
+      byte[] bytes = scratch.bytes(length);
+      try {
+         return decodeChecked(input, offset, length, payloadLength, bytes, scratch);
+      } finally {
+         scratch.wipeBytes(length);
       }
-
-      return (byte) remainder;
    }
 
-   //
-   // number -> number / 256, returns number % 256
-   //
-   private static byte divmod256(byte[] number58, int startAt) {
-      int remainder = 0;
-      for (int i = startAt; i < number58.length; i++) {
-         int digit58 = (int) number58[i] & 0xFF;
-         int temp = remainder * 58 + digit58;
-
-         number58[i] = (byte) (temp / 256);
+   private static byte[] decodeChecked(String input, int offset, int length, int payloadLength, byte[] bytes,
+         Scratch scratch) {
+      int count = decode(input, offset, length, bytes, 0, scratch);
+      if (count < CHECKSUM_LENGTH) {
+         // Also covers invalid characters
+         return null;
+      }
+      int size = count - CHECKSUM_LENGTH;
+      if (payloadLength >= 0 && size != payloadLength) {
+         return null;
+      }
 
-         remainder = temp % 256;
+      HashUtils.doubleSha256(bytes, 0, size, scratch.hash, 0);
+      for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+         if (bytes[size + i] != scratch.hash[i]) {
+            return null;
+         }
       }
 
-      return (byte) remainder;
+      return Arrays.copyOf(bytes, size);
    }
 
-   private static byte[] copyOfRange(byte[] source, int from, int to) {
-      byte[] range = new byte[to - from];
-      System.arraycopy(source, from, range, 0, range.length);
-
-      return range;
+   /**
+    * Decode many checksummed strings of the same kind
+    *
+    * @param payloadLength the number of bytes expected without the checksum,
+    *                      or -1 to accept any size
+    * @return the data without the checksum for each input, with null for the
+    *         invalid ones
+    */
+   public static byte[][] decodeChecked(String[] inputs, int payloadLength) {
+      byte[][] result = new byte[inputs.length][];
+      for (int i = 0; i < inputs.length; i++) {
+         result[i] = decodeChecked(inputs[i], payloadLength);
+      }
+      return result;
    }
 }
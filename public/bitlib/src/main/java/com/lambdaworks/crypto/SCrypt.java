@@ -6,10 +6,20 @@ import static java.lang.Integer.MAX_VALUE;
 import static java.lang.System.arraycopy;
 
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * An implementation of the <a
  * href="http://www.tarsnap.com/scrypt/scrypt.pdf"/>scrypt</a> key derivation
@@ -21,6 +31,21 @@ import javax.crypto.spec.SecretKeySpec;
 public class SCrypt {
    private static boolean native_library_loaded = false;
 
+   /**
+    * The number of 32 bit words in a segment of V. Lanes keep V in segments of
+    * this size rather than in one big array, see {@link #scryptJ}.
+    */
+   private static final int V_SEGMENT_WORDS = 1 << 16;
+
+   /**
+    * How often a lane checks whether its thread has been interrupted
+    */
+   private static final int INTERRUPT_CHECK_MASK = 1023;
+
+   private static volatile long maxParallelMemory = -1;
+
+   private static ExecutorService laneExecutor;
+
    /**
     * Implementation of the <a
     * href="http://www.tarsnap.com/scrypt/scrypt.pdf"/>scrypt KDF</a>. Calls the
@@ -78,7 +103,8 @@ public class SCrypt {
 
    /**
     * Pure Java implementation of the <a
-    * href="http://www.tarsnap.com/scrypt/scrypt.pdf"/>scrypt KDF</a>.
+    * href="http://www.tarsnap.com/scrypt/scrypt.pdf"/>scrypt KDF</a>. Runs as
+    * many lanes in parallel as {@link #getParallelLanes} allows.
     * 
     * @param passwd
     *           Password.
@@ -101,6 +127,43 @@ public class SCrypt {
     */
    public static byte[] scryptJ(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen,
          SCryptProgress progressTracker) throws GeneralSecurityException, InterruptedException {
+      return scryptJ(passwd, salt, N, r, p, dkLen, progressTracker, getParallelLanes(N, r, p));
+   }
+
+   /**
+    * Pure Java implementation of the <a
+    * href="http://www.tarsnap.com/scrypt/scrypt.pdf"/>scrypt KDF</a> which
+    * runs up to a given number of its p lanes in parallel.
+    * <p/>
+    * Each lane running in parallel needs its own 128 * r * N bytes of memory
+    * for V. The original SCrypt implementation uses one big V array. We have
+    * observed that this may cause problems on some android devices due to
+    * memory fragmentation, so V is kept as 32 bit words in segments of 256
+    * KB, which are reused for all the lanes a thread runs.
+    * 
+    * @param passwd
+    *           Password.
+    * @param salt
+    *           Salt.
+    * @param N
+    *           CPU cost parameter.
+    * @param r
+    *           Memory cost parameter.
+    * @param p
+    *           Parallelization parameter.
+    * @param dkLen
+    *           Intended length of the derived key.
+    * @param parallelLanes
+    *           The maximum number of lanes to run at the same time.
+    * 
+    * @return The derived key.
+    * 
+    * @throws GeneralSecurityException
+    *            when HMAC_SHA256 is not available.
+    * @throws InterruptedException
+    */
+   public static byte[] scryptJ(byte[] passwd, byte[] salt, int N, int r, int p, int dkLen,
+         SCryptProgress progressTracker, int parallelLanes) throws GeneralSecurityException, InterruptedException {
       if (N == 0 || (N & (N - 1)) != 0)
          throw new IllegalArgumentException("N must be > 0 and a power of 2");
 
@@ -115,31 +178,262 @@ public class SCrypt {
       byte[] DK = new byte[dkLen];
 
       byte[] B = new byte[128 * r * p];
-      byte[] XY = new byte[256 * r];
-      // The original SCrypt implementation uses one big V array with N * 128 *
-      // r bytes. We have observed that this may cause problems on some android
-      // devices due to memory fragmentation. Instead we allocate N arrays of
-      // size 128 * r.
-      byte[][] V = new byte[N][];
-      for (int i = 0; i < N; i++) {
-         V[i] = new byte[128 * r];
-      }
-      
-      int i;
 
       PBKDF.pbkdf2(mac, salt, 1, B, p * 128 * r);
 
-      for (i = 0; i < p; i++) {
-         smix(B, i * 128 * r, r, N, V, XY, progressTracker);
-         if (progressTracker != null) {
-            progressTracker.setProgressP(i+1);
-         }
+      int threads = Math.max(1, Math.min(parallelLanes, p));
+      AtomicInteger nextLane = new AtomicInteger();
+      if (threads == 1) {
+         new LaneRunner(B, N, r, p, nextLane, progressTracker).call();
+      } else {
+         runLanesInParallel(B, N, r, p, threads, nextLane, progressTracker);
       }
+
       PBKDF.pbkdf2(mac, B, 1, DK, dkLen);
 
       return DK;
    }
 
+   /**
+    * Limit the memory used for V by lanes running in parallel. By default a
+    * quarter of the maximum heap size is used. A single lane always runs.
+    * 
+    * @param bytes
+    *           the number of bytes, or -1 for the default
+    */
+   public static void setMaxParallelMemory(long bytes) {
+      maxParallelMemory = bytes;
+   }
+
+   /**
+    * Get the number of lanes to run in parallel given the number of
+    * processors and the memory limit
+    */
+   public static int getParallelLanes(int N, int r, int p) {
+      long limit = maxParallelMemory;
+      if (limit < 0) {
+         limit = Runtime.getRuntime().maxMemory() / 4;
+      }
+      long laneMemory = Math.max(1, 128L * r * N);
+      long byMemory = Math.max(1, limit / laneMemory);
+      int processors = Runtime.getRuntime().availableProcessors();
+      return (int) Math.max(1, Math.min(Math.min(p, processors), byMemory));
+   }
+
+   private static synchronized ExecutorService getLaneExecutor() {
+      if (laneExecutor == null) {
+         laneExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("SCrypt-%d")
+               .setDaemon(true).build());
+      }
+      return laneExecutor;
+   }
+
+   private static void runLanesInParallel(byte[] B, int N, int r, int p, int threads, AtomicInteger nextLane,
+         SCryptProgress progressTracker) throws InterruptedException {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      try {
+         ExecutorService executor = getLaneExecutor();
+         for (int i = 1; i < threads; i++) {
+            futures.add(executor.submit(new LaneRunner(B, N, r, p, nextLane, progressTracker)));
+         }
+         // The calling thread runs lanes as well
+         new LaneRunner(B, N, r, p, nextLane, progressTracker).call();
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof InterruptedException) {
+            throw (InterruptedException) cause;
+         }
+         if (cause instanceof Error) {
+            throw (Error) cause;
+         }
+         throw new RuntimeException(cause);
+      } finally {
+         for (Future<Void> future : futures) {
+            future.cancel(true);
+         }
+      }
+   }
+
+   /**
+    * Runs lanes one after another until there are none left, reusing its
+    * memory for each of them
+    */
+   private static class LaneRunner implements Callable<Void> {
+      private final byte[] B;
+      private final int N;
+      private final int r;
+      private final int p;
+      private final AtomicInteger nextLane;
+      private final SCryptProgress progressTracker;
+
+      private LaneRunner(byte[] B, int N, int r, int p, AtomicInteger nextLane, SCryptProgress progressTracker) {
+         this.B = B;
+         this.N = N;
+         this.r = r;
+         this.p = p;
+         this.nextLane = nextLane;
+         this.progressTracker = progressTracker;
+      }
+
+      @Override
+      public Void call() throws InterruptedException {
+         int blockWords = 32 * r;
+         int[][] V = null;
+         int[] X = new int[blockWords];
+         int[] Y = new int[blockWords];
+         int[] salsa = new int[16];
+         int lane;
+         while ((lane = nextLane.getAndIncrement()) < p) {
+            if (V == null) {
+               V = allocateV(N, blockWords);
+            }
+            int Bi = lane * 128 * r;
+            for (int i = 0; i < blockWords; i++) {
+               X[i] = (B[Bi + i * 4] & 0xff) | (B[Bi + i * 4 + 1] & 0xff) << 8 | (B[Bi + i * 4 + 2] & 0xff) << 16
+                     | (B[Bi + i * 4 + 3] & 0xff) << 24;
+            }
+            smix(X, Y, salsa, r, N, V, lane, progressTracker);
+            for (int i = 0; i < blockWords; i++) {
+               B[Bi + i * 4] = (byte) X[i];
+               B[Bi + i * 4 + 1] = (byte) (X[i] >>> 8);
+               B[Bi + i * 4 + 2] = (byte) (X[i] >>> 16);
+               B[Bi + i * 4 + 3] = (byte) (X[i] >>> 24);
+            }
+         }
+         return null;
+      }
+   }
+
+   private static int[][] allocateV(int N, int blockWords) {
+      int blocksPerSegment = Math.min(N, Integer.highestOneBit(Math.max(1, V_SEGMENT_WORDS / blockWords)));
+      int[][] V = new int[N / blocksPerSegment][];
+      for (int i = 0; i < V.length; i++) {
+         V[i] = new int[blocksPerSegment * blockWords];
+      }
+      return V;
+   }
+
+   /**
+    * The word based equivalent of {@link #smix(byte[], int, int, int, byte[][], byte[], SCryptProgress)}
+    * working on a single lane in X. Y and salsa are scratch space.
+    */
+   private static void smix(int[] X, int[] Y, int[] salsa, int r, int N, int[][] V, int lane,
+         SCryptProgress progressTracker) throws InterruptedException {
+      int blockWords = 32 * r;
+      int segmentWords = V[0].length;
+      int blocksPerSegment = segmentWords / blockWords;
+      int segmentShift = Integer.numberOfTrailingZeros(blocksPerSegment);
+      int i;
+
+      for (i = 0; i < N; i++) {
+         arraycopy(X, 0, V[i >>> segmentShift], (i & (blocksPerSegment - 1)) * blockWords, blockWords);
+         blockmix_salsa8(X, Y, salsa, r);
+         checkProgress(progressTracker, lane, i, i);
+      }
+
+      for (i = 0; i < N; i++) {
+         int j = X[(2 * r - 1) * 16] & (N - 1);
+         int[] segment = V[j >>> segmentShift];
+         int offset = (j & (blocksPerSegment - 1)) * blockWords;
+         for (int k = 0; k < blockWords; k++) {
+            X[k] ^= segment[offset + k];
+         }
+         blockmix_salsa8(X, Y, salsa, r);
+         checkProgress(progressTracker, lane, i, N + i);
+      }
+
+      if (progressTracker != null) {
+         progressTracker.setLaneProgress(lane, 2 * N);
+      }
+   }
+
+   private static void checkProgress(SCryptProgress progressTracker, int lane, int i, int work)
+         throws InterruptedException {
+      if (progressTracker != null) {
+         progressTracker.setLaneProgress(lane, work);
+      }
+      if ((i & INTERRUPT_CHECK_MASK) == 0 && Thread.currentThread().isInterrupted()) {
+         throw new InterruptedException();
+      }
+   }
+
+   /**
+    * The word based equivalent of {@link #blockmix_salsa8(byte[], int, int, int)}.
+    * The result ends up in B again, Y is scratch space.
+    */
+   private static void blockmix_salsa8(int[] B, int[] Y, int[] X, int r) {
+      int i;
+
+      arraycopy(B, (2 * r - 1) * 16, X, 0, 16);
+
+      for (i = 0; i < 2 * r; i++) {
+         for (int k = 0; k < 16; k++) {
+            X[k] ^= B[i * 16 + k];
+         }
+         salsa20_8(X);
+         arraycopy(X, 0, Y, i * 16, 16);
+      }
+
+      for (i = 0; i < r; i++) {
+         arraycopy(Y, (i * 2) * 16, B, i * 16, 16);
+      }
+
+      for (i = 0; i < r; i++) {
+         arraycopy(Y, (i * 2 + 1) * 16, B, (i + r) * 16, 16);
+      }
+   }
+
+   /**
+    * The word based equivalent of {@link #salsa20_8(byte[])}, keeping the
+    * state in local variables
+    */
+   private static void salsa20_8(int[] B) {
+      int x0 = B[0], x1 = B[1], x2 = B[2], x3 = B[3], x4 = B[4], x5 = B[5], x6 = B[6], x7 = B[7];
+      int x8 = B[8], x9 = B[9], x10 = B[10], x11 = B[11], x12 = B[12], x13 = B[13], x14 = B[14], x15 = B[15];
+      int t;
+
+      for (int i = 8; i > 0; i -= 2) {
+         t = x0 + x12; x4 ^= (t << 7) | (t >>> 25);
+         t = x4 + x0; x8 ^= (t << 9) | (t >>> 23);
+         t = x8 + x4; x12 ^= (t << 13) | (t >>> 19);
+         t = x12 + x8; x0 ^= (t << 18) | (t >>> 14);
+         t = x5 + x1; x9 ^= (t << 7) | (t >>> 25);
+         t = x9 + x5; x13 ^= (t << 9) | (t >>> 23);
+         t = x13 + x9; x1 ^= (t << 13) | (t >>> 19);
+         t = x1 + x13; x5 ^= (t << 18) | (t >>> 14);
+         t = x10 + x6; x14 ^= (t << 7) | (t >>> 25);
+         t = x14 + x10; x2 ^= (t << 9) | (t >>> 23);
+         t = x2 + x14; x6 ^= (t << 13) | (t >>> 19);
+         t = x6 + x2; x10 ^= (t << 18) | (t >>> 14);
+         t = x15 + x11; x3 ^= (t << 7) | (t >>> 25);
+         t = x3 + x15; x7 ^= (t << 9) | (t >>> 23);
+         t = x7 + x3; x11 ^= (t << 13) | (t >>> 19);
+         t = x11 + x7; x15 ^= (t << 18) | (t >>> 14);
+         t = x0 + x3; x1 ^= (t << 7) | (t >>> 25);
+         t = x1 + x0; x2 ^= (t << 9) | (t >>> 23);
+         t = x2 + x1; x3 ^= (t << 13) | (t >>> 19);
+         t = x3 + x2; x0 ^= (t << 18) | (t >>> 14);
+         t = x5 + x4; x6 ^= (t << 7) | (t >>> 25);
+         t = x6 + x5; x7 ^= (t << 9) | (t >>> 23);
+         t = x7 + x6; x4 ^= (t << 13) | (t >>> 19);
+         t = x4 + x7; x5 ^= (t << 18) | (t >>> 14);
+         t = x10 + x9; x11 ^= (t << 7) | (t >>> 25);
+         t = x11 + x10; x8 ^= (t << 9) | (t >>> 23);
+         t = x8 + x11; x9 ^= (t << 13) | (t >>> 19);
+         t = x9 + x8; x10 ^= (t << 18) | (t >>> 14);
+         t = x15 + x14; x12 ^= (t << 7) | (t >>> 25);
+         t = x12 + x15; x13 ^= (t << 9) | (t >>> 23);
+         t = x13 + x12; x14 ^= (t << 13) | (t >>> 19);
+         t = x14 + x13; x15 ^= (t << 18) | (t >>> 14);
+      }
+
+      B[0] += x0; B[1] += x1; B[2] += x2; B[3] += x3; B[4] += x4; B[5] += x5; B[6] += x6; B[7] += x7;
+      B[8] += x8; B[9] += x9; B[10] += x10; B[11] += x11; B[12] += x12; B[13] += x13; B[14] += x14; B[15] += x15;
+   }
+
    public static void smix(byte[] B, int Bi, int r, int N, byte[][] V, byte[] XY, SCryptProgress progressTracker)
          throws InterruptedException {
       int Xi = 0;
@@ -7,43 +7,87 @@ public class SCryptProgress implements Serializable{
    
    private int n;
    private long totalWork;
-   private int progressN1;
-   private int progressN2;
+   // The work done on each lane, from 0 to 2 * n. Lanes may run in parallel.
+   // Parts of a tracker share the array of their parent.
+   private int[] laneWork;
+   private int laneOffset;
+   private int laneCount;
    private int progressP;
    private volatile boolean _terminate;
+   private SCryptProgress parent;
 
    public SCryptProgress(int n, int r, int p) {
       this.n = n;
       totalWork = ((long) n * 2) * (long) p;
-      progressN1 = 0;
-      progressN2 = 0;
+      laneWork = new int[p];
+      laneOffset = 0;
+      laneCount = p;
       progressP = 0;
       _terminate = false;
    }
 
-   public void setProgressN1(int n1) throws InterruptedException {
-      // Don't synchronize due to performance. There will be a microscopic
-      // change of getting a progress that is off by one
-      progressN1 = n1;
-      if (_terminate) {
-         throw new InterruptedException();
+   private SCryptProgress(SCryptProgress parent, int laneOffset, int p) {
+      this.n = parent.n;
+      totalWork = ((long) n * 2) * (long) p;
+      laneWork = parent.laneWork;
+      this.laneOffset = laneOffset;
+      laneCount = p;
+      progressP = 0;
+      _terminate = false;
+      this.parent = parent;
+   }
+
+   /**
+    * Create a tracker for one of several scrypt runs that together make up the
+    * work tracked by this tracker, like the decryption of a batch of keys. The
+    * progress of the parts adds up to the progress of this tracker, and
+    * terminating this tracker terminates all of its parts.
+    * 
+    * @param index
+    *           the index of the part
+    * @param p
+    *           the parallelization parameter of the scrypt run of the part
+    */
+   public SCryptProgress createPart(int index, int p) {
+      if (index < 0 || (long) (index + 1) * p > laneCount) {
+         throw new IllegalArgumentException("Part " + index + " does not fit into " + laneCount + " lanes");
       }
+      return new SCryptProgress(this, laneOffset + index * p, p);
+   }
+
+   public void setProgressN1(int n1) throws InterruptedException {
+      setLaneProgress(progressP, n1);
    }
 
    public void setProgressN2(int n2) throws InterruptedException {
-      // Don't synchronize due to performance. There will be a microscopic
-      // change of getting a progress that is off by one
-      progressN2 = n2;
-      if (_terminate) {
-         throw new InterruptedException();
-      }
+      setLaneProgress(progressP, n + n2);
    }
 
    public synchronized void setProgressP(int p) throws InterruptedException {
       progressP = p;
-      progressN1 = 0;
-      progressN2 = 0;
-      if (_terminate) {
+      for (int i = 0; i < p && i < laneCount; i++) {
+         laneWork[laneOffset + i] = 2 * n;
+      }
+      if (isTerminated()) {
+         throw new InterruptedException();
+      }
+   }
+
+   /**
+    * Set the work done on a single lane
+    *
+    * @param lane
+    *           the lane, from 0 to p - 1
+    * @param work
+    *           the number of iterations done, from 0 to 2 * n
+    */
+   void setLaneProgress(int lane, int work) throws InterruptedException {
+      // Don't synchronize due to performance. There will be a microscopic
+      // change of getting a progress that is off by one
+      if (lane < laneCount) {
+         laneWork[laneOffset + lane] = work;
+      }
+      if (isTerminated()) {
          throw new InterruptedException();
       }
    }
@@ -52,8 +96,15 @@ public class SCryptProgress implements Serializable{
       _terminate = true;
    }
 
+   public boolean isTerminated() {
+      return _terminate || (parent != null && parent.isTerminated());
+   }
+
    public synchronized double getProgress() {
-      long work = (long) progressP * ((long) n * 2) + (long) progressN1 + (long) progressN2;
+      long work = 0;
+      for (int i = 0; i < laneCount; i++) {
+         work += laneWork[laneOffset + i];
+      }
       return (double) work / totalWork;
    }
 
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.model.UnspentTransactionOutput;
+
+import java.util.List;
+
+/**
+ * Strategy for selecting the unspent outputs that fund a transaction.
+ * <p/>
+ * See {@link CoinSelectors} for the available implementations.
+ */
+public interface CoinSelector {
+
+   /**
+    * Select the funding for a transaction.
+    * <p/>
+    * The selected outputs must cover the output sum plus the fee given by
+    * {@link StandardTransactionBuilder#estimateFee(int, int)} for the number of selected outputs and one more output
+    * than requested, which leaves room for a change output.
+    *
+    * @param candidates the unspent outputs with standard scripts that may be used, the selector may reorder this list
+    * @param outputSum  the sum of the outputs of the transaction
+    * @param outputs    the number of outputs of the transaction, not counting an eventual change output
+    * @return the selected outputs, or null if the candidates do not cover the output sum and fee
+    */
+   List<UnspentTransactionOutput> select(List<UnspentTransactionOutput> candidates, long outputSum, int outputs);
+}
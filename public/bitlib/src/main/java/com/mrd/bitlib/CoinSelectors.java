@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.model.UnspentTransactionOutput;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The {@link CoinSelector} implementations.
+ * <p/>
+ * All of them sort the candidates once and then walk the sorted array, so selecting from n unspent outputs takes
+ * O(n log n) time.
+ */
+public class CoinSelectors {
+
+   private static final Comparator<UnspentTransactionOutput> LOWEST_HEIGHT_FIRST = new Comparator<UnspentTransactionOutput>() {
+      @Override
+      public int compare(UnspentTransactionOutput a, UnspentTransactionOutput b) {
+         return a.height < b.height ? -1 : (a.height == b.height ? 0 : 1);
+      }
+   };
+
+   private static final Comparator<UnspentTransactionOutput> LARGEST_VALUE_FIRST = new Comparator<UnspentTransactionOutput>() {
+      @Override
+      public int compare(UnspentTransactionOutput a, UnspentTransactionOutput b) {
+         return a.value > b.value ? -1 : (a.value == b.value ? 0 : 1);
+      }
+   };
+
+   /**
+    * Use the outputs with the lowest block height first, unconfirmed outputs count as height -1. This is the
+    * selection {@link StandardTransactionBuilder} has always made.
+    */
+   public static final CoinSelector OLDEST_FIRST = new SortedCoinSelector(LOWEST_HEIGHT_FIRST);
+
+   /**
+    * Use the outputs with the largest value first, which gives the fewest inputs
+    */
+   public static final CoinSelector LARGEST_FIRST = new SortedCoinSelector(LARGEST_VALUE_FIRST);
+
+   /**
+    * Look for outputs that match the amount to send so closely that no change output is needed, falling back to
+    * {@link #OLDEST_FIRST}
+    */
+   public static final CoinSelector BRANCH_AND_BOUND = branchAndBound(OLDEST_FIRST);
+
+   private CoinSelectors() {
+   }
+
+   /**
+    * Get a selector that looks for outputs which match the amount to send so closely that no change output is
+    * needed. The match may leave less than {@link TransactionUtils#MINIMUM_OUTPUT_VALUE} to the miners.
+    *
+    * @param fallback the selector to use if no match is found
+    */
+   public static CoinSelector branchAndBound(CoinSelector fallback) {
+      return new BranchAndBoundCoinSelector(fallback);
+   }
+
+   /**
+    * Take outputs from the start of a sorted list until they cover the output sum and fee
+    */
+   private static List<UnspentTransactionOutput> takeFirst(List<UnspentTransactionOutput> sorted, long outputSum,
+                                                           int outputs) {
+      long fee = TransactionUtils.DEFAULT_MINER_FEE;
+      long found = 0;
+      int count = 0;
+      for (UnspentTransactionOutput output : sorted) {
+         if (found >= fee + outputSum) {
+            break;
+         }
+         found += output.value;
+         count++;
+         fee = StandardTransactionBuilder.estimateFee(count, outputs + 1);
+      }
+      if (found < fee + outputSum) {
+         return null;
+      }
+      return new ArrayList<UnspentTransactionOutput>(sorted.subList(0, count));
+   }
+
+   private static class SortedCoinSelector implements CoinSelector {
+      private final Comparator<UnspentTransactionOutput> _order;
+
+      private SortedCoinSelector(Comparator<UnspentTransactionOutput> order) {
+         _order = order;
+      }
+
+      @Override
+      public List<UnspentTransactionOutput> select(List<UnspentTransactionOutput> candidates, long outputSum,
+                                                   int outputs) {
+         // The sort is stable, so outputs that compare equal keep their order
+         Collections.sort(candidates, _order);
+         return takeFirst(candidates, outputSum, outputs);
+      }
+   }
+
+   /**
+    * Depth first search over the outputs sorted by value, including the largest outputs first. A branch is abandoned
+    * when its sum exceeds the target by more than the minimum output value, or when the remaining outputs cannot
+    * reach the target. This is the selection Bitcoin Core uses to avoid change outputs.
+    */
+   private static class BranchAndBoundCoinSelector implements CoinSelector {
+
+      /**
+       * The maximum number of search steps before giving up
+       */
+      private static final int MAX_TRIES = 100000;
+
+      private final CoinSelector _fallback;
+
+      private BranchAndBoundCoinSelector(CoinSelector fallback) {
+         _fallback = fallback;
+      }
+
+      @Override
+      public List<UnspentTransactionOutput> select(List<UnspentTransactionOutput> candidates, long outputSum,
+                                                   int outputs) {
+         List<UnspentTransactionOutput> sorted = new ArrayList<UnspentTransactionOutput>(candidates);
+         Collections.sort(sorted, LARGEST_VALUE_FIRST);
+         int n = sorted.size();
+         long[] values = new long[n];
+         for (int i = 0; i < n; i++) {
+            values[i] = sorted.get(i).value;
+         }
+         // remaining[i] is the sum of the values from index i on
+         long[] remaining = new long[n + 1];
+         for (int i = n - 1; i >= 0; i--) {
+            remaining[i] = remaining[i + 1] + values[i];
+         }
+         // target[k] is what k inputs have to cover
+         long[] target = new long[n + 1];
+         for (int k = 0; k <= n; k++) {
+            target[k] = outputSum + StandardTransactionBuilder.estimateFee(Math.max(k, 1), outputs + 1);
+         }
+
+         boolean[] selected = new boolean[n];
+         long sum = 0;
+         int count = 0;
+         int i = 0;
+         for (int tries = 0; tries < MAX_TRIES; tries++) {
+            long lower = target[count];
+            long upper = lower + TransactionUtils.MINIMUM_OUTPUT_VALUE;
+            if (count > 0 && sum >= lower && sum < upper) {
+               List<UnspentTransactionOutput> result = new ArrayList<UnspentTransactionOutput>(count);
+               for (int j = 0; j < n; j++) {
+                  if (selected[j]) {
+                     result.add(sorted.get(j));
+                  }
+               }
+               return result;
+            }
+            if (sum >= upper || i == n || sum + remaining[i] < lower) {
+               // Backtrack: drop the last included output and continue with the branch without it
+               int j = i - 1;
+               while (j >= 0 && !selected[j]) {
+                  j--;
+               }
+               if (j < 0) {
+                  // Searched everything
+                  break;
+               }
+               selected[j] = false;
+               sum -= values[j];
+               count--;
+               i = j + 1;
+            } else if (i > 0 && !selected[i - 1] && values[i] == values[i - 1]) {
+               // Including this one gives the same sums as including the previous one, which we already tried
+               i++;
+            } else {
+               selected[i] = true;
+               sum += values[i];
+               count++;
+               i++;
+            }
+         }
+         return _fallback.select(candidates, outputSum, outputs);
+      }
+   }
+}
@@ -23,19 +23,27 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.mrd.bitlib.crypto.*;
 import com.mrd.bitlib.model.*;
-import com.mrd.bitlib.util.ByteWriter;
 import com.mrd.bitlib.util.CoinUtil;
-import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.ComputePool;
 import com.mrd.bitlib.util.Sha256Hash;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 public class StandardTransactionBuilder {
 
+   /**
+    * The minimum number of signatures to make per thread, below this it is not worth starting threads
+    */
+   private static final int MIN_SIGNATURES_PER_THREAD = 4;
+
    public static class InsufficientFundsException extends Exception {
       //todo consider refactoring this into a composite return value instead of an exception. it is not really "exceptional"
       private static final long serialVersionUID = 1L;
@@ -105,6 +113,9 @@ public class StandardTransactionBuilder {
          // Create transaction with valid outputs and empty inputs
          Transaction transaction = new Transaction(1, inputs, _outputs, 0);
 
+         // The scripts of the outputs we spend are signed in place of the input scripts
+         byte[][] scriptCodes = new byte[_funding.length][];
+         PublicKey[] publicKeys = new PublicKey[_funding.length];
          for (int i = 0; i < _funding.length; i++) {
             UnspentTransactionOutput f = _funding[i];
 
@@ -117,24 +128,20 @@ public class StandardTransactionBuilder {
             Address address = Address.fromStandardBytes(addressBytes, _network);
 
             // Find the key to sign with
-            PublicKey publicKey = keyRing.findPublicKeyByAddress(address);
-            if (publicKey == null) {
+            publicKeys[i] = keyRing.findPublicKeyByAddress(address);
+            if (publicKeys[i] == null) {
                // This should not happen as we only work on outputs that we have
                // keys for
                throw new RuntimeException("Public key not found");
             }
+            scriptCodes[i] = f.script.getScriptBytes();
+         }
 
-            // Set the input script to the funding output script
-            inputs[i].script = ScriptInput.fromOutputScript(_funding[i].script);
-
-            // Calculate the transaction hash that has to be signed
-            Sha256Hash hash = hashTransaction(transaction);
-
-            // Set the input to the empty script again
-            inputs[i] = new TransactionInput(_funding[i].outPoint, ScriptInput.EMPTY);
-
-            _signingRequests[i] = new SigningRequest(publicKey, hash);
-
+         // Calculate the transaction hashes that have to be signed, sharing the
+         // work between the inputs
+         Sha256Hash[] hashes = new SigHashEngine(transaction).getSigHashes(scriptCodes);
+         for (int i = 0; i < _funding.length; i++) {
+            _signingRequests[i] = new SigningRequest(publicKeys[i], hashes[i]);
          }
       }
 
@@ -196,10 +203,20 @@ public class StandardTransactionBuilder {
 
    private NetworkParameters _network;
    private List<TransactionOutput> _outputs;
+   private CoinSelector _coinSelector;
 
    public StandardTransactionBuilder(NetworkParameters network) {
       _network = network;
       _outputs = new LinkedList<TransactionOutput>();
+      _coinSelector = CoinSelectors.OLDEST_FIRST;
+   }
+
+   /**
+    * Set the strategy for selecting the unspent outputs that fund the transaction, the default is
+    * {@link CoinSelectors#OLDEST_FIRST}
+    */
+   public void setCoinSelector(CoinSelector coinSelector) {
+      _coinSelector = Preconditions.checkNotNull(coinSelector);
    }
 
    public void addOutput(Address sendTo, long value) throws OutputTooSmallException {
@@ -220,19 +237,56 @@ public class StandardTransactionBuilder {
       return output;
    }
 
+   /**
+    * Sign all inputs. Every key is looked up in the key ring once, and with
+    * enough inputs the signatures are made concurrently on the available
+    * processors.
+    */
    public static List<byte[]> generateSignatures(SigningRequest[] requests, IPrivateKeyRing keyRing,
                                                  RandomSource randomSource) {
-      List<byte[]> signatures = new LinkedList<byte[]>();
+      // Resolve the keys up front, inputs often spend several outputs of the
+      // same address
+      Map<PublicKey, BitcoinSigner> signers = new HashMap<PublicKey, BitcoinSigner>();
       for (SigningRequest request : requests) {
-         BitcoinSigner signer = keyRing.findSignerByPublicKey(request.publicKey);
-         if (signer == null) {
-            // This should not happen as we only work on outputs that we have
-            // keys for
-            throw new RuntimeException("Private key not found");
+         if (!signers.containsKey(request.publicKey)) {
+            BitcoinSigner signer = keyRing.findSignerByPublicKey(request.publicKey);
+            if (signer == null) {
+               // This should not happen as we only work on outputs that we have
+               // keys for
+               throw new RuntimeException("Private key not found");
+            }
+            signers.put(request.publicKey, signer);
          }
-         byte[] signature = signer.makeStandardBitcoinSignature(request.toSign, randomSource);
-         signatures.add(signature);
       }
+      try {
+         return new LinkedList<byte[]>(Arrays.asList(generateSignatures(requests, signers, randomSource)));
+      } finally {
+         // Drop the references to the signers, the private keys themselves
+         // are BigIntegers and cannot be wiped
+         signers.clear();
+      }
+   }
+
+   private static byte[][] generateSignatures(final SigningRequest[] requests, final Map<PublicKey, BitcoinSigner> signers,
+                                              final RandomSource randomSource) {
+      final byte[][] signatures = new byte[requests.length][];
+      // The random source is shared by the threads
+      final RandomSource synchronizedRandomSource = new RandomSource() {
+         @Override
+         public void nextBytes(byte[] bytes) {
+            synchronized (randomSource) {
+               randomSource.nextBytes(bytes);
+            }
+         }
+      };
+      ComputePool.forEach(requests.length, MIN_SIGNATURES_PER_THREAD, new ComputePool.Body() {
+         @Override
+         public void run(int index) {
+            SigningRequest request = requests[index];
+            signatures[index] = signers.get(request.publicKey).makeStandardBitcoinSignature(request.toSign,
+                  synchronizedRandomSource);
+         }
+      });
       return signatures;
    }
 
@@ -255,26 +309,28 @@ public class StandardTransactionBuilder {
                                                         Address changeAddress, IPublicKeyRing keyRing,
                                                         NetworkParameters network)
          throws InsufficientFundsException {
-      // Make a copy so we can mutate the list
-      List<UnspentTransactionOutput> unspent = new LinkedList<UnspentTransactionOutput>(inventory);
+      // Only standard scripts can be used as funding
+      List<UnspentTransactionOutput> candidates = new ArrayList<UnspentTransactionOutput>(inventory.size());
+      for (UnspentTransactionOutput output : inventory) {
+         if (output.script instanceof ScriptOutputStandard) {
+            candidates.add(output);
+         }
+      }
 
       // Find the funding for this transaction
-      List<UnspentTransactionOutput> funding = new LinkedList<UnspentTransactionOutput>();
-      long fee = TransactionUtils.DEFAULT_MINER_FEE;
       long outputSum = outputSum();
-      long found = 0;
-      while (found < fee + outputSum) {
-         UnspentTransactionOutput output = extractOldest(unspent);
-         if (output == null) {
-            // We do not have enough funds
-            throw new InsufficientFundsException(outputSum, fee);
-         }
-         found += output.value;
-         funding.add(output);
-         // When we estimate the fee we automatically add an extra output for an eventual change output.
-         // This slightly increases the change for paying a little extra, but adding change is the norm
-         fee = estimateFee(funding.size(), _outputs.size() + 1);
+      List<UnspentTransactionOutput> funding = _coinSelector.select(candidates, outputSum, _outputs.size());
+      if (funding == null || funding.isEmpty()) {
+         // We do not have enough funds
+         long fee = candidates.isEmpty() ? TransactionUtils.DEFAULT_MINER_FEE : estimateFee(candidates.size(),
+               _outputs.size() + 1);
+         throw new InsufficientFundsException(outputSum, fee);
       }
+      long found = sum(funding);
+      // When we estimate the fee we automatically add an extra output for an eventual change output.
+      // This slightly increases the change for paying a little extra, but adding change is the norm
+      long fee = estimateFee(funding.size(), _outputs.size() + 1);
+      Preconditions.checkState(found >= fee + outputSum, "The coin selector did not select enough funds");
 
       // We have fund all the funds we need
       long toSend = fee + outputSum;
@@ -362,28 +418,6 @@ public class StandardTransactionBuilder {
       return transaction;
    }
 
-   private UnspentTransactionOutput extractOldest(Collection<UnspentTransactionOutput> unspent) {
-      // find the "oldest" output
-      int minHeight = Integer.MAX_VALUE;
-      UnspentTransactionOutput oldest = null;
-      for (UnspentTransactionOutput output : unspent) {
-         if (!(output.script instanceof ScriptOutputStandard)) {
-            // only look for standard scripts
-            continue;
-         }
-         if (output.height < minHeight) {
-            minHeight = output.height;
-            oldest = output;
-         }
-      }
-      if (oldest == null) {
-         // There were no outputs
-         return null;
-      }
-      unspent.remove(oldest);
-      return oldest;
-   }
-
    private long outputSum() {
       long sum = 0;
       for (TransactionOutput output : _outputs) {
@@ -392,18 +426,6 @@ public class StandardTransactionBuilder {
       return sum;
    }
 
-   private static Sha256Hash hashTransaction(Transaction t) {
-      ByteWriter writer = new ByteWriter(1024);
-      t.toByteWriter(writer);
-      // We also have to write a hash type.
-      int hashType = 1;
-      writer.putIntLE(hashType);
-      // Note that this is NOT reversed to ensure it will be signed
-      // correctly. If it were to be printed out
-      // however then we would expect that it is IS reversed.
-      return HashUtils.doubleSha256(writer.toBytes());
-   }
-
    /**
     * Estimate the size of a transaction by taking the number of inputs and outputs into account. This allows us to
     * give a good estimate of the final transaction size, and determine whether out fee size is large enough.
@@ -423,7 +445,14 @@ public class StandardTransactionBuilder {
       return estimate;
    }
 
-   private static long estimateFee(int inputs, int outputs) {
+   /**
+    * Estimate the miner fee of a transaction by its number of inputs and outputs
+    *
+    * @param inputs  the number of inputs of the transaction
+    * @param outputs the number of outputs of the transaction
+    * @return the estimated fee in satoshis
+    */
+   public static long estimateFee(int inputs, int outputs) {
       int txSize = estimateTransactionSize(inputs, outputs);
       // fee is based on the size of the transaction, we have to pay for
       // every 1000 bytes
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib.crypto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+
+/**
+ * Validates many signed messages at once on an {@link ExecutorService}, for
+ * instance proofs of address ownership or BitID requests.
+ * <p/>
+ * Each entry is handled like {@link SignedMessage#validate}: the recovery ID in
+ * the signature header selects the single candidate public key, which is then
+ * compared with the address. Entries which cannot match, like multisig
+ * addresses, are rejected before any curve arithmetic.
+ */
+public class BatchMessageValidator {
+
+   /**
+    * The number of entries validated in a single task
+    */
+   private static final int ENTRIES_PER_TASK = 16;
+
+   /**
+    * A message, its Base64 encoded signature, and the address that is
+    * supposed to have signed it
+    */
+   public static class Entry {
+      /**
+       * The address to check the signature against, or null to only recover
+       * the public key
+       */
+      public final Address address;
+      public final String message;
+      public final String signatureBase64;
+
+      public Entry(Address address, String message, String signatureBase64) {
+         this.address = address;
+         this.message = message;
+         this.signatureBase64 = signatureBase64;
+      }
+   }
+
+   private final ExecutorService _executor;
+
+   /**
+    * @param executor the executor to validate on, it is not shut down by the
+    *                 validator
+    */
+   public BatchMessageValidator(ExecutorService executor) {
+      _executor = executor;
+   }
+
+   /**
+    * Validate a list of entries
+    *
+    * @return for each entry the signed message with the public key that made
+    *         it, or null if the signature is invalid or was not made by the
+    *         key of the address
+    */
+   public List<SignedMessage> validate(List<Entry> entries) {
+      SignedMessage[] results = new SignedMessage[entries.size()];
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      try {
+         for (int start = 0; start < entries.size(); start += ENTRIES_PER_TASK) {
+            int end = Math.min(start + ENTRIES_PER_TASK, entries.size());
+            futures.add(_executor.submit(new Validator(entries, start, end, results)));
+         }
+         for (Future<?> future : futures) {
+            future.get();
+         }
+         return Arrays.asList(results);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      } finally {
+         for (Future<?> future : futures) {
+            future.cancel(true);
+         }
+      }
+   }
+
+   private static SignedMessage validate(Entry entry) {
+      try {
+         if (entry.address == null) {
+            return SignedMessage.recover(entry.message, entry.signatureBase64);
+         }
+         // Only the hash of a single public key can match
+         NetworkParameters network = entry.address.getNetwork();
+         if (entry.address.isMultisig(network)) {
+            return null;
+         }
+         return SignedMessage.validate(entry.address, entry.message, entry.signatureBase64);
+      } catch (WrongSignatureException e) {
+         return null;
+      } catch (IllegalStateException e) {
+         // Address of an unknown network
+         return null;
+      } catch (IllegalArgumentException e) {
+         // Signature values which do not recover to a point on the curve
+         return null;
+      }
+   }
+
+   /**
+    * Validates a range of entries into the shared result array
+    */
+   private static class Validator implements Callable<Void> {
+      private final List<Entry> _entries;
+      private final int _start;
+      private final int _end;
+      private final SignedMessage[] _results;
+
+      private Validator(List<Entry> entries, int start, int end, SignedMessage[] results) {
+         _entries = entries;
+         _start = start;
+         _end = end;
+         _results = results;
+      }
+
+      @Override
+      public Void call() {
+         for (int i = _start; i < _end; i++) {
+            _results[i] = validate(_entries.get(i));
+         }
+         return null;
+      }
+   }
+}
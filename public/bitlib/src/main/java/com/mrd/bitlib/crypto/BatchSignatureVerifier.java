@@ -0,0 +1,307 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.mrd.bitlib.crypto.ec.EcTools;
+import com.mrd.bitlib.crypto.ec.FieldElement;
+import com.mrd.bitlib.crypto.ec.Parameters;
+import com.mrd.bitlib.crypto.ec.Point;
+
+/**
+ * Verifies many ECDSA signatures at once on an {@link ExecutorService}.
+ * <p/>
+ * By default every signature is verified on its own like
+ * {@link PublicKey#verifyStandardBitcoinSignature}, with the entries spread
+ * over the threads of the executor.
+ * <p/>
+ * Optionally signatures can be checked using a randomized linear combination:
+ * for random a[i] we check that sum(a[i] * (u1[i] * G + u2[i] * Q[i] - R[i]))
+ * is the point at infinity, which needs a single multi-scalar multiplication
+ * per group of signatures. Plain ECDSA signatures only carry the x coordinate
+ * of R, so this only applies to entries which know the recovery ID of their
+ * signature, as in {@link SignedMessage}. If a group fails the combined check
+ * its entries are verified one by one to find out which ones are invalid.
+ */
+public class BatchSignatureVerifier {
+
+   /**
+    * The number of entries verified one by one in a single task
+    */
+   private static final int ENTRIES_PER_TASK = 16;
+
+   /**
+    * The number of entries checked with a single linear combination
+    */
+   private static final int ENTRIES_PER_COMBINATION = 64;
+
+   /**
+    * The number of bits of the random factors of the linear combination
+    */
+   private static final int FACTOR_BITS = 128;
+
+   /**
+    * A message hash, the signature of it, and the public key to verify with
+    */
+   public static class Entry {
+      public final byte[] message;
+      public final Signature signature;
+      public final PublicKey publicKey;
+      /**
+       * Bit 0 is the parity of the y coordinate of R, and bit 1 tells whether
+       * the x coordinate of R is r + n. -1 if unknown.
+       */
+      public final int recoveryId;
+
+      public Entry(byte[] message, Signature signature, PublicKey publicKey) {
+         this(message, signature, publicKey, -1);
+      }
+
+      public Entry(byte[] message, Signature signature, PublicKey publicKey, int recoveryId) {
+         Preconditions.checkArgument(recoveryId >= -1 && recoveryId <= 3);
+         this.message = message;
+         this.signature = signature;
+         this.publicKey = publicKey;
+         this.recoveryId = recoveryId;
+      }
+   }
+
+   /**
+    * The outcome of verifying a list of entries
+    */
+   public static class Result {
+      private final List<Integer> _failed;
+
+      private Result(List<Integer> failed) {
+         Collections.sort(failed);
+         _failed = Collections.unmodifiableList(failed);
+      }
+
+      public boolean isAllValid() {
+         return _failed.isEmpty();
+      }
+
+      /**
+       * Get the indexes of the entries whose signature is invalid in
+       * ascending order
+       */
+      public List<Integer> getFailedIndexes() {
+         return _failed;
+      }
+
+      public boolean isValid(int index) {
+         return Collections.binarySearch(_failed, index) < 0;
+      }
+   }
+
+   private final ExecutorService _executor;
+   private final SecureRandom _random;
+
+   /**
+    * @param executor the executor to verify on, it is not shut down by the
+    *                 verifier
+    */
+   public BatchSignatureVerifier(ExecutorService executor) {
+      _executor = executor;
+      _random = new SecureRandom();
+   }
+
+   /**
+    * Verify every entry on its own
+    */
+   public Result verify(List<Entry> entries) {
+      return verify(entries, false);
+   }
+
+   /**
+    * Verify a list of entries
+    *
+    * @param entries    the entries to verify
+    * @param randomized whether to check entries with a known recovery ID using
+    *                   a randomized linear combination
+    * @return the indexes of the entries that failed
+    */
+   public Result verify(List<Entry> entries, boolean randomized) {
+      List<Integer> individual = new ArrayList<Integer>();
+      List<Integer> combined = new ArrayList<Integer>();
+      for (int i = 0; i < entries.size(); i++) {
+         if (randomized && entries.get(i).recoveryId >= 0) {
+            combined.add(i);
+         } else {
+            individual.add(i);
+         }
+      }
+
+      List<Future<List<Integer>>> futures = new ArrayList<Future<List<Integer>>>();
+      try {
+         for (int start = 0; start < individual.size(); start += ENTRIES_PER_TASK) {
+            List<Integer> indexes = individual.subList(start, Math.min(start + ENTRIES_PER_TASK, individual.size()));
+            futures.add(_executor.submit(new IndividualVerifier(entries, indexes)));
+         }
+         for (int start = 0; start < combined.size(); start += ENTRIES_PER_COMBINATION) {
+            List<Integer> indexes = combined.subList(start, Math.min(start + ENTRIES_PER_COMBINATION, combined.size()));
+            futures.add(_executor.submit(new CombinedVerifier(entries, indexes)));
+         }
+         List<Integer> failed = new ArrayList<Integer>();
+         for (Future<List<Integer>> future : futures) {
+            failed.addAll(future.get());
+         }
+         return new Result(failed);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      } finally {
+         for (Future<List<Integer>> future : futures) {
+            future.cancel(true);
+         }
+      }
+   }
+
+   private static boolean verifyEntry(Entry entry) {
+      try {
+         return Signatures.verifySignature(entry.message, entry.signature, entry.publicKey.getQ());
+      } catch (RuntimeException e) {
+         // Invalid public key encodings end up here
+         return false;
+      }
+   }
+
+   /**
+    * Verifies a group of entries one by one
+    */
+   private static class IndividualVerifier implements Callable<List<Integer>> {
+      private final List<Entry> _entries;
+      private final List<Integer> _indexes;
+
+      private IndividualVerifier(List<Entry> entries, List<Integer> indexes) {
+         _entries = entries;
+         _indexes = indexes;
+      }
+
+      @Override
+      public List<Integer> call() {
+         List<Integer> failed = new ArrayList<Integer>();
+         for (int index : _indexes) {
+            if (!verifyEntry(_entries.get(index))) {
+               failed.add(index);
+            }
+         }
+         return failed;
+      }
+   }
+
+   /**
+    * Verifies a group of entries with a randomized linear combination,
+    * falling back to verifying them one by one
+    */
+   private class CombinedVerifier implements Callable<List<Integer>> {
+      private final List<Entry> _entries;
+      private final List<Integer> _indexes;
+
+      private CombinedVerifier(List<Entry> entries, List<Integer> indexes) {
+         _entries = entries;
+         _indexes = indexes;
+      }
+
+      @Override
+      public List<Integer> call() {
+         BigInteger n = Parameters.n;
+         List<Point> points = new ArrayList<Point>(_indexes.size() * 2 + 1);
+         List<BigInteger> scalars = new ArrayList<BigInteger>(_indexes.size() * 2 + 1);
+         List<Integer> individual = new ArrayList<Integer>();
+         BigInteger generatorScalar = BigInteger.ZERO;
+         for (int index : _indexes) {
+            Entry entry = _entries.get(index);
+            Point q;
+            Point r;
+            try {
+               q = entry.publicKey.getQ();
+               r = recoverR(entry.signature, entry.recoveryId);
+            } catch (RuntimeException e) {
+               r = null;
+               q = null;
+            }
+            BigInteger s = entry.signature.s;
+            if (r == null || !isOnCurve(q) || s.signum() <= 0 || s.compareTo(n) >= 0) {
+               // Leave the details to the standard verification
+               individual.add(index);
+               continue;
+            }
+            BigInteger a = points.isEmpty() ? BigInteger.ONE : new BigInteger(FACTOR_BITS, _random);
+            BigInteger c = s.modInverse(n).multiply(a);
+            BigInteger e = Signatures.calculateE(n, entry.message);
+            generatorScalar = generatorScalar.add(e.multiply(c)).mod(n);
+            points.add(q);
+            scalars.add(entry.signature.r.multiply(c).mod(n));
+            points.add(r);
+            scalars.add(a.negate());
+         }
+         points.add(Parameters.G);
+         scalars.add(generatorScalar);
+
+         Point sum = EcTools.sumOfMultiplies(points.toArray(new Point[points.size()]),
+               scalars.toArray(new BigInteger[scalars.size()]));
+         if (!sum.isInfinity()) {
+            // At least one of them is invalid, find out which
+            individual = _indexes;
+         }
+         return new IndividualVerifier(_entries, individual).call();
+      }
+   }
+
+   /**
+    * Get the point R of a signature given its recovery ID, or null if there is
+    * no such point
+    */
+   private static Point recoverR(Signature signature, int recoveryId) {
+      BigInteger r = signature.r;
+      if (r.signum() <= 0 || r.compareTo(Parameters.n) >= 0) {
+         return null;
+      }
+      BigInteger x = (recoveryId & 2) == 0 ? r : r.add(Parameters.n);
+      if (x.compareTo(Parameters.curve.getQ()) >= 0) {
+         return null;
+      }
+      return EcTools.decompressKey(x, (recoveryId & 1) == 1);
+   }
+
+   /**
+    * Check that a point satisfies y^2 = x^3 + 7. Points from uncompressed
+    * public keys are not checked when they are decoded, and a point off the
+    * curve could make the linear combination pass.
+    */
+   private static boolean isOnCurve(Point p) {
+      if (p == null || p.isInfinity()) {
+         return false;
+      }
+      FieldElement x = p.getX();
+      FieldElement y = p.getY();
+      return y.square().equals(x.square().multiply(x).add(p.getCurve().getB()));
+   }
+}
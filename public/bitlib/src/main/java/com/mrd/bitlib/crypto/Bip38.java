@@ -19,6 +19,17 @@ package com.mrd.bitlib.crypto;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import Rijndael.Rijndael;
 import com.google.bitcoinj.Base58;
@@ -30,6 +41,7 @@ import com.mrd.bitlib.model.Address;
 import com.mrd.bitlib.model.NetworkParameters;
 import com.mrd.bitlib.util.BitUtils;
 import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.HexUtils;
 import com.mrd.bitlib.util.Sha256Hash;
 
 public class Bip38 {
@@ -78,6 +90,18 @@ public class Bip38 {
       }
    }
 
+   private static byte[] bip38Stretch1(String passphrase, byte[] salt, SCryptProgress progressTracker,
+                                       int outputSize, int parallelLanes) throws InterruptedException {
+      try {
+         return SCrypt.scryptJ(passphrase.getBytes("UTF-8"), salt, SCRYPT_N, SCRYPT_R, SCRYPT_P, outputSize,
+               progressTracker, parallelLanes);
+      } catch (UnsupportedEncodingException e) {
+         throw new RuntimeException(e);
+      } catch (GeneralSecurityException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
    public static String encryptNoEcMultiply(byte[] stretcedKeyMaterial, InMemoryPrivateKey key, byte[] salt) {
 
       // Encoded result
@@ -249,11 +273,213 @@ public class Bip38 {
       }
    }
 
+   /**
+    * Receives the results of a batch decryption as soon as each key is done
+    */
+   public interface DecryptionListener {
+      /**
+       * Called on the thread that decrypted the key
+       *
+       * @param index           the index of the key in the batch
+       * @param bip38PrivateKey the BIP38 formatted key as it was passed in
+       * @param privateKey      the private key in SIPA format, or null if the
+       *                        key is not a BIP38 key or the passphrase does
+       *                        not match
+       */
+      void onKeyDecrypted(int index, String bip38PrivateKey, String privateKey);
+   }
+
+   /**
+    * Decrypt a batch of BIP38 formatted private keys which share a
+    * passphrase.
+    * <p/>
+    * The keys are decrypted concurrently, with as many scrypt lanes running at
+    * the same time as {@link SCrypt#getParallelLanes} allows. EC-multiplied
+    * keys created from the same intermediate code share the stretching of the
+    * passphrase, which is done only once for them.
+    *
+    * @param bip38PrivateKeys the keys to decrypt
+    * @param progressTracker  a tracker from {@link #getScryptProgressTracker(int)}
+    *                         for the number of keys, or null. Terminating it
+    *                         stops the batch.
+    * @param executor         the executor to decrypt on, it is not shut down
+    * @param listener         receives each result as soon as it is done, or
+    *                         null
+    * @return the private keys in SIPA format in the order of the BIP38 keys,
+    * with null for the keys which could not be decrypted
+    * @throws InterruptedException if the batch was terminated or interrupted
+    */
+   public static List<String> decrypt(List<String> bip38PrivateKeys, String passphrase,
+                                      SCryptProgress progressTracker, NetworkParameters network,
+                                      ExecutorService executor, DecryptionListener listener)
+         throws InterruptedException {
+      int count = bip38PrivateKeys.size();
+      String[] results = new String[count];
+      if (count == 0) {
+         return Arrays.asList(results);
+      }
+      int parallelLanes = SCrypt.getParallelLanes(SCRYPT_N, SCRYPT_R, SCRYPT_P * count);
+      int workers = Math.min(count, parallelLanes);
+      int lanesPerKey = Math.max(1, parallelLanes / workers);
+      BatchDecryption batch = new BatchDecryption(bip38PrivateKeys, passphrase, progressTracker, network,
+            lanesPerKey, listener, results);
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      try {
+         for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(batch));
+         }
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+      } catch (ExecutionException e) {
+         throw rethrow(e);
+      } finally {
+         for (Future<Void> future : futures) {
+            future.cancel(true);
+         }
+      }
+      return Arrays.asList(results);
+   }
+
+   private static RuntimeException rethrow(ExecutionException e) throws InterruptedException {
+      Throwable cause = e.getCause();
+      if (cause instanceof InterruptedException) {
+         throw (InterruptedException) cause;
+      }
+      if (cause instanceof Error) {
+         throw (Error) cause;
+      }
+      if (cause instanceof RuntimeException) {
+         return (RuntimeException) cause;
+      }
+      return new RuntimeException(cause);
+   }
+
+   /**
+    * The state of a batch decryption. Each worker takes the next key until
+    * there are none left.
+    */
+   private static class BatchDecryption implements Callable<Void> {
+      private final List<String> _keys;
+      private final String _passphrase;
+      private final SCryptProgress _progressTracker;
+      private final NetworkParameters _network;
+      private final int _lanesPerKey;
+      private final DecryptionListener _listener;
+      private final String[] _results;
+      private final AtomicInteger _nextKey;
+      private final ConcurrentMap<String, FutureTask<PassFactor>> _passFactors;
+
+      private BatchDecryption(List<String> keys, String passphrase, SCryptProgress progressTracker,
+                              NetworkParameters network, int lanesPerKey, DecryptionListener listener,
+                              String[] results) {
+         _keys = keys;
+         _passphrase = passphrase;
+         _progressTracker = progressTracker;
+         _network = network;
+         _lanesPerKey = lanesPerKey;
+         _listener = listener;
+         _results = results;
+         _nextKey = new AtomicInteger();
+         _passFactors = new ConcurrentHashMap<String, FutureTask<PassFactor>>();
+      }
+
+      @Override
+      public Void call() throws InterruptedException {
+         int index;
+         while ((index = _nextKey.getAndIncrement()) < _keys.size()) {
+            String bip38PrivateKey = _keys.get(index);
+            SCryptProgress part = _progressTracker == null ? null : _progressTracker.createPart(index, SCRYPT_P);
+            String result = decryptKey(bip38PrivateKey, part);
+            if (part != null) {
+               // Keys which did not need a stretch of their own are done as well
+               part.setProgressP(SCRYPT_P);
+            }
+            _results[index] = result;
+            if (_listener != null) {
+               _listener.onKeyDecrypted(index, bip38PrivateKey, result);
+            }
+         }
+         return null;
+      }
+
+      private String decryptKey(String bip38PrivateKeyString, SCryptProgress progressTracker)
+            throws InterruptedException {
+         Bip38PrivateKey bip38Key = parseBip38PrivateKey(bip38PrivateKeyString);
+         if (bip38Key == null) {
+            return null;
+         }
+         if (!bip38Key.ecMultiply) {
+            byte[] stretchedKeyMaterial = bip38Stretch1(_passphrase, bip38Key.salt, progressTracker, SCRYPT_LENGTH,
+                  _lanesPerKey);
+            return decryptNoEcMultiply(bip38Key, stretchedKeyMaterial, _network);
+         }
+         return decryptEcMultiply(bip38Key, getPassFactor(bip38Key, progressTracker), _network);
+      }
+
+      /**
+       * Get the pass factor of a key, calculating it unless another key with
+       * the same owner entropy has done so or is doing so
+       */
+      private PassFactor getPassFactor(final Bip38PrivateKey bip38Key, final SCryptProgress progressTracker)
+            throws InterruptedException {
+         String ownerEntropy = HexUtils.toHex(getOwnerEntropy(bip38Key)) + bip38Key.lotSequence;
+         FutureTask<PassFactor> task = new FutureTask<PassFactor>(new Callable<PassFactor>() {
+            @Override
+            public PassFactor call() throws InterruptedException {
+               return calculatePassFactor(bip38Key, _passphrase, progressTracker, _lanesPerKey);
+            }
+         });
+         FutureTask<PassFactor> existing = _passFactors.putIfAbsent(ownerEntropy, task);
+         if (existing == null) {
+            task.run();
+         } else {
+            task = existing;
+         }
+         try {
+            return task.get();
+         } catch (ExecutionException e) {
+            throw rethrow(e);
+         }
+      }
+   }
+
    public static String decryptEcMultiply(Bip38PrivateKey bip38Key, String passphrase, SCryptProgress progressTracker,
                                           NetworkParameters network) throws InterruptedException {
+      PassFactor passFactor = calculatePassFactor(bip38Key, passphrase, progressTracker, 0);
+      return decryptEcMultiply(bip38Key, passFactor, network);
+   }
+
+   /**
+    * The result of stretching the passphrase of an EC-multiplied key. It only
+    * depends on the passphrase and the owner entropy, so all keys created from
+    * the same intermediate code share it.
+    */
+   private static class PassFactor {
+      private final byte[] passFactor;
+      private final byte[] passPoint;
+
+      private PassFactor(byte[] passFactor, byte[] passPoint) {
+         this.passFactor = passFactor;
+         this.passPoint = passPoint;
+      }
+   }
+
+   private static byte[] getOwnerEntropy(Bip38PrivateKey bip38Key) {
       // Get 8 byte Owner Salt
       byte[] ownerEntropy = new byte[8];
       System.arraycopy(bip38Key.data, 0, ownerEntropy, 0, 8);
+      return ownerEntropy;
+   }
+
+   /**
+    * @param parallelLanes the number of scrypt lanes to run in parallel, or 0
+    *                      to let scrypt decide
+    */
+   private static PassFactor calculatePassFactor(Bip38PrivateKey bip38Key, String passphrase,
+                                                 SCryptProgress progressTracker, int parallelLanes)
+         throws InterruptedException {
+      byte[] ownerEntropy = getOwnerEntropy(bip38Key);
 
       byte[] ownerSalt = ownerEntropy;
       if (bip38Key.lotSequence) {
@@ -262,7 +488,12 @@ public class Bip38 {
       }
 
       // Stretch to get Pass Factor
-      byte[] passFactor = bip38Stretch1(passphrase, ownerSalt, progressTracker, 32);
+      byte[] passFactor;
+      if (parallelLanes == 0) {
+         passFactor = bip38Stretch1(passphrase, ownerSalt, progressTracker, 32);
+      } else {
+         passFactor = bip38Stretch1(passphrase, ownerSalt, progressTracker, 32, parallelLanes);
+      }
 
       if (bip38Key.lotSequence) {
          byte[] tmp = new byte[40];
@@ -276,6 +507,14 @@ public class Bip38 {
       InMemoryPrivateKey key = new InMemoryPrivateKey(passFactor, true);
       // Determine Pass Point
       byte[] passPoint = key.getPublicKey().getPublicKeyBytes();
+      return new PassFactor(passFactor, passPoint);
+   }
+
+   private static String decryptEcMultiply(Bip38PrivateKey bip38Key, PassFactor pass, NetworkParameters network)
+         throws InterruptedException {
+      byte[] ownerEntropy = getOwnerEntropy(bip38Key);
+      byte[] passFactor = pass.passFactor;
+      byte[] passPoint = pass.passPoint;
 
       // Get 8 byte encrypted part 1, only first half of encrypted part 1
       // (the rest is encrypted within encryptedpart2)
@@ -404,6 +643,14 @@ public class Bip38 {
       return new SCryptProgress(SCRYPT_N, SCRYPT_R, SCRYPT_P);
    }
 
+   /**
+    * Get a progress tracker for decrypting a batch of keys with
+    * {@link #decrypt(List, String, SCryptProgress, NetworkParameters, ExecutorService, DecryptionListener)}
+    */
+   public static SCryptProgress getScryptProgressTracker(int numberOfKeys) {
+      return new SCryptProgress(SCRYPT_N, SCRYPT_R, SCRYPT_P * numberOfKeys);
+   }
+
    /**
     * Calculate scrypt salt from Bitcoin address
     * <p/>
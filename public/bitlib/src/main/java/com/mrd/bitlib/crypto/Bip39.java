@@ -17,7 +17,6 @@
 package com.mrd.bitlib.crypto;
 
 import com.google.common.base.Optional;
-import com.lambdaworks.crypto.PBKDF;
 import com.mrd.bitlib.util.BitUtils;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.ByteWriter;
@@ -25,7 +24,6 @@ import com.mrd.bitlib.util.HashUtils;
 
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
-import java.security.GeneralSecurityException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -35,7 +33,6 @@ import java.util.List;
  */
 public class Bip39 {
 
-   private static final String ALGORITHM = "HmacSHA512";
    private static final int REPETITIONS = 2048;
    private static final int BIP32_SEED_LENGTH = 64;
    private static final String BASE_SALT = "mnemonic";
@@ -196,27 +193,51 @@ public class Bip39 {
     * @return
     */
    public static boolean isValidWordList(String[] wordList) {
-      // Check word list length
-      if (wordList.length != 12 &&
-            wordList.length != 15 &&
-            wordList.length != 18 &&
-            wordList.length != 21 &&
-            wordList.length != 24) {
-         return false;
-      }
-
       // Check words
-      int bitLength = wordList.length * 11;
+      int[] wordIndexes = new int[wordList.length];
       for (int i = 0; i < wordList.length; i++) {
          String word = wordList[i];
          int wordIndex = getWordIndex(word);
          if (wordIndex == -1) {
             return false;
          }
+         wordIndexes[i] = wordIndex;
+      }
+      return isValidWordIndexes(wordIndexes);
+   }
+
+   /**
+    * Check whether a list of word indexes is valid
+    * </p>
+    * Checks that the number of words is valid for Bip39.
+    * Checks that the indexes are within the word list.
+    * Checks that the words have a valid checksum.
+    * <p/>
+    * This skips looking up words, which makes it cheap to check many candidate
+    * word lists.
+    *
+    * @param wordIndexes the indexes of the words in the english word list
+    * @return true if the indexes make up a valid word list
+    */
+   public static boolean isValidWordIndexes(int[] wordIndexes) {
+      // Check word list length
+      if (wordIndexes.length != 12 &&
+            wordIndexes.length != 15 &&
+            wordIndexes.length != 18 &&
+            wordIndexes.length != 21 &&
+            wordIndexes.length != 24) {
+         return false;
       }
 
       // Get bytes
-      byte[] rawAndChecksum = wordListToBytes(wordList);
+      int bitLength = wordIndexes.length * 11;
+      byte[] rawAndChecksum = new byte[bitLength / 8 + ((bitLength % 8) > 0 ? 1 : 0)];
+      for (int i = 0; i < wordIndexes.length; i++) {
+         if (wordIndexes[i] < 0 || wordIndexes[i] >= ENGLISH_WORD_LIST.length) {
+            return false;
+         }
+         integerTo11Bits(rawAndChecksum, i * 11, wordIndexes[i]);
+      }
 
       // Verify checksum
       return verifyChecksum(rawAndChecksum);
@@ -307,12 +328,20 @@ public class Bip39 {
    }
 
    private static int getWordIndex(String word) {
-      for (int i = 0; i < ENGLISH_WORD_LIST.length; i++) {
-         if (ENGLISH_WORD_LIST[i].equals(word)) {
-            return i;
-         }
-      }
-      return -1;
+      return getEnglishWordIndex().indexOf(word);
+   }
+
+   /**
+    * Get the index over the english word list for looking up words,
+    * completing prefixes and suggesting corrections
+    */
+   public static Bip39WordIndex getEnglishWordIndex() {
+      return EnglishWordIndexHolder.INDEX;
+   }
+
+   // Built on first use, after the word list has been initialized
+   private static class EnglishWordIndexHolder {
+      private static final Bip39WordIndex INDEX = new Bip39WordIndex(ENGLISH_WORD_LIST);
    }
 
    /**
@@ -439,13 +468,10 @@ public class Bip39 {
       // Calculate and return the seed
       byte[] seed;
       try {
-         seed = PBKDF.pbkdf2(ALGORITHM, mnemonic.getBytes(UTF8), salt.getBytes(UTF8), REPETITIONS, BIP32_SEED_LENGTH);
+         seed = Pbkdf2HmacSha512.derive(mnemonic.getBytes(UTF8), salt.getBytes(UTF8), REPETITIONS, BIP32_SEED_LENGTH);
       } catch (UnsupportedEncodingException e) {
          // UTF-8 should be supported by every system we run on
          throw new RuntimeException(e);
-      } catch (GeneralSecurityException e) {
-         // HMAC-SHA512 should be supported by every system we run on
-         throw new RuntimeException(e);
       }
       MasterSeed masterSeed = new MasterSeed(wordListToRawEntropy(wordList.toArray(new String[0])), password, seed);
       return masterSeed;
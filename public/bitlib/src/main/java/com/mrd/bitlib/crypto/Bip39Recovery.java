@@ -0,0 +1,389 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib.crypto;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.common.base.Preconditions;
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+
+/**
+ * Recovers a BIP39 word list with a missing word or with two swapped words.
+ * <p/>
+ * Every candidate word list is first checked against the checksum of the word
+ * list, which is cheap and rules out most of them. Only the candidates that
+ * pass go through the expensive seed generation and BIP44 key derivation, and
+ * are accepted if one of the derived addresses is the target address.
+ * <p/>
+ * The candidates are spread over the threads of an executor. A search can be
+ * cancelled from another thread with {@link #cancel}, and its progress
+ * followed with {@link #getProgress}. An instance is meant for a single
+ * search.
+ */
+public class Bip39Recovery {
+
+   private static final int BIP44_PURPOSE = 0x8000002C;
+   private static final int BIP44_PRODNET_COIN_TYPE = 0x80000000;
+   private static final int BIP44_TESTNET_COIN_TYPE = 0x80000001;
+   private static final int HARDENED = 0x80000000;
+
+   /**
+    * The number of candidates a worker takes at a time
+    */
+   private static final int CANDIDATES_PER_CHUNK = 64;
+
+   private final Address _target;
+   private final String _password;
+   private final NetworkParameters _network;
+   private final int _accounts;
+   private final int _addressesPerChain;
+   private final ExecutorService _executor;
+   private final AtomicLong _total;
+   private final AtomicLong _checked;
+   private final AtomicInteger _derived;
+   private volatile boolean _cancelled;
+
+   /**
+    * @param target            the address to look for
+    * @param password          the optional BIP39 password
+    * @param network           the network to derive addresses for
+    * @param accounts          the number of BIP44 accounts to look at
+    * @param addressesPerChain the number of addresses to look at on both the
+    *                          external and the change chain of every account
+    * @param executor          the executor to search on, it is not shut down by
+    *                          the recovery
+    */
+   public Bip39Recovery(Address target, String password, NetworkParameters network, int accounts,
+                        int addressesPerChain, ExecutorService executor) {
+      Preconditions.checkArgument(accounts > 0 && addressesPerChain > 0);
+      _target = target;
+      _password = password;
+      _network = network;
+      _accounts = accounts;
+      _addressesPerChain = addressesPerChain;
+      _executor = executor;
+      _total = new AtomicLong();
+      _checked = new AtomicLong();
+      _derived = new AtomicInteger();
+   }
+
+   /**
+    * Find a word list with one missing word.
+    * <p/>
+    * If the position of the missing word is known it is marked with null or
+    * any word which is not in the word list. Otherwise the list is one word
+    * short, and the missing word is tried at every position.
+    *
+    * @param words the incomplete word list
+    * @return the complete word list, or null if none gives the target address
+    * @throws InterruptedException if the search was cancelled or interrupted
+    */
+   public String[] recoverMissingWord(String[] words) throws InterruptedException {
+      Bip39WordIndex index = Bip39.getEnglishWordIndex();
+      int[] known = new int[words.length];
+      int missing = -1;
+      for (int i = 0; i < words.length; i++) {
+         known[i] = words[i] == null ? -1 : index.indexOf(words[i]);
+         if (known[i] == -1) {
+            Preconditions.checkArgument(missing == -1, "More than one word is missing");
+            missing = i;
+         }
+      }
+      if (missing != -1) {
+         return search(new MissingWordSpace(known, missing));
+      }
+      return search(new MissingWordSpace(known));
+   }
+
+   /**
+    * Find a word list where two of the words have been swapped
+    *
+    * @param words the word list with two words in the wrong place
+    * @return the correct word list, or null if none gives the target address
+    * @throws InterruptedException if the search was cancelled or interrupted
+    */
+   public String[] recoverSwappedWords(String[] words) throws InterruptedException {
+      Bip39WordIndex index = Bip39.getEnglishWordIndex();
+      int[] known = new int[words.length];
+      for (int i = 0; i < words.length; i++) {
+         known[i] = index.indexOf(words[i]);
+         Preconditions.checkArgument(known[i] != -1, "Unknown word: " + words[i]);
+      }
+      return search(new SwappedWordsSpace(known));
+   }
+
+   /**
+    * Stop the search, the recover method throws an
+    * {@link InterruptedException}
+    */
+   public void cancel() {
+      _cancelled = true;
+   }
+
+   public boolean isCancelled() {
+      return _cancelled;
+   }
+
+   /**
+    * Get the share of candidates checked so far, between 0 and 1
+    */
+   public double getProgress() {
+      long total = _total.get();
+      if (total == 0) {
+         return 0;
+      }
+      return Math.min(1.0, (double) _checked.get() / total);
+   }
+
+   /**
+    * Get the number of candidates which passed the checksum and had their
+    * addresses derived so far
+    */
+   public int getDerivedCount() {
+      return _derived.get();
+   }
+
+   private String[] search(CandidateSpace space) throws InterruptedException {
+      _total.set(space.size());
+      AtomicInteger next = new AtomicInteger();
+      AtomicReference<int[]> found = new AtomicReference<int[]>();
+      int workers = Runtime.getRuntime().availableProcessors();
+      List<Future<Void>> futures = new ArrayList<Future<Void>>(workers);
+      try {
+         for (int i = 0; i < workers; i++) {
+            futures.add(_executor.submit(new Worker(space, next, found)));
+         }
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+      } catch (InterruptedException e) {
+         _cancelled = true;
+         throw e;
+      } catch (ExecutionException e) {
+         // Stop the other workers, they do not react to interrupts
+         _cancelled = true;
+         throw new RuntimeException(e.getCause());
+      } finally {
+         for (Future<Void> future : futures) {
+            future.cancel(true);
+         }
+      }
+      int[] result = found.get();
+      if (result == null) {
+         if (_cancelled) {
+            throw new InterruptedException("BIP39 recovery was cancelled");
+         }
+         return null;
+      }
+      return toWords(result);
+   }
+
+   /**
+    * Checks chunks of candidates until the space is exhausted, a match is
+    * found, or the search is cancelled
+    */
+   private class Worker implements Callable<Void> {
+      private final CandidateSpace _space;
+      private final AtomicInteger _next;
+      private final AtomicReference<int[]> _found;
+
+      private Worker(CandidateSpace space, AtomicInteger next, AtomicReference<int[]> found) {
+         _space = space;
+         _next = next;
+         _found = found;
+      }
+
+      @Override
+      public Void call() {
+         int size = _space.size();
+         int[] candidate = new int[_space.length()];
+         while (!_cancelled && _found.get() == null) {
+            int start = _next.getAndAdd(CANDIDATES_PER_CHUNK);
+            if (start >= size) {
+               break;
+            }
+            int end = Math.min(start + CANDIDATES_PER_CHUNK, size);
+            for (int i = start; i < end; i++) {
+               if (_cancelled || _found.get() != null) {
+                  return null;
+               }
+               if (_space.get(i, candidate) && Bip39.isValidWordIndexes(candidate)) {
+                  _derived.incrementAndGet();
+                  if (derivesTarget(candidate)) {
+                     _found.compareAndSet(null, candidate.clone());
+                  }
+               }
+            }
+            _checked.addAndGet(end - start);
+         }
+         return null;
+      }
+   }
+
+   private boolean derivesTarget(int[] wordIndexes) {
+      Bip39.MasterSeed seed = Bip39.generateSeedFromWordList(toWords(wordIndexes), _password);
+      try {
+         HdKeyNode root = HdKeyNode.fromSeed(seed.getBip32Seed());
+         HdKeyNode coinTypeRoot = root.createChildNode(BIP44_PURPOSE).createChildNode(
+               _network.isProdnet() ? BIP44_PRODNET_COIN_TYPE : BIP44_TESTNET_COIN_TYPE);
+         for (int account = 0; account < _accounts; account++) {
+            HdKeyNode accountRoot = coinTypeRoot.createChildNode(account | HARDENED).getPublicNode();
+            for (int chain = 0; chain < 2; chain++) {
+               HdKeyNode chainRoot = accountRoot.createChildNode(chain);
+               for (int i = 0; i < _addressesPerChain; i++) {
+                  if (_cancelled) {
+                     return false;
+                  }
+                  if (chainRoot.createChildPublicKey(i).toAddress(_network).equals(_target)) {
+                     return true;
+                  }
+               }
+            }
+         }
+      } catch (HdKeyNode.KeyGenerationException e) {
+         // Extremely unlikely, and not the word list we are looking for
+      }
+      return false;
+   }
+
+   private static String[] toWords(int[] wordIndexes) {
+      String[] words = new String[wordIndexes.length];
+      for (int i = 0; i < words.length; i++) {
+         words[i] = Bip39.ENGLISH_WORD_LIST[wordIndexes[i]];
+      }
+      return words;
+   }
+
+   /**
+    * A numbered set of candidate word lists
+    */
+   private interface CandidateSpace {
+      int size();
+
+      /**
+       * The number of words of every candidate
+       */
+      int length();
+
+      /**
+       * Write the word indexes of a candidate
+       *
+       * @return false if the candidate is to be skipped
+       */
+      boolean get(int candidate, int[] wordIndexes);
+   }
+
+   /**
+    * Every word of the word list at one position, or at every position if the
+    * position is unknown
+    */
+   private static class MissingWordSpace implements CandidateSpace {
+      private final int[] _known;
+      private final int _position;
+
+      /**
+       * @param known    the word indexes, one of them missing
+       * @param position the position of the missing word
+       */
+      private MissingWordSpace(int[] known, int position) {
+         _known = known;
+         _position = position;
+      }
+
+      /**
+       * @param known the word indexes without the missing word
+       */
+      private MissingWordSpace(int[] known) {
+         _known = known;
+         _position = -1;
+      }
+
+      @Override
+      public int size() {
+         int positions = _position == -1 ? _known.length + 1 : 1;
+         return positions * Bip39.ENGLISH_WORD_LIST.length;
+      }
+
+      @Override
+      public int length() {
+         return _position == -1 ? _known.length + 1 : _known.length;
+      }
+
+      @Override
+      public boolean get(int candidate, int[] wordIndexes) {
+         int word = candidate % Bip39.ENGLISH_WORD_LIST.length;
+         if (_position != -1) {
+            System.arraycopy(_known, 0, wordIndexes, 0, _known.length);
+            wordIndexes[_position] = word;
+            return true;
+         }
+         int position = candidate / Bip39.ENGLISH_WORD_LIST.length;
+         if (position > 0 && _known[position - 1] == word) {
+            // Same list as inserting the word one position earlier
+            return false;
+         }
+         System.arraycopy(_known, 0, wordIndexes, 0, position);
+         wordIndexes[position] = word;
+         System.arraycopy(_known, position, wordIndexes, position + 1, _known.length - position);
+         return true;
+      }
+   }
+
+   /**
+    * The word list with every pair of different words swapped
+    */
+   private static class SwappedWordsSpace implements CandidateSpace {
+      private final int[] _known;
+
+      private SwappedWordsSpace(int[] known) {
+         _known = known;
+      }
+
+      @Override
+      public int size() {
+         return _known.length * _known.length;
+      }
+
+      @Override
+      public int length() {
+         return _known.length;
+      }
+
+      @Override
+      public boolean get(int candidate, int[] wordIndexes) {
+         int first = candidate / _known.length;
+         int second = candidate % _known.length;
+         if (first >= second || _known[first] == _known[second]) {
+            return false;
+         }
+         System.arraycopy(_known, 0, wordIndexes, 0, _known.length);
+         wordIndexes[first] = _known[second];
+         wordIndexes[second] = _known[first];
+         return true;
+      }
+   }
+}
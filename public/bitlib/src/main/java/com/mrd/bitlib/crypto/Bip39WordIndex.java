@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib.crypto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An index over a BIP39 word list, built once, for looking up words, completing
+ * prefixes and suggesting corrections for typos.
+ * <p/>
+ * Suggestions use a deletion index: every word is stored under itself and
+ * under each string obtained by deleting one of its characters. A typo within
+ * one edit (insertion, deletion, substitution or swap of neighbouring
+ * characters) of a word shares at least one of these keys with it, so only a
+ * handful of candidates need to be compared.
+ */
+public class Bip39WordIndex {
+
+   private static final int[] NO_WORDS = new int[0];
+
+   private final String[] _words;
+   private final Map<String, Integer> _indexes;
+   // Word indexes in alphabetical order of their words, and those words
+   private final int[] _sortedIndexes;
+   private final String[] _sortedWords;
+   private final Map<String, int[]> _deletions;
+
+   public Bip39WordIndex(String[] words) {
+      _words = words.clone();
+      _indexes = new HashMap<String, Integer>(words.length * 2);
+      for (int i = 0; i < words.length; i++) {
+         _indexes.put(words[i], i);
+      }
+
+      Integer[] sorted = new Integer[words.length];
+      for (int i = 0; i < sorted.length; i++) {
+         sorted[i] = i;
+      }
+      Arrays.sort(sorted, new Comparator<Integer>() {
+         @Override
+         public int compare(Integer a, Integer b) {
+            return _words[a].compareTo(_words[b]);
+         }
+      });
+      _sortedIndexes = new int[sorted.length];
+      _sortedWords = new String[sorted.length];
+      for (int i = 0; i < sorted.length; i++) {
+         _sortedIndexes[i] = sorted[i];
+         _sortedWords[i] = words[sorted[i]];
+      }
+
+      Map<String, List<Integer>> deletions = new HashMap<String, List<Integer>>();
+      for (int i = 0; i < words.length; i++) {
+         for (String key : deletionKeys(words[i])) {
+            List<Integer> list = deletions.get(key);
+            if (list == null) {
+               list = new ArrayList<Integer>(1);
+               deletions.put(key, list);
+            }
+            if (!list.contains(i)) {
+               list.add(i);
+            }
+         }
+      }
+      _deletions = new HashMap<String, int[]>(deletions.size() * 2);
+      for (Map.Entry<String, List<Integer>> entry : deletions.entrySet()) {
+         List<Integer> list = entry.getValue();
+         int[] array = new int[list.size()];
+         for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+         }
+         _deletions.put(entry.getKey(), array);
+      }
+   }
+
+   /**
+    * The string itself followed by every string obtained by deleting one
+    * character
+    */
+   private static List<String> deletionKeys(String word) {
+      List<String> keys = new ArrayList<String>(word.length() + 1);
+      keys.add(word);
+      for (int i = 0; i < word.length(); i++) {
+         keys.add(word.substring(0, i) + word.substring(i + 1));
+      }
+      return keys;
+   }
+
+   public int size() {
+      return _words.length;
+   }
+
+   public String getWord(int index) {
+      return _words[index];
+   }
+
+   /**
+    * Get the index of a word
+    *
+    * @return the index, or -1 if the word is not in the list
+    */
+   public int indexOf(String word) {
+      Integer index = _indexes.get(word);
+      return index == null ? -1 : index;
+   }
+
+   public boolean contains(String word) {
+      return _indexes.containsKey(word);
+   }
+
+   /**
+    * Get the words starting with a prefix in alphabetical order
+    *
+    * @param prefix         the prefix
+    * @param maxCompletions the maximum number of words to return
+    */
+   public List<String> complete(String prefix, int maxCompletions) {
+      int start = Arrays.binarySearch(_sortedWords, prefix);
+      if (start < 0) {
+         start = -start - 1;
+      }
+      List<String> completions = new ArrayList<String>(Math.min(maxCompletions, 16));
+      for (int i = start; i < _sortedWords.length && completions.size() < maxCompletions; i++) {
+         if (!_sortedWords[i].startsWith(prefix)) {
+            break;
+         }
+         completions.add(_sortedWords[i]);
+      }
+      return completions;
+   }
+
+   /**
+    * Get the words which are one edit away from a string: one character
+    * inserted, deleted or replaced, or two neighbouring characters swapped.
+    * Words are ordered by their index. A word in the list is not a suggestion
+    * for itself.
+    *
+    * @param typo           the misspelled word
+    * @param maxSuggestions the maximum number of words to return
+    */
+   public List<String> suggest(String typo, int maxSuggestions) {
+      List<Integer> candidates = new ArrayList<Integer>();
+      for (String key : deletionKeys(typo)) {
+         int[] indexes = _deletions.get(key);
+         for (int index : indexes == null ? NO_WORDS : indexes) {
+            if (!candidates.contains(index) && !_words[index].equals(typo)
+                  && isOneEditAway(typo, _words[index])) {
+               candidates.add(index);
+            }
+         }
+      }
+      int[] sorted = new int[candidates.size()];
+      for (int i = 0; i < sorted.length; i++) {
+         sorted[i] = candidates.get(i);
+      }
+      Arrays.sort(sorted);
+      List<String> suggestions = new ArrayList<String>(Math.min(sorted.length, maxSuggestions));
+      for (int i = 0; i < sorted.length && suggestions.size() < maxSuggestions; i++) {
+         suggestions.add(_words[sorted[i]]);
+      }
+      return suggestions;
+   }
+
+   /**
+    * Check whether two different strings are one insertion, deletion,
+    * substitution or swap of neighbouring characters apart
+    */
+   static boolean isOneEditAway(String a, String b) {
+      int lengthA = a.length();
+      int lengthB = b.length();
+      if (Math.abs(lengthA - lengthB) > 1) {
+         return false;
+      }
+      if (lengthA < lengthB) {
+         return isOneEditAway(b, a);
+      }
+      // Skip the common prefix
+      int i = 0;
+      while (i < lengthB && a.charAt(i) == b.charAt(i)) {
+         i++;
+      }
+      if (lengthA > lengthB) {
+         // One character of a deleted
+         return a.regionMatches(i + 1, b, i, lengthB - i);
+      }
+      if (i == lengthA) {
+         // Equal
+         return false;
+      }
+      // Replaced, or swapped with the next one
+      if (a.regionMatches(i + 1, b, i + 1, lengthA - i - 1)) {
+         return true;
+      }
+      return i + 1 < lengthA && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+            && a.regionMatches(i + 2, b, i + 2, lengthA - i - 2);
+   }
+}
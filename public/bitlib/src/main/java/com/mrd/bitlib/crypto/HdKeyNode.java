@@ -265,7 +265,8 @@ public class HdKeyNode {
          InMemoryPrivateKey key = new InMemoryPrivateKey(privateKeyBytes, true);
          return new HdKeyNode(key, lR, _depth + 1, getFingerprint(), index);
       } else {
-         Point q = Parameters.G.multiply(m).add(Parameters.curve.decodePoint(_publicKey.getPublicKeyBytes()));
+         // The public key caches its decoded point, so deriving many children only decompresses it once
+         Point q = Parameters.G.multiply(m).add(_publicKey.getQ());
          if (q.isInfinity()) {
             throw new KeyGenerationException("An unlikely thing happened: Invalid key point at infinity");
          }
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib.crypto;
+
+import com.google.common.base.Preconditions;
+import com.mrd.bitlib.util.HashUtils;
+
+/**
+ * PBKDF2 (RFC 2898) with HMAC-SHA512, as used by BIP39 to turn a mnemonic
+ * into a seed.
+ * <p/>
+ * Instead of running every iteration through a generic {@link javax.crypto.Mac}
+ * the SHA-512 states after the inner and outer key pads are calculated once.
+ * Each iteration then costs exactly two SHA-512 compressions on 64 bit words,
+ * without allocating anything.
+ */
+public class Pbkdf2HmacSha512 {
+
+   private static final int BLOCK_SIZE = 128;
+   private static final int HASH_LENGTH = 64;
+   private static final int HASH_WORDS = HASH_LENGTH / 8;
+
+   // The length in bits of a key pad block followed by a hash
+   private static final long PAD_AND_HASH_BITS = (BLOCK_SIZE + HASH_LENGTH) * 8;
+
+   private static final long[] IV = {
+         0x6a09e667f3bcc908L, 0xbb67ae8584caa73bL, 0x3c6ef372fe94f82bL, 0xa54ff53a5f1d36f1L,
+         0x510e527fade682d1L, 0x9b05688c2b3e6c1fL, 0x1f83d9abfb41bd6bL, 0x5be0cd19137e2179L
+   };
+
+   private static final long[] K = {
+         0x428a2f98d728ae22L, 0x7137449123ef65cdL, 0xb5c0fbcfec4d3b2fL, 0xe9b5dba58189dbbcL, 0x3956c25bf348b538L,
+         0x59f111f1b605d019L, 0x923f82a4af194f9bL, 0xab1c5ed5da6d8118L, 0xd807aa98a3030242L, 0x12835b0145706fbeL,
+         0x243185be4ee4b28cL, 0x550c7dc3d5ffb4e2L, 0x72be5d74f27b896fL, 0x80deb1fe3b1696b1L, 0x9bdc06a725c71235L,
+         0xc19bf174cf692694L, 0xe49b69c19ef14ad2L, 0xefbe4786384f25e3L, 0x0fc19dc68b8cd5b5L, 0x240ca1cc77ac9c65L,
+         0x2de92c6f592b0275L, 0x4a7484aa6ea6e483L, 0x5cb0a9dcbd41fbd4L, 0x76f988da831153b5L, 0x983e5152ee66dfabL,
+         0xa831c66d2db43210L, 0xb00327c898fb213fL, 0xbf597fc7beef0ee4L, 0xc6e00bf33da88fc2L, 0xd5a79147930aa725L,
+         0x06ca6351e003826fL, 0x142929670a0e6e70L, 0x27b70a8546d22ffcL, 0x2e1b21385c26c926L, 0x4d2c6dfc5ac42aedL,
+         0x53380d139d95b3dfL, 0x650a73548baf63deL, 0x766a0abb3c77b2a8L, 0x81c2c92e47edaee6L, 0x92722c851482353bL,
+         0xa2bfe8a14cf10364L, 0xa81a664bbc423001L, 0xc24b8b70d0f89791L, 0xc76c51a30654be30L, 0xd192e819d6ef5218L,
+         0xd69906245565a910L, 0xf40e35855771202aL, 0x106aa07032bbd1b8L, 0x19a4c116b8d2d0c8L, 0x1e376c085141ab53L,
+         0x2748774cdf8eeb99L, 0x34b0bcb5e19b48a8L, 0x391c0cb3c5c95a63L, 0x4ed8aa4ae3418acbL, 0x5b9cca4f7763e373L,
+         0x682e6ff3d6b2b8a3L, 0x748f82ee5defb2fcL, 0x78a5636f43172f60L, 0x84c87814a1f0ab72L, 0x8cc702081a6439ecL,
+         0x90befffa23631e28L, 0xa4506cebde82bde9L, 0xbef9a3f7b2c67915L, 0xc67178f2e372532bL, 0xca273eceea26619cL,
+         0xd186b8c721c0c207L, 0xeada7dd6cde0eb1eL, 0xf57d4f7fee6ed178L, 0x06f067aa72176fbaL, 0x0a637dc5a2c898a6L,
+         0x113f9804bef90daeL, 0x1b710b35131c471bL, 0x28db77f523047d84L, 0x32caab7b40c72493L, 0x3c9ebe0a15c9bebcL,
+         0x431d67c49c100d4cL, 0x4cc5d4becb3e42b6L, 0x597f299cfc657e2aL, 0x5fcb6fab3ad6faecL, 0x6c44198c4a475817L
+   };
+
+   private Pbkdf2HmacSha512() {
+   }
+
+   /**
+    * Derive a key from a password
+    *
+    * @param password   the password, used as the HMAC key
+    * @param salt       the salt
+    * @param iterations the number of iterations, at least 1
+    * @param keyLength  the length of the derived key in bytes
+    * @return the derived key
+    */
+   public static byte[] derive(byte[] password, byte[] salt, int iterations, int keyLength) {
+      Preconditions.checkArgument(iterations > 0, "At least one iteration is needed");
+      Preconditions.checkArgument(keyLength >= 0, "The key length cannot be negative");
+
+      // Bring the key to the block size
+      byte[] key = new byte[BLOCK_SIZE];
+      if (password.length > BLOCK_SIZE) {
+         System.arraycopy(HashUtils.sha512(password).getBytes(), 0, key, 0, HASH_LENGTH);
+      } else {
+         System.arraycopy(password, 0, key, 0, password.length);
+      }
+
+      // The states after hashing the inner and outer key pads
+      long[] w = new long[80];
+      long[] innerPad = IV.clone();
+      long[] outerPad = IV.clone();
+      for (int i = 0; i < BLOCK_SIZE / 8; i++) {
+         w[i] = readLong(key, i * 8) ^ 0x3636363636363636L;
+      }
+      compress(innerPad, w);
+      for (int i = 0; i < BLOCK_SIZE / 8; i++) {
+         w[i] = readLong(key, i * 8) ^ 0x5c5c5c5c5c5c5c5cL;
+      }
+      compress(outerPad, w);
+
+      byte[] result = new byte[keyLength];
+      byte[] block = new byte[salt.length + 4];
+      System.arraycopy(salt, 0, block, 0, salt.length);
+      long[] state = new long[HASH_WORDS];
+      long[] u = new long[HASH_WORDS];
+      long[] t = new long[HASH_WORDS];
+      int blocks = (keyLength + HASH_LENGTH - 1) / HASH_LENGTH;
+      for (int i = 1; i <= blocks; i++) {
+         block[salt.length] = (byte) (i >>> 24);
+         block[salt.length + 1] = (byte) (i >>> 16);
+         block[salt.length + 2] = (byte) (i >>> 8);
+         block[salt.length + 3] = (byte) i;
+
+         // U1 = HMAC(password, salt || INT(i))
+         System.arraycopy(innerPad, 0, state, 0, HASH_WORDS);
+         hashMessage(state, block, w);
+         System.arraycopy(state, 0, u, 0, HASH_WORDS);
+         hashAfterPad(outerPad, u, state, w);
+         System.arraycopy(state, 0, u, 0, HASH_WORDS);
+         System.arraycopy(u, 0, t, 0, HASH_WORDS);
+
+         // Uj = HMAC(password, Uj-1)
+         for (int j = 1; j < iterations; j++) {
+            hashAfterPad(innerPad, u, state, w);
+            hashAfterPad(outerPad, state, u, w);
+            for (int k = 0; k < HASH_WORDS; k++) {
+               t[k] ^= u[k];
+            }
+         }
+
+         int offset = (i - 1) * HASH_LENGTH;
+         for (int k = 0; k < HASH_WORDS; k++) {
+            writeLong(t[k], result, offset + k * 8, keyLength);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Hash a 64 byte message given the state after a key pad block
+    */
+   private static void hashAfterPad(long[] pad, long[] message, long[] out, long[] w) {
+      System.arraycopy(message, 0, w, 0, HASH_WORDS);
+      w[8] = 0x8000000000000000L;
+      for (int i = 9; i < 15; i++) {
+         w[i] = 0;
+      }
+      w[15] = PAD_AND_HASH_BITS;
+      System.arraycopy(pad, 0, out, 0, HASH_WORDS);
+      compress(out, w);
+   }
+
+   /**
+    * Hash a message of any length given the state after a key pad block
+    */
+   private static void hashMessage(long[] state, byte[] message, long[] w) {
+      long bits = (BLOCK_SIZE + (long) message.length) * 8;
+      // The message, the 0x80 byte and the 16 byte length, padded to blocks
+      int paddedLength = ((message.length + 1 + 16 + BLOCK_SIZE - 1) / BLOCK_SIZE) * BLOCK_SIZE;
+      byte[] padded = new byte[paddedLength];
+      System.arraycopy(message, 0, padded, 0, message.length);
+      padded[message.length] = (byte) 0x80;
+      writeLong(bits, padded, paddedLength - 8, paddedLength);
+      for (int offset = 0; offset < paddedLength; offset += BLOCK_SIZE) {
+         for (int i = 0; i < 16; i++) {
+            w[i] = readLong(padded, offset + i * 8);
+         }
+         compress(state, w);
+      }
+   }
+
+   /**
+    * The SHA-512 compression function. The first 16 words of w hold the block,
+    * the rest is used for the message schedule.
+    */
+   private static void compress(long[] state, long[] w) {
+      for (int i = 16; i < 80; i++) {
+         long w15 = w[i - 15];
+         long w2 = w[i - 2];
+         long s0 = Long.rotateRight(w15, 1) ^ Long.rotateRight(w15, 8) ^ (w15 >>> 7);
+         long s1 = Long.rotateRight(w2, 19) ^ Long.rotateRight(w2, 61) ^ (w2 >>> 6);
+         w[i] = w[i - 16] + s0 + w[i - 7] + s1;
+      }
+      long a = state[0];
+      long b = state[1];
+      long c = state[2];
+      long d = state[3];
+      long e = state[4];
+      long f = state[5];
+      long g = state[6];
+      long h = state[7];
+      for (int i = 0; i < 80; i++) {
+         long s1 = Long.rotateRight(e, 14) ^ Long.rotateRight(e, 18) ^ Long.rotateRight(e, 41);
+         long ch = (e & f) ^ (~e & g);
+         long t1 = h + s1 + ch + K[i] + w[i];
+         long s0 = Long.rotateRight(a, 28) ^ Long.rotateRight(a, 34) ^ Long.rotateRight(a, 39);
+         long maj = (a & b) ^ (a & c) ^ (b & c);
+         long t2 = s0 + maj;
+         h = g;
+         g = f;
+         f = e;
+         e = d + t1;
+         d = c;
+         c = b;
+         b = a;
+         a = t1 + t2;
+      }
+      state[0] += a;
+      state[1] += b;
+      state[2] += c;
+      state[3] += d;
+      state[4] += e;
+      state[5] += f;
+      state[6] += g;
+      state[7] += h;
+   }
+
+   private static long readLong(byte[] bytes, int offset) {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+         value = (value << 8) | (bytes[offset + i] & 0xff);
+      }
+      return value;
+   }
+
+   /**
+    * Write a long in big endian byte order, leaving out the bytes at or after
+    * limit
+    */
+   private static void writeLong(long value, byte[] bytes, int offset, int limit) {
+      for (int i = 0; i < 8 && offset + i < limit; i++) {
+         bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+      }
+   }
+}
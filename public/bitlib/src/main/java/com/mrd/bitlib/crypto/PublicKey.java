@@ -34,7 +34,8 @@ public class PublicKey implements Serializable {
 
    private final byte[] _pubKeyBytes;
    private byte[] _pubKeyHash;
-   private Point _Q;
+   // Decoded lazily, volatile as HD key nodes derive children from the same key on several threads
+   private volatile Point _Q;
 
    public PublicKey(byte[] publicKeyBytes) {
       _pubKeyBytes = publicKeyBytes;
@@ -20,13 +20,17 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.mrd.bitlib.crypto.ec.EcTools;
 import com.mrd.bitlib.crypto.ec.Parameters;
 import com.mrd.bitlib.crypto.ec.Point;
+import com.mrd.bitlib.model.CompactInt;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.Sha256Hash;
 
 public class Signatures {
 
@@ -41,6 +45,15 @@ public class Signatures {
       }
       SIGNING_HEADER = standardSigningHeader();
    }
+
+   /**
+    * SHA-256 with the signing header already fed in. It is only ever cloned,
+    * so it can be shared between threads.
+    */
+   private static final MessageDigest SIGNING_HEADER_DIGEST = createSha256();
+   static {
+      SIGNING_HEADER_DIGEST.update(SIGNING_HEADER);
+   }
    
     public static Signature decodeSignatureParameters(ByteReader reader) {
         byte[][] bytes = decodeSignatureParameterBytes(reader);
@@ -139,7 +152,7 @@ public class Signatures {
       return v.equals(r);
    }
 
-   private static BigInteger calculateE(BigInteger n, byte[] message) {
+   static BigInteger calculateE(BigInteger n, byte[] message) {
       if (n.bitLength() > message.length * 8) {
          return new BigInteger(1, message);
       } else {
@@ -169,6 +182,42 @@ public class Signatures {
       return writer.toBytes();
    }
 
+   /**
+    * Calculate the double SHA-256 of {@link #formatMessageForSigning}, which
+    * is what gets signed for a message. The formatted message is not
+    * assembled, the message is hashed on top of the hash state of the signing
+    * header.
+    */
+   static Sha256Hash hashMessageForSigning(String message) {
+      byte[] messageBytes;
+      try {
+         messageBytes = message.getBytes("UTF-8");
+      } catch (UnsupportedEncodingException e) {
+         throw new RuntimeException(e);
+      }
+      MessageDigest digest;
+      try {
+         digest = (MessageDigest) SIGNING_HEADER_DIGEST.clone();
+      } catch (CloneNotSupportedException e) {
+         // Not every provider can clone its state, hash the header again
+         digest = createSha256();
+         digest.update(SIGNING_HEADER);
+      }
+      // Keep the length of formatMessageForSigning, even though it counts
+      // characters rather than bytes
+      digest.update(CompactInt.toBytes(message.length()));
+      digest.update(messageBytes);
+      return new Sha256Hash(digest.digest(digest.digest()));
+   }
+
+   private static MessageDigest createSha256() {
+      try {
+         return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         throw new RuntimeException(e);
+      }
+   }
+
    private static byte[] standardSigningHeader() {
       ByteArrayOutputStream bos1 = new ByteArrayOutputStream();
       bos1.write(HEADER.length);
@@ -24,7 +24,6 @@ import com.mrd.bitlib.crypto.ec.Parameters;
 import com.mrd.bitlib.crypto.ec.Point;
 import com.mrd.bitlib.model.Address;
 import com.mrd.bitlib.util.BitUtils;
-import com.mrd.bitlib.util.HashUtils;
 import com.mrd.bitlib.util.Sha256Hash;
 
 import java.io.Serializable;
@@ -51,6 +50,16 @@ public class SignedMessage implements Serializable {
 
    public static SignedMessage validate(Address address, String message, String signatureBase64)
          throws WrongSignatureException {
+      SignedMessage signed = recover(message, signatureBase64);
+      validateAddressMatches(address, signed.publicKey);
+      return signed;
+   }
+
+   /**
+    * Recover the public key which made a message signature together with the
+    * signature itself, without checking it against an address
+    */
+   static SignedMessage recover(String message, String signatureBase64) throws WrongSignatureException {
       final byte[] signatureEncoded = Base64.decode(signatureBase64);
       if (signatureEncoded == null) {
          // Invalid or truncated base64
@@ -58,7 +67,6 @@ public class SignedMessage implements Serializable {
       }
       final Signature sig = decodeSignature(signatureEncoded);
       final RecoveryInfo info = recoverFromSignature(message, signatureEncoded, sig);
-      validateAddressMatches(address, info.publicKey);
       return new SignedMessage(sig, info.publicKey, info.recId);
    }
 
@@ -83,11 +91,10 @@ public class SignedMessage implements Serializable {
       if (header < 27 || header > 34)
          throw new WrongSignatureException("Header byte out of range: " + header);
 
-      byte[] messageBytes = Signatures.formatMessageForSigning(message);
       // Note that the C++ code doesn't actually seem to specify any character
       // encoding. Presumably it's whatever
       // JSON-SPIRIT hands back. Assume UTF-8 for now.
-      Sha256Hash messageHash = HashUtils.doubleSha256(messageBytes);
+      Sha256Hash messageHash = Signatures.hashMessageForSigning(message);
       boolean compressed = false;
       if (header >= 31) {
          compressed = true;
@@ -156,6 +163,10 @@ public class SignedMessage implements Serializable {
       // 1.1 Let x = r + jn
 
       BigInteger n = Parameters.n; // Curve order.
+      if (sig.r.signum() == 0 || sig.r.compareTo(n) >= 0 || sig.s.signum() == 0 || sig.s.compareTo(n) >= 0) {
+         // Not a valid signature for any key, and r has no inverse
+         return null;
+      }
       BigInteger i = BigInteger.valueOf((long) recId / 2);
       BigInteger x = sig.r.add(i.multiply(n));
       // 1.2. Convert the integer x to an octet string X of length mlen using
@@ -182,11 +193,17 @@ public class SignedMessage implements Serializable {
       // Compressed keys require you to know an extra bit of data about the
       // y-coord as there are two possibilities.
       // So it's encoded in the recId.
-      Point R = EcTools.decompressKey(x, (recId & 1) == 1);
+      Point R;
+      try {
+         R = EcTools.decompressKey(x, (recId & 1) == 1);
+      } catch (RuntimeException e) {
+         // x is not the x coordinate of a point on the curve
+         return null;
+      }
       // 1.4. If nR != point at infinity, then do another iteration of Step 1
       // (callers responsibility).
-      if (!R.multiply(n).isInfinity())
-         return null;
+      // The cofactor of secp256k1 is 1, so every point on the curve has order
+      // n, and the check is skipped as it costs a full multiplication.
       // 1.5. Compute e from M using Steps 2 and 3 of ECDSA signature
       // verification.
       BigInteger e = new BigInteger(1, message.getBytes());
@@ -21,6 +21,10 @@
 package com.mrd.bitlib.crypto.ec;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
 
 /**
  * Various tools for elliptic curves
@@ -57,51 +61,286 @@ public class EcTools {
    }
 
    /**
-    * Multiply a point with a big integer
+    * The window width used for the wNAF representation of scalars multiplied
+    * with arbitrary points
     */
-   public static Point multiply(Point p, BigInteger k) {
-      BigInteger e = k;
-      BigInteger h = e.multiply(BigInteger.valueOf(3));
+   private static final int WNAF_WIDTH = 5;
+
+   /**
+    * The window width used for the generator in {@link #sumOfMultiplies},
+    * whose odd multiples are computed once
+    */
+   private static final int GENERATOR_WNAF_WIDTH = 7;
 
-      Point neg = p.negate();
-      Point R = p;
+   /**
+    * The number of bits per window in the fixed-base table of the generator
+    */
+   private static final int FIXED_BASE_WINDOW_BITS = 4;
+
+   /**
+    * Precomputed tables for the generator point, created on first use
+    */
+   private static class GeneratorTables {
 
-      for (int i = h.bitLength() - 2; i > 0; --i) {
-         R = R.twice();
+      /**
+       * FIXED_BASE[i][j] = (j + 1) * 16^i * G, normalized to Z = 1. This lets
+       * us compute k * G with one mixed addition per 4 bits of k and no
+       * doublings.
+       */
+      private static final JacobianPoint[][] FIXED_BASE;
 
-         boolean hBit = h.testBit(i);
-         boolean eBit = e.testBit(i);
+      /**
+       * The odd multiples of G used for the interleaved wNAF in
+       * {@link #sumOfMultiplies}
+       */
+      private static final OddMultiples ODD_MULTIPLES;
+
+      static {
+         int windowSize = 1 << FIXED_BASE_WINDOW_BITS;
+         int windows = (Parameters.n.bitLength() + FIXED_BASE_WINDOW_BITS - 1) / FIXED_BASE_WINDOW_BITS;
+         JacobianPoint[] all = new JacobianPoint[windows * (windowSize - 1)];
+         JacobianPoint base = JacobianPoint.fromPoint(Parameters.G);
+         for (int i = 0; i < windows; i++) {
+            JacobianPoint p = base;
+            for (int j = 0; j < windowSize - 1; j++) {
+               all[i * (windowSize - 1) + j] = p;
+               p = p.add(base);
+            }
+            // p is now 16 * base
+            base = p;
+         }
+         all = JacobianPoint.normalize(all);
+         FIXED_BASE = new JacobianPoint[windows][];
+         for (int i = 0; i < windows; i++) {
+            FIXED_BASE[i] = new JacobianPoint[windowSize - 1];
+            System.arraycopy(all, i * (windowSize - 1), FIXED_BASE[i], 0, windowSize - 1);
+         }
+         ODD_MULTIPLES = new OddMultiples(JacobianPoint.normalize(oddMultiples(
+               JacobianPoint.fromPoint(Parameters.G), GENERATOR_WNAF_WIDTH)), GENERATOR_WNAF_WIDTH);
+      }
+   }
+
+   /**
+    * The odd multiples P, 3P, 5P, ... of a point and their negations, as
+    * needed for adding the digits of a wNAF
+    */
+   private static class OddMultiples {
+      private final int width;
+      private final JacobianPoint[] positive;
+      private final JacobianPoint[] negative;
+
+      /**
+       * @param positive the normalized odd multiples of the point
+       * @param width    the wNAF window width the multiples are meant for
+       */
+      private OddMultiples(JacobianPoint[] positive, int width) {
+         this.width = width;
+         this.positive = positive;
+         negative = new JacobianPoint[positive.length];
+         for (int i = 0; i < positive.length; i++) {
+            negative[i] = positive[i].negate();
+         }
+      }
+
+      private JacobianPoint addDigit(JacobianPoint r, int digit) {
+         if (digit > 0) {
+            return r.addAffine(positive[digit >> 1]);
+         } else {
+            return r.addAffine(negative[(-digit) >> 1]);
+         }
+      }
+   }
+
+   /**
+    * Get P, 3P, ..., (2^(w-1) - 1)P in Jacobian coordinates
+    */
+   private static JacobianPoint[] oddMultiples(JacobianPoint p, int width) {
+      JacobianPoint[] points = new JacobianPoint[1 << (width - 2)];
+      JacobianPoint twice = p.twice();
+      points[0] = p;
+      for (int i = 1; i < points.length; i++) {
+         points[i] = points[i - 1].add(twice);
+      }
+      return points;
+   }
+
+   /**
+    * Get the width-w non-adjacent form of a non-negative number. Digit i is
+    * the coefficient of 2^i, and is either zero or odd with an absolute value
+    * below 2^(w-1).
+    */
+   static byte[] wnaf(BigInteger k, int width) {
+      byte[] digits = new byte[k.bitLength() + 1];
+      int pow2 = 1 << width;
+      int mask = pow2 - 1;
+      int sign = pow2 >>> 1;
+      boolean carry = false;
+      int offset = 0;
+      int pos = 0;
+      while (pos <= k.bitLength()) {
+         if (k.testBit(pos) == carry) {
+            pos++;
+            continue;
+         }
+         k = k.shiftRight(pos);
+         offset += pos;
+         int digit = k.intValue() & mask;
+         if (carry) {
+            digit++;
+         }
+         carry = (digit & sign) != 0;
+         if (carry) {
+            digit -= pow2;
+         }
+         digits[offset] = (byte) digit;
+         pos = width;
+      }
+      return digits;
+   }
 
-         if (hBit != eBit) {
-            R = R.add(hBit ? p : neg);
+   /**
+    * Multiply a point with a big integer.
+    * <p/>
+    * The generator point is multiplied using a precomputed table, any other
+    * point using its wNAF representation. The point must be on the secp256k1
+    * curve, and the result is returned uncompressed.
+    */
+   public static Point multiply(Point p, BigInteger k) {
+      Curve curve = p.getCurve();
+      if (k.signum() == 0 || p.isInfinity()) {
+         return curve.getInfinity();
+      }
+      if (k.signum() < 0) {
+         return multiply(p.negate(), k.negate());
+      }
+      if (p.equals(Parameters.G)) {
+         return multiplyGenerator(k).toPoint(curve);
+      }
+      OddMultiples table = new OddMultiples(JacobianPoint.normalize(oddMultiples(JacobianPoint.fromPoint(p),
+            WNAF_WIDTH)), WNAF_WIDTH);
+      byte[] digits = wnaf(k, WNAF_WIDTH);
+      JacobianPoint r = JacobianPoint.INFINITY;
+      for (int i = digits.length - 1; i >= 0; i--) {
+         r = r.twice();
+         if (digits[i] != 0) {
+            r = table.addDigit(r, digits[i]);
          }
       }
+      return r.toPoint(curve);
+   }
 
-      return R;
+   private static JacobianPoint multiplyGenerator(BigInteger k) {
+      // G has order n, so we may reduce k to fit the table
+      if (k.compareTo(Parameters.n) >= 0) {
+         k = k.mod(Parameters.n);
+      }
+      JacobianPoint[][] table = GeneratorTables.FIXED_BASE;
+      byte[] bytes = integerToBytes(k, table.length * FIXED_BASE_WINDOW_BITS / 8);
+      JacobianPoint r = JacobianPoint.INFINITY;
+      for (int i = 0; i < table.length; i++) {
+         int b = bytes[bytes.length - 1 - i / 2] & 0xFF;
+         int nibble = (i & 1) == 0 ? b & 0x0F : b >>> 4;
+         if (nibble != 0) {
+            r = r.addAffine(table[i][nibble - 1]);
+         }
+      }
+      return r;
    }
 
+   /**
+    * Calculate k * P + l * Q.
+    * <p/>
+    * See {@link #sumOfMultiplies}
+    */
    public static Point sumOfTwoMultiplies(Point P, BigInteger k, Point Q, BigInteger l) {
-      int m = Math.max(k.bitLength(), l.bitLength());
-      Point Z = P.add(Q);
-      Point R = P.getCurve().getInfinity();
-
-      for (int i = m - 1; i >= 0; --i) {
-         R = R.twice();
-
-         if (k.testBit(i)) {
-            if (l.testBit(i)) {
-               R = R.add(Z);
-            } else {
-               R = R.add(P);
-            }
-         } else {
-            if (l.testBit(i)) {
-               R = R.add(Q);
+      return sumOfMultiplies(new Point[]{P, Q}, new BigInteger[]{k, l});
+   }
+
+   /**
+    * Calculate the sum of k[i] * P[i].
+    * <p/>
+    * All multiplications share the same doublings by interleaving the wNAF
+    * representations of the scalars (Straus-Shamir), and the odd multiples
+    * of all points are normalized with a single field inversion. If one of
+    * the points is the generator its precomputed odd multiples are used. The
+    * points must be on the secp256k1 curve, and the result is returned
+    * uncompressed.
+    */
+   public static Point sumOfMultiplies(Point[] points, BigInteger[] scalars) {
+      Preconditions.checkArgument(points.length == scalars.length);
+      // Drop the terms that contribute nothing and make all scalars positive
+      List<Point> terms = new ArrayList<Point>(points.length);
+      List<BigInteger> ks = new ArrayList<BigInteger>(points.length);
+      for (int i = 0; i < points.length; i++) {
+         Point p = points[i];
+         BigInteger k = scalars[i];
+         if (p.isInfinity() || k.signum() == 0) {
+            continue;
+         }
+         if (k.signum() < 0) {
+            p = p.negate();
+            k = k.negate();
+         }
+         terms.add(p);
+         ks.add(k);
+      }
+      if (terms.isEmpty()) {
+         return Parameters.curve.getInfinity();
+      }
+      if (terms.size() == 1) {
+         return multiply(terms.get(0), ks.get(0));
+      }
+
+      OddMultiples[] tables = oddMultiplesOf(terms);
+      byte[][] digits = new byte[tables.length][];
+      int length = 0;
+      for (int i = 0; i < tables.length; i++) {
+         digits[i] = wnaf(ks.get(i), tables[i].width);
+         length = Math.max(length, digits[i].length);
+      }
+      JacobianPoint r = JacobianPoint.INFINITY;
+      for (int bit = length - 1; bit >= 0; bit--) {
+         r = r.twice();
+         for (int i = 0; i < tables.length; i++) {
+            if (bit < digits[i].length && digits[i][bit] != 0) {
+               r = tables[i].addDigit(r, digits[i][bit]);
             }
          }
       }
+      return r.toPoint(terms.get(0).getCurve());
+   }
 
-      return R;
+   /**
+    * Get the odd multiples of a list of points, normalizing all of them with
+    * a single field inversion
+    */
+   private static OddMultiples[] oddMultiplesOf(List<Point> points) {
+      int count = 1 << (WNAF_WIDTH - 2);
+      JacobianPoint[] all = new JacobianPoint[points.size() * count];
+      int used = 0;
+      for (Point p : points) {
+         if (!p.equals(Parameters.G)) {
+            System.arraycopy(oddMultiples(JacobianPoint.fromPoint(p), WNAF_WIDTH), 0, all, used, count);
+            used += count;
+         }
+      }
+      JacobianPoint[] normalized = new JacobianPoint[used];
+      System.arraycopy(all, 0, normalized, 0, used);
+      normalized = JacobianPoint.normalize(normalized);
+
+      OddMultiples[] tables = new OddMultiples[points.size()];
+      int offset = 0;
+      for (int i = 0; i < tables.length; i++) {
+         if (points.get(i).equals(Parameters.G)) {
+            tables[i] = GeneratorTables.ODD_MULTIPLES;
+         } else {
+            JacobianPoint[] positive = new JacobianPoint[count];
+            System.arraycopy(normalized, offset, positive, 0, count);
+            offset += count;
+            tables[i] = new OddMultiples(positive, WNAF_WIDTH);
+         }
+      }
+      return tables;
    }
 
    //ported from BitcoinJ
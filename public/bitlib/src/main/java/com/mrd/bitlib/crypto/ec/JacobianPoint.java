@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto.ec;
+
+import java.math.BigInteger;
+
+import static com.mrd.bitlib.crypto.ec.Secp256k1Field.*;
+
+/**
+ * A point on secp256k1 in Jacobian coordinates, where (X, Y, Z) represents the
+ * affine point (X/Z^2, Y/Z^3).
+ * <p/>
+ * Additions and doublings need no field inversion, only the conversion back
+ * to an affine {@link Point} does. The formulas assume a = 0, and are taken
+ * from the Explicit-Formulas Database (dbl-2009-l, madd-2007-bl and
+ * add-2007-bl).
+ */
+final class JacobianPoint {
+
+   static final JacobianPoint INFINITY = new JacobianPoint(BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO);
+
+   final BigInteger x;
+   final BigInteger y;
+   final BigInteger z;
+
+   private JacobianPoint(BigInteger x, BigInteger y, BigInteger z) {
+      this.x = x;
+      this.y = y;
+      this.z = z;
+   }
+
+   static JacobianPoint fromAffine(BigInteger x, BigInteger y) {
+      return new JacobianPoint(x, y, BigInteger.ONE);
+   }
+
+   static JacobianPoint fromPoint(Point p) {
+      if (p.isInfinity()) {
+         return INFINITY;
+      }
+      return fromAffine(p.getX().toBigInteger(), p.getY().toBigInteger());
+   }
+
+   boolean isInfinity() {
+      return z.signum() == 0;
+   }
+
+   JacobianPoint negate() {
+      if (isInfinity()) {
+         return this;
+      }
+      return new JacobianPoint(x, Secp256k1Field.negate(y), z);
+   }
+
+   JacobianPoint twice() {
+      if (isInfinity() || y.signum() == 0) {
+         return INFINITY;
+      }
+      BigInteger a = square(x);
+      BigInteger b = square(y);
+      BigInteger c = square(b);
+      BigInteger d = shiftLeft(subtract(subtract(square(Secp256k1Field.add(x, b)), a), c), 1);
+      BigInteger e = Secp256k1Field.add(shiftLeft(a, 1), a);
+      BigInteger f = square(e);
+      BigInteger x3 = subtract(f, shiftLeft(d, 1));
+      BigInteger y3 = subtract(multiply(e, subtract(d, x3)), shiftLeft(c, 3));
+      BigInteger z3 = shiftLeft(multiply(y, z), 1);
+      return new JacobianPoint(x3, y3, z3);
+   }
+
+   /**
+    * Add a point which has been normalized to Z = 1, see {@link #normalize}
+    */
+   JacobianPoint addAffine(JacobianPoint other) {
+      if (other.isInfinity()) {
+         return this;
+      }
+      if (isInfinity()) {
+         return other;
+      }
+      BigInteger z1z1 = square(z);
+      BigInteger u2 = multiply(other.x, z1z1);
+      BigInteger s2 = multiply(other.y, multiply(z, z1z1));
+      BigInteger h = subtract(u2, x);
+      BigInteger r = shiftLeft(subtract(s2, y), 1);
+      if (h.signum() == 0) {
+         // Same x coordinate, so the points are either equal or opposite
+         return r.signum() == 0 ? twice() : INFINITY;
+      }
+      BigInteger hh = square(h);
+      BigInteger i = shiftLeft(hh, 2);
+      BigInteger j = multiply(h, i);
+      BigInteger v = multiply(x, i);
+      BigInteger x3 = subtract(subtract(square(r), j), shiftLeft(v, 1));
+      BigInteger y3 = subtract(multiply(r, subtract(v, x3)), shiftLeft(multiply(y, j), 1));
+      BigInteger z3 = subtract(subtract(square(Secp256k1Field.add(z, h)), z1z1), hh);
+      return new JacobianPoint(x3, y3, z3);
+   }
+
+   JacobianPoint add(JacobianPoint other) {
+      if (isInfinity()) {
+         return other;
+      }
+      if (other.isInfinity()) {
+         return this;
+      }
+      BigInteger z1z1 = square(z);
+      BigInteger z2z2 = square(other.z);
+      BigInteger u1 = multiply(x, z2z2);
+      BigInteger u2 = multiply(other.x, z1z1);
+      BigInteger s1 = multiply(y, multiply(other.z, z2z2));
+      BigInteger s2 = multiply(other.y, multiply(z, z1z1));
+      BigInteger h = subtract(u2, u1);
+      BigInteger r = shiftLeft(subtract(s2, s1), 1);
+      if (h.signum() == 0) {
+         // Same x coordinate, so the points are either equal or opposite
+         return r.signum() == 0 ? twice() : INFINITY;
+      }
+      BigInteger i = square(shiftLeft(h, 1));
+      BigInteger j = multiply(h, i);
+      BigInteger v = multiply(u1, i);
+      BigInteger x3 = subtract(subtract(square(r), j), shiftLeft(v, 1));
+      BigInteger y3 = subtract(multiply(r, subtract(v, x3)), shiftLeft(multiply(s1, j), 1));
+      BigInteger z3 = multiply(subtract(subtract(square(Secp256k1Field.add(z, other.z)), z1z1), z2z2), h);
+      return new JacobianPoint(x3, y3, z3);
+   }
+
+   /**
+    * Convert to an affine point, this costs one field inversion
+    */
+   Point toPoint(Curve curve) {
+      if (isInfinity()) {
+         return curve.getInfinity();
+      }
+      BigInteger zInv = invert(z);
+      BigInteger zInv2 = square(zInv);
+      BigInteger ax = multiply(x, zInv2);
+      BigInteger ay = multiply(y, multiply(zInv2, zInv));
+      return new Point(curve, curve.fromBigInteger(ax), curve.fromBigInteger(ay));
+   }
+
+   /**
+    * Bring many points to Z = 1 using a single field inversion (Montgomery's
+    * trick). Points at infinity stay at infinity.
+    */
+   static JacobianPoint[] normalize(JacobianPoint[] points) {
+      int n = points.length;
+      JacobianPoint[] result = new JacobianPoint[n];
+      // products[i] is the product of all non-zero Z up to and including i
+      BigInteger[] products = new BigInteger[n];
+      BigInteger product = BigInteger.ONE;
+      for (int i = 0; i < n; i++) {
+         if (!points[i].isInfinity()) {
+            product = multiply(product, points[i].z);
+         }
+         products[i] = product;
+      }
+      BigInteger inverse = invert(product);
+      for (int i = n - 1; i >= 0; i--) {
+         JacobianPoint p = points[i];
+         if (p.isInfinity()) {
+            result[i] = INFINITY;
+            continue;
+         }
+         BigInteger zInv = i == 0 ? inverse : multiply(inverse, products[i - 1]);
+         inverse = multiply(inverse, p.z);
+         BigInteger zInv2 = square(zInv);
+         result[i] = fromAffine(multiply(p.x, zInv2), multiply(p.y, multiply(zInv2, zInv)));
+      }
+      return result;
+   }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.crypto.ec;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic modulo the secp256k1 field prime on plain big integers.
+ * <p/>
+ * Unlike {@link FieldElement} no wrapper objects are created, and products are
+ * reduced using the special form of the prime p = 2^256 - 2^32 - 977 instead
+ * of a generic division.
+ */
+final class Secp256k1Field {
+
+   static final BigInteger P = Parameters.curve.getQ();
+
+   private static final BigInteger MASK_256 = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+
+   // 2^256 mod p
+   private static final BigInteger C = BigInteger.valueOf(0x1000003D1L);
+
+   private Secp256k1Field() {
+   }
+
+   /**
+    * Reduce a non-negative number modulo p
+    */
+   static BigInteger reduce(BigInteger x) {
+      // Fold the bits above 2^256 back in using 2^256 = C (mod p)
+      while (x.bitLength() > 256) {
+         x = x.shiftRight(256).multiply(C).add(x.and(MASK_256));
+      }
+      if (x.compareTo(P) >= 0) {
+         x = x.subtract(P);
+      }
+      return x;
+   }
+
+   static BigInteger add(BigInteger a, BigInteger b) {
+      BigInteger r = a.add(b);
+      return r.compareTo(P) >= 0 ? r.subtract(P) : r;
+   }
+
+   static BigInteger subtract(BigInteger a, BigInteger b) {
+      BigInteger r = a.subtract(b);
+      return r.signum() < 0 ? r.add(P) : r;
+   }
+
+   static BigInteger multiply(BigInteger a, BigInteger b) {
+      return reduce(a.multiply(b));
+   }
+
+   static BigInteger square(BigInteger a) {
+      return reduce(a.multiply(a));
+   }
+
+   static BigInteger shiftLeft(BigInteger a, int n) {
+      return reduce(a.shiftLeft(n));
+   }
+
+   static BigInteger negate(BigInteger a) {
+      return a.signum() == 0 ? a : P.subtract(a);
+   }
+
+   static BigInteger invert(BigInteger a) {
+      return a.modInverse(P);
+   }
+
+}
@@ -24,8 +24,6 @@ import java.util.List;
 import com.google.bitcoinj.Base58;
 
 import com.mrd.bitlib.util.BitUtils;
-import com.mrd.bitlib.util.HashUtils;
-import com.mrd.bitlib.util.Sha256Hash;
 
 public class Address implements Serializable, Comparable<Address> {
 
@@ -73,15 +71,26 @@ public class Address implements Serializable, Comparable<Address> {
       return addr;
    }
 
+   /**
+    * Get the address for its Base58 representation. Addresses are shared
+    * through the {@link AddressCache#getDefault() default address cache}.
+    */
    public static Address fromString(String address) {
+      return AddressCache.getDefault().fromString(address);
+   }
+
+   /**
+    * Decode an address without going through the cache
+    */
+   static Address decode(String address) {
       if (address == null) {
          return null;
       }
       if (address.length() == 0) {
          return null;
       }
-      byte[] bytes = Base58.decodeChecked(address);
-      if (bytes == null || bytes.length != NUM_ADDRESS_BYTES) {
+      byte[] bytes = Base58.decodeChecked(address, NUM_ADDRESS_BYTES);
+      if (bytes == null) {
          return null;
       }
       return new Address(bytes);
@@ -174,12 +183,7 @@ public class Address implements Serializable, Comparable<Address> {
    @Override
    public String toString() {
       if (_address == null) {
-         byte[] addressBytes = new byte[1 + 20 + 4];
-         addressBytes[0] = _bytes[0];
-         System.arraycopy(_bytes, 0, addressBytes, 0, NUM_ADDRESS_BYTES);
-         Sha256Hash checkSum = HashUtils.doubleSha256(addressBytes, 0, NUM_ADDRESS_BYTES);
-         System.arraycopy(checkSum.getBytes(), 0, addressBytes, NUM_ADDRESS_BYTES, 4);
-         _address = Base58.encode(addressBytes);
+         _address = Base58.encodeWithChecksum(_bytes);
       }
       return _address;
    }
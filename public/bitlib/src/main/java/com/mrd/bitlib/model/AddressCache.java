@@ -0,0 +1,199 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib.model;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of canonical {@link Address} instances.
+ * <p/>
+ * Addresses are keyed by their 21 raw bytes and have their string
+ * representation computed when they enter the cache, so that converting the
+ * same addresses over and over again neither allocates nor Base58 encodes.
+ * Strings are mapped back to the cached addresses, which saves decoding and
+ * checking the checksum on every lookup.
+ * <p/>
+ * Instances are safe to use from several threads. The addresses handed out are
+ * shared, and the arrays returned by {@link Address#getAllAddressBytes()} must
+ * not be modified.
+ */
+public class AddressCache {
+
+   /**
+    * The number of addresses kept by the shared cache, which comfortably holds
+    * the addresses of a wallet and the addresses it transacted with
+    */
+   public static final int DEFAULT_MAXIMUM_SIZE = 4096;
+
+   private static final AddressCache DEFAULT = new AddressCache(DEFAULT_MAXIMUM_SIZE);
+
+   private final Cache<Address, Address> _byBytes;
+   private final Cache<String, Address> _byString;
+   private final AtomicLong _hits;
+   private final AtomicLong _misses;
+
+   /**
+    * Get the cache shared by {@link Address#fromString(String)} and
+    * {@link ScriptOutput#getAddress(NetworkParameters)}
+    */
+   public static AddressCache getDefault() {
+      return DEFAULT;
+   }
+
+   /**
+    * @param maximumSize the maximum number of addresses to keep, the least
+    *                    recently used ones are evicted first
+    */
+   public AddressCache(int maximumSize) {
+      Preconditions.checkArgument(maximumSize > 0);
+      _byBytes = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+      _byString = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+      _hits = new AtomicLong();
+      _misses = new AtomicLong();
+   }
+
+   /**
+    * Get the canonical instance of an address, adding it to the cache if it is
+    * not there yet
+    */
+   public Address intern(Address address) {
+      Address canonical = canonical(address);
+      (canonical == address ? _misses : _hits).incrementAndGet();
+      return canonical;
+   }
+
+   private Address canonical(Address address) {
+      Address cached = _byBytes.getIfPresent(address);
+      if (cached != null) {
+         return cached;
+      }
+      // Compute the string before other threads can see the instance
+      String string = address.toString();
+      cached = _byBytes.asMap().putIfAbsent(address, address);
+      if (cached != null) {
+         // Another thread was faster
+         return cached;
+      }
+      _byString.put(string, address);
+      return address;
+   }
+
+   /**
+    * Get the canonical address for 21 bytes of address version and hash. The
+    * bytes are copied, the caller may reuse its array.
+    */
+   public Address fromBytes(byte[] bytes) {
+      Preconditions.checkArgument(bytes.length == Address.NUM_ADDRESS_BYTES);
+      return intern(new Address(bytes.clone()));
+   }
+
+   /**
+    * Get the canonical address for a 20 byte public key hash, or null if the
+    * hash has the wrong size
+    */
+   public Address fromStandardBytes(byte[] bytes, NetworkParameters network) {
+      Address address = Address.fromStandardBytes(bytes, network);
+      return address == null ? null : intern(address);
+   }
+
+   /**
+    * Get the canonical address for a 20 byte script hash, or null if the hash
+    * has the wrong size
+    */
+   public Address fromMultisigBytes(byte[] bytes, NetworkParameters network) {
+      Address address = Address.fromMultisigBytes(bytes, network);
+      return address == null ? null : intern(address);
+   }
+
+   /**
+    * Get the canonical address for its Base58 representation
+    *
+    * @return the address, or null if the string is not a valid address
+    */
+   public Address fromString(String string) {
+      if (string == null) {
+         return null;
+      }
+      Address cached = _byString.getIfPresent(string);
+      if (cached != null) {
+         _hits.incrementAndGet();
+         return cached;
+      }
+      _misses.incrementAndGet();
+      Address address = Address.decode(string);
+      if (address == null) {
+         return null;
+      }
+      // Strings with a BOM decode fine but are not the canonical form
+      Address canonical = canonical(address);
+      if (string.equals(canonical.toString())) {
+         _byString.put(string, canonical);
+      }
+      return canonical;
+   }
+
+   public long size() {
+      return _byBytes.size();
+   }
+
+   /**
+    * Remove all addresses and reset the hit and miss counts
+    */
+   public void clear() {
+      _byBytes.invalidateAll();
+      _byString.invalidateAll();
+      _hits.set(0);
+      _misses.set(0);
+   }
+
+   /**
+    * Get the number of lookups answered from the cache, by bytes or by string
+    */
+   public long getHitCount() {
+      return _hits.get();
+   }
+
+   /**
+    * Get the number of lookups that had to create, encode or decode an address
+    */
+   public long getMissCount() {
+      return _misses.get();
+   }
+
+   /**
+    * Get the fraction of lookups answered from the cache, 1.0 if there were no
+    * lookups yet
+    */
+   public double getHitRate() {
+      long hits = _hits.get();
+      long lookups = hits + _misses.get();
+      return lookups == 0 ? 1.0 : (double) hits / lookups;
+   }
+
+   /**
+    * Get the number of addresses evicted to stay within the maximum size
+    */
+   public long getEvictionCount() {
+      return _byBytes.stats().evictionCount();
+   }
+
+}
@@ -16,6 +16,9 @@
 
 package com.mrd.bitlib.model;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
 import com.mrd.bitlib.model.Transaction.TransactionParsingException;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.ByteWriter;
@@ -40,6 +43,9 @@ public class Block {
    // The maximum size of a serialized block
    public static final int MAX_BLOCK_SIZE = 1000000;
 
+   // The size of a serialized block header
+   public static final int HEADER_SIZE = 80;
+
    // Header
    public int version;
    public Sha256Hash prevBlockHash;
@@ -66,7 +72,11 @@ public class Block {
          Transaction[] transactions = new Transaction[numTransactions];
          for (int i = 0; i < numTransactions; i++) {
             try {
+               int start = reader.getPosition();
                transactions[i] = Transaction.fromByteReader(reader);
+               // Hash the bytes we just parsed instead of serializing the transaction again later
+               transactions[i].setHash(HashUtils.doubleSha256(reader.viewBytes(start, reader.getPosition() - start))
+                     .reverse());
             } catch (TransactionParsingException e) {
                throw new BlockParsingException("Unable to parse transaction at index " + i + ": " + e.getMessage());
             }
@@ -77,6 +87,34 @@ public class Block {
       }
    }
 
+   /**
+    * Get views of the transactions of a serialized block without parsing them
+    * fully, see {@link TransactionView}. The position of the buffer is moved to
+    * the end of the block.
+    */
+   public static TransactionView[] viewTransactions(ByteBuffer buffer) throws BlockParsingException {
+      ByteBuffer b = buffer.duplicate();
+      b.order(ByteOrder.LITTLE_ENDIAN);
+      if (b.remaining() < HEADER_SIZE) {
+         throw new BlockParsingException("Unable to parse block header: insufficient bytes");
+      }
+      b.position(b.position() + HEADER_SIZE);
+      long numTransactions = CompactInt.fromByteBuffer(b);
+      if (numTransactions < 0 || numTransactions > b.remaining()) {
+         throw new BlockParsingException("Unable to parse block: invalid number of transactions");
+      }
+      TransactionView[] transactions = new TransactionView[(int) numTransactions];
+      for (int i = 0; i < transactions.length; i++) {
+         try {
+            transactions[i] = TransactionView.parse(b);
+         } catch (TransactionParsingException e) {
+            throw new BlockParsingException("Unable to parse transaction at index " + i + ": " + e.getMessage());
+         }
+      }
+      buffer.position(b.position());
+      return transactions;
+   }
+
    public Block(int version, Sha256Hash prevBlockHash, Sha256Hash merkleRoot, int time, int difficultyTargetm,
          int nonce, Transaction[] transactions) {
       this.version = version;
@@ -88,6 +126,20 @@ public class Block {
       this.transactions = transactions;
    }
 
+   /**
+    * Calculate the Merkle root of the transactions of this block
+    */
+   public Sha256Hash computeMerkleRoot() {
+      return MerkleTree.computeRoot(transactions, null);
+   }
+
+   /**
+    * Check that the Merkle root in the header matches the transactions
+    */
+   public boolean isMerkleRootValid() {
+      return transactions.length > 0 && computeMerkleRoot().equals(merkleRoot);
+   }
+
    public void toByteWriter(ByteWriter writer) {
       headerToByteWriter(writer);
       transactionsToByteWriter(writer);
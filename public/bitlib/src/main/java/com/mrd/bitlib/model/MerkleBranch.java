@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * Proves that a transaction is part of a block: the hashes needed to get
+ * from the transaction ID to the Merkle root of the block, from the bottom of
+ * the tree to the top.
+ */
+public class MerkleBranch {
+
+   private static final int HASH_LENGTH = Sha256Hash.HASH_LENGTH;
+
+   // A branch longer than this would need more transactions than fit in a block
+   private static final int MAX_DEPTH = 32;
+
+   public final Sha256Hash txid;
+   /**
+    * The position of the transaction in the block, which tells on which side
+    * of each hash of the branch the transaction is
+    */
+   public final int index;
+   public final List<Sha256Hash> hashes;
+
+   public MerkleBranch(Sha256Hash txid, int index, List<Sha256Hash> hashes) {
+      Preconditions.checkArgument(index >= 0);
+      this.txid = txid;
+      this.index = index;
+      this.hashes = Collections.unmodifiableList(new ArrayList<Sha256Hash>(hashes));
+   }
+
+   /**
+    * Calculate the Merkle root this branch leads to
+    *
+    * @return the root, or null if the index does not fit the length of the
+    *         branch
+    */
+   public Sha256Hash computeRoot() {
+      int depth = hashes.size();
+      if (depth > MAX_DEPTH || (depth < MAX_DEPTH && index >>> depth != 0)) {
+         return null;
+      }
+      // The left and right hash of the current node in internal byte order,
+      // the hash of each node replaces its own half of the buffer
+      byte[] pair = new byte[2 * HASH_LENGTH];
+      int position = index;
+      int offset = (position & 1) * HASH_LENGTH;
+      MerkleTree.toInternal(txid, pair, offset);
+      for (Sha256Hash hash : hashes) {
+         MerkleTree.toInternal(hash, pair, HASH_LENGTH - offset);
+         position >>>= 1;
+         int nextOffset = (position & 1) * HASH_LENGTH;
+         HashUtils.doubleSha256(pair, 0, pair.length, pair, nextOffset);
+         offset = nextOffset;
+      }
+      return MerkleTree.fromInternal(pair, offset / HASH_LENGTH);
+   }
+
+   /**
+    * Check that this branch leads to a Merkle root
+    */
+   public boolean verify(Sha256Hash merkleRoot) {
+      Sha256Hash root = computeRoot();
+      return root != null && root.equals(merkleRoot);
+   }
+
+   /**
+    * Check that this branch leads to the Merkle root in the header of a block
+    */
+   public boolean verify(Block block) {
+      return verify(block.merkleRoot);
+   }
+
+   @Override
+   public String toString() {
+      return "txid: " + txid + " index: " + index + " depth: " + hashes.size();
+   }
+}
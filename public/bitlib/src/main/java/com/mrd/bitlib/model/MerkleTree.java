@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Preconditions;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * Calculates the Merkle root of the transactions of a block, and Merkle
+ * branches which prove that a transaction is part of a block.
+ * <p/>
+ * Transaction IDs and roots are taken and returned in the same byte order as
+ * {@link Transaction#getHash()} and {@link Block#merkleRoot}. Like in Bitcoin
+ * the last hash of a level with an odd number of hashes is paired with
+ * itself. This means that different lists of transactions can have the same
+ * root (CVE-2012-2459), so a root alone does not tell that a list is free of
+ * duplicates.
+ */
+public class MerkleTree {
+
+   private static final int HASH_LENGTH = Sha256Hash.HASH_LENGTH;
+
+   /**
+    * Levels with fewer hashes than this are calculated on the calling thread
+    */
+   private static final int PARALLEL_THRESHOLD = 2048;
+
+   /**
+    * The number of hashes of the next level calculated in a single task
+    */
+   private static final int HASHES_PER_TASK = 512;
+
+   private MerkleTree() {
+   }
+
+   /**
+    * Calculate the Merkle root of a list of transaction IDs
+    */
+   public static Sha256Hash computeRoot(List<Sha256Hash> txids) {
+      return computeRoot(txids, null);
+   }
+
+   /**
+    * Calculate the Merkle root of a list of transaction IDs, spreading large
+    * levels of the tree over the threads of an executor
+    *
+    * @param txids    the transaction IDs in block order
+    * @param executor the executor to use, or null to use the calling thread.
+    *                 It is not shut down.
+    * @return the root of the tree
+    */
+   public static Sha256Hash computeRoot(List<Sha256Hash> txids, ExecutorService executor) {
+      Preconditions.checkArgument(!txids.isEmpty(), "A Merkle tree needs at least one transaction");
+      byte[] level = toLevel(txids);
+      int size = txids.size();
+      while (size > 1) {
+         int nextSize = (size + 1) / 2;
+         byte[] next = new byte[nextSize * HASH_LENGTH];
+         if (executor == null || nextSize < PARALLEL_THRESHOLD) {
+            hashLevel(level, size, next, 0, nextSize);
+         } else {
+            hashLevel(level, size, next, executor);
+         }
+         level = next;
+         size = nextSize;
+      }
+      return fromInternal(level, 0);
+   }
+
+   /**
+    * Calculate the Merkle root of the transactions of a block
+    */
+   public static Sha256Hash computeRoot(Transaction[] transactions, ExecutorService executor) {
+      List<Sha256Hash> txids = new ArrayList<Sha256Hash>(transactions.length);
+      for (Transaction t : transactions) {
+         txids.add(t.getHash());
+      }
+      return computeRoot(txids, executor);
+   }
+
+   /**
+    * Build the Merkle branch of a transaction
+    *
+    * @param txids the transaction IDs of a block in block order
+    * @param txid  the transaction to build the branch for
+    * @return the branch, or null if the transaction is not in the list
+    */
+   public static MerkleBranch buildBranch(List<Sha256Hash> txids, Sha256Hash txid) {
+      int index = txids.indexOf(txid);
+      if (index == -1) {
+         return null;
+      }
+      return buildBranch(txids, index);
+   }
+
+   /**
+    * Build the Merkle branch of the transaction at a position in a block
+    */
+   public static MerkleBranch buildBranch(List<Sha256Hash> txids, int index) {
+      Preconditions.checkElementIndex(index, txids.size());
+      byte[] level = toLevel(txids);
+      int size = txids.size();
+      int position = index;
+      List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+      while (size > 1) {
+         int sibling = Math.min(position ^ 1, size - 1);
+         hashes.add(fromInternal(level, sibling));
+         int nextSize = (size + 1) / 2;
+         byte[] next = new byte[nextSize * HASH_LENGTH];
+         hashLevel(level, size, next, 0, nextSize);
+         level = next;
+         size = nextSize;
+         position >>= 1;
+      }
+      return new MerkleBranch(txids.get(index), index, hashes);
+   }
+
+   /**
+    * Put the transaction IDs after each other in internal byte order
+    */
+   private static byte[] toLevel(List<Sha256Hash> txids) {
+      byte[] level = new byte[txids.size() * HASH_LENGTH];
+      int offset = 0;
+      for (Sha256Hash txid : txids) {
+         toInternal(txid, level, offset);
+         offset += HASH_LENGTH;
+      }
+      return level;
+   }
+
+   static void toInternal(Sha256Hash hash, byte[] out, int offset) {
+      byte[] bytes = hash.getBytes();
+      for (int i = 0; i < HASH_LENGTH; i++) {
+         out[offset + i] = bytes[HASH_LENGTH - 1 - i];
+      }
+   }
+
+   static Sha256Hash fromInternal(byte[] level, int index) {
+      byte[] bytes = new byte[HASH_LENGTH];
+      int offset = index * HASH_LENGTH;
+      for (int i = 0; i < HASH_LENGTH; i++) {
+         bytes[i] = level[offset + HASH_LENGTH - 1 - i];
+      }
+      return new Sha256Hash(bytes);
+   }
+
+   /**
+    * Calculate the hashes from start to end of the level above
+    */
+   private static void hashLevel(byte[] level, int size, byte[] next, int start, int end) {
+      for (int i = start; i < end; i++) {
+         int left = 2 * i;
+         if (left + 1 < size) {
+            // The two children are next to each other
+            HashUtils.doubleSha256(level, left * HASH_LENGTH, 2 * HASH_LENGTH, next, i * HASH_LENGTH);
+         } else {
+            // The last hash of an odd level is paired with itself
+            byte[] pair = new byte[2 * HASH_LENGTH];
+            System.arraycopy(level, left * HASH_LENGTH, pair, 0, HASH_LENGTH);
+            System.arraycopy(level, left * HASH_LENGTH, pair, HASH_LENGTH, HASH_LENGTH);
+            HashUtils.doubleSha256(pair, 0, pair.length, next, i * HASH_LENGTH);
+         }
+      }
+   }
+
+   private static void hashLevel(final byte[] level, final int size, final byte[] next, ExecutorService executor) {
+      int nextSize = next.length / HASH_LENGTH;
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      try {
+         for (int start = 0; start < nextSize; start += HASHES_PER_TASK) {
+            final int taskStart = start;
+            final int taskEnd = Math.min(start + HASHES_PER_TASK, nextSize);
+            futures.add(executor.submit(new Callable<Void>() {
+               @Override
+               public Void call() {
+                  hashLevel(level, size, next, taskStart, taskEnd);
+                  return null;
+               }
+            }));
+         }
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         throw new RuntimeException(e.getCause());
+      } finally {
+         for (Future<Void> future : futures) {
+            future.cancel(true);
+         }
+      }
+   }
+}
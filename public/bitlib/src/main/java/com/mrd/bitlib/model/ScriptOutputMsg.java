@@ -75,7 +75,7 @@ public class ScriptOutputMsg extends ScriptOutput implements Serializable {
    @Override
    public Address getAddress(NetworkParameters network) {
       byte[] addressBytes = HashUtils.addressHash(getPublicKeyBytes());
-      return Address.fromStandardBytes(addressBytes, network);
+      return AddressCache.getDefault().fromStandardBytes(addressBytes, network);
    }
 
 }
@@ -61,7 +61,7 @@ public class ScriptOutputMultisig extends ScriptOutput implements Serializable {
    @Override
    public Address getAddress(NetworkParameters network) {
       byte[] addressBytes = getMultisigAddressBytes();
-      return Address.fromMultisigBytes(addressBytes, network);
+      return AddressCache.getDefault().fromMultisigBytes(addressBytes, network);
    }
 
 }
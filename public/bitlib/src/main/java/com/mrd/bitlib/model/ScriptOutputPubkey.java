@@ -52,7 +52,7 @@ public class ScriptOutputPubkey extends ScriptOutput implements Serializable {
    @Override
    public Address getAddress(NetworkParameters network) {
       byte[] addressBytes = HashUtils.addressHash(getPublicKeyBytes());
-      return Address.fromStandardBytes(addressBytes, network);
+      return AddressCache.getDefault().fromStandardBytes(addressBytes, network);
    }
 
 }
@@ -72,7 +72,7 @@ public class ScriptOutputStandard extends ScriptOutput implements Serializable {
 
    @Override
    public Address getAddress(NetworkParameters network) {
-      return Address.fromStandardBytes(getAddressBytes(), network);
+      return AddressCache.getDefault().fromStandardBytes(getAddressBytes(), network);
    }
 
 }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib.model;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import com.google.common.base.Preconditions;
+import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * Calculates the hashes to sign for the inputs of a transaction using
+ * SIGHASH_ALL.
+ * <p/>
+ * The data signed for an input is the transaction with the script code of
+ * that input and empty scripts in all other inputs, followed by the hash
+ * type. Instead of serializing and hashing the whole transaction once per
+ * input, the transaction is serialized once with empty input scripts, and the
+ * script code of each input is spliced in while hashing. The SHA-256 state of
+ * everything before an input is advanced one input at a time and cloned for
+ * each input, so the shared beginning is hashed only once.
+ * <p/>
+ * What follows an input still has to be hashed for every input, which is
+ * inherent to the legacy signature hash.
+ */
+public class SigHashEngine {
+
+   public static final int SIGHASH_ALL = 1;
+
+   private static final int OUT_POINT_LENGTH = 36;
+
+   /**
+    * The size of an input with an empty script: out point, script length and
+    * sequence number
+    */
+   private static final int EMPTY_INPUT_LENGTH = OUT_POINT_LENGTH + 1 + 4;
+
+   // The transaction with empty input scripts followed by the hash type
+   private final byte[] _blank;
+   private final int _inputsStart;
+   private final int _inputCount;
+
+   /**
+    * @param transaction the transaction to sign, the scripts of its inputs are
+    *                    ignored
+    */
+   public SigHashEngine(Transaction transaction) {
+      _inputCount = transaction.inputs.length;
+      ByteWriter writer = new ByteWriter(1024);
+      writer.putIntLE(transaction.version);
+      writer.putCompactInt(_inputCount);
+      _inputsStart = writer.length();
+      for (TransactionInput input : transaction.inputs) {
+         writer.putSha256Hash(input.outPoint.hash, true);
+         writer.putIntLE(input.outPoint.index);
+         writer.putCompactInt(0);
+         writer.putIntLE(input.sequence);
+      }
+      writer.putCompactInt(transaction.outputs.length);
+      for (TransactionOutput output : transaction.outputs) {
+         output.toByteWriter(writer);
+      }
+      writer.putIntLE(transaction.lockTime);
+      writer.putIntLE(SIGHASH_ALL);
+      _blank = writer.toBytes();
+   }
+
+   /**
+    * Get the hash to sign for a single input
+    *
+    * @param index      the index of the input
+    * @param scriptCode the script of the output funding the input
+    */
+   public Sha256Hash getSigHash(int index, byte[] scriptCode) {
+      Preconditions.checkElementIndex(index, _inputCount);
+      MessageDigest digest = createSha256();
+      digest.update(_blank, 0, inputStart(index));
+      return finish(digest, index, scriptCode);
+   }
+
+   /**
+    * Get the hashes to sign for all inputs
+    *
+    * @param scriptCodes for each input the script of the output funding it
+    */
+   public Sha256Hash[] getSigHashes(byte[][] scriptCodes) {
+      Preconditions.checkArgument(scriptCodes.length == _inputCount);
+      Sha256Hash[] hashes = new Sha256Hash[_inputCount];
+      MessageDigest prefix = createSha256();
+      prefix.update(_blank, 0, _inputsStart);
+      for (int i = 0; i < _inputCount; i++) {
+         hashes[i] = finish(copy(prefix, i), i, scriptCodes[i]);
+         prefix.update(_blank, inputStart(i), EMPTY_INPUT_LENGTH);
+      }
+      return hashes;
+   }
+
+   private int inputStart(int index) {
+      return _inputsStart + index * EMPTY_INPUT_LENGTH;
+   }
+
+   private MessageDigest copy(MessageDigest prefix, int index) {
+      try {
+         return (MessageDigest) prefix.clone();
+      } catch (CloneNotSupportedException e) {
+         // Not every provider can clone its state, hash the beginning again
+         MessageDigest digest = createSha256();
+         digest.update(_blank, 0, inputStart(index));
+         return digest;
+      }
+   }
+
+   /**
+    * Hash the input with its script code and everything after it
+    */
+   private Sha256Hash finish(MessageDigest digest, int index, byte[] scriptCode) {
+      int start = inputStart(index);
+      digest.update(_blank, start, OUT_POINT_LENGTH);
+      ByteWriter length = new ByteWriter(9);
+      length.putCompactInt(scriptCode.length);
+      digest.update(length.toBytes());
+      digest.update(scriptCode);
+      int rest = start + OUT_POINT_LENGTH + 1;
+      digest.update(_blank, rest, _blank.length - rest);
+      // Note that this is NOT reversed to ensure it will be signed correctly
+      return HashUtils.sha256(digest.digest());
+   }
+
+   private static MessageDigest createSha256() {
+      try {
+         return MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+         throw new RuntimeException(e); //cannot happen
+      }
+   }
+}
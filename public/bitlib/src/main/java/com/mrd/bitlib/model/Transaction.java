@@ -125,6 +125,14 @@ public class Transaction implements Serializable {
       return _hash;
    }
 
+   /**
+    * Set the hash when it is already known from the serialized form, see
+    * {@link TransactionView}
+    */
+   void setHash(Sha256Hash hash) {
+      _hash = hash;
+   }
+
    /**
     * Calculate the unmalleable hash of this transaction. If the signature bytes
     * for an input cannot be determined the result is null
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mrd.bitlib.model;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.mrd.bitlib.model.Transaction.TransactionParsingException;
+import com.mrd.bitlib.util.ByteReader;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * A read-only view of a serialized transaction.
+ * <p/>
+ * Parsing only records where the parts of the transaction are, nothing is
+ * copied. Scripts and out point hashes are handed out as slices of the
+ * original buffer, and the transaction ID is calculated directly from the
+ * original bytes. This makes it cheap to walk over the transactions of a
+ * block or a memory mapped file when only a few of them are of interest, as
+ * these can be turned into a {@link Transaction} with {@link #toTransaction()}.
+ * <p/>
+ * A view keeps a reference to the buffer it was parsed from, so the contents
+ * of the buffer must not change while the view is in use.
+ */
+public class TransactionView {
+
+   private static final int OUT_POINT_HASH_LENGTH = 32;
+
+   private final ByteBuffer _buffer;
+   private final int _start;
+   private final int _end;
+   // For each input the position of its out point, and of its script
+   private final int[] _inputs;
+   private final int[] _inputScripts;
+   private final int[] _inputScriptLengths;
+   // For each output the position of its value, and of its script
+   private final int[] _outputs;
+   private final int[] _outputScripts;
+   private final int[] _outputScriptLengths;
+   private Sha256Hash _hash;
+
+   private TransactionView(ByteBuffer buffer, int start, int end, int[] inputs, int[] inputScripts,
+                           int[] inputScriptLengths, int[] outputs, int[] outputScripts, int[] outputScriptLengths) {
+      _buffer = buffer;
+      _start = start;
+      _end = end;
+      _inputs = inputs;
+      _inputScripts = inputScripts;
+      _inputScriptLengths = inputScriptLengths;
+      _outputs = outputs;
+      _outputScripts = outputScripts;
+      _outputScriptLengths = outputScriptLengths;
+   }
+
+   /**
+    * Parse a transaction starting at the current position of a buffer. On
+    * success the position of the buffer is moved to the end of the
+    * transaction.
+    *
+    * @param buffer the buffer to parse from, for instance a memory mapped file
+    * @return a view of the transaction
+    * @throws TransactionParsingException if the buffer does not hold a complete transaction
+    */
+   public static TransactionView parse(ByteBuffer buffer) throws TransactionParsingException {
+      ByteBuffer b = buffer.duplicate();
+      b.order(ByteOrder.LITTLE_ENDIAN);
+      int start = b.position();
+      try {
+         // Version
+         skip(b, 4);
+         int numInputs = readCount(b);
+         int[] inputs = new int[numInputs];
+         int[] inputScripts = new int[numInputs];
+         int[] inputScriptLengths = new int[numInputs];
+         for (int i = 0; i < numInputs; i++) {
+            inputs[i] = b.position();
+            skip(b, OUT_POINT_HASH_LENGTH + 4);
+            inputScriptLengths[i] = readCount(b);
+            inputScripts[i] = b.position();
+            // Script and sequence
+            skip(b, inputScriptLengths[i] + 4);
+         }
+         int numOutputs = readCount(b);
+         int[] outputs = new int[numOutputs];
+         int[] outputScripts = new int[numOutputs];
+         int[] outputScriptLengths = new int[numOutputs];
+         for (int i = 0; i < numOutputs; i++) {
+            outputs[i] = b.position();
+            skip(b, 8);
+            outputScriptLengths[i] = readCount(b);
+            outputScripts[i] = b.position();
+            skip(b, outputScriptLengths[i]);
+         }
+         // Lock time
+         skip(b, 4);
+         int end = b.position();
+         buffer.position(end);
+         return new TransactionView(b, start, end, inputs, inputScripts, inputScriptLengths, outputs, outputScripts,
+               outputScriptLengths);
+      } catch (BufferUnderflowException e) {
+         throw new TransactionParsingException("Unable to parse transaction at position " + start
+               + ": insufficient bytes");
+      }
+   }
+
+   private static void skip(ByteBuffer b, int length) {
+      if (length < 0 || b.remaining() < length) {
+         throw new BufferUnderflowException();
+      }
+      b.position(b.position() + length);
+   }
+
+   private static int readCount(ByteBuffer b) {
+      long value = CompactInt.fromByteBuffer(b);
+      if (value < 0 || value > b.remaining()) {
+         // Every element takes at least one byte, so this cannot be a valid count
+         throw new BufferUnderflowException();
+      }
+      return (int) value;
+   }
+
+   private ByteBuffer slice(int position, int length) {
+      ByteBuffer b = _buffer.duplicate();
+      b.limit(position + length);
+      b.position(position);
+      return b.slice().asReadOnlyBuffer();
+   }
+
+   /**
+    * Get the size of the serialized transaction in bytes
+    */
+   public int size() {
+      return _end - _start;
+   }
+
+   /**
+    * Get the serialized transaction as a slice of the original buffer
+    */
+   public ByteBuffer getBytes() {
+      return slice(_start, size());
+   }
+
+   public int getVersion() {
+      return _buffer.getInt(_start);
+   }
+
+   public int getLockTime() {
+      return _buffer.getInt(_end - 4);
+   }
+
+   public int getInputCount() {
+      return _inputs.length;
+   }
+
+   public int getOutputCount() {
+      return _outputs.length;
+   }
+
+   /**
+    * Get the hash of the transaction an input spends from, in the same byte
+    * order as {@link OutPoint#hash}
+    */
+   public Sha256Hash getOutPointHash(int input) {
+      return new Sha256Hash(getBytes(_inputs[input], OUT_POINT_HASH_LENGTH)).reverse();
+   }
+
+   /**
+    * Get the hash of the transaction an input spends from as a slice of the
+    * original buffer, in serialized byte order
+    */
+   public ByteBuffer getOutPointHashBytes(int input) {
+      return slice(_inputs[input], OUT_POINT_HASH_LENGTH);
+   }
+
+   public int getOutPointIndex(int input) {
+      return _buffer.getInt(_inputs[input] + OUT_POINT_HASH_LENGTH);
+   }
+
+   public ByteBuffer getInputScript(int input) {
+      return slice(_inputScripts[input], _inputScriptLengths[input]);
+   }
+
+   public int getSequence(int input) {
+      return _buffer.getInt(_inputScripts[input] + _inputScriptLengths[input]);
+   }
+
+   public long getOutputValue(int output) {
+      return _buffer.getLong(_outputs[output]);
+   }
+
+   public ByteBuffer getOutputScript(int output) {
+      return slice(_outputScripts[output], _outputScriptLengths[output]);
+   }
+
+   /**
+    * Get the address an output pays to. Standard and P2SH outputs are read
+    * straight from the original bytes, only other scripts are parsed.
+    *
+    * @param output  the index of the output
+    * @param network the network to create the address for
+    * @return the address the output pays to, or null if the script cannot be
+    *         parsed
+    */
+   public Address getOutputAddress(int output, NetworkParameters network) {
+      int p = _outputScripts[output];
+      int length = _outputScriptLengths[output];
+      if (length == 25 && op(p) == Script.OP_DUP && op(p + 1) == Script.OP_HASH160 && op(p + 2) == 20
+            && op(p + 23) == Script.OP_EQUALVERIFY && op(p + 24) == Script.OP_CHECKSIG) {
+         return AddressCache.getDefault().fromStandardBytes(getBytes(p + 3, 20), network);
+      }
+      if (length == 23 && op(p) == Script.OP_HASH160 && op(p + 1) == 20 && op(p + 22) == Script.OP_EQUAL) {
+         return AddressCache.getDefault().fromMultisigBytes(getBytes(p + 2, 20), network);
+      }
+      ScriptOutput script = ScriptOutput.fromScriptBytes(getBytes(p, length));
+      return script == null ? null : script.getAddress(network);
+   }
+
+   private int op(int position) {
+      return _buffer.get(position) & 0xFF;
+   }
+
+   private byte[] getBytes(int position, int length) {
+      byte[] bytes = new byte[length];
+      ByteBuffer b = _buffer.duplicate();
+      b.position(position);
+      b.get(bytes);
+      return bytes;
+   }
+
+   /**
+    * Determine whether this is a coinbase transaction, which has an input
+    * with an all zero out point hash
+    */
+   public boolean isCoinbase() {
+      for (int input : _inputs) {
+         boolean zero = true;
+         for (int i = 0; i < OUT_POINT_HASH_LENGTH && zero; i++) {
+            zero = _buffer.get(input + i) == 0;
+         }
+         if (zero) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Get the ID of the transaction, calculated from the original bytes
+    */
+   public Sha256Hash getHash() {
+      if (_hash == null) {
+         _hash = HashUtils.doubleSha256(getBytes()).reverse();
+      }
+      return _hash;
+   }
+
+   /**
+    * Parse the complete transaction. The result knows its hash already if it
+    * was calculated by this view.
+    *
+    * @throws TransactionParsingException if the transaction contains scripts that cannot be parsed
+    */
+   public Transaction toTransaction() throws TransactionParsingException {
+      byte[] bytes = new byte[size()];
+      getBytes().get(bytes);
+      Transaction t = Transaction.fromByteReader(new ByteReader(bytes));
+      if (_hash != null) {
+         t.setHash(_hash);
+      }
+      return t;
+   }
+
+   @Override
+   public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(getHash()).append(" in: ").append(_inputs.length).append(" out: ").append(_outputs.length);
+      return sb.toString();
+   }
+}
@@ -16,6 +16,8 @@
 
 package com.mrd.bitlib.util;
 
+import java.nio.ByteBuffer;
+
 import com.mrd.bitlib.model.CompactInt;
 
 public class ByteReader {
@@ -103,6 +105,14 @@ public class ByteReader {
       return Sha256Hash.of(getBytes(Sha256Hash.HASH_LENGTH));
    }
 
+   /**
+    * Get a read-only view of a range of the bytes being read, without copying
+    * them
+    */
+   public ByteBuffer viewBytes(int position, int length) {
+      return ByteBuffer.wrap(_buf, position, length).asReadOnlyBuffer();
+   }
+
    public int getPosition() {
       return _index;
    }
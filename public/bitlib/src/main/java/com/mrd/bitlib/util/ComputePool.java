@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mrd.bitlib.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spreads CPU bound loops, like signing inputs or deriving keys, over the available processors.
+ * <p/>
+ * All loops share one pool, which is created on first use and whose threads time out when idle. The loop bodies must
+ * not themselves use the compute pool.
+ */
+public class ComputePool {
+
+   private static final long THREAD_KEEP_ALIVE_SECONDS = 30;
+   private static ThreadPoolExecutor _executor;
+
+   /**
+    * The body of a loop, called once for every index
+    */
+   public interface Body {
+      void run(int index);
+   }
+
+   private ComputePool() {
+   }
+
+   /**
+    * Create a pool of daemon threads which time out when idle
+    *
+    * @param threads    the number of threads
+    * @param nameFormat the format of the thread names, see {@link ThreadFactoryBuilder#setNameFormat}
+    */
+   public static ThreadPoolExecutor createPool(int threads, String nameFormat) {
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat(nameFormat).build());
+      executor.allowCoreThreadTimeOut(true);
+      return executor;
+   }
+
+   /**
+    * Run the body for every index from 0 to count - 1 and wait until all are done. If there are not enough indexes
+    * to give every thread some work the loop runs on the calling thread.
+    *
+    * @param count        the number of indexes
+    * @param minPerThread the minimum number of indexes per thread, below this it is not worth starting threads
+    * @param body         the body to run for every index
+    * @throws RuntimeException if the body threw, the remaining work is cancelled
+    */
+   public static void forEach(int count, int minPerThread, final Body body) {
+      int threads = Math.min(Runtime.getRuntime().availableProcessors(), count / minPerThread);
+      if (threads <= 1) {
+         for (int i = 0; i < count; i++) {
+            body.run(i);
+         }
+         return;
+      }
+
+      // One task per thread, each running every threads-th index
+      ExecutorService executor = getExecutor();
+      List<Future<?>> futures = new ArrayList<Future<?>>(threads);
+      try {
+         for (int t = 0; t < threads; t++) {
+            final int first = t;
+            final int step = threads;
+            final int end = count;
+            futures.add(executor.submit(new Runnable() {
+               @Override
+               public void run() {
+                  for (int i = first; i < end; i += step) {
+                     body.run(i);
+                  }
+               }
+            }));
+         }
+         for (Future<?> future : futures) {
+            future.get();
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+         }
+         throw new RuntimeException(e.getCause());
+      } finally {
+         // Only does something if we failed or got interrupted
+         for (Future<?> future : futures) {
+            future.cancel(true);
+         }
+      }
+   }
+
+   private static synchronized ExecutorService getExecutor() {
+      if (_executor == null) {
+         _executor = createPool(Runtime.getRuntime().availableProcessors(), "Compute-%d");
+      }
+      return _executor;
+   }
+
+}
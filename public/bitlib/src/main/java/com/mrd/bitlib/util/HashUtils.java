@@ -18,22 +18,60 @@ package com.mrd.bitlib.util;
 
 import com.mrd.bitlib.crypto.digest.RIPEMD160Digest;
 
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 /**
  * Various hashing utilities used in the Bitcoin system.
+ * <p/>
+ * The digest engines are kept per thread and reused, so hashing does not
+ * look up a new {@link MessageDigest} on every call. The variants taking an
+ * output buffer do not allocate at all.
  */
 public class HashUtils {
 
    private static final String SHA256 = "SHA-256";
    private static final String SHA512 = "SHA-512";
 
+   public static final int SHA256_LENGTH = 32;
+   public static final int HASH160_LENGTH = 20;
+
+   /**
+    * The digest engines of a thread
+    */
+   private static class Engines {
+      private final MessageDigest sha256 = createDigest(SHA256);
+      private MessageDigest sha512;
+      private final RIPEMD160Digest ripeMD160 = new RIPEMD160Digest();
+      private final byte[] scratch = new byte[SHA256_LENGTH];
+
+      private MessageDigest sha512() {
+         if (sha512 == null) {
+            sha512 = createDigest(SHA512);
+         }
+         return sha512;
+      }
+   }
+
+   private static final ThreadLocal<Engines> ENGINES = new ThreadLocal<Engines>() {
+      @Override
+      protected Engines initialValue() {
+         return new Engines();
+      }
+   };
+
+   private static MessageDigest createDigest(String algorithm) {
+      try {
+         return MessageDigest.getInstance(algorithm);
+      } catch (NoSuchAlgorithmException e) {
+         throw new RuntimeException(e); //cannot happen
+      }
+   }
+
    public static Sha256Hash sha256(byte[] data) {
-      MessageDigest digest;
-      digest = getSha256Digest();
-      digest.update(data, 0, data.length);
-      return Sha256Hash.of(digest.digest());
+      return sha256(data, 0, data.length);
    }
 
    public static Sha256Hash sha256(byte[] data1, byte[] data2) {
@@ -46,11 +84,10 @@ public class HashUtils {
    }
 
    private static MessageDigest getSha256Digest() {
-      try {
-         return MessageDigest.getInstance(SHA256);
-      } catch (NoSuchAlgorithmException e) {
-         throw new RuntimeException(e); //cannot happen
-      }
+      MessageDigest digest = ENGINES.get().sha256;
+      // Clear whatever an earlier call that failed half way left behind
+      digest.reset();
+      return digest;
    }
 
    public static Sha256Hash doubleSha256(byte[] data) {
@@ -73,6 +110,53 @@ public class HashUtils {
       return new Sha256Hash(digest.digest(digest.digest()));
    }
 
+   /**
+    * Calculate the double SHA-256 of the remaining bytes of a buffer without
+    * changing its position
+    */
+   public static Sha256Hash doubleSha256(ByteBuffer data) {
+      MessageDigest digest;
+      digest = getSha256Digest();
+      digest.update(data.duplicate());
+      return new Sha256Hash(digest.digest(digest.digest()));
+   }
+
+   /**
+    * Calculate the SHA-256 of a range of bytes into a buffer of the caller
+    *
+    * @param out       the buffer to write the 32 byte hash to
+    * @param outOffset the position in the buffer to write the hash at
+    */
+   public static void sha256(byte[] data, int offset, int length, byte[] out, int outOffset) {
+      MessageDigest digest = getSha256Digest();
+      digest.update(data, offset, length);
+      finish(digest, out, outOffset, SHA256_LENGTH);
+   }
+
+   /**
+    * Calculate the double SHA-256 of a range of bytes into a buffer of the
+    * caller. The range may overlap the output.
+    *
+    * @param out       the buffer to write the 32 byte hash to
+    * @param outOffset the position in the buffer to write the hash at
+    */
+   public static void doubleSha256(byte[] data, int offset, int length, byte[] out, int outOffset) {
+      MessageDigest digest = getSha256Digest();
+      digest.update(data, offset, length);
+      finish(digest, out, outOffset, SHA256_LENGTH);
+      digest.update(out, outOffset, SHA256_LENGTH);
+      finish(digest, out, outOffset, SHA256_LENGTH);
+   }
+
+   private static void finish(MessageDigest digest, byte[] out, int outOffset, int length) {
+      try {
+         digest.digest(out, outOffset, length);
+      } catch (DigestException e) {
+         // The output buffer is too small
+         throw new IllegalArgumentException(e);
+      }
+   }
+
    public static Sha512Hash sha512(byte[] data) {
       MessageDigest digest;
       digest = getSha512Digest();
@@ -97,11 +181,28 @@ public class HashUtils {
    }
 
    private static MessageDigest getSha512Digest() {
-      try {
-         return MessageDigest.getInstance(SHA512);
-      } catch (NoSuchAlgorithmException e) {
-         throw new RuntimeException(e); //cannot happen
-      }
+      MessageDigest digest = ENGINES.get().sha512();
+      digest.reset();
+      return digest;
+   }
+
+   /**
+    * Calculate the RipeMd160 value of the SHA-256 of a range of bytes into a
+    * buffer of the caller, without allocating anything.
+    *
+    * @param out the buffer to write the 20 byte hash to, starting at index 0
+    */
+   public static void hash160(byte[] data, int offset, int length, byte[] out) {
+      Engines engines = ENGINES.get();
+      MessageDigest sha256 = engines.sha256;
+      sha256.reset();
+      sha256.update(data, offset, length);
+      finish(sha256, engines.scratch, 0, SHA256_LENGTH);
+      RIPEMD160Digest ripeMD160 = engines.ripeMD160;
+      ripeMD160.reset();
+      ripeMD160.update(engines.scratch, 0, SHA256_LENGTH);
+      ripeMD160.doFinal(out, 0); // This also resets the hash function for
+      // next use
    }
 
    /**
@@ -112,12 +213,8 @@ public class HashUtils {
     * @return The Bitcoin address as an array of bytes.
     */
    public static byte[] addressHash(byte[] pubkeyBytes) {
-      byte[] sha256 = getSha256Digest().digest(pubkeyBytes);
-      byte[] out = new byte[20];
-      RIPEMD160Digest ripeMD160 = new RIPEMD160Digest();
-      ripeMD160.update(sha256, 0, sha256.length);
-      ripeMD160.doFinal(out, 0); // This also resets the hash function for
-      // next use
+      byte[] out = new byte[HASH160_LENGTH];
+      hash160(pubkeyBytes, 0, pubkeyBytes.length, out);
       return out;
    }
 }
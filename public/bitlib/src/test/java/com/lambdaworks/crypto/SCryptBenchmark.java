@@ -0,0 +1,63 @@
+package com.lambdaworks.crypto;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Compares the byte array implementation of scrypt with the word based lanes,
+ * using the parameters of BIP38
+ */
+public class SCryptBenchmark {
+
+   private static final int N = 16384;
+   private static final int R = 8;
+   private static final int P = 8;
+
+   public static void main(String[] args) throws Exception {
+      byte[] passwd = "TestingOneTwoThree".getBytes("UTF-8");
+      byte[] salt = new byte[]{1, 2, 3, 4};
+      int lanes = SCrypt.getParallelLanes(N, R, P);
+      for (int warmup = 0; warmup < 2; warmup++) {
+         long start = System.nanoTime();
+         byte[] expected = byteArrayScrypt(passwd, salt);
+         report("byte arrays", start);
+
+         start = System.nanoTime();
+         byte[] single = SCrypt.scryptJ(passwd, salt, N, R, P, 64, null, 1);
+         report("words, sequential", start);
+
+         start = System.nanoTime();
+         byte[] parallel = SCrypt.scryptJ(passwd, salt, N, R, P, 64, null, lanes);
+         report("words, parallel (" + lanes + ")", start);
+
+         if (!java.util.Arrays.equals(expected, single) || !java.util.Arrays.equals(expected, parallel)) {
+            throw new IllegalStateException("Results differ");
+         }
+      }
+   }
+
+   /**
+    * The implementation before the word based lanes
+    */
+   private static byte[] byteArrayScrypt(byte[] passwd, byte[] salt) throws Exception {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(passwd, "HmacSHA256"));
+      byte[] DK = new byte[64];
+      byte[] B = new byte[128 * R * P];
+      byte[] XY = new byte[256 * R];
+      byte[][] V = new byte[N][];
+      for (int i = 0; i < N; i++) {
+         V[i] = new byte[128 * R];
+      }
+      PBKDF.pbkdf2(mac, salt, 1, B, P * 128 * R);
+      for (int i = 0; i < P; i++) {
+         SCrypt.smix(B, i * 128 * R, R, N, V, XY, null);
+      }
+      PBKDF.pbkdf2(mac, B, 1, DK, 64);
+      return DK;
+   }
+
+   private static void report(String name, long start) {
+      System.out.println(String.format("%-26s %8.0f ms", name, (System.nanoTime() - start) / 1000000.0));
+   }
+}
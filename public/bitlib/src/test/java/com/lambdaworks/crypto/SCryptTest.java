@@ -0,0 +1,82 @@
+package com.lambdaworks.crypto;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mrd.bitlib.util.HexUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SCryptTest {
+
+   // Test vectors from RFC 7914. The one with an empty password is left out
+   // as the JCA does not accept an empty HMAC key.
+   @Test
+   public void testVectors() throws Exception {
+      assertEquals("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+            + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640",
+            HexUtils.toHex(SCrypt.scryptJ("password".getBytes("UTF-8"), "NaCl".getBytes("UTF-8"), 1024, 8, 16, 64,
+                  null, 4)));
+      assertEquals("7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2"
+            + "d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887",
+            HexUtils.toHex(SCrypt.scryptJ("pleaseletmein".getBytes("UTF-8"), "SodiumChloride".getBytes("UTF-8"),
+                  16384, 8, 1, 64, null)));
+   }
+
+   @Test
+   public void testParallelLanesMatchSequential() throws Exception {
+      byte[] passwd = "passphrase".getBytes("UTF-8");
+      byte[] salt = "salt".getBytes("UTF-8");
+      // r = 3 gives blocks that do not divide a segment of V evenly
+      byte[] expected = SCrypt.scryptJ(passwd, salt, 512, 3, 5, 32, null, 1);
+      for (int lanes = 2; lanes <= 6; lanes++) {
+         assertArrayEquals(expected, SCrypt.scryptJ(passwd, salt, 512, 3, 5, 32, null, lanes));
+      }
+   }
+
+   @Test
+   public void testProgress() throws Exception {
+      SCryptProgress progress = new SCryptProgress(1024, 2, 4);
+      assertEquals(0.0, progress.getProgress(), 0.0);
+      SCrypt.scryptJ(new byte[1], new byte[1], 1024, 2, 4, 32, progress, 4);
+      assertEquals(1.0, progress.getProgress(), 0.0);
+   }
+
+   @Test
+   public void testTerminate() throws Exception {
+      final SCryptProgress progress = new SCryptProgress(1 << 14, 8, 8);
+      final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+      Thread thread = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            try {
+               SCrypt.scryptJ(new byte[1], new byte[1], 1 << 14, 8, 8, 32, progress, 2);
+            } catch (Throwable e) {
+               thrown.set(e);
+            }
+         }
+      });
+      thread.start();
+      while (progress.getProgress() == 0.0) {
+         Thread.sleep(1);
+      }
+      progress.terminate();
+      thread.join();
+      assertTrue(thrown.get() instanceof InterruptedException);
+      assertTrue(progress.getProgress() < 1.0);
+   }
+
+   @Test
+   public void testParallelLanesRespectMemoryLimit() {
+      try {
+         SCrypt.setMaxParallelMemory(3 * 128L * 8 * 16384);
+         assertTrue(SCrypt.getParallelLanes(16384, 8, 8) <= 3);
+         SCrypt.setMaxParallelMemory(0);
+         assertEquals(1, SCrypt.getParallelLanes(16384, 8, 8));
+      } finally {
+         SCrypt.setMaxParallelMemory(-1);
+      }
+   }
+}
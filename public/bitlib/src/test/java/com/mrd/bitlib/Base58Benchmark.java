@@ -0,0 +1,149 @@
+package com.mrd.bitlib;
+
+import com.google.bitcoinj.Base58;
+import com.mrd.bitlib.util.HashUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the limb based Base58 codec with the byte at a time long division
+ * it replaced, for addresses (25 bytes), HD key nodes (82 bytes) and larger
+ * inputs
+ */
+public class Base58Benchmark {
+
+   private static final int[] SIZES = {25, 82, 200};
+
+   private static final int COUNT = 1000;
+
+   public static void main(String[] args) {
+      Random random = new Random(42);
+      for (int round = 0; round < 3; round++) {
+         for (int size : SIZES) {
+            byte[][] inputs = new byte[COUNT][];
+            String[] encoded = new String[COUNT];
+            for (int i = 0; i < COUNT; i++) {
+               inputs[i] = new byte[size];
+               random.nextBytes(inputs[i]);
+               encoded[i] = Base58.encodeWithChecksum(inputs[i]);
+            }
+            int repeat = 20000 / size;
+            long start = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+               for (byte[] input : inputs) {
+                  Legacy.encodeWithChecksum(input);
+               }
+            }
+            long legacyEncode = (System.nanoTime() - start) / repeat / COUNT;
+            start = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+               Base58.encodeWithChecksum(inputs);
+            }
+            long encode = (System.nanoTime() - start) / repeat / COUNT;
+            start = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+               for (String s : encoded) {
+                  Legacy.decodeChecked(s);
+               }
+            }
+            long legacyDecode = (System.nanoTime() - start) / repeat / COUNT;
+            start = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+               Base58.decodeChecked(encoded, size);
+            }
+            long decode = (System.nanoTime() - start) / repeat / COUNT;
+            System.out.println(String.format("%3d bytes: encode %6.2f us -> %6.2f us, decode %6.2f us -> %6.2f us",
+                  size, legacyEncode / 1e3, encode / 1e3, legacyDecode / 1e3, decode / 1e3));
+         }
+      }
+   }
+
+   /**
+    * The previous implementation
+    */
+   private static class Legacy {
+
+      private static final int[] INDEXES = new int[128];
+
+      static {
+         Arrays.fill(INDEXES, -1);
+         for (int i = 0; i < Base58.ALPHABET.length; i++) {
+            INDEXES[Base58.ALPHABET[i]] = i;
+         }
+      }
+
+      static String encodeWithChecksum(byte[] input) {
+         byte[] b = new byte[input.length + 4];
+         System.arraycopy(input, 0, b, 0, input.length);
+         System.arraycopy(HashUtils.doubleSha256(b, 0, input.length).getBytes(), 0, b, input.length, 4);
+         return encode(b);
+      }
+
+      static String encode(byte[] input) {
+         input = Arrays.copyOf(input, input.length);
+         int zeroCount = 0;
+         while (zeroCount < input.length && input[zeroCount] == 0) {
+            ++zeroCount;
+         }
+         char[] temp = new char[input.length * 2];
+         int j = temp.length;
+         int startAt = zeroCount;
+         while (startAt < input.length) {
+            int remainder = 0;
+            for (int i = startAt; i < input.length; i++) {
+               int temp256 = remainder * 256 + (input[i] & 0xFF);
+               input[i] = (byte) (temp256 / 58);
+               remainder = temp256 % 58;
+            }
+            if (input[startAt] == 0) {
+               ++startAt;
+            }
+            temp[--j] = Base58.ALPHABET[remainder];
+         }
+         while (j < temp.length && temp[j] == Base58.ALPHABET[0]) {
+            ++j;
+         }
+         while (--zeroCount >= 0) {
+            temp[--j] = Base58.ALPHABET[0];
+         }
+         return new String(temp, j, temp.length - j);
+      }
+
+      static byte[] decodeChecked(String input) {
+         byte[] input58 = new byte[input.length()];
+         for (int i = 0; i < input.length(); ++i) {
+            input58[i] = (byte) INDEXES[input.charAt(i)];
+         }
+         int zeroCount = 0;
+         while (zeroCount < input58.length && input58[zeroCount] == 0) {
+            ++zeroCount;
+         }
+         byte[] temp = new byte[input.length()];
+         int j = temp.length;
+         int startAt = zeroCount;
+         while (startAt < input58.length) {
+            int remainder = 0;
+            for (int i = startAt; i < input58.length; i++) {
+               int temp58 = remainder * 58 + (input58[i] & 0xFF);
+               input58[i] = (byte) (temp58 / 256);
+               remainder = temp58 % 256;
+            }
+            if (input58[startAt] == 0) {
+               ++startAt;
+            }
+            temp[--j] = (byte) remainder;
+         }
+         while (j < temp.length && temp[j] == 0) {
+            ++j;
+         }
+         byte[] decoded = Arrays.copyOfRange(temp, j - zeroCount, temp.length);
+         byte[] bytes = Arrays.copyOf(decoded, decoded.length - 4);
+         byte[] checksum = Arrays.copyOfRange(decoded, decoded.length - 4, decoded.length);
+         if (!Arrays.equals(checksum, HashUtils.doubleSha256(bytes).firstFourBytes())) {
+            return null;
+         }
+         return bytes;
+      }
+   }
+}
@@ -36,10 +36,19 @@ package com.mrd.bitlib;
 
 import com.google.bitcoinj.Base58;
 
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
 import org.junit.Test;
 
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class Base58Test {
 
@@ -58,4 +67,94 @@ public class Base58Test {
       Base58.decode(null);
    }
 
+   @Test
+   public void testRandomRoundTrips() {
+      Random random = new Random(42);
+      for (int i = 0; i < 500; i++) {
+         byte[] bytes = new byte[random.nextInt(120)];
+         random.nextBytes(bytes);
+         // Exercise the leading zero handling
+         int zeros = Math.min(bytes.length, random.nextInt(4));
+         Arrays.fill(bytes, 0, zeros, (byte) 0);
+         String encoded = Base58.encode(bytes);
+         assertEquals(encodeWithBigInteger(bytes), encoded);
+         assertArrayEquals(bytes, Base58.decode(encoded));
+      }
+   }
+
+   @Test
+   public void testBuffers() {
+      byte[] bytes = new byte[]{7, 0, 0, 1, 2, 3, 4, 5, 6, 7};
+      String expected = Base58.encode(Arrays.copyOfRange(bytes, 1, 9));
+      char[] chars = new char[2 + Base58.maxEncodedLength(8)];
+      int count = Base58.encode(bytes, 1, 8, chars, 2);
+      assertEquals(expected, new String(chars, 2, count));
+
+      String text = "0" + expected + "0";
+      byte[] out = new byte[3 + expected.length()];
+      count = Base58.decode(text, 1, expected.length(), out, 3);
+      assertArrayEquals(Arrays.copyOfRange(bytes, 1, 9), Arrays.copyOfRange(out, 3, 3 + count));
+      assertEquals(-1, Base58.decode(text, 0, expected.length(), out, 0));
+   }
+
+   @Test
+   public void testChecked() {
+      Address address = Address.fromString("1BitcoinEaterAddressDontSendf59kuE");
+      assertEquals("1BitcoinEaterAddressDontSendf59kuE", address.toString());
+      assertEquals(NetworkParameters.productionNetwork, address.getNetwork());
+      byte[] payload = Base58.decodeChecked("1BitcoinEaterAddressDontSendf59kuE", Address.NUM_ADDRESS_BYTES);
+      assertArrayEquals(address.getAllAddressBytes(), payload);
+      assertArrayEquals(payload, Base58.decodeChecked("\uFEFF1BitcoinEaterAddressDontSendf59kuE"));
+
+      // Wrong size, wrong checksum, invalid characters
+      assertNull(Base58.decodeChecked("1BitcoinEaterAddressDontSendf59kuE", 78));
+      assertNull(Base58.decodeChecked("1BitcoinEaterAddressDontSendf59kuF"));
+      assertNull(Base58.decodeChecked("1BitcoinEaterAddressDontSendf59ku0"));
+      assertNull(Base58.decodeChecked("11"));
+
+      String[] encoded = Base58.encodeWithChecksum(new byte[][]{payload, BYTES});
+      byte[][] decoded = Base58.decodeChecked(encoded, Address.NUM_ADDRESS_BYTES);
+      assertArrayEquals(payload, decoded[0]);
+      assertNull(decoded[1]);
+   }
+
+   @Test
+   public void testScratchIsWiped() throws Exception {
+      byte[] secret = new byte[38];
+      Arrays.fill(secret, (byte) 0x5A);
+      String encoded = Base58.encodeWithChecksum(secret);
+      assertArrayEquals(secret, Base58.decodeChecked(encoded));
+      assertArrayEquals(secret, Base58.decode(Base58.encode(secret)));
+      char[] chars = new char[Base58.maxEncodedLength(secret.length)];
+      Base58.decode(encoded, 0, Base58.encode(secret, 0, secret.length, chars, 0), new byte[encoded.length()], 0);
+
+      Field field = Base58.class.getDeclaredField("SCRATCH");
+      field.setAccessible(true);
+      Object scratch = ((ThreadLocal<?>) field.get(null)).get();
+      for (String name : new String[]{"limbs", "chars", "bytes", "hash"}) {
+         Field f = scratch.getClass().getDeclaredField(name);
+         f.setAccessible(true);
+         Object array = f.get(scratch);
+         for (int i = 0; i < Array.getLength(array); i++) {
+            int value = array instanceof char[] ? ((char[]) array)[i] : ((Number) Array.get(array, i)).intValue();
+            assertEquals(name + "[" + i + "]", 0, value);
+         }
+      }
+   }
+
+   private static String encodeWithBigInteger(byte[] bytes) {
+      StringBuilder sb = new StringBuilder();
+      BigInteger value = new BigInteger(1, bytes);
+      BigInteger base = BigInteger.valueOf(58);
+      while (value.signum() > 0) {
+         BigInteger[] divided = value.divideAndRemainder(base);
+         sb.append(Base58.ALPHABET[divided[1].intValue()]);
+         value = divided[0];
+      }
+      for (int i = 0; i < bytes.length && bytes[i] == 0; i++) {
+         sb.append(Base58.ALPHABET[0]);
+      }
+      return sb.reverse().toString();
+   }
+
 }
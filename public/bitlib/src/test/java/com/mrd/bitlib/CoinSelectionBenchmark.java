@@ -0,0 +1,52 @@
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.model.UnspentTransactionOutput;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures coin selection over inventories of 1k to 50k unspent outputs, comparing the coin selectors with the
+ * previous repeated linear scan.
+ * <p/>
+ * Run as a plain Java program, the first round serves as warm up.
+ */
+public class CoinSelectionBenchmark {
+
+   private static final int[] SIZES = {1000, 5000, 10000, 50000};
+   private static final int ROUNDS = 2;
+
+   public static void main(String[] args) {
+      for (int round = 0; round < ROUNDS; round++) {
+         for (int size : SIZES) {
+            List<UnspentTransactionOutput> inventory = CoinSelectorsTest.createOutputs(size, size);
+            // Spend about half of the inventory
+            long outputSum = 0;
+            for (UnspentTransactionOutput output : inventory) {
+               outputSum += output.value;
+            }
+            outputSum /= 2;
+
+            long start = System.nanoTime();
+            CoinSelectorsTest.referenceOldestFirst(inventory, outputSum, 1);
+            long reference = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            CoinSelectors.OLDEST_FIRST.select(new ArrayList<UnspentTransactionOutput>(inventory), outputSum, 1);
+            long oldest = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            CoinSelectors.LARGEST_FIRST.select(new ArrayList<UnspentTransactionOutput>(inventory), outputSum, 1);
+            long largest = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            CoinSelectors.BRANCH_AND_BOUND.select(new ArrayList<UnspentTransactionOutput>(inventory), outputSum, 1);
+            long branchAndBound = System.nanoTime() - start;
+
+            System.out.println(String.format(
+                  "round %d, %d outputs: linear scan %d ms, oldest first %d ms, largest first %d ms, branch and bound %d ms",
+                  round, size, reference / 1000000, oldest / 1000000, largest / 1000000, branchAndBound / 1000000));
+         }
+      }
+   }
+}
@@ -0,0 +1,148 @@
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.model.ScriptOutputStandard;
+import com.mrd.bitlib.model.UnspentTransactionOutput;
+import com.mrd.bitlib.util.Sha256Hash;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CoinSelectorsTest {
+
+   private static final Address ADDRESS = Address.fromString("mfx7u4LpuqG5CA5NFZBG3U1UTmftKXHzzk");
+
+   static UnspentTransactionOutput createOutput(int index, int height, long value) {
+      return new UnspentTransactionOutput(new OutPoint(Sha256Hash.ZERO_HASH, index), height, value,
+            new ScriptOutputStandard(ADDRESS.getTypeSpecificBytes()));
+   }
+
+   static List<UnspentTransactionOutput> createOutputs(int count, long seed) {
+      Random random = new Random(seed);
+      List<UnspentTransactionOutput> outputs = new ArrayList<UnspentTransactionOutput>(count);
+      for (int i = 0; i < count; i++) {
+         outputs.add(createOutput(i, random.nextInt(1000) - 1, 1000 + random.nextInt(1000000)));
+      }
+      return outputs;
+   }
+
+   /**
+    * The selection StandardTransactionBuilder used to make: repeatedly take the output with the lowest height
+    */
+   static List<UnspentTransactionOutput> referenceOldestFirst(List<UnspentTransactionOutput> inventory, long outputSum,
+                                                             int outputs) {
+      List<UnspentTransactionOutput> unspent = new LinkedList<UnspentTransactionOutput>(inventory);
+      List<UnspentTransactionOutput> funding = new LinkedList<UnspentTransactionOutput>();
+      long fee = TransactionUtils.DEFAULT_MINER_FEE;
+      long found = 0;
+      while (found < fee + outputSum) {
+         UnspentTransactionOutput oldest = null;
+         for (UnspentTransactionOutput output : unspent) {
+            if (oldest == null || output.height < oldest.height) {
+               oldest = output;
+            }
+         }
+         if (oldest == null) {
+            return null;
+         }
+         unspent.remove(oldest);
+         found += oldest.value;
+         funding.add(oldest);
+         fee = StandardTransactionBuilder.estimateFee(funding.size(), outputs + 1);
+      }
+      return funding;
+   }
+
+   private static long sum(List<UnspentTransactionOutput> outputs) {
+      long sum = 0;
+      for (UnspentTransactionOutput output : outputs) {
+         sum += output.value;
+      }
+      return sum;
+   }
+
+   private static void assertCovers(List<UnspentTransactionOutput> funding, long outputSum, int outputs) {
+      assertTrue(sum(funding) >= outputSum + StandardTransactionBuilder.estimateFee(funding.size(), outputs + 1));
+   }
+
+   @Test
+   public void oldestFirstMatchesPreviousSelection() {
+      List<UnspentTransactionOutput> inventory = createOutputs(500, 1);
+      for (long outputSum : new long[]{1000, 100000, 5000000, 50000000}) {
+         List<UnspentTransactionOutput> expected = referenceOldestFirst(inventory, outputSum, 2);
+         List<UnspentTransactionOutput> actual = CoinSelectors.OLDEST_FIRST.select(
+               new ArrayList<UnspentTransactionOutput>(inventory), outputSum, 2);
+         assertEquals(expected, actual);
+      }
+   }
+
+   @Test
+   public void largestFirstUsesFewestInputs() {
+      List<UnspentTransactionOutput> inventory = new ArrayList<UnspentTransactionOutput>();
+      for (int i = 0; i < 100; i++) {
+         inventory.add(createOutput(i, i, 10000));
+      }
+      inventory.add(createOutput(100, 500, 2000000));
+      List<UnspentTransactionOutput> funding = CoinSelectors.LARGEST_FIRST.select(inventory, 1000000, 1);
+      assertEquals(1, funding.size());
+      assertEquals(2000000, funding.get(0).value);
+   }
+
+   @Test
+   public void insufficientFunds() {
+      List<UnspentTransactionOutput> inventory = createOutputs(20, 2);
+      long total = sum(inventory);
+      assertNull(CoinSelectors.OLDEST_FIRST.select(new ArrayList<UnspentTransactionOutput>(inventory), total, 1));
+      assertNull(CoinSelectors.LARGEST_FIRST.select(new ArrayList<UnspentTransactionOutput>(inventory), total, 1));
+      assertNull(CoinSelectors.BRANCH_AND_BOUND.select(new ArrayList<UnspentTransactionOutput>(inventory), total, 1));
+      assertNull(CoinSelectors.OLDEST_FIRST.select(new ArrayList<UnspentTransactionOutput>(), 1000, 1));
+   }
+
+   @Test
+   public void branchAndBoundFindsExactMatch() {
+      List<UnspentTransactionOutput> inventory = createOutputs(200, 3);
+      // Pick a few outputs and ask for exactly their value minus the fee
+      List<UnspentTransactionOutput> chosen = new ArrayList<UnspentTransactionOutput>();
+      chosen.add(inventory.get(17));
+      chosen.add(inventory.get(42));
+      chosen.add(inventory.get(133));
+      long outputSum = sum(chosen) - StandardTransactionBuilder.estimateFee(chosen.size(), 2);
+      List<UnspentTransactionOutput> funding = CoinSelectors.BRANCH_AND_BOUND.select(inventory, outputSum, 1);
+      assertCovers(funding, outputSum, 1);
+      long change = sum(funding) - outputSum - StandardTransactionBuilder.estimateFee(funding.size(), 2);
+      assertTrue(change < TransactionUtils.MINIMUM_OUTPUT_VALUE);
+   }
+
+   @Test
+   public void branchAndBoundFallsBack() {
+      // Only large outputs, every selection leaves change
+      List<UnspentTransactionOutput> inventory = new ArrayList<UnspentTransactionOutput>();
+      for (int i = 0; i < 10; i++) {
+         inventory.add(createOutput(i, 10 - i, 1000000));
+      }
+      List<UnspentTransactionOutput> funding = CoinSelectors.BRANCH_AND_BOUND.select(inventory, 1500000, 1);
+      assertEquals(referenceOldestFirst(inventory, 1500000, 1), funding);
+   }
+
+   @Test
+   public void selectionsCoverOutputs() {
+      List<UnspentTransactionOutput> inventory = createOutputs(1000, 4);
+      CoinSelector[] selectors = {CoinSelectors.OLDEST_FIRST, CoinSelectors.LARGEST_FIRST,
+            CoinSelectors.BRANCH_AND_BOUND};
+      for (CoinSelector selector : selectors) {
+         for (long outputSum : new long[]{1, 77777, 3000000, 100000000}) {
+            assertCovers(selector.select(new ArrayList<UnspentTransactionOutput>(inventory), outputSum, 3),
+                  outputSum, 3);
+         }
+      }
+   }
+}
@@ -0,0 +1,81 @@
+package com.mrd.bitlib;
+
+import com.mrd.bitlib.StandardTransactionBuilder.SigningRequest;
+import com.mrd.bitlib.crypto.*;
+import com.mrd.bitlib.util.Sha256Hash;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionSigningTest {
+
+   private static final RandomSource RANDOM_SOURCE = new RandomSource() {
+      private final Random _random = new Random(42);
+
+      @Override
+      public void nextBytes(byte[] bytes) {
+         _random.nextBytes(bytes);
+      }
+   };
+
+   /**
+    * A key ring that counts its lookups
+    */
+   private static class CountingKeyRing implements IPrivateKeyRing {
+      private final Map<PublicKey, InMemoryPrivateKey> _keys = new HashMap<PublicKey, InMemoryPrivateKey>();
+      private int _lookups;
+
+      private void add(InMemoryPrivateKey key) {
+         _keys.put(key.getPublicKey(), key);
+      }
+
+      @Override
+      public synchronized BitcoinSigner findSignerByPublicKey(PublicKey publicKey) {
+         _lookups++;
+         return _keys.get(publicKey);
+      }
+   }
+
+   @Test
+   public void signsAllInputsInOrder() throws Exception {
+      Random random = new Random(42);
+      CountingKeyRing keyRing = new CountingKeyRing();
+      List<InMemoryPrivateKey> keys = new ArrayList<InMemoryPrivateKey>();
+      for (int i = 0; i < 5; i++) {
+         InMemoryPrivateKey key = new InMemoryPrivateKey(RANDOM_SOURCE, true);
+         keys.add(key);
+         keyRing.add(key);
+      }
+      // Many inputs spending from the same few keys
+      SigningRequest[] requests = new SigningRequest[40];
+      for (int i = 0; i < requests.length; i++) {
+         byte[] hash = new byte[32];
+         random.nextBytes(hash);
+         requests[i] = new SigningRequest(keys.get(random.nextInt(keys.size())).getPublicKey(), new Sha256Hash(hash));
+      }
+
+      List<byte[]> signatures = StandardTransactionBuilder.generateSignatures(requests, keyRing, RANDOM_SOURCE);
+      assertEquals(requests.length, signatures.size());
+      assertEquals(keys.size(), keyRing._lookups);
+      for (int i = 0; i < requests.length; i++) {
+         byte[] signature = signatures.get(i);
+         // The hash type is appended to the DER encoded signature
+         assertEquals(1, signature[signature.length - 1]);
+         assertTrue(requests[i].publicKey.verifyStandardBitcoinSignature(requests[i].toSign, signature));
+      }
+      // Callers get a list they may modify
+      signatures.remove(0);
+      assertEquals(requests.length - 1, signatures.size());
+   }
+
+   @Test(expected = RuntimeException.class)
+   public void missingKeyFails() {
+      CountingKeyRing keyRing = new CountingKeyRing();
+      SigningRequest[] requests = new SigningRequest[]{new SigningRequest(
+            new InMemoryPrivateKey(RANDOM_SOURCE, true).getPublicKey(), Sha256Hash.ZERO_HASH)};
+      StandardTransactionBuilder.generateSignatures(requests, keyRing, RANDOM_SOURCE);
+   }
+}
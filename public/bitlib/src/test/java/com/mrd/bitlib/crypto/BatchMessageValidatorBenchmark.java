@@ -0,0 +1,66 @@
+package com.mrd.bitlib.crypto;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.lambdaworks.crypto.Base64;
+import com.mrd.bitlib.crypto.ec.EcTools;
+import com.mrd.bitlib.crypto.ec.Parameters;
+import com.mrd.bitlib.util.BitUtils;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * Compares validating signed messages the way it was done before, including
+ * the n * R order check, with SignedMessage.validate and the batch validator
+ */
+public class BatchMessageValidatorBenchmark {
+
+   private static final int ENTRIES = 400;
+
+   public static void main(String[] args) throws WrongSignatureException {
+      List<BatchMessageValidator.Entry> entries = BatchMessageValidatorTest.createEntries(ENTRIES, 42);
+      int threads = Runtime.getRuntime().availableProcessors();
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      BatchMessageValidator validator = new BatchMessageValidator(executor);
+      try {
+         for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (BatchMessageValidator.Entry entry : entries) {
+               validateLegacy(entry);
+            }
+            long legacy = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (BatchMessageValidator.Entry entry : entries) {
+               SignedMessage.validate(entry.address, entry.message, entry.signatureBase64);
+            }
+            long single = System.nanoTime() - start;
+            start = System.nanoTime();
+            validator.validate(entries);
+            long batch = System.nanoTime() - start;
+            System.out.println(String.format("%d messages: previous %.1f ms, validate %.1f ms, batch on %d threads "
+                  + "%.1f ms", ENTRIES, legacy / 1e6, single / 1e6, threads, batch / 1e6));
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   private static void validateLegacy(BatchMessageValidator.Entry entry) throws WrongSignatureException {
+      byte[] encoded = Base64.decode(entry.signatureBase64);
+      Signature signature = new Signature(new BigInteger(1, BitUtils.copyOfRange(encoded, 1, 33)), new BigInteger(1,
+            BitUtils.copyOfRange(encoded, 33, 65)));
+      int header = encoded[0] & 0xFF;
+      boolean compressed = header >= 31;
+      int recId = (compressed ? header - 4 : header) - 27;
+      Sha256Hash hash = HashUtils.doubleSha256(Signatures.formatMessageForSigning(entry.message));
+      BigInteger x = signature.r.add(BigInteger.valueOf(recId / 2).multiply(Parameters.n));
+      if (!EcTools.decompressKey(x, (recId & 1) == 1).multiply(Parameters.n).isInfinity()) {
+         throw new WrongSignatureException("Not of order n");
+      }
+      PublicKey key = SignedMessage.recoverFromSignature(recId, signature, hash, compressed);
+      SignedMessage.validateAddressMatches(entry.address, key);
+   }
+}
@@ -0,0 +1,113 @@
+package com.mrd.bitlib.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.util.HashUtils;
+
+public class BatchMessageValidatorTest {
+
+   private static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+
+   private ExecutorService _executor;
+   private BatchMessageValidator _validator;
+
+   @Before
+   public void setUp() {
+      _executor = Executors.newFixedThreadPool(4);
+      _validator = new BatchMessageValidator(_executor);
+   }
+
+   @After
+   public void tearDown() {
+      _executor.shutdownNow();
+   }
+
+   /**
+    * Create entries signed by a few keys, alternating compressed and
+    * uncompressed keys
+    */
+   static List<BatchMessageValidator.Entry> createEntries(int count, long seed) {
+      Random random = new Random(seed);
+      InMemoryPrivateKey[] keys = new InMemoryPrivateKey[5];
+      for (int i = 0; i < keys.length; i++) {
+         byte[] keyBytes = new byte[32];
+         random.nextBytes(keyBytes);
+         keys[i] = new InMemoryPrivateKey(keyBytes, i % 2 == 0);
+      }
+      RandomSource randomSource = new TestNonRandomSource();
+      List<BatchMessageValidator.Entry> entries = new ArrayList<BatchMessageValidator.Entry>(count);
+      for (int i = 0; i < count; i++) {
+         InMemoryPrivateKey key = keys[i % keys.length];
+         String message = "Proof of ownership " + i + " ä€";
+         String signature = key.signMessage(message, randomSource).getBase64Signature();
+         entries.add(new BatchMessageValidator.Entry(key.getPublicKey().toAddress(NETWORK), message, signature));
+      }
+      return entries;
+   }
+
+   @Test
+   public void validatesLikeSignedMessage() throws WrongSignatureException {
+      List<BatchMessageValidator.Entry> entries = createEntries(40, 1);
+      List<SignedMessage> results = _validator.validate(entries);
+      assertEquals(entries.size(), results.size());
+      for (int i = 0; i < entries.size(); i++) {
+         BatchMessageValidator.Entry entry = entries.get(i);
+         SignedMessage expected = SignedMessage.validate(entry.address, entry.message, entry.signatureBase64);
+         assertEquals(expected.getPublicKey(), results.get(i).getPublicKey());
+         assertEquals(entry.signatureBase64, results.get(i).getBase64Signature());
+      }
+   }
+
+   @Test
+   public void rejectsInvalidEntries() {
+      List<BatchMessageValidator.Entry> entries = createEntries(10, 2);
+      BatchMessageValidator.Entry a = entries.get(0);
+      BatchMessageValidator.Entry b = entries.get(1);
+      Address multisig = Address.fromMultisigBytes(a.address.getTypeSpecificBytes(), NETWORK);
+      // Wrong message, wrong address, not base64, truncated, multisig address
+      entries.set(2, new BatchMessageValidator.Entry(a.address, a.message + ".", a.signatureBase64));
+      entries.set(3, new BatchMessageValidator.Entry(b.address, a.message, a.signatureBase64));
+      entries.set(4, new BatchMessageValidator.Entry(a.address, a.message, "not base64!"));
+      entries.set(5, new BatchMessageValidator.Entry(a.address, a.message, a.signatureBase64.substring(0, 20)));
+      entries.set(6, new BatchMessageValidator.Entry(multisig, a.message, a.signatureBase64));
+      // Only recovery
+      entries.set(7, new BatchMessageValidator.Entry(null, a.message, a.signatureBase64));
+      // Address of an unknown network
+      byte[] unknown = a.address.getAllAddressBytes().clone();
+      unknown[0] = 0x42;
+      entries.set(8, new BatchMessageValidator.Entry(new Address(unknown), a.message, a.signatureBase64));
+
+      List<SignedMessage> results = _validator.validate(entries);
+      assertNotNull(results.get(0));
+      assertNotNull(results.get(1));
+      for (int i = 2; i <= 6; i++) {
+         assertNull("entry " + i, results.get(i));
+      }
+      assertEquals(results.get(0).getPublicKey(), results.get(7).getPublicKey());
+      assertNull(results.get(8));
+      assertNotNull(results.get(9));
+   }
+
+   @Test
+   public void hashesLikeFormattedMessage() {
+      for (String message : new String[]{"", "abc", "äöü€", new String(new char[300]).replace('\0', 'x')}) {
+         assertEquals(HashUtils.doubleSha256(Signatures.formatMessageForSigning(message)),
+               Signatures.hashMessageForSigning(message));
+      }
+   }
+
+}
@@ -0,0 +1,50 @@
+package com.mrd.bitlib.crypto;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares verifying signatures in a serial loop with the batch verifier on
+ * pools of different sizes, with and without the randomized linear
+ * combination.
+ * <p/>
+ * Run as a plain Java program, the first round serves as warm up.
+ */
+public class BatchSignatureVerifierBenchmark {
+
+   private static final int ENTRIES = 512;
+   private static final int ROUNDS = 3;
+
+   public static void main(String[] args) {
+      List<BatchSignatureVerifier.Entry> entries = BatchSignatureVerifierTest.createEntries(ENTRIES, 42);
+      int cores = Runtime.getRuntime().availableProcessors();
+      for (int round = 0; round < ROUNDS; round++) {
+         long start = System.nanoTime();
+         for (BatchSignatureVerifier.Entry entry : entries) {
+            Signatures.verifySignature(entry.message, entry.signature, entry.publicKey.getQ());
+         }
+         report(round, "serial loop", System.nanoTime() - start);
+
+         for (int threads = 1; threads <= cores; threads *= 2) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+               BatchSignatureVerifier verifier = new BatchSignatureVerifier(executor);
+               start = System.nanoTime();
+               verifier.verify(entries, false);
+               report(round, threads + " threads", System.nanoTime() - start);
+               start = System.nanoTime();
+               verifier.verify(entries, true);
+               report(round, threads + " threads, randomized", System.nanoTime() - start);
+            } finally {
+               executor.shutdownNow();
+            }
+         }
+      }
+   }
+
+   private static void report(int round, String name, long nanos) {
+      System.out.println(String.format("round %d, %s: %d verifications/s", round, name,
+            ENTRIES * 1000000000L / nanos));
+   }
+}
@@ -0,0 +1,156 @@
+package com.mrd.bitlib.crypto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mrd.bitlib.crypto.ec.Parameters;
+import com.mrd.bitlib.util.Sha256Hash;
+
+public class BatchSignatureVerifierTest {
+
+   private static final int ENTRIES = 40;
+
+   private ExecutorService _executor;
+   private BatchSignatureVerifier _verifier;
+
+   @Before
+   public void setUp() {
+      _executor = Executors.newFixedThreadPool(4);
+      _verifier = new BatchSignatureVerifier(_executor);
+   }
+
+   @After
+   public void tearDown() {
+      _executor.shutdownNow();
+   }
+
+   /**
+    * Create signed entries, with the recovery ID of each signature set
+    */
+   static List<BatchSignatureVerifier.Entry> createEntries(int count, long seed) {
+      Random random = new Random(seed);
+      RandomSource randomSource = new TestNonRandomSource();
+      List<BatchSignatureVerifier.Entry> entries = new ArrayList<BatchSignatureVerifier.Entry>(count);
+      for (int i = 0; i < count; i++) {
+         byte[] keyBytes = new byte[32];
+         random.nextBytes(keyBytes);
+         InMemoryPrivateKey key = new InMemoryPrivateKey(keyBytes, random.nextBoolean());
+         byte[] hashBytes = new byte[32];
+         random.nextBytes(hashBytes);
+         Sha256Hash hash = new Sha256Hash(hashBytes);
+         Signature signature = key.generateSignature(hash, randomSource);
+         entries.add(new BatchSignatureVerifier.Entry(hash.getBytes(), signature, key.getPublicKey(),
+               findRecoveryId(signature, hash, key.getPublicKey())));
+      }
+      return entries;
+   }
+
+   private static int findRecoveryId(Signature signature, Sha256Hash hash, PublicKey publicKey) {
+      for (int i = 0; i < 4; i++) {
+         PublicKey recovered = SignedMessage.recoverFromSignature(i, signature, hash, publicKey.isCompressed());
+         if (publicKey.equals(recovered)) {
+            return i;
+         }
+      }
+      throw new IllegalStateException("No recovery ID for signature");
+   }
+
+   private static List<BatchSignatureVerifier.Entry> withoutRecoveryIds(List<BatchSignatureVerifier.Entry> entries) {
+      List<BatchSignatureVerifier.Entry> result = new ArrayList<BatchSignatureVerifier.Entry>(entries.size());
+      for (BatchSignatureVerifier.Entry entry : entries) {
+         result.add(new BatchSignatureVerifier.Entry(entry.message, entry.signature, entry.publicKey));
+      }
+      return result;
+   }
+
+   /**
+    * Break a few of the entries in different ways, and return their indexes
+    */
+   private static List<Integer> tamper(List<BatchSignatureVerifier.Entry> entries) {
+      BatchSignatureVerifier.Entry e;
+      // Different message
+      e = entries.get(3);
+      byte[] message = e.message.clone();
+      message[0] ^= 1;
+      entries.set(3, new BatchSignatureVerifier.Entry(message, e.signature, e.publicKey, e.recoveryId));
+      // Somebody else's public key
+      e = entries.get(7);
+      entries.set(7, new BatchSignatureVerifier.Entry(e.message, e.signature, entries.get(8).publicKey, e.recoveryId));
+      // s out of range
+      e = entries.get(20);
+      entries.set(20, new BatchSignatureVerifier.Entry(e.message, new Signature(e.signature.r, Parameters.n),
+            e.publicKey, e.recoveryId));
+      // Garbage public key
+      e = entries.get(33);
+      entries.set(33, new BatchSignatureVerifier.Entry(e.message, e.signature, new PublicKey(new byte[]{0x05, 0x01}),
+            e.recoveryId));
+      return Arrays.asList(3, 7, 20, 33);
+   }
+
+   @Test
+   public void allValid() {
+      List<BatchSignatureVerifier.Entry> entries = createEntries(ENTRIES, 1);
+      assertTrue(_verifier.verify(entries).isAllValid());
+      assertTrue(_verifier.verify(entries, true).isAllValid());
+      assertTrue(_verifier.verify(withoutRecoveryIds(entries), true).isAllValid());
+   }
+
+   @Test
+   public void reportsFailedEntries() {
+      List<BatchSignatureVerifier.Entry> entries = createEntries(ENTRIES, 2);
+      List<Integer> expected = tamper(entries);
+      for (boolean randomized : new boolean[]{false, true}) {
+         BatchSignatureVerifier.Result result = _verifier.verify(entries, randomized);
+         assertFalse(result.isAllValid());
+         assertEquals(expected, result.getFailedIndexes());
+         assertFalse(result.isValid(3));
+         assertTrue(result.isValid(4));
+      }
+   }
+
+   @Test
+   public void wrongRecoveryIdFallsBack() {
+      List<BatchSignatureVerifier.Entry> entries = createEntries(ENTRIES, 3);
+      BatchSignatureVerifier.Entry e = entries.get(5);
+      // The signature is still valid, only the hint is wrong
+      entries.set(5, new BatchSignatureVerifier.Entry(e.message, e.signature, e.publicKey, e.recoveryId ^ 1));
+      e = entries.get(6);
+      entries.set(6, new BatchSignatureVerifier.Entry(e.message, e.signature, e.publicKey, e.recoveryId ^ 2));
+      assertTrue(_verifier.verify(entries, true).isAllValid());
+   }
+
+   @Test
+   public void matchesSingleVerification() {
+      List<BatchSignatureVerifier.Entry> entries = createEntries(ENTRIES, 4);
+      tamper(entries);
+      BatchSignatureVerifier.Result result = _verifier.verify(entries, true);
+      for (int i = 0; i < entries.size(); i++) {
+         BatchSignatureVerifier.Entry e = entries.get(i);
+         boolean valid;
+         try {
+            valid = Signatures.verifySignature(e.message, e.signature, e.publicKey.getQ());
+         } catch (RuntimeException ex) {
+            valid = false;
+         }
+         assertEquals(valid, result.isValid(i));
+      }
+   }
+
+   @Test
+   public void emptyList() {
+      assertTrue(_verifier.verify(new ArrayList<BatchSignatureVerifier.Entry>(), true).isAllValid());
+      assertTrue(_verifier.verify(new ArrayList<BatchSignatureVerifier.Entry>()).getFailedIndexes().isEmpty());
+   }
+}
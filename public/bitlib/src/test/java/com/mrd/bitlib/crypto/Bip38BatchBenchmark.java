@@ -0,0 +1,56 @@
+package com.mrd.bitlib.crypto;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.mrd.bitlib.model.NetworkParameters;
+
+/**
+ * Compares decrypting BIP38 keys one by one with decrypting them as a batch,
+ * for keys which need a stretch each and for EC-multiplied keys from the same
+ * intermediate code
+ */
+public class Bip38BatchBenchmark {
+
+   private static final int KEYS = 8;
+   private static final String PASSPHRASE = "TestingOneTwoThree";
+   private static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+
+   public static void main(String[] args) throws Exception {
+      List<String> plain = new ArrayList<String>();
+      for (int i = 0; i < KEYS; i++) {
+         plain.add(Bip38.encryptNoEcMultiply(PASSPHRASE, new InMemoryPrivateKey(new byte[]{0, 0, 0, 0, 0, 0, 0, 0,
+               0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) (i + 1)}, true)
+               .getBase58EncodedPrivateKey(NETWORK), null, NETWORK));
+      }
+      List<String> ecMultiplied = Collections.nCopies(KEYS, "6PfQu77ygVyJLZjfvMLyhLMQbYnu5uguoJJ4kMCLqWwPEdfpwANVS76gTX");
+
+      ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      try {
+         run("stretch per key", plain, executor);
+         run("shared owner entropy", ecMultiplied, executor);
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   private static void run(String name, List<String> keys, ExecutorService executor) throws Exception {
+      long start = System.nanoTime();
+      for (String key : keys) {
+         Bip38.decrypt(key, PASSPHRASE, null, NETWORK);
+      }
+      report(name + ", one by one", start);
+
+      start = System.nanoTime();
+      Bip38.decrypt(keys, PASSPHRASE, null, NETWORK, executor, null);
+      report(name + ", batch", start);
+   }
+
+   private static void report(String name, long start) {
+      System.out.println(String.format("%-36s %6.0f ms for %d keys", name, (System.nanoTime() - start) / 1000000.0,
+            KEYS));
+   }
+}
@@ -35,9 +35,18 @@
 package com.mrd.bitlib.crypto;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.lambdaworks.crypto.SCryptProgress;
 
 import org.junit.Test;
 
@@ -173,4 +182,62 @@ public class Bip38Test {
             NetworkParameters.productionNetwork);
       assertEquals(decoded, "5KMKKuUmAkiNbA3DazMQiLfDq47qs8MAEThm4yL8R2PhV1ov33D");
    }
+
+   @Test
+   public void decryptBatch() throws InterruptedException {
+      List<String> keys = Arrays.asList(
+            "6PRVWUbkzzsbcVac2qwfssoUJAN1Xhrg6bNk8J7Nzm5H7kxEbn2Nh2ZoGg",
+            "6PfQu77ygVyJLZjfvMLyhLMQbYnu5uguoJJ4kMCLqWwPEdfpwANVS76gTX",
+            "not a key",
+            "6PYNKZ1EAgYgmQfmNVamxyXVWHzK5s6DGhwP4J5o44cvXdoY7sRzhtpUeo",
+            // Shares its owner entropy with the key above
+            "\uFEFF6PfQu77ygVyJLZjfvMLyhLMQbYnu5uguoJJ4kMCLqWwPEdfpwANVS76gTX");
+      SCryptProgress progress = Bip38.getScryptProgressTracker(keys.size());
+      final ConcurrentMap<Integer, String> received = new ConcurrentHashMap<Integer, String>();
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         List<String> decoded = Bip38.decrypt(keys, "TestingOneTwoThree", progress,
+               NetworkParameters.productionNetwork, executor, new Bip38.DecryptionListener() {
+                  @Override
+                  public void onKeyDecrypted(int index, String bip38PrivateKey, String privateKey) {
+                     received.put(index, privateKey == null ? "" : privateKey);
+                  }
+               });
+         assertEquals(Arrays.asList("5KN7MzqK5wt2TP1fQCYyHBtDrXdJuXbUzm4A9rKAteGu3Qi5CVR",
+               "5K4caxezwjGCGfnoPTZ8tMcJBLB7Jvyjv4xxeacadhq8nLisLR2", null,
+               "L44B5gGEpqEDRS9vVPz7QT35jcBG2r3CZwSwQ4fCewXAhAhqGVpP",
+               "5K4caxezwjGCGfnoPTZ8tMcJBLB7Jvyjv4xxeacadhq8nLisLR2"), decoded);
+         assertEquals(keys.size(), received.size());
+         assertEquals("", received.get(2));
+         assertEquals(1.0, progress.getProgress(), 0.0);
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   @Test
+   public void decryptBatchWrongPassphrase() throws InterruptedException {
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         List<String> decoded = Bip38.decrypt(Arrays.asList("6PfLGnQs6VZnrNpmVKfjotbnQuaJK4KZoPFrAjx1JMJUa1Ft8gnf5WxfKd"),
+               "TestingOneTwoThree", null, NetworkParameters.productionNetwork, executor, null);
+         assertNull(decoded.get(0));
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   @Test(expected = InterruptedException.class)
+   public void decryptBatchTerminated() throws InterruptedException {
+      List<String> keys = Arrays.asList("6PRVWUbkzzsbcVac2qwfssoUJAN1Xhrg6bNk8J7Nzm5H7kxEbn2Nh2ZoGg",
+            "6PYNKZ1EAgYgmQfmNVamxyXVWHzK5s6DGhwP4J5o44cvXdoY7sRzhtpUeo");
+      SCryptProgress progress = Bip38.getScryptProgressTracker(keys.size());
+      progress.terminate();
+      ExecutorService executor = Executors.newFixedThreadPool(2);
+      try {
+         Bip38.decrypt(keys, "TestingOneTwoThree", progress, NetworkParameters.productionNetwork, executor, null);
+      } finally {
+         executor.shutdownNow();
+      }
+   }
 }
@@ -0,0 +1,43 @@
+package com.mrd.bitlib.crypto;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.util.HexUtils;
+
+/**
+ * Measures searching the whole candidate space of a 12 word list with a
+ * missing word at a known and at an unknown position, with a target address
+ * that is never found
+ */
+public class Bip39RecoveryBenchmark {
+
+   private static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+
+   public static void main(String[] args) throws Exception {
+      String[] words = Bip39.rawEntropyToWords(HexUtils.toBytes("9e885d952ad362caeb4efe34a8e91bd2"));
+      String[] known = words.clone();
+      known[5] = null;
+      String[] unknown = Arrays.copyOfRange(words, 1, words.length);
+
+      ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      try {
+         run("known position", known, executor);
+         run("unknown position", unknown, executor);
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   private static void run(String name, String[] words, ExecutorService executor) throws Exception {
+      Bip39Recovery recovery = new Bip39Recovery(Address.getNullAddress(NETWORK), "", NETWORK, 1, 1, executor);
+      long start = System.nanoTime();
+      recovery.recoverMissingWord(words);
+      double ms = (System.nanoTime() - start) / 1000000.0;
+      System.out.println(String.format("%-18s %7.0f ms, %5d candidates derived, %5.2f ms per derived candidate",
+            name, ms, recovery.getDerivedCount(), ms / recovery.getDerivedCount()));
+   }
+}
@@ -0,0 +1,116 @@
+package com.mrd.bitlib.crypto;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.util.HexUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class Bip39RecoveryTest {
+
+   private static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+   private static final String[] WORDS = Bip39.rawEntropyToWords(HexUtils.toBytes("9e885d952ad362caeb4efe34a8e91bd2"));
+
+   private ExecutorService _executor;
+
+   @Before
+   public void setUp() {
+      _executor = Executors.newFixedThreadPool(2);
+   }
+
+   @After
+   public void tearDown() {
+      _executor.shutdownNow();
+   }
+
+   private static Address deriveAddress(String[] words, int chain, int index) {
+      byte[] seed = Bip39.generateSeedFromWordList(words, "").getBip32Seed();
+      return HdKeyNode.fromSeed(seed).createChildNode(0x8000002C).createChildNode(0x80000000)
+            .createChildNode(0x80000000).createChildNode(chain).createChildPublicKey(index).toAddress(NETWORK);
+   }
+
+   private Bip39Recovery createRecovery(Address target, int addressesPerChain) {
+      return new Bip39Recovery(target, "", NETWORK, 1, addressesPerChain, _executor);
+   }
+
+   @Test
+   public void testSwappedWords() throws InterruptedException {
+      // The first BIP44 address of the well known all abandon word list
+      Address target = Address.fromString("1LqBGSKuX5yYUonjxT5qGfpUsXKYYWeabA", NETWORK);
+      String[] expected = "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about".split(" ");
+      String[] swapped = expected.clone();
+      swapped[3] = "about";
+      swapped[11] = "abandon";
+      Bip39Recovery recovery = createRecovery(target, 1);
+      assertArrayEquals(expected, recovery.recoverSwappedWords(swapped));
+   }
+
+   @Test
+   public void testMissingWordAtKnownPosition() throws InterruptedException {
+      String[] words = WORDS.clone();
+      words[5] = null;
+      Bip39Recovery recovery = createRecovery(deriveAddress(WORDS, 0, 0), 1);
+      assertArrayEquals(WORDS, recovery.recoverMissingWord(words));
+      // Only the candidates which pass the checksum are derived
+      assertTrue(recovery.getDerivedCount() < 2048 / 4);
+
+      // A misspelled word marks the position too
+      words[5] = "bitcoin";
+      assertArrayEquals(WORDS, createRecovery(deriveAddress(WORDS, 0, 0), 1).recoverMissingWord(words));
+   }
+
+   @Test
+   public void testMissingWordAtUnknownPosition() throws InterruptedException {
+      String[] words = Arrays.copyOfRange(WORDS, 1, WORDS.length);
+      assertArrayEquals(WORDS, createRecovery(deriveAddress(WORDS, 0, 0), 1).recoverMissingWord(words));
+   }
+
+   @Test
+   public void testChangeAddress() throws InterruptedException {
+      String[] words = WORDS.clone();
+      words[11] = null;
+      assertArrayEquals(WORDS, createRecovery(deriveAddress(WORDS, 1, 2), 3).recoverMissingWord(words));
+   }
+
+   @Test
+   public void testNotFound() throws InterruptedException {
+      String[] words = WORDS.clone();
+      words[0] = null;
+      Bip39Recovery recovery = createRecovery(Address.getNullAddress(NETWORK), 1);
+      assertNull(recovery.recoverMissingWord(words));
+      assertTrue(recovery.getProgress() == 1.0);
+   }
+
+   @Test
+   public void testCancel() {
+      String[] words = WORDS.clone();
+      words[0] = null;
+      Bip39Recovery recovery = createRecovery(Address.getNullAddress(NETWORK), 1);
+      recovery.cancel();
+      try {
+         recovery.recoverMissingWord(words);
+         fail();
+      } catch (InterruptedException e) {
+         assertTrue(recovery.isCancelled());
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testTwoWordsMissing() throws InterruptedException {
+      String[] words = WORDS.clone();
+      words[0] = null;
+      words[1] = null;
+      createRecovery(Address.getNullAddress(NETWORK), 1).recoverMissingWord(words);
+   }
+}
@@ -0,0 +1,49 @@
+package com.mrd.bitlib.crypto;
+
+/**
+ * Measures brute forcing one missing word of a 24 word list: every word at
+ * every position, checked by its checksum
+ */
+public class Bip39WordIndexBenchmark {
+
+   public static void main(String[] args) {
+      String[] complete = Bip39.rawEntropyToWords(new byte[32]);
+      for (int warmup = 0; warmup < 3; warmup++) {
+         long start = System.nanoTime();
+         int valid = 0;
+         String[] words = new String[complete.length];
+         for (int position = 0; position < words.length; position++) {
+            for (String candidate : Bip39.ENGLISH_WORD_LIST) {
+               for (int i = 0; i < words.length; i++) {
+                  words[i] = i == position ? candidate : complete[i];
+               }
+               if (Bip39.isValidWordList(words)) {
+                  valid++;
+               }
+            }
+         }
+         report("words", start, valid);
+
+         start = System.nanoTime();
+         valid = 0;
+         int[] indexes = new int[complete.length];
+         for (int position = 0; position < indexes.length; position++) {
+            for (int i = 0; i < indexes.length; i++) {
+               indexes[i] = Bip39.getEnglishWordIndex().indexOf(complete[i]);
+            }
+            for (int candidate = 0; candidate < Bip39.ENGLISH_WORD_LIST.length; candidate++) {
+               indexes[position] = candidate;
+               if (Bip39.isValidWordIndexes(indexes)) {
+                  valid++;
+               }
+            }
+         }
+         report("word indexes", start, valid);
+      }
+   }
+
+   private static void report(String name, long start, int valid) {
+      System.out.println(String.format("%-14s %6.1f ms for 24 x 2048 candidates, %d valid", name,
+            (System.nanoTime() - start) / 1000000.0, valid));
+   }
+}
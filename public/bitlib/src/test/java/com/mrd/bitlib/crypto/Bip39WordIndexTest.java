@@ -0,0 +1,107 @@
+package com.mrd.bitlib.crypto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Bip39WordIndexTest {
+
+   private static final Bip39WordIndex INDEX = Bip39.getEnglishWordIndex();
+
+   @Test
+   public void testIndexOf() {
+      for (int i = 0; i < Bip39.ENGLISH_WORD_LIST.length; i++) {
+         assertEquals(i, INDEX.indexOf(Bip39.ENGLISH_WORD_LIST[i]));
+         assertEquals(Bip39.ENGLISH_WORD_LIST[i], INDEX.getWord(i));
+      }
+      assertEquals(-1, INDEX.indexOf("bitcoin"));
+      assertEquals(-1, INDEX.indexOf(""));
+      assertTrue(Bip39.isValidWord("zoo"));
+      assertFalse(Bip39.isValidWord("zo"));
+   }
+
+   @Test
+   public void testComplete() {
+      for (String prefix : new String[]{"", "a", "ab", "abo", "zoo", "zz", "sh", "xyz"}) {
+         List<String> expected = new ArrayList<String>();
+         for (String word : Bip39.ENGLISH_WORD_LIST) {
+            if (word.startsWith(prefix)) {
+               expected.add(word);
+            }
+         }
+         assertEquals(expected, INDEX.complete(prefix, Integer.MAX_VALUE));
+         assertEquals(expected.subList(0, Math.min(3, expected.size())), INDEX.complete(prefix, 3));
+      }
+   }
+
+   @Test
+   public void testCompleteUnsortedList() {
+      Bip39WordIndex index = new Bip39WordIndex(new String[]{"pear", "apple", "peach", "apricot"});
+      assertEquals(Arrays.asList("peach", "pear"), index.complete("pe", 5));
+      assertEquals(Arrays.asList("apple", "apricot"), index.complete("ap", 5));
+      assertEquals(3, index.indexOf("apricot"));
+   }
+
+   @Test
+   public void testSuggest() {
+      // Replaced, inserted, deleted and swapped characters
+      assertTrue(INDEX.suggest("abandin", 10).contains("abandon"));
+      assertTrue(INDEX.suggest("abanddon", 10).contains("abandon"));
+      assertTrue(INDEX.suggest("abandn", 10).contains("abandon"));
+      assertTrue(INDEX.suggest("abnadon", 10).contains("abandon"));
+      assertTrue(INDEX.suggest("zooo", 10).contains("zoo"));
+      assertEquals(Arrays.asList("toe", "zone", "zoo"), INDEX.suggest("zoe", 10));
+      // Too far away
+      assertTrue(INDEX.suggest("xyzzy", 10).isEmpty());
+      // A valid word is no suggestion for itself
+      assertFalse(INDEX.suggest("zoo", 10).contains("zoo"));
+   }
+
+   @Test
+   public void testSuggestMatchesBruteForce() {
+      String[] typos = {"abot", "acress", "actoin", "bcak", "crane", "drem", "fial", "lemn", "tets", "wrold", "ax"};
+      for (String typo : typos) {
+         List<String> expected = new ArrayList<String>();
+         for (String word : Bip39.ENGLISH_WORD_LIST) {
+            if (!word.equals(typo) && Bip39WordIndex.isOneEditAway(typo, word)) {
+               expected.add(word);
+            }
+         }
+         assertEquals(typo, expected, INDEX.suggest(typo, Integer.MAX_VALUE));
+      }
+   }
+
+   @Test
+   public void testIsOneEditAway() {
+      assertTrue(Bip39WordIndex.isOneEditAway("cat", "cut"));
+      assertTrue(Bip39WordIndex.isOneEditAway("cat", "cast"));
+      assertTrue(Bip39WordIndex.isOneEditAway("cast", "cat"));
+      assertTrue(Bip39WordIndex.isOneEditAway("cat", "act"));
+      assertTrue(Bip39WordIndex.isOneEditAway("cat", "cta"));
+      assertFalse(Bip39WordIndex.isOneEditAway("cat", "cat"));
+      assertFalse(Bip39WordIndex.isOneEditAway("cat", "dog"));
+      assertFalse(Bip39WordIndex.isOneEditAway("cat", "tac"));
+      assertFalse(Bip39WordIndex.isOneEditAway("cat", "casts"));
+   }
+
+   @Test
+   public void testValidWordIndexes() {
+      String[] words = "legal winner thank year wave sausage worth useful legal winner thank yellow".split(" ");
+      int[] indexes = new int[words.length];
+      for (int i = 0; i < words.length; i++) {
+         indexes[i] = INDEX.indexOf(words[i]);
+      }
+      assertTrue(Bip39.isValidWordIndexes(indexes));
+      indexes[11] = (indexes[11] + 1) % 2048;
+      assertFalse(Bip39.isValidWordIndexes(indexes));
+      indexes[11] = 2048;
+      assertFalse(Bip39.isValidWordIndexes(indexes));
+      assertFalse(Bip39.isValidWordIndexes(new int[11]));
+   }
+}
@@ -0,0 +1,50 @@
+package com.mrd.bitlib.crypto;
+
+import java.util.Random;
+
+import com.lambdaworks.crypto.PBKDF;
+import com.mrd.bitlib.util.HexUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Pbkdf2HmacSha512Test {
+
+   @Test
+   public void testKnownValues() throws Exception {
+      assertEquals("867f70cf1ade02cff3752599a3a53dc4af34c7a669815ae5d513554e1c8cf252"
+            + "c02d470a285a0501bad999bfe943c08f050235d7d68b1da55e63f73b60a57fce",
+            HexUtils.toHex(Pbkdf2HmacSha512.derive("password".getBytes("UTF-8"), "salt".getBytes("UTF-8"), 1, 64)));
+      assertEquals("e1d9c16aa681708a45f5c7c4e215ceb66e011a2e9f0040713f18aefdb866d53c"
+            + "f76cab2868a39b9f7840edce4fef5a82be67335c77a6068e04112754f27ccf4e",
+            HexUtils.toHex(Pbkdf2HmacSha512.derive("password".getBytes("UTF-8"), "salt".getBytes("UTF-8"), 2, 64)));
+   }
+
+   @Test
+   public void testMatchesMac() throws Exception {
+      Random random = new Random(1);
+      for (int i = 0; i < 50; i++) {
+         // Passwords longer than a block are hashed first, salts longer than a
+         // block need more than one compression, and key lengths which are no
+         // multiple of the hash length are cut
+         byte[] password = new byte[random.nextInt(200)];
+         random.nextBytes(password);
+         byte[] salt = new byte[random.nextInt(300)];
+         random.nextBytes(salt);
+         int iterations = 1 + random.nextInt(20);
+         int keyLength = random.nextInt(200);
+         assertArrayEquals(PBKDF.pbkdf2("HmacSHA512", password, salt, iterations, keyLength),
+               Pbkdf2HmacSha512.derive(password, salt, iterations, keyLength));
+      }
+   }
+
+   @Test
+   public void testBip39Iterations() throws Exception {
+      byte[] mnemonic = "abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon abandon about"
+            .getBytes("UTF-8");
+      byte[] salt = "mnemonicTREZOR".getBytes("UTF-8");
+      assertArrayEquals(PBKDF.pbkdf2("HmacSHA512", mnemonic, salt, 2048, 64),
+            Pbkdf2HmacSha512.derive(mnemonic, salt, 2048, 64));
+   }
+}
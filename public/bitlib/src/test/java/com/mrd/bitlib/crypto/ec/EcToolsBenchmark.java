@@ -0,0 +1,48 @@
+package com.mrd.bitlib.crypto.ec;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+/**
+ * Measures the time of the scalar multiplications used for key derivation,
+ * signing and signature verification.
+ * <p/>
+ * Run as a plain Java program, the first rounds serve as warm up.
+ */
+public class EcToolsBenchmark {
+
+   private static final int ROUNDS = 5;
+   private static final int ITERATIONS = 500;
+
+   public static void main(String[] args) {
+      Random random = new Random(42);
+      BigInteger[] scalars = new BigInteger[ITERATIONS];
+      Point[] points = new Point[ITERATIONS];
+      for (int i = 0; i < ITERATIONS; i++) {
+         scalars[i] = new BigInteger(256, random).mod(Parameters.n);
+         points[i] = EcTools.multiply(Parameters.G, new BigInteger(256, random).mod(Parameters.n));
+      }
+      for (int round = 0; round < ROUNDS; round++) {
+         long start = System.nanoTime();
+         for (int i = 0; i < ITERATIONS; i++) {
+            EcTools.multiply(Parameters.G, scalars[i]);
+         }
+         long generator = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for (int i = 0; i < ITERATIONS; i++) {
+            EcTools.multiply(points[i], scalars[i]);
+         }
+         long point = System.nanoTime() - start;
+
+         start = System.nanoTime();
+         for (int i = 0; i < ITERATIONS; i++) {
+            EcTools.sumOfTwoMultiplies(Parameters.G, scalars[i], points[i], scalars[ITERATIONS - 1 - i]);
+         }
+         long sum = System.nanoTime() - start;
+
+         System.out.println(String.format("round %d: k*G %d us, k*P %d us, k*G+l*P %d us", round,
+               generator / ITERATIONS / 1000, point / ITERATIONS / 1000, sum / ITERATIONS / 1000));
+      }
+   }
+}
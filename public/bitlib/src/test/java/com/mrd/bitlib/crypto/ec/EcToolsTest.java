@@ -0,0 +1,141 @@
+package com.mrd.bitlib.crypto.ec;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class EcToolsTest {
+
+   private static final Point G = Parameters.G;
+   private static final BigInteger N = Parameters.n;
+
+   /**
+    * Plain double-and-add over affine points, used as the reference
+    */
+   private static Point referenceMultiply(Point p, BigInteger k) {
+      Point r = p.getCurve().getInfinity();
+      for (int i = k.bitLength() - 1; i >= 0; i--) {
+         r = r.twice();
+         if (k.testBit(i)) {
+            r = r.add(p);
+         }
+      }
+      return r;
+   }
+
+   private static BigInteger randomScalar(Random random) {
+      BigInteger k;
+      do {
+         k = new BigInteger(256, random);
+      } while (k.signum() == 0 || k.compareTo(N) >= 0);
+      return k;
+   }
+
+   @Test
+   public void multiplyGenerator() {
+      Random random = new Random(1);
+      for (int i = 0; i < 20; i++) {
+         BigInteger k = randomScalar(random);
+         assertEquals(referenceMultiply(G, k), EcTools.multiply(G, k));
+      }
+   }
+
+   @Test
+   public void multiplyPoint() {
+      Random random = new Random(2);
+      for (int i = 0; i < 20; i++) {
+         Point p = referenceMultiply(G, randomScalar(random));
+         BigInteger k = randomScalar(random);
+         assertEquals(referenceMultiply(p, k), EcTools.multiply(p, k));
+      }
+   }
+
+   @Test
+   public void multiplyEdgeCases() {
+      Point p = referenceMultiply(G, BigInteger.valueOf(12345));
+      assertTrue(EcTools.multiply(G, BigInteger.ZERO).isInfinity());
+      assertTrue(EcTools.multiply(p, BigInteger.ZERO).isInfinity());
+      assertTrue(EcTools.multiply(G, N).isInfinity());
+      assertTrue(EcTools.multiply(p, N).isInfinity());
+      assertTrue(EcTools.multiply(G.getCurve().getInfinity(), BigInteger.TEN).isInfinity());
+      assertEquals(G, EcTools.multiply(G, BigInteger.ONE));
+      assertEquals(p, EcTools.multiply(p, BigInteger.ONE));
+      assertEquals(G, EcTools.multiply(G, N.add(BigInteger.ONE)));
+      assertEquals(p, EcTools.multiply(p, N.add(BigInteger.ONE)));
+      assertEquals(G.negate(), EcTools.multiply(G, N.subtract(BigInteger.ONE)));
+      assertEquals(p.negate(), EcTools.multiply(p, N.subtract(BigInteger.ONE)));
+      assertEquals(p.negate(), EcTools.multiply(p, BigInteger.ONE.negate()));
+      // All bits set in every window of the table
+      BigInteger ones = BigInteger.ONE.shiftLeft(255).subtract(BigInteger.ONE);
+      assertEquals(referenceMultiply(G, ones), EcTools.multiply(G, ones));
+   }
+
+   @Test
+   public void sumOfTwoMultiplies() {
+      Random random = new Random(3);
+      for (int i = 0; i < 20; i++) {
+         Point q = referenceMultiply(G, randomScalar(random));
+         BigInteger k = randomScalar(random);
+         BigInteger l = randomScalar(random);
+         Point expected = referenceMultiply(G, k).add(referenceMultiply(q, l));
+         assertEquals(expected, EcTools.sumOfTwoMultiplies(G, k, q, l));
+         assertEquals(expected, EcTools.sumOfTwoMultiplies(q, l, G, k));
+      }
+   }
+
+   @Test
+   public void sumOfTwoMultipliesEdgeCases() {
+      Point p = referenceMultiply(G, BigInteger.valueOf(777));
+      BigInteger k = BigInteger.valueOf(1000);
+      // k * G + (n - k) * G = infinity
+      assertTrue(EcTools.sumOfTwoMultiplies(G, k, G, N.subtract(k)).isInfinity());
+      // k * P + k * P = 2k * P
+      assertEquals(referenceMultiply(p, k.shiftLeft(1)), EcTools.sumOfTwoMultiplies(p, k, p, k));
+      assertEquals(referenceMultiply(p, k), EcTools.sumOfTwoMultiplies(p, k, G, BigInteger.ZERO));
+      assertEquals(referenceMultiply(p, k), EcTools.sumOfTwoMultiplies(G.getCurve().getInfinity(), k, p, k));
+   }
+
+   @Test
+   public void sumOfMultiplies() {
+      Random random = new Random(5);
+      for (int count = 1; count <= 6; count++) {
+         Point[] points = new Point[count];
+         BigInteger[] scalars = new BigInteger[count];
+         Point expected = G.getCurve().getInfinity();
+         for (int i = 0; i < count; i++) {
+            points[i] = i == 2 ? G : referenceMultiply(G, randomScalar(random));
+            scalars[i] = i == 3 ? randomScalar(random).negate() : randomScalar(random);
+            expected = expected.add(referenceMultiply(points[i], scalars[i].mod(N)));
+         }
+         assertEquals(expected, EcTools.sumOfMultiplies(points, scalars));
+      }
+      assertTrue(EcTools.sumOfMultiplies(new Point[0], new BigInteger[0]).isInfinity());
+   }
+
+   @Test
+   public void wnafDigits() {
+      Random random = new Random(4);
+      for (int width = 2; width <= 7; width++) {
+         for (int i = 0; i < 50; i++) {
+            BigInteger k = new BigInteger(1 + random.nextInt(256), random);
+            byte[] digits = EcTools.wnaf(k, width);
+            BigInteger sum = BigInteger.ZERO;
+            int lastNonZero = -width;
+            for (int j = 0; j < digits.length; j++) {
+               if (digits[j] != 0) {
+                  assertTrue(digits[j] % 2 != 0);
+                  assertTrue(Math.abs(digits[j]) < 1 << (width - 1));
+                  assertTrue(j - lastNonZero >= width);
+                  lastNonZero = j;
+               }
+               sum = sum.add(BigInteger.valueOf(digits[j]).shiftLeft(j));
+            }
+            assertEquals(k, sum);
+         }
+      }
+   }
+}
@@ -0,0 +1,83 @@
+package com.mrd.bitlib.model;
+
+import com.mrd.bitlib.util.HexUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class AddressCacheTest {
+
+   private static final String ADDRESS = "1NiKrdcsiat3NVRu5XCmGkzZhZDTGXabU5";
+
+   @Test
+   public void returnsCanonicalInstances() {
+      AddressCache cache = new AddressCache(10);
+      Address fromString = cache.fromString(ADDRESS);
+      assertNotNull(fromString);
+      assertEquals(1, cache.getMissCount());
+
+      // Same bytes in a fresh array
+      Address fromBytes = cache.fromStandardBytes(fromString.getTypeSpecificBytes(),
+            NetworkParameters.productionNetwork);
+      assertSame(fromString, fromBytes);
+      assertSame(fromString, cache.fromString(ADDRESS));
+      assertSame(fromString, cache.intern(new Address(fromString.getAllAddressBytes().clone())));
+      assertEquals(3, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+      assertEquals(0.75, cache.getHitRate(), 0.0001);
+   }
+
+   @Test
+   public void mapsAddedAddressesToStrings() {
+      AddressCache cache = new AddressCache(10);
+      byte[] hash = HexUtils.toBytes("ee4ca9b4e5bdfa1b9eac4d9bba3c1a5ba9bab6dc");
+      Address address = cache.fromMultisigBytes(hash, NetworkParameters.testNetwork);
+      assertTrue(address.isMultisig(NetworkParameters.testNetwork));
+      assertSame(address, cache.fromString(address.toString()));
+      assertEquals(1, cache.getHitCount());
+      assertNull(cache.fromMultisigBytes(new byte[19], NetworkParameters.testNetwork));
+   }
+
+   @Test
+   public void copiesBytesOfCaller() {
+      AddressCache cache = new AddressCache(10);
+      byte[] bytes = Address.fromString(ADDRESS).getAllAddressBytes().clone();
+      Address address = cache.fromBytes(bytes);
+      bytes[5]++;
+      assertEquals(ADDRESS, address.toString());
+      assertSame(address, cache.fromString(ADDRESS));
+      assertNotSame(address, cache.fromBytes(bytes));
+   }
+
+   @Test
+   public void rejectsInvalidStrings() {
+      AddressCache cache = new AddressCache(10);
+      assertNull(cache.fromString(null));
+      assertNull(cache.fromString(""));
+      assertNull(cache.fromString(ADDRESS.substring(1)));
+      assertNull(cache.fromString(ADDRESS + "1"));
+      assertEquals(0, cache.size());
+      // A BOM is tolerated, the address is then found by its canonical string
+      assertEquals(ADDRESS, cache.fromString('\uFEFF' + ADDRESS).toString());
+      assertNotNull(cache.fromString(ADDRESS));
+      assertEquals(4, cache.getMissCount());
+      assertEquals(1, cache.getHitCount());
+   }
+
+   @Test
+   public void staysWithinMaximumSize() {
+      AddressCache cache = new AddressCache(8);
+      for (int i = 0; i < 100; i++) {
+         byte[] hash = new byte[20];
+         hash[0] = (byte) i;
+         cache.fromStandardBytes(hash, NetworkParameters.productionNetwork);
+      }
+      assertTrue(cache.size() <= 8);
+      assertTrue(cache.getEvictionCount() >= 92);
+      cache.clear();
+      assertEquals(0, cache.size());
+      assertEquals(0, cache.getMissCount());
+      assertEquals(1.0, cache.getHitRate(), 0);
+   }
+
+}
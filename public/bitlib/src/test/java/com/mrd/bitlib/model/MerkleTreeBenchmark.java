@@ -0,0 +1,54 @@
+package com.mrd.bitlib.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * Measures calculating Merkle roots of large blocks, and verifying Merkle
+ * branches
+ */
+public class MerkleTreeBenchmark {
+
+   private static final int TRANSACTIONS = 100000;
+   private static final int BRANCHES = 10000;
+
+   public static void main(String[] args) throws Exception {
+      List<Sha256Hash> txids = MerkleTreeTest.createTxids(TRANSACTIONS, 0);
+      int threads = Runtime.getRuntime().availableProcessors();
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+         for (int warmup = 0; warmup < 3; warmup++) {
+            long start = System.nanoTime();
+            Sha256Hash root = MerkleTree.computeRoot(txids);
+            System.out.println(String.format("Root of %d transactions: %.1f ms", TRANSACTIONS,
+                  (System.nanoTime() - start) / 1000000.0));
+
+            start = System.nanoTime();
+            MerkleTree.computeRoot(txids, executor);
+            System.out.println(String.format("Root of %d transactions on %d threads: %.1f ms", TRANSACTIONS, threads,
+                  (System.nanoTime() - start) / 1000000.0));
+
+            List<MerkleBranch> branches = new ArrayList<MerkleBranch>();
+            for (int i = 0; i < 100; i++) {
+               branches.add(MerkleTree.buildBranch(txids, i * (TRANSACTIONS / 100)));
+            }
+            start = System.nanoTime();
+            int valid = 0;
+            for (int i = 0; i < BRANCHES; i++) {
+               if (branches.get(i % branches.size()).verify(root)) {
+                  valid++;
+               }
+            }
+            double seconds = (System.nanoTime() - start) / 1000000000.0;
+            System.out.println(String.format("Verified %d branches of depth %d: %.0f per second", valid,
+                  branches.get(0).hashes.size(), BRANCHES / seconds));
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+}
@@ -0,0 +1,145 @@
+package com.mrd.bitlib.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MerkleTreeTest {
+
+   static List<Sha256Hash> createTxids(int count, long seed) {
+      Random random = new Random(seed);
+      List<Sha256Hash> txids = new ArrayList<Sha256Hash>(count);
+      for (int i = 0; i < count; i++) {
+         byte[] bytes = new byte[32];
+         random.nextBytes(bytes);
+         txids.add(new Sha256Hash(bytes));
+      }
+      return txids;
+   }
+
+   /**
+    * The textbook definition, one level at a time
+    */
+   private static Sha256Hash referenceRoot(List<Sha256Hash> txids) {
+      List<Sha256Hash> level = new ArrayList<Sha256Hash>();
+      for (Sha256Hash txid : txids) {
+         level.add(txid.reverse());
+      }
+      while (level.size() > 1) {
+         List<Sha256Hash> next = new ArrayList<Sha256Hash>();
+         for (int i = 0; i < level.size(); i += 2) {
+            Sha256Hash left = level.get(i);
+            Sha256Hash right = level.get(Math.min(i + 1, level.size() - 1));
+            next.add(HashUtils.doubleSha256TwoBuffers(left.getBytes(), right.getBytes()));
+         }
+         level = next;
+      }
+      return level.get(0).reverse();
+   }
+
+   @Test
+   public void testKnownBlocks() {
+      // Genesis block, a single transaction
+      Sha256Hash genesisCoinbase = Sha256Hash.fromString("4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b");
+      assertEquals(genesisCoinbase, MerkleTree.computeRoot(Arrays.asList(genesisCoinbase)));
+      // Block 170, the first block with a regular transaction
+      List<Sha256Hash> block170 = Arrays.asList(
+            Sha256Hash.fromString("b1fea52486ce0c62bb442b530a3f0132b826c74e473d1f2c220bfa78111c5082"),
+            Sha256Hash.fromString("f4184fc596403b9d638783cf57adfe4c75c605f6356fbc91338530e9831e9e16"));
+      Sha256Hash root170 = Sha256Hash.fromString("7dac2c5666815c17a3b36427de37bb9d2e2c5ccec3f8633eb91a4205cb4c10ff");
+      assertEquals(root170, MerkleTree.computeRoot(block170));
+      assertTrue(MerkleTree.buildBranch(block170, block170.get(1)).verify(root170));
+   }
+
+   @Test
+   public void testMatchesReference() {
+      for (int count = 1; count <= 40; count++) {
+         List<Sha256Hash> txids = createTxids(count, count);
+         assertEquals(referenceRoot(txids), MerkleTree.computeRoot(txids));
+      }
+   }
+
+   @Test
+   public void testParallel() throws Exception {
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+         for (int count : new int[]{1, 4095, 4096, 10001}) {
+            List<Sha256Hash> txids = createTxids(count, count);
+            assertEquals(MerkleTree.computeRoot(txids), MerkleTree.computeRoot(txids, executor));
+         }
+         List<Sha256Hash> txids = createTxids(5000, 1);
+         assertEquals(referenceRoot(txids), MerkleTree.computeRoot(txids, executor));
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   @Test
+   public void testBranches() {
+      for (int count = 1; count <= 33; count++) {
+         List<Sha256Hash> txids = createTxids(count, count);
+         Sha256Hash root = MerkleTree.computeRoot(txids);
+         for (int index = 0; index < count; index++) {
+            MerkleBranch branch = MerkleTree.buildBranch(txids, index);
+            assertEquals(txids.get(index), branch.txid);
+            assertEquals(root, branch.computeRoot());
+            assertTrue(branch.verify(root));
+         }
+      }
+   }
+
+   @Test
+   public void testTamperedBranches() {
+      List<Sha256Hash> txids = createTxids(13, 0);
+      Sha256Hash root = MerkleTree.computeRoot(txids);
+      MerkleBranch branch = MerkleTree.buildBranch(txids, 5);
+      // Another transaction
+      assertFalse(new MerkleBranch(txids.get(4), 5, branch.hashes).verify(root));
+      // Another position
+      assertFalse(new MerkleBranch(branch.txid, 4, branch.hashes).verify(root));
+      // A position the branch cannot have
+      assertNull(new MerkleBranch(branch.txid, 5 + 16, branch.hashes).computeRoot());
+      // Another hash
+      List<Sha256Hash> hashes = new ArrayList<Sha256Hash>(branch.hashes);
+      hashes.set(2, txids.get(0));
+      assertFalse(new MerkleBranch(branch.txid, 5, hashes).verify(root));
+      // Another root
+      assertFalse(branch.verify(txids.get(0)));
+   }
+
+   @Test
+   public void testUnknownTransaction() {
+      List<Sha256Hash> txids = createTxids(10, 0);
+      assertNull(MerkleTree.buildBranch(txids, Sha256Hash.ZERO_HASH));
+   }
+
+   @Test
+   public void testBlock() {
+      Random random = new Random(3);
+      Transaction[] transactions = new Transaction[7];
+      List<Sha256Hash> txids = new ArrayList<Sha256Hash>();
+      for (int i = 0; i < transactions.length; i++) {
+         transactions[i] = TransactionViewTest.createTransaction(random, 1, 1);
+         txids.add(transactions[i].getHash());
+      }
+      Sha256Hash root = MerkleTree.computeRoot(txids);
+      Block block = new Block(1, Sha256Hash.ZERO_HASH, root, 0, 0, 0, transactions);
+      assertEquals(root, block.computeMerkleRoot());
+      assertTrue(block.isMerkleRootValid());
+      assertTrue(MerkleTree.buildBranch(txids, 6).verify(block));
+      block.merkleRoot = Sha256Hash.ZERO_HASH;
+      assertFalse(block.isMerkleRootValid());
+   }
+}
@@ -0,0 +1,41 @@
+package com.mrd.bitlib.model;
+
+import java.util.Random;
+
+/**
+ * Compares hashing the whole transaction for every input with the sighash
+ * engine for growing numbers of inputs
+ */
+public class SigHashBenchmark {
+
+   private static final int[] INPUT_COUNTS = {10, 50, 100, 200, 400, 800};
+
+   public static void main(String[] args) {
+      Random random = new Random(42);
+      for (int round = 0; round < 2; round++) {
+         for (int inputCount : INPUT_COUNTS) {
+            Transaction transaction = SigHashEngineTest.createTransaction(random, inputCount, 2);
+            ScriptOutput[] funding = new ScriptOutput[inputCount];
+            byte[][] scriptCodes = new byte[inputCount][];
+            for (int i = 0; i < inputCount; i++) {
+               funding[i] = SigHashEngineTest.createScript(random);
+               scriptCodes[i] = funding[i].getScriptBytes();
+            }
+            int repeat = Math.max(1, 20000 / inputCount / inputCount * 10);
+            long start = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+               SigHashEngineTest.hashNaively(transaction, funding);
+            }
+            long naive = (System.nanoTime() - start) / repeat;
+            start = System.nanoTime();
+            for (int r = 0; r < repeat; r++) {
+               new SigHashEngine(transaction).getSigHashes(scriptCodes);
+            }
+            long engine = (System.nanoTime() - start) / repeat;
+            System.out.println(String.format("%4d inputs: naive %8.2f ms (%6.1f us per input), engine %8.2f ms "
+                  + "(%6.1f us per input)", inputCount, naive / 1e6, naive / 1e3 / inputCount, engine / 1e6,
+                  engine / 1e3 / inputCount));
+         }
+      }
+   }
+}
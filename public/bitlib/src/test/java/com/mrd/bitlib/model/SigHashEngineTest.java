@@ -0,0 +1,83 @@
+package com.mrd.bitlib.model;
+
+import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.HashUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class SigHashEngineTest {
+
+   static Transaction createTransaction(Random random, int inputCount, int outputCount) {
+      TransactionInput[] inputs = new TransactionInput[inputCount];
+      for (int i = 0; i < inputCount; i++) {
+         byte[] hash = new byte[32];
+         random.nextBytes(hash);
+         inputs[i] = new TransactionInput(new OutPoint(new Sha256Hash(hash), random.nextInt(10)), ScriptInput.EMPTY,
+               random.nextBoolean() ? -1 : random.nextInt());
+      }
+      TransactionOutput[] outputs = new TransactionOutput[outputCount];
+      for (int i = 0; i < outputCount; i++) {
+         outputs[i] = new TransactionOutput(random.nextInt(100000000), createScript(random));
+      }
+      return new Transaction(1, inputs, outputs, random.nextInt(1000));
+   }
+
+   static ScriptOutputStandard createScript(Random random) {
+      byte[] addressBytes = new byte[20];
+      random.nextBytes(addressBytes);
+      return new ScriptOutputStandard(addressBytes);
+   }
+
+   /**
+    * Hash the whole transaction for every input the way it is defined
+    */
+   static Sha256Hash[] hashNaively(Transaction transaction, ScriptOutput[] funding) {
+      Sha256Hash[] hashes = new Sha256Hash[funding.length];
+      for (int i = 0; i < funding.length; i++) {
+         TransactionInput input = transaction.inputs[i];
+         ScriptInput original = input.script;
+         input.script = ScriptInput.fromOutputScript(funding[i]);
+         ByteWriter writer = new ByteWriter(1024);
+         transaction.toByteWriter(writer);
+         writer.putIntLE(SigHashEngine.SIGHASH_ALL);
+         hashes[i] = HashUtils.doubleSha256(writer.toBytes());
+         input.script = original;
+      }
+      return hashes;
+   }
+
+   @Test
+   public void matchesNaiveHashing() {
+      Random random = new Random(42);
+      for (int inputCount : new int[]{1, 2, 5, 100, 300}) {
+         Transaction transaction = createTransaction(random, inputCount, 1 + random.nextInt(3));
+         ScriptOutput[] funding = new ScriptOutput[inputCount];
+         byte[][] scriptCodes = new byte[inputCount][];
+         for (int i = 0; i < inputCount; i++) {
+            funding[i] = createScript(random);
+            scriptCodes[i] = funding[i].getScriptBytes();
+         }
+         Sha256Hash[] expected = hashNaively(transaction, funding);
+         SigHashEngine engine = new SigHashEngine(transaction);
+         Sha256Hash[] actual = engine.getSigHashes(scriptCodes);
+         for (int i = 0; i < inputCount; i++) {
+            assertEquals(expected[i], actual[i]);
+            assertEquals(expected[i], engine.getSigHash(i, scriptCodes[i]));
+         }
+      }
+   }
+
+   @Test
+   public void inputScriptsAreIgnored() {
+      Random random = new Random(42);
+      Transaction transaction = createTransaction(random, 3, 2);
+      ScriptOutput funding = createScript(random);
+      Sha256Hash expected = new SigHashEngine(transaction).getSigHash(1, funding.getScriptBytes());
+      transaction.inputs[0].script = ScriptInput.fromOutputScript(createScript(random));
+      assertEquals(expected, new SigHashEngine(transaction).getSigHash(1, funding.getScriptBytes()));
+   }
+}
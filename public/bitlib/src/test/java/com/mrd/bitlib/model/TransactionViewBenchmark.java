@@ -0,0 +1,69 @@
+package com.mrd.bitlib.model;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.mrd.bitlib.util.ByteReader;
+import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.Sha256Hash;
+
+/**
+ * Compares parsing a block with {@link Block#fromBlockStore} against viewing
+ * its transactions with {@link Block#viewTransactions}, both including the
+ * calculation of the transaction IDs.
+ */
+public class TransactionViewBenchmark {
+
+   private static final int TRANSACTIONS = 2000;
+   private static final int ROUNDS = 20;
+
+   public static void main(String[] args) throws Exception {
+      Random random = new Random(0);
+      Transaction[] transactions = new Transaction[TRANSACTIONS];
+      for (int i = 0; i < transactions.length; i++) {
+         transactions[i] = TransactionViewTest.createTransaction(random, 1 + random.nextInt(3), 1 + random.nextInt(3));
+      }
+      Block block = new Block(1, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH, 0, 0, 0, transactions);
+      ByteWriter writer = new ByteWriter(1024 * 1024);
+      block.toByteWriter(writer);
+      byte[] bytes = writer.toBytes();
+      ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+      direct.put(bytes);
+      direct.flip();
+      System.out.println("Block of " + TRANSACTIONS + " transactions, " + bytes.length + " bytes");
+
+      for (int warmup = 0; warmup < 2; warmup++) {
+         long start = System.nanoTime();
+         int count = 0;
+         for (int round = 0; round < ROUNDS; round++) {
+            for (Transaction t : Block.fromBlockStore(new ByteReader(bytes)).transactions) {
+               count += t.getHash().hashCode() & 1;
+            }
+         }
+         report("fromBlockStore", start, count);
+
+         start = System.nanoTime();
+         count = 0;
+         for (int round = 0; round < ROUNDS; round++) {
+            for (TransactionView view : Block.viewTransactions(ByteBuffer.wrap(bytes))) {
+               count += view.getHash().hashCode() & 1;
+            }
+         }
+         report("viewTransactions (heap)", start, count);
+
+         start = System.nanoTime();
+         count = 0;
+         for (int round = 0; round < ROUNDS; round++) {
+            for (TransactionView view : Block.viewTransactions(direct.duplicate())) {
+               count += view.getHash().hashCode() & 1;
+            }
+         }
+         report("viewTransactions (direct)", start, count);
+      }
+   }
+
+   private static void report(String name, long start, int count) {
+      double millis = (System.nanoTime() - start) / 1000000.0 / ROUNDS;
+      System.out.println(String.format("%-28s %8.2f ms per block (%d)", name, millis, count));
+   }
+}
@@ -0,0 +1,200 @@
+package com.mrd.bitlib.model;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import com.mrd.bitlib.crypto.PublicKey;
+import com.mrd.bitlib.model.Block.BlockParsingException;
+import com.mrd.bitlib.model.Transaction.TransactionParsingException;
+import com.mrd.bitlib.util.ByteReader;
+import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.HexUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TransactionViewTest {
+
+   private static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+
+   // The coinbase transaction of the genesis block
+   private static final String GENESIS_COINBASE = "01000000010000000000000000000000000000000000000000000000000000000000000000"
+         + "ffffffff4d04ffff001d0104455468652054696d65732030332f4a616e2f32303039204368616e63656c6c6f72206f6e206272696e6b"
+         + "206f66207365636f6e64206261696c6f757420666f722062616e6b73ffffffff0100f2052a01000000434104678afdb0fe5548271967f1"
+         + "a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4cef38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5fac00"
+         + "000000";
+   private static final String GENESIS_COINBASE_HASH = "4a5e1e4baab89f3a32518a88c31bc87f618f76673e2cc77ab2127b7afdeda33b";
+
+   static Transaction createTransaction(Random random, int numInputs, int numOutputs) {
+      TransactionInput[] inputs = new TransactionInput[numInputs];
+      for (int i = 0; i < numInputs; i++) {
+         byte[] hash = new byte[32];
+         random.nextBytes(hash);
+         byte[] signature = new byte[71];
+         random.nextBytes(signature);
+         byte[] publicKey = new byte[33];
+         random.nextBytes(publicKey);
+         inputs[i] = new TransactionInput(new OutPoint(new Sha256Hash(hash), random.nextInt(10)),
+               new ScriptInputStandard(signature, publicKey), random.nextInt());
+      }
+      TransactionOutput[] outputs = new TransactionOutput[numOutputs];
+      for (int i = 0; i < numOutputs; i++) {
+         byte[] addressBytes = new byte[20];
+         random.nextBytes(addressBytes);
+         outputs[i] = new TransactionOutput(random.nextLong() & Long.MAX_VALUE, new ScriptOutputStandard(addressBytes));
+      }
+      return new Transaction(1, inputs, outputs, random.nextInt());
+   }
+
+   private static void assertSameTransaction(Transaction expected, TransactionView view) {
+      assertEquals(expected.version, view.getVersion());
+      assertEquals(expected.lockTime, view.getLockTime());
+      assertEquals(expected.inputs.length, view.getInputCount());
+      assertEquals(expected.outputs.length, view.getOutputCount());
+      for (int i = 0; i < expected.inputs.length; i++) {
+         TransactionInput in = expected.inputs[i];
+         assertEquals(in.outPoint.hash, view.getOutPointHash(i));
+         assertEquals(in.outPoint.index, view.getOutPointIndex(i));
+         assertEquals(in.sequence, view.getSequence(i));
+         assertArrayEquals(in.script.getScriptBytes(), toBytes(view.getInputScript(i)));
+      }
+      for (int i = 0; i < expected.outputs.length; i++) {
+         TransactionOutput out = expected.outputs[i];
+         assertEquals(out.value, view.getOutputValue(i));
+         assertArrayEquals(out.script.getScriptBytes(), toBytes(view.getOutputScript(i)));
+         assertEquals(out.script.getAddress(NETWORK), view.getOutputAddress(i, NETWORK));
+      }
+      assertEquals(expected.isCoinbase(), view.isCoinbase());
+      assertArrayEquals(expected.toBytes(), toBytes(view.getBytes()));
+      assertEquals(expected.getHash(), view.getHash());
+   }
+
+   private static byte[] toBytes(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return bytes;
+   }
+
+   @Test
+   public void testGenesisCoinbase() throws Exception {
+      ByteBuffer buffer = ByteBuffer.wrap(HexUtils.toBytes(GENESIS_COINBASE));
+      TransactionView view = TransactionView.parse(buffer);
+      assertEquals(buffer.limit(), buffer.position());
+      assertEquals(GENESIS_COINBASE_HASH, view.getHash().toString());
+      assertEquals(5000000000L, view.getOutputValue(0));
+      assertEquals(Sha256Hash.ZERO_HASH, view.getOutPointHash(0));
+      assertEquals(-1, view.getOutPointIndex(0));
+
+      Transaction t = view.toTransaction();
+      assertEquals(GENESIS_COINBASE_HASH, t.getHash().toString());
+      assertSameTransaction(Transaction.fromByteReader(new ByteReader(HexUtils.toBytes(GENESIS_COINBASE))), view);
+   }
+
+   @Test
+   public void testMatchesTransaction() throws Exception {
+      Random random = new Random(42);
+      for (int i = 0; i < 20; i++) {
+         // Enough inputs to need a multi-byte count now and then
+         Transaction t = createTransaction(random, 1 + random.nextInt(300), 1 + random.nextInt(5));
+         ByteBuffer buffer = ByteBuffer.wrap(t.toBytes());
+         TransactionView view = TransactionView.parse(buffer);
+         assertSameTransaction(t, view);
+         assertEquals(t, view.toTransaction());
+      }
+   }
+
+   @Test
+   public void testParseFromOffset() throws Exception {
+      Random random = new Random(7);
+      Transaction first = createTransaction(random, 2, 2);
+      Transaction second = createTransaction(random, 3, 1);
+      ByteWriter writer = new ByteWriter(1024);
+      writer.putBytes(new byte[]{1, 2, 3});
+      first.toByteWriter(writer);
+      second.toByteWriter(writer);
+      ByteBuffer buffer = ByteBuffer.wrap(writer.toBytes());
+      buffer.position(3);
+
+      TransactionView firstView = TransactionView.parse(buffer);
+      TransactionView secondView = TransactionView.parse(buffer);
+      assertEquals(buffer.limit(), buffer.position());
+      assertSameTransaction(first, firstView);
+      assertSameTransaction(second, secondView);
+   }
+
+   @Test
+   public void testTruncated() throws Exception {
+      byte[] bytes = createTransaction(new Random(1), 2, 2).toBytes();
+      for (int length = 0; length < bytes.length; length++) {
+         ByteBuffer buffer = ByteBuffer.wrap(Arrays.copyOf(bytes, length));
+         try {
+            TransactionView.parse(buffer);
+            fail("parsed a transaction truncated to " + length + " bytes");
+         } catch (TransactionParsingException e) {
+            // Expected, and the buffer is left where it was
+            assertEquals(0, buffer.position());
+         }
+      }
+   }
+
+   @Test
+   public void testBlockTransactions() throws Exception {
+      Random random = new Random(3);
+      Transaction[] transactions = new Transaction[10];
+      for (int i = 0; i < transactions.length; i++) {
+         transactions[i] = createTransaction(random, 1 + random.nextInt(3), 1 + random.nextInt(3));
+      }
+      Block block = new Block(1, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH, 0, 0, 0, transactions);
+      ByteWriter writer = new ByteWriter(1024);
+      block.toByteWriter(writer);
+      ByteBuffer buffer = ByteBuffer.wrap(writer.toBytes());
+
+      TransactionView[] views = Block.viewTransactions(buffer);
+      assertEquals(buffer.limit(), buffer.position());
+      assertEquals(transactions.length, views.length);
+      for (int i = 0; i < transactions.length; i++) {
+         assertSameTransaction(transactions[i], views[i]);
+      }
+
+      // Parsing the block knows the hashes from the original bytes
+      Block parsed = Block.fromBlockStore(new ByteReader(writer.toBytes()));
+      for (int i = 0; i < transactions.length; i++) {
+         assertEquals(transactions[i].getHash(), parsed.transactions[i].getHash());
+      }
+   }
+
+   @Test
+   public void testOutputAddresses() throws Exception {
+      Random random = new Random(11);
+      byte[] hash = new byte[20];
+      random.nextBytes(hash);
+      byte[] publicKey = new byte[33];
+      random.nextBytes(publicKey);
+      publicKey[0] = 0x02;
+      ScriptOutput[] scripts = new ScriptOutput[]{new ScriptOutputStandard(hash), new ScriptOutputMultisig(hash),
+            ScriptOutput.fromScriptBytes(Script.scriptEncodeChunks(new byte[][]{publicKey, {(byte) Script.OP_CHECKSIG}}))};
+      TransactionOutput[] outputs = new TransactionOutput[scripts.length];
+      for (int i = 0; i < scripts.length; i++) {
+         outputs[i] = new TransactionOutput(1000, scripts[i]);
+      }
+      Transaction t = new Transaction(1, createTransaction(random, 1, 0).inputs, outputs, 0);
+      TransactionView view = TransactionView.parse(ByteBuffer.wrap(t.toBytes()));
+      assertEquals(Address.fromStandardBytes(hash, NETWORK), view.getOutputAddress(0, NETWORK));
+      assertEquals(Address.fromMultisigBytes(hash, NETWORK), view.getOutputAddress(1, NETWORK));
+      assertEquals(new PublicKey(publicKey).toAddress(NETWORK), view.getOutputAddress(2, NETWORK));
+   }
+
+   @Test(expected = BlockParsingException.class)
+   public void testTruncatedBlock() throws Exception {
+      Block block = new Block(1, Sha256Hash.ZERO_HASH, Sha256Hash.ZERO_HASH, 0, 0, 0,
+            new Transaction[]{createTransaction(new Random(5), 1, 1)});
+      ByteWriter writer = new ByteWriter(1024);
+      block.toByteWriter(writer);
+      byte[] bytes = writer.toBytes();
+      Block.viewTransactions(ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length - 1)));
+   }
+}
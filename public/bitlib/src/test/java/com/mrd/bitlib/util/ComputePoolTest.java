@@ -0,0 +1,46 @@
+package com.mrd.bitlib.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ComputePoolTest {
+
+   @Test
+   public void runsEveryIndexOnce() {
+      for (int count : new int[]{0, 1, 3, 17, 1000}) {
+         final AtomicIntegerArray runs = new AtomicIntegerArray(count);
+         ComputePool.forEach(count, 2, new ComputePool.Body() {
+            @Override
+            public void run(int index) {
+               runs.incrementAndGet(index);
+            }
+         });
+         for (int i = 0; i < count; i++) {
+            assertEquals(1, runs.get(i));
+         }
+      }
+   }
+
+   @Test
+   public void propagatesFailures() {
+      final IllegalStateException failure = new IllegalStateException();
+      try {
+         ComputePool.forEach(1000, 1, new ComputePool.Body() {
+            @Override
+            public void run(int index) {
+               if (index == 500) {
+                  throw failure;
+               }
+            }
+         });
+         fail();
+      } catch (IllegalStateException e) {
+         assertEquals(failure, e);
+      }
+   }
+
+}
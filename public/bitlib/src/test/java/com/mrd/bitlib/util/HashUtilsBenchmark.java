@@ -0,0 +1,88 @@
+package com.mrd.bitlib.util;
+
+import java.security.MessageDigest;
+
+import com.mrd.bitlib.crypto.digest.RIPEMD160Digest;
+
+/**
+ * Compares hashing with a new digest engine per call, as HashUtils used to
+ * do, against the reused engines and the caller buffer variants.
+ */
+public class HashUtilsBenchmark {
+
+   private static final int ITERATIONS = 1000000;
+
+   public static void main(String[] args) throws Exception {
+      byte[] publicKey = new byte[33];
+      byte[] transaction = new byte[250];
+      for (int warmup = 0; warmup < 2; warmup++) {
+         long start = System.nanoTime();
+         int count = 0;
+         for (int i = 0; i < ITERATIONS; i++) {
+            publicKey[0] = (byte) i;
+            count += newEngineHash160(publicKey)[0] & 1;
+         }
+         report("hash160, new engines", start, count);
+
+         start = System.nanoTime();
+         count = 0;
+         for (int i = 0; i < ITERATIONS; i++) {
+            publicKey[0] = (byte) i;
+            count += HashUtils.addressHash(publicKey)[0] & 1;
+         }
+         report("addressHash", start, count);
+
+         start = System.nanoTime();
+         count = 0;
+         byte[] out = new byte[HashUtils.HASH160_LENGTH];
+         for (int i = 0; i < ITERATIONS; i++) {
+            publicKey[0] = (byte) i;
+            HashUtils.hash160(publicKey, 0, publicKey.length, out);
+            count += out[0] & 1;
+         }
+         report("hash160 into buffer", start, count);
+
+         start = System.nanoTime();
+         count = 0;
+         for (int i = 0; i < ITERATIONS; i++) {
+            transaction[0] = (byte) i;
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(transaction);
+            count += digest.digest(digest.digest())[0] & 1;
+         }
+         report("doubleSha256, new engine", start, count);
+
+         start = System.nanoTime();
+         count = 0;
+         for (int i = 0; i < ITERATIONS; i++) {
+            transaction[0] = (byte) i;
+            count += HashUtils.doubleSha256(transaction).getBytes()[0] & 1;
+         }
+         report("doubleSha256", start, count);
+
+         start = System.nanoTime();
+         count = 0;
+         byte[] hash = new byte[HashUtils.SHA256_LENGTH];
+         for (int i = 0; i < ITERATIONS; i++) {
+            transaction[0] = (byte) i;
+            HashUtils.doubleSha256(transaction, 0, transaction.length, hash, 0);
+            count += hash[0] & 1;
+         }
+         report("doubleSha256 into buffer", start, count);
+      }
+   }
+
+   private static byte[] newEngineHash160(byte[] data) throws Exception {
+      byte[] sha256 = MessageDigest.getInstance("SHA-256").digest(data);
+      byte[] out = new byte[20];
+      RIPEMD160Digest ripeMD160 = new RIPEMD160Digest();
+      ripeMD160.update(sha256, 0, sha256.length);
+      ripeMD160.doFinal(out, 0);
+      return out;
+   }
+
+   private static void report(String name, long start, int count) {
+      double nanos = (System.nanoTime() - start) / (double) ITERATIONS;
+      System.out.println(String.format("%-26s %8.1f ns per hash (%d)", name, nanos, count));
+   }
+}
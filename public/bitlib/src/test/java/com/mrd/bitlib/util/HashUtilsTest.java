@@ -0,0 +1,125 @@
+package com.mrd.bitlib.util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.mrd.bitlib.crypto.digest.RIPEMD160Digest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashUtilsTest {
+
+   private static byte[] referenceSha256(byte[] data, int offset, int length) throws Exception {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(data, offset, length);
+      return digest.digest();
+   }
+
+   private static byte[] referenceHash160(byte[] data) throws Exception {
+      byte[] sha256 = referenceSha256(data, 0, data.length);
+      RIPEMD160Digest ripeMD160 = new RIPEMD160Digest();
+      ripeMD160.update(sha256, 0, sha256.length);
+      byte[] out = new byte[20];
+      ripeMD160.doFinal(out, 0);
+      return out;
+   }
+
+   @Test
+   public void testKnownValues() {
+      assertEquals("e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855",
+            HexUtils.toHex(HashUtils.sha256(new byte[0]).getBytes()));
+      // The hash160 of the public key of the genesis block
+      byte[] genesisKey = HexUtils.toBytes("04678afdb0fe5548271967f1a67130b7105cd6a828e03909a67962e0ea1f61deb649f6bc3f4ce"
+            + "f38c4f35504e51ec112de5c384df7ba0b8d578a4c702b6bf11d5f");
+      assertEquals("62e907b15cbf27d5425399ebf6f0fb50ebb88f18", HexUtils.toHex(HashUtils.addressHash(genesisKey)));
+   }
+
+   @Test
+   public void testMatchesReference() throws Exception {
+      Random random = new Random(1);
+      for (int i = 0; i < 100; i++) {
+         byte[] data = new byte[random.nextInt(300)];
+         random.nextBytes(data);
+         int offset = data.length == 0 ? 0 : random.nextInt(data.length);
+         int length = data.length - offset;
+         byte[] sha256 = referenceSha256(data, offset, length);
+         byte[] doubleSha256 = referenceSha256(sha256, 0, sha256.length);
+
+         assertArrayEquals(sha256, HashUtils.sha256(data, offset, length).getBytes());
+         assertArrayEquals(doubleSha256, HashUtils.doubleSha256(data, offset, length).getBytes());
+         assertArrayEquals(doubleSha256,
+               HashUtils.doubleSha256((ByteBuffer) ByteBuffer.wrap(data).position(offset)).getBytes());
+
+         byte[] out = new byte[40];
+         HashUtils.sha256(data, offset, length, out, 3);
+         assertArrayEquals(sha256, Arrays.copyOfRange(out, 3, 35));
+         HashUtils.doubleSha256(data, offset, length, out, 5);
+         assertArrayEquals(doubleSha256, Arrays.copyOfRange(out, 5, 37));
+
+         byte[] hash160 = new byte[20];
+         HashUtils.hash160(data, 0, data.length, hash160);
+         assertArrayEquals(referenceHash160(data), hash160);
+         assertArrayEquals(referenceHash160(data), HashUtils.addressHash(data));
+      }
+   }
+
+   @Test
+   public void testOutputOverlapsInput() throws Exception {
+      byte[] data = new byte[64];
+      new Random(2).nextBytes(data);
+      byte[] expected = HashUtils.doubleSha256(data, 0, 64).getBytes();
+      HashUtils.doubleSha256(data, 0, 64, data, 0);
+      assertArrayEquals(expected, Arrays.copyOf(data, 32));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testOutputTooSmall() {
+      HashUtils.sha256(new byte[10], 0, 10, new byte[40], 10);
+   }
+
+   @Test
+   public void testConcurrentUse() throws Exception {
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+         List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+         for (int t = 0; t < 8; t++) {
+            final long seed = t;
+            futures.add(executor.submit(new Callable<Boolean>() {
+               @Override
+               public Boolean call() throws Exception {
+                  Random random = new Random(seed);
+                  byte[] out = new byte[20];
+                  for (int i = 0; i < 500; i++) {
+                     byte[] data = new byte[1 + random.nextInt(100)];
+                     random.nextBytes(data);
+                     HashUtils.hash160(data, 0, data.length, out);
+                     if (!Arrays.equals(referenceHash160(data), out)) {
+                        return false;
+                     }
+                     if (!Arrays.equals(referenceSha256(data, 0, data.length), HashUtils.sha256(data).getBytes())) {
+                        return false;
+                     }
+                  }
+                  return true;
+               }
+            }));
+         }
+         for (Future<Boolean> future : futures) {
+            assertTrue(future.get());
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+}
@@ -119,6 +119,7 @@ public class MbwManager {
    private final VersionManager _versionManager;
    private final ExchangeRateManager _exchangeRateManager;
    private final WalletManager _walletManager;
+   private ConcurrentSecureKeyValueStore _secureKeyValueStore;
    private WalletManager _tempWalletManager;
    private final RandomSource _randomSource;
    private final EventTranslator _eventTranslator;
@@ -304,12 +305,11 @@ public class MbwManager {
       // Create persisted account backing
       WalletManagerBacking backing = new SqliteWalletManagerBacking(context);
 
-      // Create persisted secure storage instance
-      SecureKeyValueStore secureKeyValueStore = new SecureKeyValueStore(backing,
-            new AndroidRandomSource());
+      // Create persisted secure storage instance, accounts read from it concurrently
+      _secureKeyValueStore = new ConcurrentSecureKeyValueStore(backing, new AndroidRandomSource());
 
       // Create and return wallet manager
-      return new WalletManager(secureKeyValueStore, backing, environment.getNetwork(),
+      return new WalletManager(_secureKeyValueStore, backing, environment.getNetwork(),
             environment.getWapi());
    }
 
@@ -455,6 +455,10 @@ public class MbwManager {
    public void setKeyManagementLocked(boolean locked) {
       _keyManagementLocked = locked;
       getEditor().putBoolean(Constants.KEY_MANAGEMENT_LOCKED_SETTING, _keyManagementLocked).commit();
+      if (locked) {
+         // Do not keep decrypted key encryption keys around until they expire
+         _secureKeyValueStore.clearCache();
+      }
    }
 
    public boolean getContinuousFocus() {
@@ -90,7 +90,7 @@ public class EnterWordListActivity extends ActionBarActivity implements WordAuto
       _wordAutoCompleter = (WordAutoCompleterFragment) getSupportFragmentManager().findFragmentById(R.id.wordAutoCompleter);
       _wordAutoCompleter.setListener(this);
       _wordAutoCompleter.setMinimumCompletionCharacters(2);
-      _wordAutoCompleter.setCompletions(Bip39.ENGLISH_WORD_LIST);
+      _wordAutoCompleter.setCompletions(Bip39.getEnglishWordIndex());
       UsKeyboardFragment keyboard = (UsKeyboardFragment) getSupportFragmentManager().findFragmentById(R.id.usKeyboard);
       keyboard.setListener(_wordAutoCompleter);
       currentWordNum = 1;
@@ -43,6 +43,7 @@ import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.TextView;
 import com.google.common.base.Preconditions;
+import com.mrd.bitlib.crypto.Bip39WordIndex;
 import com.mycelium.wallet.R;
 
 import java.util.ArrayList;
@@ -55,7 +56,7 @@ public class WordAutoCompleterFragment extends Fragment implements UsKeyboardFra
    private TextView tvWord;
    private List<Button> _completionButtons;
    private String _hintText;
-   private String[] _completions;
+   private Bip39WordIndex _completions;
    private int _minimumCharacters;
 
    public interface WordAutoCompleterListener {
@@ -93,6 +94,10 @@ public class WordAutoCompleterFragment extends Fragment implements UsKeyboardFra
    };
 
    public void setCompletions(String[] completions) {
+      setCompletions(new Bip39WordIndex(completions));
+   }
+
+   public void setCompletions(Bip39WordIndex completions) {
       _completions = completions;
       updateUi();
    }
@@ -163,13 +168,10 @@ public class WordAutoCompleterFragment extends Fragment implements UsKeyboardFra
       if (_completions == null || partialWord.length() < _minimumCharacters) {
          return completions;
       }
-      for (String s : _completions) {
-         if (s.startsWith(partialWord)) {
-            completions.add(s);
-            if (completions.size() == maxCompletions) {
-               break;
-            }
-         }
+      completions.addAll(_completions.complete(partialWord, maxCompletions));
+      if (completions.isEmpty()) {
+         // Probably a typo, suggest the words closest to it
+         completions.addAll(_completions.suggest(partialWord, maxCompletions));
       }
       return completions;
    }
@@ -240,7 +240,8 @@ public class SqliteWalletManagerBacking implements WalletManagerBacking {
    }
 
 
-   private void updateBip44AccountContext(Bip44AccountContext context) {
+   // Accounts may persist their context from several synchronization threads, and the statement is shared
+   private synchronized void updateBip44AccountContext(Bip44AccountContext context) {
       //"UPDATE bip44 SET archived=?,blockheight=?,lastExternalIndexWithActivity=?,lastInternalIndexWithActivity=?,firstMonitoredInternalIndex=?,lastDiscovery=? WHERE id=?"
       _updateBip44Account.bindLong(1, context.isArchived() ? 1 : 0);
       _updateBip44Account.bindLong(2, context.getBlockHeight());
@@ -309,7 +310,7 @@ public class SqliteWalletManagerBacking implements WalletManagerBacking {
       }
    }
 
-   private void updateSingleAddressAccountContext(SingleAddressAccountContext context) {
+   private synchronized void updateSingleAddressAccountContext(SingleAddressAccountContext context) {
       // "UPDATE single SET archived=?,blockheight=? WHERE id=?"
       _updateSingleAddressAccount.bindLong(1, context.isArchived() ? 1 : 0);
       _updateSingleAddressAccount.bindLong(2, context.getBlockHeight());
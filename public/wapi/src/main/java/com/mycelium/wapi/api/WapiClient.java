@@ -17,6 +17,7 @@
 package com.mycelium.wapi.api;
 
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -27,11 +28,15 @@ import com.mycelium.wapi.api.WapiConst.Function;
 import com.mycelium.wapi.api.request.*;
 import com.mycelium.wapi.api.response.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class WapiClient implements Wapi {
 
@@ -40,6 +45,11 @@ public class WapiClient implements Wapi {
    private static final int MEDIUM_TIMEOUT_MS = 20000;
    private static final int SHORT_TIMEOUT_MS = 4000;
 
+   /**
+    * Request bodies smaller than this are not worth compressing
+    */
+   private static final int GZIP_REQUEST_THRESHOLD = 1024;
+
    public static class HttpEndpoint {
       public final String baseUrlString;
 
@@ -67,6 +77,7 @@ public class WapiClient implements Wapi {
 
    private HttpEndpoint[] _serverEndpoints;
    private int _currentServerUrlIndex;
+   private volatile boolean _gzipRequests;
 
    public WapiClient(HttpEndpoint[] serverEndpoints, WapiLogger logger) {
       _serverEndpoints = serverEndpoints;
@@ -76,17 +87,35 @@ public class WapiClient implements Wapi {
       // We ignore properties that do not map onto the version of the class we
       // deserialize
       _objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+      // We close the response stream ourselves after reading it to the end,
+      // so that the connection can be reused
+      _objectMapper.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
       _objectMapper.registerModule(new WapiJsonModule());
       _logger = logger;
    }
 
+   /**
+    * Compress request bodies with gzip. Only enable this if the servers accept
+    * gzip encoded requests. Responses are always requested with gzip.
+    */
+   public void setGzipRequests(boolean gzipRequests) {
+      _gzipRequests = gzipRequests;
+   }
+
    private <T> WapiResponse<T> sendRequest(String function, Object request, TypeReference<WapiResponse<T>> typeReference) {
+      HttpURLConnection connection = null;
+      InputStream rawStream = null;
+      InputStream stream = null;
       try {
-         HttpURLConnection connection = getConnectionAndSendRequest(function, request);
+         connection = getConnectionAndSendRequest(function, request);
          if (connection == null) {
             return new WapiResponse<T>(ERROR_CODE_NO_SERVER_CONNECTION, null);
          }
-         return _objectMapper.readValue(connection.getInputStream(), typeReference);
+         // Parse straight from the connection instead of reading the whole
+         // response first
+         rawStream = connection.getInputStream();
+         stream = getResponseStream(connection, rawStream);
+         return _objectMapper.readValue(stream, typeReference);
       } catch (JsonParseException e) {
          logError("sendRequest failed with Json parsing error.", e);
          return new WapiResponse<T>(ERROR_CODE_INTERNAL_CLIENT_ERROR, null);
@@ -96,6 +125,42 @@ public class WapiClient implements Wapi {
       } catch (IOException e) {
          logError("sendRequest failed IO exception.", e);
          return new WapiResponse<T>(ERROR_CODE_INTERNAL_CLIENT_ERROR, null);
+      } finally {
+         if (stream != null) {
+            release(stream);
+         } else if (rawStream != null) {
+            // Decoding failed before we got to wrap the raw stream
+            release(rawStream);
+         }
+      }
+   }
+
+   private static InputStream getResponseStream(HttpURLConnection connection, InputStream stream) throws IOException {
+      if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+         return new GZIPInputStream(stream);
+      }
+      return stream;
+   }
+
+   /**
+    * Read a response to the end and close it. The connection goes back into
+    * the keep-alive pool of the platform only if its response has been read
+    * completely.
+    */
+   private static void release(InputStream stream) {
+      try {
+         byte[] buffer = new byte[4096];
+         while (stream.read(buffer) != -1) {
+            // discard
+         }
+      } catch (IOException e) {
+         // The connection is not reused
+      } finally {
+         try {
+            stream.close();
+         } catch (IOException e) {
+            // ignore
+         }
       }
    }
 
@@ -146,9 +211,16 @@ public class WapiClient implements Wapi {
                   timeout);
 
             byte[] toSend = getPostBytes(request);
-            connection.setRequestProperty("Content-Length", String.valueOf(toSend.length));
+            if (_gzipRequests && toSend.length >= GZIP_REQUEST_THRESHOLD) {
+               toSend = gzip(toSend);
+               connection.setRequestProperty("Content-Encoding", "gzip");
+            }
             connection.setRequestProperty("Content-Type", "application/json");
-            connection.getOutputStream().write(toSend);
+            // Send the body as it is instead of letting the connection buffer it
+            connection.setFixedLengthStreamingMode(toSend.length);
+            OutputStream out = connection.getOutputStream();
+            out.write(toSend);
+            out.close();
             int status = connection.getResponseCode();
 
             // Check for status code 2XX
@@ -166,6 +238,11 @@ public class WapiClient implements Wapi {
                // devices?
                logError("HTTP status = -1 Caller may have forgotten to call System.setProperty(\"http.keepAlive\", \"false\"); for old devices");
             }
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+               // Allow the connection to be reused
+               release(error);
+            }
          } catch (IOException e) {
             logError("IOException when sending request", e);
             // handle below like the all status codes != 200
@@ -183,18 +260,22 @@ public class WapiClient implements Wapi {
    private byte[] getPostBytes(Object request) {
 
       try {
-         String postString = _objectMapper.writeValueAsString(request);
-         return postString.getBytes("UTF-8");
+         // Jackson writes UTF-8 directly
+         return _objectMapper.writeValueAsBytes(request);
       } catch (JsonProcessingException e) {
          logError("Error during JSON serialization", e);
          throw new RuntimeException(e);
-      } catch (UnsupportedEncodingException e) {
-         // Never happens
-         logError("Error during binary serialization", e);
-         throw new RuntimeException(e);
       }
    }
 
+   private static byte[] gzip(byte[] data) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+      GZIPOutputStream out = new GZIPOutputStream(bytes);
+      out.write(data);
+      out.close();
+      return bytes.toByteArray();
+   }
+
    private HttpURLConnection getHttpConnection(HttpEndpoint endpoint, String function, int timeout) throws IOException {
       URL url = new URL(endpoint.baseUrlString + WapiConst.WAPI_BASE_PATH + '/' + function);
       HttpURLConnection connection = (HttpURLConnection) url.openConnection();
@@ -205,6 +286,9 @@ public class WapiClient implements Wapi {
       connection.setReadTimeout(timeout);
       connection.setDoInput(true);
       connection.setDoOutput(true);
+      // Setting this ourselves turns off transparent decompression on
+      // Android, so responses are decompressed the same way everywhere
+      connection.setRequestProperty("Accept-Encoding", "gzip");
       return connection;
    }
 
@@ -64,16 +64,28 @@ public class WapiJsonModule extends SimpleModule {
       SERIALIZERS.add(new OutPointSerializer());
    }
 
+   /**
+    * Get the text of the current value. Strings and other scalars are taken
+    * straight from the parser without building a tree node for them.
+    */
+   private static String getText(JsonParser jp) throws IOException {
+      if (jp.getCurrentToken().isScalarValue()) {
+         return jp.getText();
+      }
+      ObjectCodec oc = jp.getCodec();
+      JsonNode node = oc.readTree(jp);
+      return node.asText();
+   }
+
    private static class AddressDeserializer extends JsonDeserializer<Address> {
 
       @Override
       public Address deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
-         ObjectCodec oc = jp.getCodec();
-         JsonNode node = oc.readTree(jp);
-         Address address = Address.fromString(node.asText());
+         String text = getText(jp);
+         Address address = Address.fromString(text);
          if (address == null) {
-            throw new JsonParseException("Failed to convert string '" + node.asText() + "' into an address",
+            throw new JsonParseException("Failed to convert string '" + text + "' into an address",
                   JsonLocation.NA);
          }
          return address;
@@ -101,13 +113,12 @@ public class WapiJsonModule extends SimpleModule {
       @Override
       public PublicKey deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
-         ObjectCodec oc = jp.getCodec();
-         JsonNode node = oc.readTree(jp);
+         String text = getText(jp);
          byte[] pubKeyBytes;
          try {
-            pubKeyBytes = HexUtils.toBytes(node.asText());
+            pubKeyBytes = HexUtils.toBytes(text);
          } catch (RuntimeException e) {
-            throw new JsonParseException("Failed to convert string '" + node.asText() + "' into an public key bytes",
+            throw new JsonParseException("Failed to convert string '" + text + "' into an public key bytes",
                   JsonLocation.NA);
          }
          return new PublicKey(pubKeyBytes);
@@ -135,11 +146,10 @@ public class WapiJsonModule extends SimpleModule {
       @Override
       public Sha256Hash deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
-         ObjectCodec oc = jp.getCodec();
-         JsonNode node = oc.readTree(jp);
-         Sha256Hash hash = Sha256Hash.fromString(node.asText());
+         String text = getText(jp);
+         Sha256Hash hash = Sha256Hash.fromString(text);
          if (hash == null) {
-            throw new JsonParseException("Failed to convert string '" + node.asText() + "' into a Sha256Hash instance",
+            throw new JsonParseException("Failed to convert string '" + text + "' into a Sha256Hash instance",
                   JsonLocation.NA);
          }
          return hash;
@@ -167,11 +177,10 @@ public class WapiJsonModule extends SimpleModule {
       @Override
       public OutPoint deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException,
             JsonProcessingException {
-         ObjectCodec oc = jp.getCodec();
-         JsonNode node = oc.readTree(jp);
-         OutPoint outPoint = OutPoint.fromString(node.asText());
+         String text = getText(jp);
+         OutPoint outPoint = OutPoint.fromString(text);
          if (outPoint == null) {
-            throw new JsonParseException("Failed to convert string '" + node.asText() + "' into an OutPoint instance",
+            throw new JsonParseException("Failed to convert string '" + text + "' into an OutPoint instance",
                   JsonLocation.NA);
          }
          return outPoint;
@@ -20,12 +20,13 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mrd.bitlib.model.OutPoint;
 import com.mrd.bitlib.model.Transaction;
 import com.mrd.bitlib.model.Transaction.TransactionParsingException;
-import com.mrd.bitlib.model.TransactionOutput;
+import com.mrd.bitlib.model.TransactionView;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.HashUtils;
 import com.mrd.bitlib.util.Sha256Hash;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
 public class TransactionEx implements Serializable, Comparable<TransactionEx> {
@@ -99,16 +100,21 @@ public class TransactionEx implements Serializable, Comparable<TransactionEx> {
       if (index < 0) {
          return null;
       }
-      Transaction t = toTransaction(tex);
-      if (t == null) {
+      // Only one output is needed, so look at the transaction through a view instead of parsing every script
+      TransactionView view;
+      try {
+         view = TransactionView.parse(ByteBuffer.wrap(tex.binary));
+      } catch (TransactionParsingException e) {
          return null;
       }
-      if (index >= t.outputs.length) {
+      if (index >= view.getOutputCount()) {
          return null;
       }
-      TransactionOutput output = t.outputs[index];
-      return new TransactionOutputEx(new OutPoint(tex.txid, index), tex.height, output.value,
-            output.script.getScriptBytes(), t.isCoinbase());
+      ByteBuffer scriptBytes = view.getOutputScript(index);
+      byte[] script = new byte[scriptBytes.remaining()];
+      scriptBytes.get(script);
+      return new TransactionOutputEx(new OutPoint(tex.txid, index), tex.height, view.getOutputValue(index), script,
+            view.isCoinbase());
    }
 
    public int calculateConfirmations(int blockHeight) {
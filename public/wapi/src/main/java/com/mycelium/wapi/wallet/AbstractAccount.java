@@ -44,6 +44,7 @@ import com.mycelium.wapi.model.*;
 import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
 import com.mycelium.wapi.wallet.WalletManager.Event;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public abstract class AbstractAccount implements WalletAccount {
@@ -90,6 +91,31 @@ public abstract class AbstractAccount implements WalletAccount {
       }
    }
 
+   /**
+    * Start buffering changes to the backing if it is a {@link BatchingAccountBacking}. A synchronization stores
+    * transactions and outputs one by one, and they are better written together.
+    */
+   protected void beginBackingBatch() {
+      if (_backing instanceof BatchingAccountBacking) {
+         ((BatchingAccountBacking) _backing).beginBatch();
+      }
+   }
+
+   /**
+    * Write the changes buffered so far, at the end of a synchronization phase
+    */
+   protected void flushBackingBatch() {
+      if (_backing instanceof BatchingAccountBacking) {
+         ((BatchingAccountBacking) _backing).flush();
+      }
+   }
+
+   protected void endBackingBatch() {
+      if (_backing instanceof BatchingAccountBacking) {
+         ((BatchingAccountBacking) _backing).endBatch();
+      }
+   }
+
    /**
     * Synchronize this account
     * <p/>
@@ -101,6 +127,28 @@ public abstract class AbstractAccount implements WalletAccount {
     */
    public abstract boolean synchronize(boolean synchronizeTransactionHistory);
 
+   /**
+    * Get the addresses whose unspent outputs are queried when this account synchronizes
+    * <p/>
+    * The wallet manager uses this for combining the queries of several accounts into one
+    *
+    * @return the addresses whose unspent outputs are queried when this account synchronizes
+    */
+   protected abstract Collection<Address> getMonitoredAddresses();
+
+   /**
+    * Get the addresses whose transaction inventory is queried when this account synchronizes next
+    * <p/>
+    * The wallet manager uses this for combining the queries of several accounts into one. It is called after the
+    * unspent outputs of the monitored addresses have been prefetched, so querying them does not cause a round trip.
+    *
+    * @param synchronizeTransactionHistory whether the transaction history is synchronized
+    * @return the addresses whose transaction inventory is queried when this account synchronizes next, empty if none
+    */
+   protected Collection<Address> getDiscoveryAddresses(boolean synchronizeTransactionHistory) {
+      return Collections.emptyList();
+   }
+
    /**
     * Determine whether a transaction was sent from one of our own addresses.
     * <p/>
@@ -424,28 +472,29 @@ public abstract class AbstractAccount implements WalletAccount {
       // Determine the value we are sending
       //
 
-      // Get the current set of unconfirmed transactions
-      List<Transaction> unconfirmed = new ArrayList<Transaction>();
+      // Get the current set of unconfirmed transactions. Only the out points and the outputs are needed, so look at
+      // them through a view instead of parsing every script
+      List<TransactionView> unconfirmed = new ArrayList<TransactionView>();
       for (TransactionEx tex : _backing.getUnconfirmedTransactions()) {
          try {
-            Transaction t = Transaction.fromByteReader(new ByteReader(tex.binary));
-            unconfirmed.add(t);
+            unconfirmed.add(TransactionView.parse(ByteBuffer.wrap(tex.binary)));
          } catch (TransactionParsingException e) {
             // never happens, we have parsed it before
          }
       }
 
-      for (Transaction t : unconfirmed) {
+      for (TransactionView t : unconfirmed) {
          // For each input figure out if WE are sending it by fetching the
          // parent transaction and looking at the address
-         for (TransactionInput input : t.inputs) {
+         for (int i = 0; i < t.getInputCount(); i++) {
             // Find the parent transaction
-            if (input.outPoint.hash.equals(Sha256Hash.ZERO_HASH)) {
+            OutPoint outPoint = new OutPoint(t.getOutPointHash(i), t.getOutPointIndex(i));
+            if (outPoint.hash.equals(Sha256Hash.ZERO_HASH)) {
                continue;
             }
-            TransactionOutputEx parent = _backing.getParentTransactionOutput(input.outPoint);
+            TransactionOutputEx parent = _backing.getParentTransactionOutput(outPoint);
             if (parent == null) {
-               _logger.logError("Unable to find parent transaction output: " + input.outPoint);
+               _logger.logError("Unable to find parent transaction output: " + outPoint);
                continue;
             }
             TransactionOutput parentOutput = transform(parent);
@@ -458,15 +507,14 @@ public abstract class AbstractAccount implements WalletAccount {
 
          // Now look at the outputs and if it contains change for us, then subtract that from the sending amount
          // if it is already spent in another transaction
-         for (int i = 0; i < t.outputs.length; i++) {
-            TransactionOutput output = t.outputs[i];
-            Address destination = output.script.getAddress(_network);
-            if (isMine(destination)) {
+         for (int i = 0; i < t.getOutputCount(); i++) {
+            Address address = t.getOutputAddress(i, _network);
+            if (address != null && isMine(address)) {
                // The funds are sent to us
                OutPoint outPoint = new OutPoint(t.getHash(), i);
                if (!unspentOutPoints.contains(outPoint)) {
                   // This output has been spent, subtract it from the amount sent
-                  pendingSending -= output.value;
+                  pendingSending -= t.getOutputValue(i);
                }
             }
          }
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mycelium.wapi.wallet;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+
+import Rijndael.Rijndael;
+import com.google.common.base.Preconditions;
+
+/**
+ * AES in CBC mode with an all zero IV and no padding, as used by
+ * {@link AesKeyCipher}.
+ * <p/>
+ * The default engine uses the AES implementation of the JCA provider, which
+ * runs on the AES instructions of the CPU where the JVM supports it. The pure
+ * Java {@link Rijndael} engine produces the same output and is used where the
+ * provider has no AES.
+ * <p/>
+ * Engines keep state between calls and are not thread safe.
+ * <p/>
+ * Looking up a JCA cipher is much more expensive than keying it, and key
+ * ciphers for the key encryption key are created for every operation. Wiped
+ * engines therefore hand their ciphers, keyed with an all zero key, on to the
+ * next engines.
+ */
+public abstract class AesCbcEngine {
+
+   public static final int BLOCK_SIZE = 16;
+
+   /**
+    * Create the fastest engine available for a key
+    */
+   public static AesCbcEngine create(byte[] keyBytes) {
+      try {
+         return new JcaEngine(keyBytes);
+      } catch (GeneralSecurityException e) {
+         return new RijndaelEngine(keyBytes);
+      }
+   }
+
+   /**
+    * Create an engine which does not depend on the JCA provider
+    */
+   public static AesCbcEngine createRijndael(byte[] keyBytes) {
+      return new RijndaelEngine(keyBytes);
+   }
+
+   /**
+    * Encrypt a whole number of blocks. The input and the output may be the
+    * same array at the same offset.
+    */
+   public abstract void encrypt(byte[] in, int inOffset, int length, byte[] out, int outOffset);
+
+   /**
+    * Decrypt a whole number of blocks. The input and the output may be the
+    * same array at the same offset.
+    */
+   public abstract void decrypt(byte[] in, int inOffset, int length, byte[] out, int outOffset);
+
+   /**
+    * Overwrite the copy of the key and the key schedules of this engine, after
+    * which it can no longer be used. Must not be called while the engine is in
+    * use.
+    */
+   public abstract void wipe();
+
+   /**
+    * An AES key whose bytes can be overwritten. Unlike
+    * {@link javax.crypto.spec.SecretKeySpec} it does not keep a copy we cannot
+    * reach.
+    */
+   private static class WipeableKey implements SecretKey {
+      private static final long serialVersionUID = 1L;
+
+      private final byte[] _bytes;
+
+      private WipeableKey(byte[] bytes) {
+         _bytes = bytes.clone();
+      }
+
+      @Override
+      public String getAlgorithm() {
+         return "AES";
+      }
+
+      @Override
+      public String getFormat() {
+         return "RAW";
+      }
+
+      @Override
+      public byte[] getEncoded() {
+         return _bytes.clone();
+      }
+
+      private void wipe() {
+         Arrays.fill(_bytes, (byte) 0);
+      }
+   }
+
+   private static class JcaEngine extends AesCbcEngine {
+      private static final IvParameterSpec ZERO_IV = new IvParameterSpec(new byte[BLOCK_SIZE]);
+      private static final int MAX_POOLED_CIPHERS = 16;
+      // Ciphers of wiped engines
+      private static final BlockingQueue<Cipher> CIPHER_POOL = new ArrayBlockingQueue<Cipher>(MAX_POOLED_CIPHERS);
+
+      private final WipeableKey _key;
+      // One cipher for both directions, it is initialized for every message anyway
+      private final Cipher _cipher;
+      private volatile boolean _wiped;
+
+      private JcaEngine(byte[] keyBytes) throws GeneralSecurityException {
+         _key = new WipeableKey(keyBytes);
+         _cipher = getCipher();
+         // Fail here rather than on first use if the key is not supported
+         _cipher.init(Cipher.ENCRYPT_MODE, _key, ZERO_IV);
+      }
+
+      @Override
+      public void encrypt(byte[] in, int inOffset, int length, byte[] out, int outOffset) {
+         run(Cipher.ENCRYPT_MODE, in, inOffset, length, out, outOffset);
+      }
+
+      @Override
+      public void decrypt(byte[] in, int inOffset, int length, byte[] out, int outOffset) {
+         run(Cipher.DECRYPT_MODE, in, inOffset, length, out, outOffset);
+      }
+
+      private static Cipher getCipher() throws GeneralSecurityException {
+         Cipher cipher = CIPHER_POOL.poll();
+         return cipher != null ? cipher : Cipher.getInstance("AES/CBC/NoPadding");
+      }
+
+      @Override
+      public synchronized void wipe() {
+         if (_wiped) {
+            // The cipher may already be in use by another engine
+            return;
+         }
+         _wiped = true;
+         _key.wipe();
+         // Replace the key schedule of the cipher with the one of a dummy key
+         WipeableKey dummy = new WipeableKey(new byte[_key._bytes.length]);
+         try {
+            _cipher.init(Cipher.ENCRYPT_MODE, dummy, ZERO_IV);
+         } catch (GeneralSecurityException e) {
+            // Does not happen for a key of a size that was accepted before
+            throw new RuntimeException(e);
+         }
+         // Dropped if the pool is full
+         CIPHER_POOL.offer(_cipher);
+      }
+
+      private void run(int mode, byte[] in, int inOffset, int length, byte[] out, int outOffset) {
+         Preconditions.checkArgument(length % BLOCK_SIZE == 0);
+         Preconditions.checkState(!_wiped, "The engine has been wiped");
+         try {
+            // Every message starts with the zero IV, the key schedule is kept
+            _cipher.init(mode, _key, ZERO_IV);
+            _cipher.doFinal(in, inOffset, length, out, outOffset);
+         } catch (GeneralSecurityException e) {
+            // Does not happen for whole blocks and a key that was accepted
+            throw new RuntimeException(e);
+         }
+      }
+   }
+
+   private static class RijndaelEngine extends AesCbcEngine {
+      private final Rijndael _aes;
+      private final byte[] _chain;
+      private final byte[] _inBlock;
+      private final byte[] _outBlock;
+
+      private volatile boolean _wiped;
+
+      private RijndaelEngine(byte[] keyBytes) {
+         _aes = new Rijndael();
+         _aes.makeKey(keyBytes, keyBytes.length * 8);
+         _chain = new byte[BLOCK_SIZE];
+         _inBlock = new byte[BLOCK_SIZE];
+         _outBlock = new byte[BLOCK_SIZE];
+      }
+
+      @Override
+      public void wipe() {
+         _wiped = true;
+         _aes.wipeKey();
+         Arrays.fill(_chain, (byte) 0);
+         Arrays.fill(_inBlock, (byte) 0);
+         Arrays.fill(_outBlock, (byte) 0);
+      }
+
+      @Override
+      public void encrypt(byte[] in, int inOffset, int length, byte[] out, int outOffset) {
+         Preconditions.checkArgument(length % BLOCK_SIZE == 0);
+         Preconditions.checkState(!_wiped, "The engine has been wiped");
+         Arrays.fill(_chain, (byte) 0);
+         for (int i = 0; i < length; i += BLOCK_SIZE) {
+            for (int j = 0; j < BLOCK_SIZE; j++) {
+               _inBlock[j] = (byte) (in[inOffset + i + j] ^ _chain[j]);
+            }
+            _aes.encrypt(_inBlock, _chain);
+            System.arraycopy(_chain, 0, out, outOffset + i, BLOCK_SIZE);
+         }
+      }
+
+      @Override
+      public void decrypt(byte[] in, int inOffset, int length, byte[] out, int outOffset) {
+         Preconditions.checkArgument(length % BLOCK_SIZE == 0);
+         Preconditions.checkState(!_wiped, "The engine has been wiped");
+         Arrays.fill(_chain, (byte) 0);
+         for (int i = 0; i < length; i += BLOCK_SIZE) {
+            System.arraycopy(in, inOffset + i, _inBlock, 0, BLOCK_SIZE);
+            _aes.decrypt(_inBlock, _outBlock);
+            for (int j = 0; j < BLOCK_SIZE; j++) {
+               out[outOffset + i + j] = (byte) (_outBlock[j] ^ _chain[j]);
+            }
+            // The cipher block is the chain value for the next block
+            System.arraycopy(_inBlock, 0, _chain, 0, BLOCK_SIZE);
+         }
+      }
+   }
+}
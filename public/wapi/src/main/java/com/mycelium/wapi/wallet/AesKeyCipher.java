@@ -16,24 +16,58 @@
 
 package com.mycelium.wapi.wallet;
 
-import Rijndael.Rijndael;
 import com.google.common.base.Preconditions;
 import com.mrd.bitlib.util.*;
-import com.mrd.bitlib.util.ByteReader.InsufficientBytesException;
 
 import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 // XXX This needs proper testing.
 
 /**
  * Encrypting/decrypting arbitrary data using AES in CBC-mode with zero padding and Sha256 hashing for check sums.
+ * <p/>
+ * The data is prefixed with its length as a compact int and padded with zeros to a whole number of blocks. The
+ * encrypted blocks are followed by the first 16 bytes of the Sha256 hash of the data.
+ * <p/>
+ * Besides the methods of {@link KeyCipher} there are variants which work on caller supplied buffers and do not
+ * allocate. A key cipher may be used from several threads at once, each thread gets its own {@link AesCbcEngine}.
+ * The key cipher keeps track of the engines of all threads, so that {@link #wipe} can reach them.
  */
 public class AesKeyCipher implements KeyCipher {
 
    public static final int AES_KEY_BYTE_LENGTH = 16;
+   private static final int BLOCK_SIZE = AesCbcEngine.BLOCK_SIZE;
+   private static final int CHECKSUM_LENGTH = BLOCK_SIZE;
+
    private final byte[] _keyBytes;
-   private final Rijndael _aes;
    private final long _thumbprint;
+   private final ThreadLocal<Engine> _engines;
+   // The engines of all threads by thread, guarded by itself. Threads are held weakly, so that the engines of threads
+   // which have exited can be collected.
+   private final Map<Thread, Engine> _allEngines = new WeakHashMap<Thread, Engine>();
+   private volatile boolean _wiped;
+
+   /**
+    * An engine and the scratch space for a thread
+    */
+   private static class Engine {
+      private final AesCbcEngine aes;
+      private final byte[] hash = new byte[HashUtils.SHA256_LENGTH];
+      private final byte[] checksum = new byte[CHECKSUM_LENGTH];
+
+      private Engine(AesCbcEngine aes) {
+         this.aes = aes;
+      }
+
+      private void wipe() {
+         aes.wipe();
+         Arrays.fill(hash, (byte) 0);
+         Arrays.fill(checksum, (byte) 0);
+      }
+   }
 
    /**
     * The default key cipher, which gives no kind of protection at all.
@@ -61,8 +95,7 @@ public class AesKeyCipher implements KeyCipher {
       // Get thumbprint, the next 8 bytes of the hash
       _thumbprint = BitUtils.uint64ToLong(hash.getBytes(), AES_KEY_BYTE_LENGTH);
 
-      _aes = new Rijndael();
-      _aes.makeKey(_keyBytes, AES_KEY_BYTE_LENGTH * 8);
+      _engines = createEngines();
    }
 
    /**
@@ -78,110 +111,199 @@ public class AesKeyCipher implements KeyCipher {
       Preconditions.checkArgument(keyBytes.length == AES_KEY_BYTE_LENGTH);
       _keyBytes = BitUtils.copyByteArray(keyBytes);
       _thumbprint = thumbprint;
-      _aes = new Rijndael();
-      _aes.makeKey(_keyBytes, AES_KEY_BYTE_LENGTH * 8);
+      _engines = createEngines();
+   }
+
+   private ThreadLocal<Engine> createEngines() {
+      return new ThreadLocal<Engine>() {
+         @Override
+         protected Engine initialValue() {
+            Engine engine = new Engine(AesCbcEngine.create(_keyBytes));
+            synchronized (_allEngines) {
+               if (_wiped) {
+                  // Do not leave a fresh copy of the key behind
+                  engine.wipe();
+               } else {
+                  _allEngines.put(Thread.currentThread(), engine);
+               }
+            }
+            return engine;
+         }
+      };
+   }
+
+   /**
+    * Get the length of the encrypted form of data with the specified length
+    */
+   public static int getEncryptedLength(int length) {
+      int padded = getLengthPrefixSize(length) + length;
+      padded = (padded + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+      return padded + CHECKSUM_LENGTH;
    }
 
    @Override
    public byte[] decrypt(byte[] data) throws InvalidKeyCipher {
-      // data to decrypt must be a whole number of blocks and have room for a
-      // checksum
-      Preconditions.checkArgument(data.length >= Rijndael.BLOCK_SIZE);
-      Preconditions.checkArgument(data.length % Rijndael.BLOCK_SIZE == 0);
+      checkEncryptedLength(data.length);
+      byte[] buffer = new byte[data.length - CHECKSUM_LENGTH];
+      try {
+         int length = decrypt(data, 0, data.length, buffer, 0);
+         return BitUtils.copyOf(buffer, length);
+      } finally {
+         Arrays.fill(buffer, (byte) 0);
+      }
+   }
+
+   /**
+    * Decrypt data into a buffer
+    *
+    * @param data      the array holding the data to decrypt
+    * @param offset    the offset of the data to decrypt
+    * @param length    the length of the data to decrypt
+    * @param out       the array to decrypt into, which must have room for length - 16 bytes
+    * @param outOffset the offset to decrypt to, if out is the same array as data it must not be after offset
+    * @return the length of the decrypted data
+    * @throws InvalidKeyCipher If the integrity check failed while decrypting
+    */
+   public int decrypt(byte[] data, int offset, int length, byte[] out, int outOffset) throws InvalidKeyCipher {
+      Preconditions.checkState(!_wiped, "The key cipher has been wiped");
+      checkEncryptedLength(length);
+      int paddedLength = length - CHECKSUM_LENGTH;
+      Preconditions.checkArgument(out.length - outOffset >= paddedLength);
+      Engine engine = _engines.get();
+
+      // Keep the checksum in case decrypting in place overwrites it
+      System.arraycopy(data, offset + paddedLength, engine.checksum, 0, CHECKSUM_LENGTH);
 
       // Decrypt
-      ByteWriter writer = new ByteWriter(data.length - Rijndael.BLOCK_SIZE);
-      ByteReader reader = new ByteReader(BitUtils.copyOf(data, data.length - Rijndael.BLOCK_SIZE));
-      byte[] IV = new byte[Rijndael.BLOCK_SIZE];
-      byte[] plainBlock = new byte[Rijndael.BLOCK_SIZE];
-      while (reader.available() > 0) {
-         byte[] cipherBlock;
-         try {
-            cipherBlock = reader.getBytes(Rijndael.BLOCK_SIZE);
-         } catch (InsufficientBytesException e) {
-            // Does not happen as we already checked that the input is a whole
-            // number of blocks
-            throw new RuntimeException(e);
-         }
-         _aes.decrypt(cipherBlock, plainBlock);
-         xorBytes(IV, plainBlock);
-         writer.putBytes(plainBlock);
-         IV = cipherBlock;
-      }
+      engine.aes.decrypt(data, offset, paddedLength, out, outOffset);
 
       // Strip padding
-      byte[] plaintext = writer.toBytes();
-      try {
-         plaintext = stripPadding(plaintext);
-      } catch (InsufficientBytesException e) {
+      int plaintextLength = getPrefixedLength(out, outOffset, paddedLength);
+      if (plaintextLength < 0) {
+         Arrays.fill(out, outOffset, outOffset + paddedLength, (byte) 0);
          throw new InvalidKeyCipher();
       }
+      int prefixSize = getLengthPrefixSize(out, outOffset, paddedLength);
+      System.arraycopy(out, outOffset + prefixSize, out, outOffset, plaintextLength);
+      Arrays.fill(out, outOffset + plaintextLength, outOffset + paddedLength, (byte) 0);
 
-      // Calculate checksum
-      byte[] checksum = HashUtils.sha256(plaintext).getBytes();
-
-      // Verify checksum
-      for (int i = 0; i < Rijndael.BLOCK_SIZE; i++) {
-         if (checksum[i] != data[data.length - Rijndael.BLOCK_SIZE + i]) {
+      // Calculate and verify checksum
+      HashUtils.sha256(out, outOffset, plaintextLength, engine.hash, 0);
+      for (int i = 0; i < CHECKSUM_LENGTH; i++) {
+         if (engine.hash[i] != engine.checksum[i]) {
+            Arrays.fill(out, outOffset, outOffset + plaintextLength, (byte) 0);
             throw new InvalidKeyCipher();
          }
       }
-      return plaintext;
+      return plaintextLength;
+   }
+
+   private static void checkEncryptedLength(int length) {
+      // data to decrypt must be a whole number of blocks and have room for a
+      // checksum
+      Preconditions.checkArgument(length >= CHECKSUM_LENGTH);
+      Preconditions.checkArgument(length % BLOCK_SIZE == 0);
+   }
+
+   @Override
+   public byte[] encrypt(byte[] data) {
+      byte[] encrypted = new byte[getEncryptedLength(data.length)];
+      encrypt(data, 0, data.length, encrypted, 0);
+      return encrypted;
+   }
+
+   /**
+    * Encrypt data into a buffer
+    *
+    * @param data      the array holding the data to encrypt
+    * @param offset    the offset of the data to encrypt
+    * @param length    the length of the data to encrypt
+    * @param out       the array to encrypt into, which must have room for {@link #getEncryptedLength} bytes
+    * @param outOffset the offset to encrypt to, if out is the same array as data it must not be after offset
+    * @return the number of bytes written
+    */
+   public int encrypt(byte[] data, int offset, int length, byte[] out, int outOffset) {
+      Preconditions.checkState(!_wiped, "The key cipher has been wiped");
+      int encryptedLength = getEncryptedLength(length);
+      Preconditions.checkArgument(out.length - outOffset >= encryptedLength);
+      int paddedLength = encryptedLength - CHECKSUM_LENGTH;
+      Engine engine = _engines.get();
+
+      // Calculate checksum before the data may get overwritten
+      HashUtils.sha256(data, offset, length, engine.hash, 0);
+
+      // Data to encrypt must be a whole number of blocks, add length prefix and padding
+      int prefixSize = getLengthPrefixSize(length);
+      System.arraycopy(data, offset, out, outOffset + prefixSize, length);
+      putLengthPrefix(length, out, outOffset);
+      Arrays.fill(out, outOffset + prefixSize + length, outOffset + paddedLength, (byte) 0);
+
+      // Encrypt and append checksum
+      engine.aes.encrypt(out, outOffset, paddedLength, out, outOffset);
+      System.arraycopy(engine.hash, 0, out, outOffset + paddedLength, CHECKSUM_LENGTH);
+      return encryptedLength;
    }
 
-   private byte[] addPadding(byte[] data) {
-      ByteWriter writer = new ByteWriter(data.length + 1 + Rijndael.BLOCK_SIZE);
-      writer.putCompactInt(data.length);
-      writer.putBytes(data);
-      int excess = writer.length() % Rijndael.BLOCK_SIZE;
-      if (excess == 0) {
-         return writer.toBytes();
+   /**
+    * The length prefix is a compact int, see {@link com.mrd.bitlib.model.CompactInt}
+    */
+   private static int getLengthPrefixSize(int length) {
+      if (length < 253) {
+         return 1;
+      } else if (length < 65536) {
+         return 3;
       }
-      return BitUtils.copyOf(writer.toBytes(), writer.length() + Rijndael.BLOCK_SIZE - excess);
+      return 5;
    }
 
-   private byte[] stripPadding(byte[] data) throws InsufficientBytesException {
-      ByteReader reader = new ByteReader(data);
-      int length = (int) reader.getCompactInt();
-      if (length < 0) {
-         throw new InsufficientBytesException();
+   private static void putLengthPrefix(int length, byte[] out, int offset) {
+      int size = getLengthPrefixSize(length);
+      if (size == 1) {
+         out[offset] = (byte) length;
+      } else if (size == 3) {
+         out[offset] = (byte) 253;
+         out[offset + 1] = (byte) length;
+         out[offset + 2] = (byte) (length >> 8);
+      } else {
+         out[offset] = (byte) 254;
+         BitUtils.uint32ToByteArrayLE(length, out, offset + 1);
       }
-      return reader.getBytes(length);
    }
 
-   @Override
-   public byte[] encrypt(byte[] data) {
-      // Data to encrypt must be a whole number of blocks, add padding
-      byte[] plaintext = addPadding(data);
-
-      ByteWriter writer = new ByteWriter(plaintext.length + Rijndael.BLOCK_SIZE);
-      ByteReader reader = new ByteReader(plaintext);
-      byte[] IV = new byte[Rijndael.BLOCK_SIZE];
-      byte[] cipherBlock = new byte[Rijndael.BLOCK_SIZE];
-      while (reader.available() > 0) {
-         byte[] plainBlock;
-         try {
-            plainBlock = reader.getBytes(Rijndael.BLOCK_SIZE);
-         } catch (InsufficientBytesException e) {
-            // Does not happen as we already checked that the input is a whole
-            // number of blocks
-            throw new RuntimeException(e);
-         }
-         xorBytes(IV, plainBlock);
-         _aes.encrypt(plainBlock, cipherBlock);
-         writer.putBytes(cipherBlock);
-         IV = cipherBlock;
+   /**
+    * Read the length prefix of padded data
+    *
+    * @return the length, or -1 if the prefix is malformed or the length does not fit the padded data
+    */
+   private static int getPrefixedLength(byte[] data, int offset, int paddedLength) {
+      int prefixSize = getLengthPrefixSize(data, offset, paddedLength);
+      if (prefixSize < 0) {
+         return -1;
       }
-      // Calculate checksum
-      byte[] checksum = HashUtils.sha256(data).getBytes();
-      writer.putBytes(checksum, 0, Rijndael.BLOCK_SIZE);
-      return writer.toBytes();
+      int first = data[offset] & 0xFF;
+      long length;
+      if (first < 253) {
+         length = first;
+      } else if (first == 253) {
+         length = BitUtils.uint16ToLong(data, offset + 1);
+      } else {
+         length = BitUtils.uint32ToLong(data, offset + 1);
+      }
+      return length > paddedLength - prefixSize ? -1 : (int) length;
    }
 
-   private static void xorBytes(byte[] toApply, byte[] target) {
-      for (int i = 0; i < toApply.length; i++) {
-         target[i] = (byte) (target[i] ^ toApply[i]);
+   /**
+    * Get the size of the length prefix of padded data
+    *
+    * @return the size, or -1 if the prefix is malformed
+    */
+   private static int getLengthPrefixSize(byte[] data, int offset, int paddedLength) {
+      if (paddedLength < 1) {
+         return -1;
       }
+      int first = data[offset] & 0xFF;
+      int size = first < 253 ? 1 : first == 253 ? 3 : first == 254 ? 5 : -1;
+      return size > paddedLength ? -1 : size;
    }
 
    @Override
@@ -193,4 +315,20 @@ public class AesKeyCipher implements KeyCipher {
       return _keyBytes;
    }
 
+   /**
+    * Overwrite the key bytes of this key cipher and the key copies and key schedules of the engines of all threads,
+    * after which it can no longer be used. Must not be called while another thread is encrypting or decrypting with
+    * this key cipher.
+    */
+   public void wipe() {
+      synchronized (_allEngines) {
+         _wiped = true;
+         for (Engine engine : _allEngines.values()) {
+            engine.wipe();
+         }
+         _allEngines.clear();
+      }
+      Arrays.fill(_keyBytes, (byte) 0);
+   }
+
 }
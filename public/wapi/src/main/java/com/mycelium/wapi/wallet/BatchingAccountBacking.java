@@ -0,0 +1,543 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mycelium.wapi.wallet;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.wallet.bip44.Bip44AccountContext;
+import com.mycelium.wapi.wallet.single.SingleAddressAccountContext;
+
+/**
+ * An account backing which buffers changes in memory and writes them to another backing in a single transaction.
+ * <p/>
+ * Changes are only buffered while a batch is open, see {@link #beginBatch}. Accounts open a batch for a
+ * synchronization, which otherwise writes every transaction and output on its own, and flush it at the end of every
+ * synchronization phase. Outside of a batch all calls go straight to the backing, so that for instance queued
+ * outgoing transactions are persisted at once.
+ * <p/>
+ * Reads see the buffered changes. Outgoing transactions are never buffered, the buffer is flushed before they are
+ * changed. As they would escape it, they cannot be changed within an explicit transaction which is buffered.
+ * <p/>
+ * Explicit transactions within a batch are kept apart from the batch until they end, and are dropped if they were not
+ * successful.
+ */
+public class BatchingAccountBacking implements Bip44AccountBacking, SingleAddressAccountBacking {
+
+   /**
+    * The number of buffered changes after which they are written even though the batch is still open
+    */
+   public static final int MAX_BUFFERED_CHANGES = 10000;
+
+   /**
+    * Returned by lookups of keys without a change
+    */
+   private static final Object NO_CHANGE = new Object();
+
+   /**
+    * Newest first, the order of the transaction history
+    */
+   private static final Comparator<TransactionEx> NEWEST_FIRST = new Comparator<TransactionEx>() {
+      @Override
+      public int compare(TransactionEx a, TransactionEx b) {
+         int result = a.compareTo(b);
+         return result != 0 ? result : b.txid.compareTo(a.txid);
+      }
+   };
+
+   /**
+    * A set of changes. A null value in a map marks a deletion.
+    */
+   private static class Changes {
+      private final Map<OutPoint, TransactionOutputEx> unspentOutputs = new LinkedHashMap<OutPoint, TransactionOutputEx>();
+      private final Map<OutPoint, TransactionOutputEx> parentOutputs = new LinkedHashMap<OutPoint, TransactionOutputEx>();
+      private final Map<Sha256Hash, TransactionEx> transactions = new LinkedHashMap<Sha256Hash, TransactionEx>();
+      private Bip44AccountContext bip44Context;
+      private SingleAddressAccountContext singleAddressContext;
+
+      private int size() {
+         return unspentOutputs.size() + parentOutputs.size() + transactions.size();
+      }
+
+      private boolean isEmpty() {
+         return size() == 0 && bip44Context == null && singleAddressContext == null;
+      }
+
+      private void applyTo(Changes other) {
+         other.unspentOutputs.putAll(unspentOutputs);
+         other.parentOutputs.putAll(parentOutputs);
+         other.transactions.putAll(transactions);
+         if (bip44Context != null) {
+            other.bip44Context = bip44Context;
+         }
+         if (singleAddressContext != null) {
+            other.singleAddressContext = singleAddressContext;
+         }
+      }
+
+      private void applyTo(AccountBacking backing) {
+         for (Map.Entry<OutPoint, TransactionOutputEx> entry : unspentOutputs.entrySet()) {
+            if (entry.getValue() == null) {
+               backing.deleteUnspentOutput(entry.getKey());
+            } else {
+               backing.putUnspentOutput(entry.getValue());
+            }
+         }
+         for (TransactionOutputEx output : parentOutputs.values()) {
+            backing.putParentTransactionOutput(output);
+         }
+         for (Map.Entry<Sha256Hash, TransactionEx> entry : transactions.entrySet()) {
+            if (entry.getValue() == null) {
+               backing.deleteTransaction(entry.getKey());
+            } else {
+               backing.putTransaction(entry.getValue());
+            }
+         }
+         if (bip44Context != null) {
+            ((Bip44AccountBacking) backing).updateAccountContext(bip44Context);
+         }
+         if (singleAddressContext != null) {
+            ((SingleAddressAccountBacking) backing).updateAccountContext(singleAddressContext);
+         }
+      }
+   }
+
+   private final AccountBacking _backing;
+   private Changes _buffered;
+   private Changes _transaction;
+   private int _batchDepth;
+   // One entry per open explicit transaction, true once it has been marked successful
+   private final Deque<Boolean> _transactionLevels;
+   private boolean _transactionFailed;
+   private boolean _forwardTransaction;
+
+   /**
+    * @param backing the backing to write to, which must be a {@link Bip44AccountBacking} or a
+    *                {@link SingleAddressAccountBacking} for the account contexts to be written
+    */
+   public BatchingAccountBacking(AccountBacking backing) {
+      _backing = backing;
+      _buffered = new Changes();
+      _transactionLevels = new ArrayDeque<Boolean>();
+   }
+
+   /**
+    * Start buffering changes. Batches may be nested, the changes are written when the outermost batch ends.
+    */
+   public synchronized void beginBatch() {
+      _batchDepth++;
+   }
+
+   /**
+    * Write the buffered changes in a single transaction of the backing, leaving the batch open
+    */
+   public synchronized void flush() {
+      Preconditions.checkState(_transactionLevels.isEmpty(), "Cannot flush within a transaction");
+      if (_buffered.isEmpty()) {
+         return;
+      }
+      _backing.beginTransaction();
+      try {
+         _buffered.applyTo(_backing);
+         _backing.setTransactionSuccessful();
+      } finally {
+         _backing.endTransaction();
+      }
+      // Only dropped once written, so that a failed flush can be retried
+      _buffered = new Changes();
+   }
+
+   /**
+    * End a batch. If it is the outermost batch the buffered changes are written.
+    */
+   public synchronized void endBatch() {
+      Preconditions.checkState(_batchDepth > 0, "No batch open");
+      _batchDepth--;
+      if (_batchDepth == 0) {
+         flush();
+      }
+   }
+
+   private boolean isBuffering() {
+      return _batchDepth > 0 && !_forwardTransaction;
+   }
+
+   /**
+    * Get the changes that writes go to, or null if they go to the backing
+    */
+   private Changes getWriteChanges() {
+      if (!isBuffering()) {
+         return null;
+      }
+      return _transaction != null ? _transaction : _buffered;
+   }
+
+   private void flushIfFull() {
+      if (_transactionLevels.isEmpty() && _buffered.size() >= MAX_BUFFERED_CHANGES) {
+         flush();
+      }
+   }
+
+   @Override
+   public synchronized void beginTransaction() {
+      if (_transactionLevels.isEmpty()) {
+         _forwardTransaction = _batchDepth == 0;
+         _transactionFailed = false;
+         if (!_forwardTransaction) {
+            _transaction = new Changes();
+         }
+      }
+      _transactionLevels.push(false);
+      if (_forwardTransaction) {
+         _backing.beginTransaction();
+      }
+   }
+
+   @Override
+   public synchronized void setTransactionSuccessful() {
+      Preconditions.checkState(!_transactionLevels.isEmpty(), "No transaction open");
+      _transactionLevels.pop();
+      _transactionLevels.push(true);
+      if (_forwardTransaction) {
+         _backing.setTransactionSuccessful();
+      }
+   }
+
+   @Override
+   public synchronized void endTransaction() {
+      Preconditions.checkState(!_transactionLevels.isEmpty(), "No transaction open");
+      if (!_transactionLevels.pop()) {
+         _transactionFailed = true;
+      }
+      if (_forwardTransaction) {
+         _backing.endTransaction();
+      }
+      if (_transactionLevels.isEmpty()) {
+         if (_transaction != null && !_transactionFailed) {
+            _transaction.applyTo(_buffered);
+         }
+         _transaction = null;
+         _forwardTransaction = false;
+         flushIfFull();
+      }
+   }
+
+   @Override
+   public synchronized void clear() {
+      _buffered = new Changes();
+      if (_transaction != null) {
+         _transaction = new Changes();
+      }
+      _backing.clear();
+   }
+
+   @Override
+   public synchronized void updateAccountContext(Bip44AccountContext context) {
+      Changes changes = getWriteChanges();
+      if (changes == null) {
+         ((Bip44AccountBacking) _backing).updateAccountContext(context);
+      } else {
+         // The context keeps changing, so keep a copy of its current state
+         changes.bip44Context = new Bip44AccountContext(context);
+      }
+   }
+
+   @Override
+   public synchronized void updateAccountContext(SingleAddressAccountContext context) {
+      Changes changes = getWriteChanges();
+      if (changes == null) {
+         ((SingleAddressAccountBacking) _backing).updateAccountContext(context);
+      } else {
+         changes.singleAddressContext = new SingleAddressAccountContext(context);
+      }
+   }
+
+   /**
+    * Look up a key in the open transaction and the buffer
+    *
+    * @return the change, which is null for a deletion, or {@link #NO_CHANGE}
+    */
+   private static Object getChange(Map<?, ?> transactionMap, Map<?, ?> bufferedMap, Object key) {
+      if (transactionMap != null && transactionMap.containsKey(key)) {
+         return transactionMap.get(key);
+      }
+      if (bufferedMap.containsKey(key)) {
+         return bufferedMap.get(key);
+      }
+      return NO_CHANGE;
+   }
+
+   /**
+    * Get all changes of one kind, those of the open transaction taking precedence
+    */
+   private <K, V> Map<K, V> getChanges(Map<K, V> transactionMap, Map<K, V> bufferedMap) {
+      if (transactionMap == null || transactionMap.isEmpty()) {
+         return bufferedMap;
+      }
+      Map<K, V> changes = new HashMap<K, V>(bufferedMap);
+      changes.putAll(transactionMap);
+      return changes;
+   }
+
+   @Override
+   public synchronized Collection<TransactionOutputEx> getAllUnspentOutputs() {
+      Map<OutPoint, TransactionOutputEx> changes = getChanges(
+            _transaction == null ? null : _transaction.unspentOutputs, _buffered.unspentOutputs);
+      Collection<TransactionOutputEx> all = _backing.getAllUnspentOutputs();
+      if (changes.isEmpty()) {
+         return all;
+      }
+      List<TransactionOutputEx> result = new LinkedList<TransactionOutputEx>();
+      for (TransactionOutputEx output : all) {
+         if (!changes.containsKey(output.outPoint)) {
+            result.add(output);
+         }
+      }
+      for (TransactionOutputEx output : changes.values()) {
+         if (output != null) {
+            result.add(output);
+         }
+      }
+      return result;
+   }
+
+   @Override
+   public synchronized TransactionOutputEx getUnspentOutput(OutPoint outPoint) {
+      Object change = getChange(_transaction == null ? null : _transaction.unspentOutputs, _buffered.unspentOutputs,
+            outPoint);
+      if (change != NO_CHANGE) {
+         return (TransactionOutputEx) change;
+      }
+      return _backing.getUnspentOutput(outPoint);
+   }
+
+   @Override
+   public synchronized void deleteUnspentOutput(OutPoint outPoint) {
+      Changes changes = getWriteChanges();
+      if (changes == null) {
+         _backing.deleteUnspentOutput(outPoint);
+      } else {
+         changes.unspentOutputs.put(outPoint, null);
+         flushIfFull();
+      }
+   }
+
+   @Override
+   public synchronized void putUnspentOutput(TransactionOutputEx output) {
+      Changes changes = getWriteChanges();
+      if (changes == null) {
+         _backing.putUnspentOutput(output);
+      } else {
+         changes.unspentOutputs.put(output.outPoint, output);
+         flushIfFull();
+      }
+   }
+
+   @Override
+   public synchronized void putParentTransactionOutput(TransactionOutputEx output) {
+      Changes changes = getWriteChanges();
+      if (changes == null) {
+         _backing.putParentTransactionOutput(output);
+      } else {
+         changes.parentOutputs.put(output.outPoint, output);
+         flushIfFull();
+      }
+   }
+
+   @Override
+   public synchronized TransactionOutputEx getParentTransactionOutput(OutPoint outPoint) {
+      Object change = getChange(_transaction == null ? null : _transaction.parentOutputs, _buffered.parentOutputs,
+            outPoint);
+      if (change != NO_CHANGE) {
+         return (TransactionOutputEx) change;
+      }
+      return _backing.getParentTransactionOutput(outPoint);
+   }
+
+   @Override
+   public synchronized boolean hasParentTransactionOutput(OutPoint outPoint) {
+      Object change = getChange(_transaction == null ? null : _transaction.parentOutputs, _buffered.parentOutputs,
+            outPoint);
+      if (change != NO_CHANGE) {
+         return change != null;
+      }
+      return _backing.hasParentTransactionOutput(outPoint);
+   }
+
+   @Override
+   public synchronized void putTransaction(TransactionEx transaction) {
+      Changes changes = getWriteChanges();
+      if (changes == null) {
+         _backing.putTransaction(transaction);
+      } else {
+         changes.transactions.put(transaction.txid, transaction);
+         flushIfFull();
+      }
+   }
+
+   @Override
+   public synchronized TransactionEx getTransaction(Sha256Hash hash) {
+      Object change = getChange(_transaction == null ? null : _transaction.transactions, _buffered.transactions, hash);
+      if (change != NO_CHANGE) {
+         return (TransactionEx) change;
+      }
+      return _backing.getTransaction(hash);
+   }
+
+   @Override
+   public synchronized void deleteTransaction(Sha256Hash hash) {
+      Changes changes = getWriteChanges();
+      if (changes == null) {
+         _backing.deleteTransaction(hash);
+      } else {
+         changes.transactions.put(hash, null);
+         flushIfFull();
+      }
+   }
+
+   private Map<Sha256Hash, TransactionEx> getTransactionChanges() {
+      return getChanges(_transaction == null ? null : _transaction.transactions, _buffered.transactions);
+   }
+
+   @Override
+   public synchronized List<TransactionEx> getTransactionHistory(int offset, int limit) {
+      Map<Sha256Hash, TransactionEx> changes = getTransactionChanges();
+      if (changes.isEmpty()) {
+         return _backing.getTransactionHistory(offset, limit);
+      }
+      // Every change can remove at most one transaction from the page of the backing, so fetching that many more
+      // than needed is enough
+      long fetch = Math.min(Integer.MAX_VALUE, (long) offset + limit + changes.size());
+      List<TransactionEx> merged = new ArrayList<TransactionEx>();
+      for (TransactionEx tex : _backing.getTransactionHistory(0, (int) fetch)) {
+         if (!changes.containsKey(tex.txid)) {
+            merged.add(tex);
+         }
+      }
+      for (TransactionEx tex : changes.values()) {
+         if (tex != null) {
+            merged.add(tex);
+         }
+      }
+      Collections.sort(merged, NEWEST_FIRST);
+      if (offset >= merged.size()) {
+         return Collections.emptyList();
+      }
+      return Collections.unmodifiableList(new ArrayList<TransactionEx>(
+            merged.subList(offset, (int) Math.min(merged.size(), (long) offset + limit))));
+   }
+
+   @Override
+   public synchronized Collection<TransactionEx> getUnconfirmedTransactions() {
+      Map<Sha256Hash, TransactionEx> changes = getTransactionChanges();
+      Collection<TransactionEx> unconfirmed = _backing.getUnconfirmedTransactions();
+      if (changes.isEmpty()) {
+         return unconfirmed;
+      }
+      List<TransactionEx> result = new ArrayList<TransactionEx>();
+      for (TransactionEx tex : unconfirmed) {
+         if (!changes.containsKey(tex.txid)) {
+            result.add(tex);
+         }
+      }
+      for (TransactionEx tex : changes.values()) {
+         if (tex != null && tex.height == -1) {
+            result.add(tex);
+         }
+      }
+      return result;
+   }
+
+   @Override
+   public synchronized Collection<TransactionEx> getYoungTransactions(int maxConfirmations, int blockChainHeight) {
+      Map<Sha256Hash, TransactionEx> changes = getTransactionChanges();
+      Collection<TransactionEx> young = _backing.getYoungTransactions(maxConfirmations, blockChainHeight);
+      if (changes.isEmpty()) {
+         return young;
+      }
+      List<TransactionEx> result = new LinkedList<TransactionEx>();
+      for (TransactionEx tex : young) {
+         if (!changes.containsKey(tex.txid)) {
+            result.add(tex);
+         }
+      }
+      for (TransactionEx tex : changes.values()) {
+         if (tex != null && tex.calculateConfirmations(blockChainHeight) <= maxConfirmations) {
+            result.add(tex);
+         }
+      }
+      return result;
+   }
+
+   @Override
+   public synchronized boolean hasTransaction(Sha256Hash txid) {
+      Object change = getChange(_transaction == null ? null : _transaction.transactions, _buffered.transactions, txid);
+      if (change != NO_CHANGE) {
+         return change != null;
+      }
+      return _backing.hasTransaction(txid);
+   }
+
+   @Override
+   public synchronized void putOutgoingTransaction(Sha256Hash txid, byte[] rawTransaction) {
+      flushBeforeUnbufferedChange();
+      _backing.putOutgoingTransaction(txid, rawTransaction);
+   }
+
+   @Override
+   public synchronized List<byte[]> getOutgoingTransactions() {
+      return _backing.getOutgoingTransactions();
+   }
+
+   @Override
+   public synchronized boolean isOutgoingTransaction(Sha256Hash txid) {
+      return _backing.isOutgoingTransaction(txid);
+   }
+
+   @Override
+   public synchronized void removeOutgoingTransaction(Sha256Hash txid) {
+      flushBeforeUnbufferedChange();
+      _backing.removeOutgoingTransaction(txid);
+   }
+
+   /**
+    * Write what is buffered before a change which is not buffered, so that the backing sees changes in order
+    *
+    * @throws IllegalStateException if a buffered transaction is open, which the change would not be part of
+    */
+   private void flushBeforeUnbufferedChange() {
+      Preconditions.checkState(_transaction == null, "Cannot make unbuffered changes within a buffered transaction");
+      if (_transactionLevels.isEmpty()) {
+         flush();
+      }
+   }
+}
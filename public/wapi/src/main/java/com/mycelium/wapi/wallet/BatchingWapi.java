@@ -0,0 +1,314 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mycelium.wapi.wallet;
+
+import com.google.common.collect.Iterables;
+import com.mrd.bitlib.crypto.PublicKey;
+import com.mrd.bitlib.model.*;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.api.Wapi;
+import com.mycelium.wapi.api.WapiException;
+import com.mycelium.wapi.api.WapiLogger;
+import com.mycelium.wapi.api.WapiResponse;
+import com.mycelium.wapi.api.request.*;
+import com.mycelium.wapi.api.response.*;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A {@link Wapi} which answers the synchronization queries of many accounts from a few combined requests.
+ * <p/>
+ * Before a synchronization round the wallet manager prefetches the unspent outputs and transaction inventory for the
+ * union of the addresses of all accounts. The results are split up per address, so when an account later asks for
+ * the unspent outputs or transaction inventory of its own addresses, the answer is assembled locally without a round
+ * trip. Requests that are not fully covered by the prefetched data are passed on to the wrapped {@link Wapi}
+ * unchanged, and so are all other calls.
+ */
+class BatchingWapi implements Wapi {
+
+   /**
+    * The maximum number of addresses we send in a single combined request
+    */
+   static final int MAX_ADDRESSES_PER_REQUEST = 200;
+
+   /**
+    * The maximum number of transactions we fetch in a single combined request
+    */
+   private static final int MAX_TRANSACTIONS_PER_REQUEST = 200;
+
+   private final Wapi _wapi;
+   private final NetworkParameters _network;
+   private final WapiLogger _logger;
+   private volatile UnspentOutputs _unspentOutputs;
+   private volatile TransactionInventory _transactionInventory;
+
+   BatchingWapi(Wapi wapi, NetworkParameters network) {
+      _wapi = wapi;
+      _network = network;
+      _logger = wapi.getLogger();
+   }
+
+   /**
+    * Prefetched unspent outputs by address
+    */
+   private static class UnspentOutputs {
+      private final int height;
+      private final Map<Address, List<TransactionOutputEx>> byAddress;
+
+      private UnspentOutputs(int height, Map<Address, List<TransactionOutputEx>> byAddress) {
+         this.height = height;
+         this.byAddress = byAddress;
+      }
+   }
+
+   /**
+    * Prefetched transaction IDs by address, and the transactions themselves
+    */
+   private static class TransactionInventory {
+      private final int height;
+      private final Map<Address, Set<Sha256Hash>> byAddress;
+      private final Map<Sha256Hash, TransactionEx> transactions;
+
+      private TransactionInventory(int height, Map<Address, Set<Sha256Hash>> byAddress,
+                                   Map<Sha256Hash, TransactionEx> transactions) {
+         this.height = height;
+         this.byAddress = byAddress;
+         this.transactions = transactions;
+      }
+   }
+
+   /**
+    * Fetch the unspent outputs of a set of addresses using as few requests as possible.
+    *
+    * @param addresses the addresses to fetch unspent outputs for
+    * @throws WapiException if any of the requests failed, in which case nothing is cached
+    */
+   void prefetchUnspentOutputs(Collection<Address> addresses) throws WapiException {
+      Map<Address, List<TransactionOutputEx>> byAddress = new HashMap<Address, List<TransactionOutputEx>>();
+      for (Address address : addresses) {
+         byAddress.put(address, new LinkedList<TransactionOutputEx>());
+      }
+      int height = -1;
+      for (List<Address> chunk : Iterables.partition(byAddress.keySet(), MAX_ADDRESSES_PER_REQUEST)) {
+         QueryUnspentOutputsResponse response = _wapi.queryUnspentOutputs(
+               new QueryUnspentOutputsRequest(Wapi.VERSION, chunk)).getResult();
+         height = Math.max(height, response.height);
+         for (TransactionOutputEx output : response.unspent) {
+            ScriptOutput script = ScriptOutput.fromScriptBytes(output.script);
+            List<TransactionOutputEx> list = script == null ? null : byAddress.get(script.getAddress(_network));
+            if (list != null) {
+               list.add(output);
+            }
+         }
+      }
+      _unspentOutputs = new UnspentOutputs(height, byAddress);
+   }
+
+   /**
+    * Fetch the transaction inventory of a set of addresses, and the transactions in it, using as few requests as
+    * possible.
+    * <p/>
+    * The server does not tell us which address a transaction ID belongs to, so we fetch the transactions and
+    * attribute them to the addresses they send to or spend from. If the inventory of any request hit the server
+    * limit the inventory may be incomplete, and nothing is cached.
+    *
+    * @param addresses the addresses to fetch the transaction inventory for
+    * @throws WapiException if any of the requests failed, in which case nothing is cached
+    */
+   void prefetchTransactionInventory(Collection<Address> addresses) throws WapiException {
+      Map<Address, Set<Sha256Hash>> byAddress = new HashMap<Address, Set<Sha256Hash>>();
+      for (Address address : addresses) {
+         byAddress.put(address, new HashSet<Sha256Hash>());
+      }
+      int height = -1;
+      Set<Sha256Hash> txIds = new HashSet<Sha256Hash>();
+      for (List<Address> chunk : Iterables.partition(byAddress.keySet(), MAX_ADDRESSES_PER_REQUEST)) {
+         QueryTransactionInventoryResponse response = _wapi.queryTransactionInventory(
+               new QueryTransactionInventoryRequest(Wapi.VERSION, chunk, Wapi.MAX_TRANSACTION_INVENTORY_LIMIT))
+               .getResult();
+         if (response.txIds.size() >= Wapi.MAX_TRANSACTION_INVENTORY_LIMIT) {
+            // The inventory may have been cut off, let the accounts query it themselves
+            return;
+         }
+         height = Math.max(height, response.height);
+         txIds.addAll(response.txIds);
+      }
+
+      Map<Sha256Hash, TransactionEx> transactions = new HashMap<Sha256Hash, TransactionEx>();
+      for (List<Sha256Hash> chunk : Iterables.partition(txIds, MAX_TRANSACTIONS_PER_REQUEST)) {
+         GetTransactionsResponse response = _wapi.getTransactions(new GetTransactionsRequest(Wapi.VERSION, chunk))
+               .getResult();
+         for (TransactionEx tex : response.transactions) {
+            transactions.put(tex.txid, tex);
+            Collection<Address> involved = getInvolvedAddresses(tex);
+            if (involved == null) {
+               // Let the account deal with transactions we cannot parse
+               _logger.logError("Received transaction that we cannot parse: " + tex.txid.toString());
+               return;
+            }
+            for (Address address : involved) {
+               Set<Sha256Hash> set = byAddress.get(address);
+               if (set != null) {
+                  set.add(tex.txid);
+               }
+            }
+         }
+      }
+      _transactionInventory = new TransactionInventory(height, byAddress, transactions);
+   }
+
+   /**
+    * Get the addresses a transaction sends to, and the addresses of the standard inputs it spends from. Only the
+    * input scripts are parsed, the rest is read through a view.
+    *
+    * @return the involved addresses, or null if the transaction cannot be parsed
+    */
+   private Collection<Address> getInvolvedAddresses(TransactionEx tex) {
+      TransactionView t;
+      try {
+         t = TransactionView.parse(ByteBuffer.wrap(tex.binary));
+      } catch (Transaction.TransactionParsingException e) {
+         return null;
+      }
+      List<Address> addresses = new ArrayList<Address>(t.getInputCount() + t.getOutputCount());
+      for (int i = 0; i < t.getInputCount(); i++) {
+         if (t.getOutPointHash(i).equals(Sha256Hash.ZERO_HASH)) {
+            // Coinbase
+            continue;
+         }
+         ByteBuffer scriptBytes = t.getInputScript(i);
+         byte[] script = new byte[scriptBytes.remaining()];
+         scriptBytes.get(script);
+         ScriptInput input;
+         try {
+            input = ScriptInput.fromScriptBytes(script);
+         } catch (Script.ScriptParsingException e) {
+            return null;
+         }
+         if (input instanceof ScriptInputStandard) {
+            byte[] publicKeyBytes = ((ScriptInputStandard) input).getPublicKeyBytes();
+            addresses.add(new PublicKey(publicKeyBytes).toAddress(_network));
+         }
+      }
+      for (int i = 0; i < t.getOutputCount(); i++) {
+         Address address = t.getOutputAddress(i, _network);
+         if (address != null) {
+            addresses.add(address);
+         }
+      }
+      return addresses;
+   }
+
+   /**
+    * Forget all prefetched data
+    */
+   void clear() {
+      _unspentOutputs = null;
+      _transactionInventory = null;
+   }
+
+   @Override
+   public WapiLogger getLogger() {
+      return _logger;
+   }
+
+   @Override
+   public WapiResponse<QueryUnspentOutputsResponse> queryUnspentOutputs(QueryUnspentOutputsRequest request) {
+      UnspentOutputs cached = _unspentOutputs;
+      if (cached == null || !cached.byAddress.keySet().containsAll(request.addresses)) {
+         return _wapi.queryUnspentOutputs(request);
+      }
+      List<TransactionOutputEx> unspent = new LinkedList<TransactionOutputEx>();
+      for (Address address : new HashSet<Address>(request.addresses)) {
+         unspent.addAll(cached.byAddress.get(address));
+      }
+      return new WapiResponse<QueryUnspentOutputsResponse>(new QueryUnspentOutputsResponse(cached.height, unspent));
+   }
+
+   @Override
+   public WapiResponse<QueryTransactionInventoryResponse> queryTransactionInventory(QueryTransactionInventoryRequest request) {
+      TransactionInventory cached = _transactionInventory;
+      if (cached == null || !cached.byAddress.keySet().containsAll(request.addresses)) {
+         return _wapi.queryTransactionInventory(request);
+      }
+      Set<Sha256Hash> txIds = new HashSet<Sha256Hash>();
+      for (Address address : request.addresses) {
+         txIds.addAll(cached.byAddress.get(address));
+      }
+      if (txIds.size() > request.limit) {
+         // We cannot tell which ones the server would have picked
+         return _wapi.queryTransactionInventory(request);
+      }
+      return new WapiResponse<QueryTransactionInventoryResponse>(new QueryTransactionInventoryResponse(cached.height,
+            new ArrayList<Sha256Hash>(txIds)));
+   }
+
+   @Override
+   public WapiResponse<GetTransactionsResponse> getTransactions(GetTransactionsRequest request) {
+      TransactionInventory cached = _transactionInventory;
+      if (cached == null) {
+         return _wapi.getTransactions(request);
+      }
+      List<TransactionEx> transactions = new ArrayList<TransactionEx>(request.txIds.size());
+      List<Sha256Hash> missing = new ArrayList<Sha256Hash>();
+      for (Sha256Hash txId : request.txIds) {
+         TransactionEx tex = cached.transactions.get(txId);
+         if (tex == null) {
+            missing.add(txId);
+         } else {
+            transactions.add(tex);
+         }
+      }
+      if (!missing.isEmpty()) {
+         WapiResponse<GetTransactionsResponse> response = _wapi.getTransactions(
+               new GetTransactionsRequest(request.version, missing));
+         if (response.getErrorCode() != ERROR_CODE_SUCCESS) {
+            return response;
+         }
+         try {
+            transactions.addAll(response.getResult().transactions);
+         } catch (WapiException e) {
+            // Never happens, we checked the error code above
+            return new WapiResponse<GetTransactionsResponse>(e.errorCode, null);
+         }
+      }
+      return new WapiResponse<GetTransactionsResponse>(new GetTransactionsResponse(transactions));
+   }
+
+   @Override
+   public WapiResponse<BroadcastTransactionResponse> broadcastTransaction(BroadcastTransactionRequest request) {
+      return _wapi.broadcastTransaction(request);
+   }
+
+   @Override
+   public WapiResponse<CheckTransactionsResponse> checkTransactions(CheckTransactionsRequest request) {
+      return _wapi.checkTransactions(request);
+   }
+
+   @Override
+   public WapiResponse<QueryExchangeRatesResponse> queryExchangeRates(QueryExchangeRatesRequest request) {
+      return _wapi.queryExchangeRates(request);
+   }
+
+   @Override
+   public WapiResponse<PingResponse> ping() {
+      return _wapi.ping();
+   }
+}
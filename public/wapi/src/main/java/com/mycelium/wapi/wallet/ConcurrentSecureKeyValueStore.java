@@ -0,0 +1,415 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mycelium.wapi.wallet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mrd.bitlib.crypto.RandomSource;
+import com.mrd.bitlib.util.HashUtils;
+import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
+
+/**
+ * A {@link SecureKeyValueStore} which serves reads from several threads at once.
+ * <p/>
+ * Reads do not lock the store. Plaintext values are cached, and so are the decrypted key encryption keys for the user
+ * defined encryption keys that were used, so that reading an encrypted value does not need to decrypt the key
+ * encryption key again. Cache entries expire after a time to live. Writes and {@link #replaceEncryptionKey} are
+ * serialized, and replacing the encryption key drops all cached key encryption keys.
+ * <p/>
+ * Cached key encryption keys are wiped when they expire, by a timer even if the store is not used anymore, or when they
+ * are dropped. Encrypted values are never cached.
+ * <p/>
+ * Plaintext values are not cached while a transaction opened through the store is open, as they may still get rolled
+ * back.
+ * <p/>
+ * The backing must allow reading a value while another one is written.
+ */
+public class ConcurrentSecureKeyValueStore extends SecureKeyValueStore {
+
+   public static final long DEFAULT_TIME_TO_LIVE_MS = TimeUnit.MINUTES.toMillis(1);
+
+   // Wipes expired key encryption keys, shared by all stores and created on first use
+   private static ScheduledExecutorService _evictionExecutor;
+
+   private final long _timeToLiveNanos;
+   private final ConcurrentMap<CacheKey, CachedValue> _plaintextValues;
+   private final ConcurrentMap<Object, KeyHandle> _keyHandles;
+   // Incremented after every write, so that a read which raced with a write does not leave a stale value in the cache
+   private final AtomicLong _plaintextVersion;
+   private final AtomicInteger _openTransactions;
+   private final AtomicLong _keyVersion;
+   private volatile long _nextSweep;
+
+   /**
+    * A byte array compared by content
+    */
+   private static final class CacheKey {
+      private final byte[] _bytes;
+      private final int _hashCode;
+
+      private CacheKey(byte[] bytes) {
+         _bytes = bytes;
+         _hashCode = Arrays.hashCode(bytes);
+      }
+
+      @Override
+      public int hashCode() {
+         return _hashCode;
+      }
+
+      @Override
+      public boolean equals(Object obj) {
+         return obj instanceof CacheKey && Arrays.equals(_bytes, ((CacheKey) obj)._bytes);
+      }
+   }
+
+   private static class CachedValue {
+      private final byte[] value;
+      private final long expiry;
+
+      private CachedValue(byte[] value, long expiry) {
+         this.value = value;
+         this.expiry = expiry;
+      }
+   }
+
+   /**
+    * A decrypted key encryption key. It is only used while holding the read lock, and wiped while holding the write
+    * lock.
+    */
+   private static class KeyHandle {
+      private final Object cacheKey;
+      private final AesKeyCipher kek;
+      private final long expiry;
+      private final ReadWriteLock lock;
+      private boolean wiped;
+
+      private KeyHandle(Object cacheKey, AesKeyCipher kek, long expiry) {
+         this.cacheKey = cacheKey;
+         this.kek = kek;
+         this.expiry = expiry;
+         lock = new ReentrantReadWriteLock();
+      }
+
+      private void wipe() {
+         lock.writeLock().lock();
+         try {
+            wiped = true;
+            kek.wipe();
+            if (cacheKey instanceof CacheKey) {
+               Arrays.fill(((CacheKey) cacheKey)._bytes, (byte) 0);
+            }
+         } finally {
+            lock.writeLock().unlock();
+         }
+      }
+   }
+
+   public ConcurrentSecureKeyValueStore(SecureKeyValueStoreBacking backing, RandomSource randomSource) {
+      this(backing, randomSource, DEFAULT_TIME_TO_LIVE_MS);
+   }
+
+   /**
+    * @param backing      the backing to store values in
+    * @param randomSource the random source for creating the key encryption key
+    * @param timeToLiveMs how long cache entries are kept in milliseconds
+    */
+   public ConcurrentSecureKeyValueStore(SecureKeyValueStoreBacking backing, RandomSource randomSource,
+                                        long timeToLiveMs) {
+      super(backing, randomSource);
+      Preconditions.checkArgument(timeToLiveMs > 0);
+      _timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(timeToLiveMs);
+      _plaintextValues = new ConcurrentHashMap<CacheKey, CachedValue>();
+      _keyHandles = new ConcurrentHashMap<Object, KeyHandle>();
+      _plaintextVersion = new AtomicLong();
+      _openTransactions = new AtomicInteger();
+      _keyVersion = new AtomicLong();
+      _nextSweep = System.nanoTime() + _timeToLiveNanos;
+   }
+
+   @Override
+   public byte[] getPlaintextValue(byte[] id) {
+      if (id.length == 0) {
+         throw new RuntimeException("IDs cannot have zero length");
+      }
+      CacheKey key = new CacheKey(id.clone());
+      long now = System.nanoTime();
+      CachedValue cached = _plaintextValues.get(key);
+      if (cached != null) {
+         if (cached.expiry - now > 0) {
+            return cached.value == null ? null : cached.value.clone();
+         }
+         _plaintextValues.remove(key, cached);
+      }
+
+      long version = _plaintextVersion.get();
+      byte[] value = _backing.getValue(getRealId(id, false));
+      if (_openTransactions.get() > 0) {
+         // The value may not be committed yet
+         return value;
+      }
+      CachedValue entry = new CachedValue(value == null ? null : value.clone(), now + _timeToLiveNanos);
+      _plaintextValues.put(key, entry);
+      if (_plaintextVersion.get() != version) {
+         // A write or the end of a transaction happened meanwhile, and the value read may already be outdated
+         _plaintextValues.remove(key, entry);
+      }
+      sweepIfDue(now);
+      return value;
+   }
+
+   @Override
+   public void beginTransaction() {
+      super.beginTransaction();
+      _openTransactions.incrementAndGet();
+   }
+
+   @Override
+   public void endTransaction() {
+      try {
+         super.endTransaction();
+      } finally {
+         // Values written within the transaction were dropped from the cache when written. Bumping the version
+         // before closing makes a read which started within the transaction drop what it caches.
+         _plaintextVersion.incrementAndGet();
+         _openTransactions.decrementAndGet();
+      }
+   }
+
+   @Override
+   public synchronized void storePlaintextValue(byte[] id, byte[] plaintextValue) {
+      super.storePlaintextValue(id, plaintextValue);
+      invalidatePlaintextValue(id);
+   }
+
+   @Override
+   public synchronized void storePlaintextValues(List<byte[]> ids, List<byte[]> plaintextValues) {
+      super.storePlaintextValues(ids, plaintextValues);
+      for (byte[] id : ids) {
+         invalidatePlaintextValue(id);
+      }
+   }
+
+   @Override
+   public synchronized void deletePlaintextValue(byte[] id) {
+      super.deletePlaintextValue(id);
+      invalidatePlaintextValue(id);
+   }
+
+   private void invalidatePlaintextValue(byte[] id) {
+      _plaintextVersion.incrementAndGet();
+      _plaintextValues.remove(new CacheKey(id));
+   }
+
+   @Override
+   public boolean isValidEncryptionKey(KeyCipher userCipher) {
+      try {
+         getKeyHandle(userCipher);
+         return true;
+      } catch (InvalidKeyCipher invalidKeyCipher) {
+         return false;
+      }
+   }
+
+   @Override
+   public synchronized void replaceEncryptionKey(KeyCipher currentUserCipher, KeyCipher newUserCipher)
+         throws InvalidKeyCipher {
+      super.replaceEncryptionKey(currentUserCipher, newUserCipher);
+      // The current user cipher must stop working, even if a read has just cached its key encryption key
+      _keyVersion.incrementAndGet();
+      clearKeyHandles();
+   }
+
+   @Override
+   public byte[] getEncryptedValue(byte[] id, KeyCipher userCipher) throws InvalidKeyCipher {
+      if (id.length == 0) {
+         throw new RuntimeException("IDs cannot have zero length");
+      }
+      while (true) {
+         KeyHandle handle = getKeyHandle(userCipher); // may throw InvalidKeyCipher
+         handle.lock.readLock().lock();
+         try {
+            if (handle.wiped) {
+               // Expired or dropped since we got it
+               continue;
+            }
+            byte[] encryptedValue = _backing.getValue(getRealId(id, true));
+            if (encryptedValue == null) {
+               return null;
+            }
+            return handle.kek.decrypt(encryptedValue);
+         } finally {
+            handle.lock.readLock().unlock();
+         }
+      }
+   }
+
+   @Override
+   public List<byte[]> getEncryptedValues(List<byte[]> ids, KeyCipher userCipher) throws InvalidKeyCipher {
+      for (byte[] id : ids) {
+         if (id.length == 0) {
+            throw new RuntimeException("IDs cannot have zero length");
+         }
+      }
+      while (true) {
+         KeyHandle handle = getKeyHandle(userCipher); // may throw InvalidKeyCipher
+         handle.lock.readLock().lock();
+         try {
+            if (handle.wiped) {
+               continue;
+            }
+            List<byte[]> values = new ArrayList<byte[]>(ids.size());
+            for (byte[] id : ids) {
+               byte[] encryptedValue = _backing.getValue(getRealId(id, true));
+               values.add(encryptedValue == null ? null : handle.kek.decrypt(encryptedValue));
+            }
+            return values;
+         } finally {
+            handle.lock.readLock().unlock();
+         }
+      }
+   }
+
+   @Override
+   public synchronized void deleteEncryptedValue(byte[] id, KeyCipher userCipher) throws InvalidKeyCipher {
+      super.deleteEncryptedValue(id, userCipher);
+   }
+
+   /**
+    * Drop and wipe all cached values and key encryption keys, for instance when the wallet gets locked
+    */
+   public void clearCache() {
+      _plaintextValues.clear();
+      clearKeyHandles();
+   }
+
+   @VisibleForTesting
+   int getCachedKeyCount() {
+      return _keyHandles.size();
+   }
+
+   private void clearKeyHandles() {
+      for (Map.Entry<Object, KeyHandle> entry : _keyHandles.entrySet()) {
+         evict(entry.getKey(), entry.getValue());
+      }
+   }
+
+   private void evict(Object key, KeyHandle handle) {
+      // Only the thread which removes a handle wipes it
+      if (_keyHandles.remove(key, handle)) {
+         handle.wipe();
+      }
+   }
+
+   /**
+    * Get the cached key encryption key for a user cipher, or decrypt and cache it
+    */
+   private KeyHandle getKeyHandle(KeyCipher userCipher) throws InvalidKeyCipher {
+      Object key = getCacheKey(userCipher);
+      long now = System.nanoTime();
+      KeyHandle handle = _keyHandles.get(key);
+      if (handle != null) {
+         if (handle.expiry - now > 0) {
+            return handle;
+         }
+         evict(key, handle);
+      }
+
+      long version = _keyVersion.get();
+      handle = new KeyHandle(key, unwrapKeyEncryptionKey(userCipher), now + _timeToLiveNanos);
+      KeyHandle existing = _keyHandles.putIfAbsent(key, handle);
+      if (existing != null) {
+         // Another thread got there first, use its handle
+         handle.wipe();
+         return existing;
+      }
+      if (_keyVersion.get() != version) {
+         // The encryption key was replaced meanwhile, do not keep this one around
+         evict(key, handle);
+      } else {
+         scheduleEviction(key, handle);
+      }
+      sweepIfDue(now);
+      return handle;
+   }
+
+   private void scheduleEviction(final Object key, final KeyHandle handle) {
+      getEvictionExecutor().schedule(new Runnable() {
+         @Override
+         public void run() {
+            evict(key, handle);
+         }
+      }, handle.expiry - System.nanoTime(), TimeUnit.NANOSECONDS);
+   }
+
+   private static synchronized ScheduledExecutorService getEvictionExecutor() {
+      if (_evictionExecutor == null) {
+         _evictionExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder().setDaemon(true)
+               .setNameFormat("Key eviction-%d").build());
+      }
+      return _evictionExecutor;
+   }
+
+   /**
+    * Key cipher instances are usually created for every operation. AES key ciphers with the same key are therefore
+    * looked up by a hash of their key, other key ciphers by identity.
+    */
+   private static Object getCacheKey(KeyCipher userCipher) {
+      if (userCipher instanceof AesKeyCipher) {
+         byte[] keyBytes = ((AesKeyCipher) userCipher).getKeyBytes();
+         return new CacheKey(HashUtils.sha256(keyBytes).getBytes());
+      }
+      return userCipher;
+   }
+
+   /**
+    * Remove expired entries which are not looked up anymore, at most once per time to live
+    */
+   private void sweepIfDue(long now) {
+      long nextSweep = _nextSweep;
+      if (nextSweep - now > 0) {
+         return;
+      }
+      _nextSweep = now + _timeToLiveNanos;
+      for (Map.Entry<CacheKey, CachedValue> entry : _plaintextValues.entrySet()) {
+         if (entry.getValue().expiry - now <= 0) {
+            _plaintextValues.remove(entry.getKey(), entry.getValue());
+         }
+      }
+      for (Map.Entry<Object, KeyHandle> entry : _keyHandles.entrySet()) {
+         if (entry.getValue().expiry - now <= 0) {
+            evict(entry.getKey(), entry.getValue());
+         }
+      }
+   }
+}
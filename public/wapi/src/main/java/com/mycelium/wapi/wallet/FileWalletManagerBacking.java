@@ -0,0 +1,1226 @@
+/*
+ * Copyright 2013, 2014 Megion Research & Development GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mycelium.wapi.wallet;
+
+import com.google.common.base.Preconditions;
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.HexUtils;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.wallet.bip44.Bip44AccountContext;
+import com.mycelium.wapi.wallet.single.SingleAddressAccountContext;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Backing for a wallet manager which is stored in a directory using plain Java file IO.
+ * <p/>
+ * Every change is appended to a log as a checksummed frame. All changes of a transaction go into a single frame, so
+ * a transaction is either recovered completely or not at all, and a frame which was only partially written when
+ * the process died is cut off when the wallet is opened again. Any other damage to the log fails opening the wallet
+ * rather than dropping the committed frames after it. Once the log has grown larger than the last
+ * snapshot, the state is written to a new compacted snapshot and the log starts over.
+ * <p/>
+ * The raw transactions of a snapshot are stored in a separate blob file which is memory mapped. Opening a wallet
+ * only reads the snapshot index and the log, and the raw bytes of a transaction are only read when the
+ * transaction is requested.
+ * <p/>
+ * The files of generation n are "snapshot.n", "blobs.n" and "log.n". A snapshot is only used if it was written
+ * completely, so a crash during compaction leaves the previous generation in place. A transaction which ends
+ * without being marked successful is rolled back by loading the state from disk again.
+ */
+public class FileWalletManagerBacking implements WalletManagerBacking, Closeable {
+
+   private static final String SNAPSHOT_PREFIX = "snapshot.";
+   private static final String BLOBS_PREFIX = "blobs.";
+   private static final String LOG_PREFIX = "log.";
+
+   /**
+    * A frame starts with the length of its payload and the CRC32 of the payload
+    */
+   private static final int FRAME_HEADER_SIZE = 8;
+
+   /**
+    * The maximum payload size of the frames of a snapshot
+    */
+   private static final int SNAPSHOT_FRAME_SIZE = 64 * 1024;
+
+   /**
+    * The log is never compacted before it has reached this size
+    */
+   private static final long MIN_COMPACTION_SIZE = 4 * 1024 * 1024;
+
+   // Record types
+   private static final byte SET_VALUE = 1;
+   private static final byte DELETE_VALUE = 2;
+   private static final byte PUT_BIP44_CONTEXT = 3;
+   private static final byte PUT_SINGLE_ADDRESS_CONTEXT = 4;
+   private static final byte DELETE_SINGLE_ADDRESS_CONTEXT = 5;
+   private static final byte CLEAR_ACCOUNT = 6;
+   private static final byte PUT_UNSPENT_OUTPUT = 7;
+   private static final byte DELETE_UNSPENT_OUTPUT = 8;
+   private static final byte PUT_PARENT_OUTPUT = 9;
+   private static final byte PUT_TRANSACTION = 10;
+   private static final byte PUT_TRANSACTION_BLOB = 11;
+   private static final byte DELETE_TRANSACTION = 12;
+   private static final byte PUT_OUTGOING_TRANSACTION = 13;
+   private static final byte REMOVE_OUTGOING_TRANSACTION = 14;
+   private static final byte END_OF_SNAPSHOT = 15;
+
+   private final File _directory;
+   private final boolean _sync;
+   private final ReentrantLock _lock;
+   private final Map<UUID, FileAccountBacking> _backings;
+   private final List<byte[]> _pending;
+   private final byte[] _scratch;
+
+   private Map<String, byte[]> _values;
+   private Map<UUID, Bip44AccountContext> _bip44Contexts;
+   private Map<UUID, SingleAddressAccountContext> _singleAddressAccountContexts;
+   private Map<UUID, AccountState> _accounts;
+
+   private long _generation;
+   private long _snapshotSize;
+   private FileChannel _log;
+   private long _logSize;
+
+   private int _transactionDepth;
+   private boolean _transactionSuccessful;
+   private boolean _transactionFailed;
+
+   /**
+    * Open or create a wallet in a directory, forcing every committed change to disk
+    *
+    * @param directory the directory to store the wallet in, it is created if it does not exist
+    */
+   public FileWalletManagerBacking(File directory) {
+      this(directory, true);
+   }
+
+   /**
+    * Open or create a wallet in a directory
+    *
+    * @param directory the directory to store the wallet in, it is created if it does not exist
+    * @param sync      whether to force every committed change to disk. Without it changes survive the process
+    *                  dying but may be lost if the system crashes.
+    */
+   public FileWalletManagerBacking(File directory, boolean sync) {
+      Preconditions.checkArgument(directory.isDirectory() || directory.mkdirs(), "Unable to create %s", directory);
+      _directory = directory;
+      _sync = sync;
+      _lock = new ReentrantLock();
+      _backings = new HashMap<UUID, FileAccountBacking>();
+      _pending = new ArrayList<byte[]>();
+      _scratch = new byte[SNAPSHOT_FRAME_SIZE];
+      load();
+   }
+
+   @Override
+   public void beginTransaction() {
+      _lock.lock();
+      _transactionDepth++;
+      _transactionSuccessful = false;
+   }
+
+   @Override
+   public void setTransactionSuccessful() {
+      Preconditions.checkState(_lock.isHeldByCurrentThread() && _transactionDepth > 0);
+      _transactionSuccessful = true;
+   }
+
+   @Override
+   public void endTransaction() {
+      Preconditions.checkState(_lock.isHeldByCurrentThread() && _transactionDepth > 0);
+      try {
+         if (!_transactionSuccessful) {
+            // A failing nested transaction fails the outermost one, just like with SQLite
+            _transactionFailed = true;
+         }
+         // The enclosing transaction has to be marked successful after this
+         _transactionSuccessful = false;
+         if (--_transactionDepth > 0) {
+            return;
+         }
+         boolean failed = _transactionFailed;
+         _transactionFailed = false;
+         if (failed) {
+            _pending.clear();
+            load();
+         } else if (!_pending.isEmpty()) {
+            commit();
+         }
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   @Override
+   public List<Bip44AccountContext> loadBip44AccountContexts() {
+      _lock.lock();
+      try {
+         // Return a list containing copies
+         List<Bip44AccountContext> list = new ArrayList<Bip44AccountContext>();
+         for (Bip44AccountContext c : _bip44Contexts.values()) {
+            list.add(new Bip44AccountContext(c));
+         }
+         return list;
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   @Override
+   public void createBip44AccountContext(Bip44AccountContext context) {
+      write(bip44ContextRecord(context));
+   }
+
+   @Override
+   public List<SingleAddressAccountContext> loadSingleAddressAccountContexts() {
+      _lock.lock();
+      try {
+         // Return a list containing copies
+         List<SingleAddressAccountContext> list = new ArrayList<SingleAddressAccountContext>();
+         for (SingleAddressAccountContext c : _singleAddressAccountContexts.values()) {
+            list.add(new SingleAddressAccountContext(c));
+         }
+         return list;
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   @Override
+   public void createSingleAddressAccountContext(SingleAddressAccountContext context) {
+      write(singleAddressContextRecord(context));
+   }
+
+   @Override
+   public void deleteSingleAddressAccountContext(UUID accountId) {
+      write(record(DELETE_SINGLE_ADDRESS_CONTEXT, accountId));
+   }
+
+   @Override
+   public Bip44AccountBacking getBip44AccountBacking(UUID accountId) {
+      return getAccountBacking(accountId);
+   }
+
+   @Override
+   public SingleAddressAccountBacking getSingleAddressAccountBacking(UUID accountId) {
+      return getAccountBacking(accountId);
+   }
+
+   private FileAccountBacking getAccountBacking(UUID accountId) {
+      _lock.lock();
+      try {
+         Preconditions.checkNotNull(_accounts.get(accountId));
+         // Hand out the same backing every time, it survives the state being loaded again
+         FileAccountBacking backing = _backings.get(accountId);
+         if (backing == null) {
+            backing = new FileAccountBacking(accountId);
+            _backings.put(accountId, backing);
+         }
+         return backing;
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   @Override
+   public byte[] getValue(byte[] id) {
+      _lock.lock();
+      try {
+         return _values.get(idToString(id));
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   @Override
+   public void setValue(byte[] id, byte[] plaintextValue) {
+      ByteWriter writer = new ByteWriter(16 + id.length + plaintextValue.length);
+      writer.put(SET_VALUE);
+      putBytes(writer, id);
+      putBytes(writer, plaintextValue);
+      write(writer);
+   }
+
+   @Override
+   public void deleteValue(byte[] id) {
+      ByteWriter writer = new ByteWriter(8 + id.length);
+      writer.put(DELETE_VALUE);
+      putBytes(writer, id);
+      write(writer);
+   }
+
+   private static String idToString(byte[] id) {
+      return HexUtils.toHex(id);
+   }
+
+   /**
+    * Write a snapshot of the current state and start over with an empty log. This happens automatically once the
+    * log has grown larger than the last snapshot.
+    */
+   public void compact() {
+      _lock.lock();
+      try {
+         Preconditions.checkState(_transactionDepth == 0, "Cannot compact within a transaction");
+         writeSnapshot(_generation + 1);
+         // Loading picks up the new snapshot, so that the transactions refer to its blob file, and deletes the
+         // files of the previous generation
+         load();
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   /**
+    * Close the files of this wallet, it cannot be used afterwards
+    */
+   @Override
+   public void close() {
+      _lock.lock();
+      try {
+         closeLog();
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   /**
+    * Apply a change to the state and write it to the log, or hold it back until the transaction ends
+    */
+   private void write(ByteWriter record) {
+      byte[] bytes = record.toBytes();
+      _lock.lock();
+      try {
+         Preconditions.checkState(_log != null, "The wallet has been closed");
+         apply(ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN), null);
+         _pending.add(bytes);
+         if (_transactionDepth == 0) {
+            commit();
+         }
+      } finally {
+         _lock.unlock();
+      }
+   }
+
+   private void commit() {
+      ByteBuffer frame = frame(_pending);
+      _pending.clear();
+      try {
+         while (frame.hasRemaining()) {
+            _logSize += _log.write(frame, _logSize);
+         }
+         if (_sync) {
+            _log.force(false);
+         }
+      } catch (IOException e) {
+         // The state in memory is ahead of the log now. Loading it again drops the changes, and cuts off what
+         // may have been written of the frame.
+         load();
+         throw new RuntimeException("Unable to write to the wallet log", e);
+      }
+      if (_logSize > Math.max(MIN_COMPACTION_SIZE, _snapshotSize)) {
+         compact();
+      }
+   }
+
+   private static ByteBuffer frame(List<byte[]> records) {
+      int length = 0;
+      CRC32 crc = new CRC32();
+      for (byte[] record : records) {
+         length += record.length;
+         crc.update(record);
+      }
+      ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + length).order(ByteOrder.LITTLE_ENDIAN);
+      frame.putInt(length);
+      frame.putInt((int) crc.getValue());
+      for (byte[] record : records) {
+         frame.put(record);
+      }
+      frame.flip();
+      return frame;
+   }
+
+   /**
+    * Load the state from the newest complete snapshot and the log of its generation. Files of other generations
+    * are deleted.
+    */
+   private void load() {
+      closeLog();
+      try {
+         // Try the snapshots from newest to oldest, generation 0 has no snapshot
+         SortedSet<Long> generations = new TreeSet<Long>(Collections.reverseOrder());
+         generations.add(0L);
+         String[] names = _directory.list();
+         if (names == null) {
+            throw new IOException("Unable to list " + _directory);
+         }
+         for (String name : names) {
+            if (name.startsWith(SNAPSHOT_PREFIX)) {
+               try {
+                  generations.add(Long.parseLong(name.substring(SNAPSHOT_PREFIX.length())));
+               } catch (NumberFormatException e) {
+                  // Not one of ours
+               }
+            }
+         }
+         for (long generation : generations) {
+            resetState();
+            if (generation == 0 || loadSnapshot(generation)) {
+               _generation = generation;
+               break;
+            }
+         }
+         openLog();
+         deleteOtherGenerations(names);
+         // Make the new log and the deletions durable
+         syncDirectory();
+      } catch (IOException e) {
+         throw new RuntimeException("Unable to load wallet from " + _directory, e);
+      }
+   }
+
+   private void resetState() {
+      _values = new HashMap<String, byte[]>();
+      _bip44Contexts = new HashMap<UUID, Bip44AccountContext>();
+      _singleAddressAccountContexts = new HashMap<UUID, SingleAddressAccountContext>();
+      _accounts = new HashMap<UUID, AccountState>();
+      _snapshotSize = 0;
+   }
+
+   private boolean loadSnapshot(long generation) throws IOException {
+      File snapshotFile = file(SNAPSHOT_PREFIX, generation);
+      File blobsFile = file(BLOBS_PREFIX, generation);
+      if (!blobsFile.exists()) {
+         return false;
+      }
+      ByteBuffer snapshot = map(snapshotFile);
+      ByteBuffer blobs = map(blobsFile);
+      int end = replay(snapshot, blobs);
+      // The snapshot ends with a frame holding nothing but the end marker
+      boolean complete = end == snapshot.capacity() && end >= FRAME_HEADER_SIZE + 1
+            && snapshot.get(end - 1) == END_OF_SNAPSHOT && snapshot.getInt(end - FRAME_HEADER_SIZE - 1) == 1;
+      _snapshotSize = snapshotFile.length() + blobsFile.length();
+      if (!complete && file(LOG_PREFIX, generation).exists()) {
+         // The log is only created once the snapshot has been loaded, so it was complete and got damaged since
+         throw new IOException("Damaged snapshot " + snapshotFile);
+      }
+      return complete;
+   }
+
+   private void openLog() throws IOException {
+      File logFile = file(LOG_PREFIX, _generation);
+      _log = new RandomAccessFile(logFile, "rw").getChannel();
+      ByteBuffer log = map(_log);
+      _logSize = replay(log, null);
+      if (_logSize < _log.size()) {
+         if (!isTornTail(log, (int) _logSize)) {
+            closeLog();
+            throw new IOException("Damaged frame at offset " + _logSize + " of " + logFile);
+         }
+         // Cut off a frame that was only partially written
+         _log.truncate(_logSize);
+      }
+   }
+
+   /**
+    * Tell whether the data at a position is the start of a frame which runs past the end of the buffer, as left
+    * behind when the process dies while appending it
+    */
+   private static boolean isTornTail(ByteBuffer buffer, int position) {
+      int remaining = buffer.capacity() - position;
+      if (remaining < FRAME_HEADER_SIZE) {
+         return true;
+      }
+      int length = buffer.getInt(position);
+      return length > remaining - FRAME_HEADER_SIZE;
+   }
+
+   private void closeLog() {
+      if (_log == null) {
+         return;
+      }
+      try {
+         _log.close();
+      } catch (IOException e) {
+         // Everything that was committed has been written already
+      }
+      _log = null;
+   }
+
+   private void deleteOtherGenerations(String[] names) {
+      Set<String> current = new HashSet<String>(Arrays.asList(SNAPSHOT_PREFIX + _generation,
+            BLOBS_PREFIX + _generation, LOG_PREFIX + _generation));
+      for (String name : names) {
+         if ((name.startsWith(SNAPSHOT_PREFIX) || name.startsWith(BLOBS_PREFIX) || name.startsWith(LOG_PREFIX))
+               && !current.contains(name)) {
+            new File(_directory, name).delete();
+         }
+      }
+   }
+
+   private File file(String prefix, long generation) {
+      return new File(_directory, prefix + generation);
+   }
+
+   private static ByteBuffer map(File file) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "r");
+      try {
+         return map(raf.getChannel());
+      } finally {
+         // The mapping stays valid after closing the file
+         raf.close();
+      }
+   }
+
+   private static ByteBuffer map(FileChannel channel) throws IOException {
+      long size = channel.size();
+      Preconditions.checkState(size <= Integer.MAX_VALUE, "Wallet file too large");
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      return buffer.order(ByteOrder.LITTLE_ENDIAN);
+   }
+
+   /**
+    * Apply the records of all intact frames in a buffer
+    *
+    * @return the end of the last intact frame
+    */
+   private int replay(ByteBuffer buffer, ByteBuffer blobs) {
+      int position = 0;
+      while (buffer.capacity() - position >= FRAME_HEADER_SIZE) {
+         int length = buffer.getInt(position);
+         int checksum = buffer.getInt(position + 4);
+         int start = position + FRAME_HEADER_SIZE;
+         if (length < 0 || length > buffer.capacity() - start || checksum(buffer, start, length) != checksum) {
+            break;
+         }
+         buffer.limit(start + length);
+         buffer.position(start);
+         while (buffer.hasRemaining()) {
+            apply(buffer, blobs);
+         }
+         buffer.clear();
+         position = start + length;
+      }
+      return position;
+   }
+
+   private int checksum(ByteBuffer buffer, int offset, int length) {
+      CRC32 crc = new CRC32();
+      ByteBuffer b = buffer.duplicate();
+      b.position(offset);
+      while (length > 0) {
+         int n = Math.min(length, _scratch.length);
+         b.get(_scratch, 0, n);
+         crc.update(_scratch, 0, n);
+         length -= n;
+      }
+      return (int) crc.getValue();
+   }
+
+   /**
+    * Apply the record at the position of a buffer to the state, and move past it
+    *
+    * @param blobs the blob file of the snapshot being loaded, or null when not loading a snapshot
+    */
+   private void apply(ByteBuffer record, ByteBuffer blobs) {
+      byte type = record.get();
+      if (type == SET_VALUE) {
+         String id = idToString(getBytes(record));
+         _values.put(id, getBytes(record));
+      } else if (type == DELETE_VALUE) {
+         _values.remove(idToString(getBytes(record)));
+      } else if (type == PUT_BIP44_CONTEXT) {
+         Bip44AccountContext context = new Bip44AccountContext(getUuid(record), record.getInt(), record.get() != 0,
+               record.getInt(), record.getInt(), record.getInt(), record.getInt(), record.getLong());
+         _bip44Contexts.put(context.getId(), context);
+         createAccountState(context.getId());
+      } else if (type == PUT_SINGLE_ADDRESS_CONTEXT) {
+         SingleAddressAccountContext context = new SingleAddressAccountContext(getUuid(record),
+               new Address(getBytes(record)), record.get() != 0, record.getInt());
+         _singleAddressAccountContexts.put(context.getId(), context);
+         createAccountState(context.getId());
+      } else if (type == DELETE_SINGLE_ADDRESS_CONTEXT) {
+         UUID id = getUuid(record);
+         _singleAddressAccountContexts.remove(id);
+         _accounts.remove(id);
+      } else if (type == END_OF_SNAPSHOT) {
+         Preconditions.checkState(!record.hasRemaining());
+      } else {
+         applyToAccount(type, getAccountState(getUuid(record)), record, blobs);
+      }
+   }
+
+   private void applyToAccount(byte type, AccountState account, ByteBuffer record, ByteBuffer blobs) {
+      if (type == CLEAR_ACCOUNT) {
+         account.clear();
+      } else if (type == PUT_UNSPENT_OUTPUT) {
+         TransactionOutputEx output = getOutput(record);
+         account._unspentOutputs.put(output.outPoint, output);
+      } else if (type == DELETE_UNSPENT_OUTPUT) {
+         account._unspentOutputs.remove(getOutPoint(record));
+      } else if (type == PUT_PARENT_OUTPUT) {
+         TransactionOutputEx output = getOutput(record);
+         account._parentOutputs.put(output.outPoint, output);
+      } else if (type == PUT_TRANSACTION) {
+         Sha256Hash txid = getHash(record);
+         int height = record.getInt();
+         int time = record.getInt();
+         int length = record.getInt();
+         // Refer to the raw transaction where it is, in the log or in the record itself
+         account.putTransaction(new StoredTransaction(txid, height, time, record, record.position(), length, null));
+         record.position(record.position() + length);
+      } else if (type == PUT_TRANSACTION_BLOB) {
+         Preconditions.checkState(blobs != null, "Transaction blob outside of snapshot");
+         Sha256Hash txid = getHash(record);
+         int height = record.getInt();
+         int time = record.getInt();
+         int offset = record.getInt();
+         int length = record.getInt();
+         int checksum = record.getInt();
+         account.putTransaction(new StoredTransaction(txid, height, time, blobs, offset, length, checksum));
+      } else if (type == DELETE_TRANSACTION) {
+         account.deleteTransaction(getHash(record));
+      } else if (type == PUT_OUTGOING_TRANSACTION) {
+         Sha256Hash txid = getHash(record);
+         account._outgoingTransactions.put(txid, getBytes(record));
+      } else if (type == REMOVE_OUTGOING_TRANSACTION) {
+         account._outgoingTransactions.remove(getHash(record));
+      } else {
+         throw new IllegalStateException("Unknown record type " + type);
+      }
+   }
+
+   private void createAccountState(UUID id) {
+      if (!_accounts.containsKey(id)) {
+         _accounts.put(id, new AccountState());
+      }
+   }
+
+   private AccountState getAccountState(UUID id) {
+      AccountState account = _accounts.get(id);
+      Preconditions.checkNotNull(account, "Unknown account %s", id);
+      return account;
+   }
+
+   private void writeSnapshot(long generation) {
+      File snapshotFile = file(SNAPSHOT_PREFIX, generation);
+      File blobsFile = file(BLOBS_PREFIX, generation);
+      try {
+         FileOutputStream snapshotStream = new FileOutputStream(snapshotFile);
+         FileOutputStream blobsStream = new FileOutputStream(blobsFile);
+         try {
+            SnapshotWriter writer = new SnapshotWriter(new BufferedOutputStream(snapshotStream, SNAPSHOT_FRAME_SIZE),
+                  new BufferedOutputStream(blobsStream, SNAPSHOT_FRAME_SIZE));
+            for (Map.Entry<String, byte[]> entry : _values.entrySet()) {
+               ByteWriter record = new ByteWriter(64);
+               record.put(SET_VALUE);
+               putBytes(record, HexUtils.toBytes(entry.getKey()));
+               putBytes(record, entry.getValue());
+               writer.add(record);
+            }
+            for (Bip44AccountContext context : _bip44Contexts.values()) {
+               writer.add(bip44ContextRecord(context));
+               writer.addAccount(context.getId(), _accounts.get(context.getId()));
+            }
+            for (SingleAddressAccountContext context : _singleAddressAccountContexts.values()) {
+               writer.add(singleAddressContextRecord(context));
+               writer.addAccount(context.getId(), _accounts.get(context.getId()));
+            }
+            writer.finish();
+            blobsStream.getFD().sync();
+            snapshotStream.getFD().sync();
+         } finally {
+            blobsStream.close();
+            snapshotStream.close();
+         }
+         // The previous generation is deleted once this one is loaded, so the new files must be found after a crash
+         syncDirectory();
+      } catch (IOException e) {
+         snapshotFile.delete();
+         blobsFile.delete();
+         throw new RuntimeException("Unable to write wallet snapshot to " + _directory, e);
+      }
+   }
+
+   /**
+    * Force the entries of the wallet directory to disk, so that created and deleted files survive a system crash.
+    * <p/>
+    * Java 6 has no way to open a directory, so this goes through java.nio.file by reflection where the runtime has
+    * it. It does nothing on runtimes without it and on platforms which cannot open or sync directories.
+    */
+   private void syncDirectory() {
+      FileChannel channel;
+      try {
+         Class<?> pathClass = Class.forName("java.nio.file.Path");
+         Class<?> optionClass = Class.forName("java.nio.file.OpenOption");
+         Object options = Array.newInstance(optionClass, 1);
+         Array.set(options, 0, Class.forName("java.nio.file.StandardOpenOption").getField("READ").get(null));
+         Object path = File.class.getMethod("toPath").invoke(_directory);
+         channel = (FileChannel) FileChannel.class.getMethod("open", pathClass, options.getClass())
+               .invoke(null, path, options);
+      } catch (ClassNotFoundException e) {
+         return;
+      } catch (NoSuchFieldException e) {
+         return;
+      } catch (NoSuchMethodException e) {
+         return;
+      } catch (IllegalAccessException e) {
+         return;
+      } catch (InvocationTargetException e) {
+         // Opening directories is not supported, as on Windows
+         return;
+      }
+      try {
+         channel.force(true);
+      } catch (IOException e) {
+         // Some file systems do not support syncing directories
+      } finally {
+         try {
+            channel.close();
+         } catch (IOException e) {
+            // ignore
+         }
+      }
+   }
+
+   /**
+    * Writes the records of a snapshot in frames, and the raw transactions to the blob file
+    */
+   private static class SnapshotWriter {
+      private final OutputStream _snapshot;
+      private final OutputStream _blobs;
+      private final List<byte[]> _records;
+      private int _frameSize;
+      private long _blobsSize;
+
+      private SnapshotWriter(OutputStream snapshot, OutputStream blobs) {
+         _snapshot = snapshot;
+         _blobs = blobs;
+         _records = new ArrayList<byte[]>();
+      }
+
+      private void add(ByteWriter record) throws IOException {
+         if (_frameSize + record.length() > SNAPSHOT_FRAME_SIZE) {
+            flushFrame();
+         }
+         _records.add(record.toBytes());
+         _frameSize += record.length();
+      }
+
+      private void addAccount(UUID id, AccountState account) throws IOException {
+         for (TransactionOutputEx output : account._unspentOutputs.values()) {
+            add(outputRecord(PUT_UNSPENT_OUTPUT, id, output));
+         }
+         for (TransactionOutputEx output : account._parentOutputs.values()) {
+            add(outputRecord(PUT_PARENT_OUTPUT, id, output));
+         }
+         // Oldest first, so that loading appends to the end of the history
+         for (StoredTransaction stored : account._history) {
+            byte[] binary = stored.getBinary();
+            Preconditions.checkState(_blobsSize + binary.length <= Integer.MAX_VALUE, "Wallet blobs too large");
+            CRC32 crc = new CRC32();
+            crc.update(binary);
+            _blobs.write(binary);
+            ByteWriter record = record(PUT_TRANSACTION_BLOB, id);
+            record.putBytes(stored._txid.getBytes());
+            record.putIntLE(stored._height);
+            record.putIntLE(stored._time);
+            record.putIntLE((int) _blobsSize);
+            record.putIntLE(binary.length);
+            record.putIntLE((int) crc.getValue());
+            add(record);
+            _blobsSize += binary.length;
+         }
+         for (Map.Entry<Sha256Hash, byte[]> entry : account._outgoingTransactions.entrySet()) {
+            add(outgoingTransactionRecord(id, entry.getKey(), entry.getValue()));
+         }
+      }
+
+      private void flushFrame() throws IOException {
+         if (_records.isEmpty()) {
+            return;
+         }
+         ByteBuffer frame = frame(_records);
+         _snapshot.write(frame.array(), 0, frame.limit());
+         _records.clear();
+         _frameSize = 0;
+      }
+
+      private void finish() throws IOException {
+         flushFrame();
+         // The end marker goes into a frame of its own, which tells that the snapshot is complete
+         _records.add(new byte[]{END_OF_SNAPSHOT});
+         flushFrame();
+         _blobs.flush();
+         _snapshot.flush();
+      }
+   }
+
+   private static ByteWriter record(byte type, UUID id) {
+      ByteWriter writer = new ByteWriter(64);
+      writer.put(type);
+      writer.putLongLE(id.getMostSignificantBits());
+      writer.putLongLE(id.getLeastSignificantBits());
+      return writer;
+   }
+
+   private static ByteWriter bip44ContextRecord(Bip44AccountContext context) {
+      ByteWriter writer = record(PUT_BIP44_CONTEXT, context.getId());
+      writer.putIntLE(context.getAccountIndex());
+      writer.putBoolean(context.isArchived());
+      writer.putIntLE(context.getBlockHeight());
+      writer.putIntLE(context.getLastExternalIndexWithActivity());
+      writer.putIntLE(context.getLastInternalIndexWithActivity());
+      writer.putIntLE(context.getFirstMonitoredInternalIndex());
+      writer.putLongLE(context.getLastDiscovery());
+      return writer;
+   }
+
+   private static ByteWriter singleAddressContextRecord(SingleAddressAccountContext context) {
+      ByteWriter writer = record(PUT_SINGLE_ADDRESS_CONTEXT, context.getId());
+      putBytes(writer, context.getAddress().getAllAddressBytes());
+      writer.putBoolean(context.isArchived());
+      writer.putIntLE(context.getBlockHeight());
+      return writer;
+   }
+
+   private static ByteWriter outputRecord(byte type, UUID id, TransactionOutputEx output) {
+      ByteWriter writer = record(type, id);
+      putOutPoint(writer, output.outPoint);
+      writer.putIntLE(output.height);
+      writer.putLongLE(output.value);
+      putBytes(writer, output.script);
+      writer.putBoolean(output.isCoinBase);
+      return writer;
+   }
+
+   private static ByteWriter transactionRecord(UUID id, TransactionEx transaction) {
+      ByteWriter writer = record(PUT_TRANSACTION, id);
+      writer.putBytes(transaction.txid.getBytes());
+      writer.putIntLE(transaction.height);
+      writer.putIntLE(transaction.time);
+      putBytes(writer, transaction.binary);
+      return writer;
+   }
+
+   private static ByteWriter outgoingTransactionRecord(UUID id, Sha256Hash txid, byte[] rawTransaction) {
+      ByteWriter writer = record(PUT_OUTGOING_TRANSACTION, id);
+      writer.putBytes(txid.getBytes());
+      putBytes(writer, rawTransaction);
+      return writer;
+   }
+
+   private static void putBytes(ByteWriter writer, byte[] bytes) {
+      writer.putIntLE(bytes.length);
+      writer.putBytes(bytes);
+   }
+
+   private static void putOutPoint(ByteWriter writer, OutPoint outPoint) {
+      writer.putBytes(outPoint.hash.getBytes());
+      writer.putIntLE(outPoint.index);
+   }
+
+   private static byte[] getBytes(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.getInt()];
+      buffer.get(bytes);
+      return bytes;
+   }
+
+   private static UUID getUuid(ByteBuffer buffer) {
+      return new UUID(buffer.getLong(), buffer.getLong());
+   }
+
+   private static Sha256Hash getHash(ByteBuffer buffer) {
+      byte[] bytes = new byte[Sha256Hash.HASH_LENGTH];
+      buffer.get(bytes);
+      return new Sha256Hash(bytes);
+   }
+
+   private static OutPoint getOutPoint(ByteBuffer buffer) {
+      return new OutPoint(getHash(buffer), buffer.getInt());
+   }
+
+   private static TransactionOutputEx getOutput(ByteBuffer buffer) {
+      OutPoint outPoint = getOutPoint(buffer);
+      int height = buffer.getInt();
+      long value = buffer.getLong();
+      byte[] script = getBytes(buffer);
+      return new TransactionOutputEx(outPoint, height, value, script, buffer.get() != 0);
+   }
+
+   /**
+    * A transaction whose raw bytes are read from a buffer when needed. The buffer is either the memory mapped
+    * blob file of a snapshot, the memory mapped log, or a record that was written since the wallet was loaded.
+    */
+   private static class StoredTransaction {
+      private final Sha256Hash _txid;
+      private final int _height;
+      private final int _time;
+      private final ByteBuffer _source;
+      private final int _offset;
+      private final int _length;
+      // The CRC32 of the raw transaction if it is not covered by the checksum of a frame
+      private final Integer _checksum;
+
+      private StoredTransaction(Sha256Hash txid, int height, int time, ByteBuffer source, int offset, int length,
+                                Integer checksum) {
+         _txid = txid;
+         _height = height;
+         _time = time;
+         _source = source;
+         _offset = offset;
+         _length = length;
+         _checksum = checksum;
+      }
+
+      private byte[] getBinary() {
+         byte[] binary = new byte[_length];
+         ByteBuffer b = _source.duplicate();
+         b.clear();
+         b.position(_offset);
+         b.get(binary);
+         if (_checksum != null) {
+            CRC32 crc = new CRC32();
+            crc.update(binary);
+            if ((int) crc.getValue() != _checksum) {
+               throw new IllegalStateException("Corrupt wallet snapshot, transaction " + _txid);
+            }
+         }
+         return binary;
+      }
+
+      private TransactionEx toTransactionEx() {
+         return new TransactionEx(_txid, _height, _time, getBinary());
+      }
+
+      private int calculateConfirmations(int blockHeight) {
+         return _height == -1 ? 0 : Math.max(0, blockHeight - _height + 1);
+      }
+   }
+
+   /**
+    * Orders transactions from oldest to newest, which is the reverse of the natural order of
+    * {@link TransactionEx}. Transactions with the same height and time are ordered by their ID.
+    */
+   private static final Comparator<StoredTransaction> OLDEST_FIRST = new Comparator<StoredTransaction>() {
+      @Override
+      public int compare(StoredTransaction a, StoredTransaction b) {
+         // Pending transactions come last
+         int aHeight = a._height == -1 ? Integer.MAX_VALUE : a._height;
+         int bHeight = b._height == -1 ? Integer.MAX_VALUE : b._height;
+         if (aHeight != bHeight) {
+            return aHeight < bHeight ? -1 : 1;
+         }
+         if (a._time != b._time) {
+            return a._time < b._time ? -1 : 1;
+         }
+         return a._txid.compareTo(b._txid);
+      }
+   };
+
+   /**
+    * The state of an account, indexed like in {@link InMemoryWalletManagerBacking}
+    */
+   private static class AccountState {
+      private final Map<OutPoint, TransactionOutputEx> _unspentOutputs;
+      private final Map<OutPoint, TransactionOutputEx> _parentOutputs;
+      private final Map<Sha256Hash, StoredTransaction> _transactions;
+      // All transactions from oldest to newest
+      private final ArrayList<StoredTransaction> _history;
+      private final Set<Sha256Hash> _unconfirmed;
+      private final Map<Sha256Hash, byte[]> _outgoingTransactions;
+
+      private AccountState() {
+         _unspentOutputs = new HashMap<OutPoint, TransactionOutputEx>();
+         _parentOutputs = new HashMap<OutPoint, TransactionOutputEx>();
+         _transactions = new HashMap<Sha256Hash, StoredTransaction>();
+         _history = new ArrayList<StoredTransaction>();
+         _unconfirmed = new HashSet<Sha256Hash>();
+         _outgoingTransactions = new LinkedHashMap<Sha256Hash, byte[]>();
+      }
+
+      private void clear() {
+         _unspentOutputs.clear();
+         _parentOutputs.clear();
+         _transactions.clear();
+         _history.clear();
+         _unconfirmed.clear();
+         _outgoingTransactions.clear();
+      }
+
+      private void putTransaction(StoredTransaction transaction) {
+         deleteTransaction(transaction._txid);
+         _transactions.put(transaction._txid, transaction);
+         // Snapshots are loaded oldest first, so this usually appends
+         int size = _history.size();
+         if (size == 0 || OLDEST_FIRST.compare(_history.get(size - 1), transaction) < 0) {
+            _history.add(transaction);
+         } else {
+            int index = Collections.binarySearch(_history, transaction, OLDEST_FIRST);
+            _history.add(-index - 1, transaction);
+         }
+         if (transaction._height == -1) {
+            _unconfirmed.add(transaction._txid);
+         }
+      }
+
+      private void deleteTransaction(Sha256Hash txid) {
+         StoredTransaction old = _transactions.remove(txid);
+         if (old != null) {
+            _history.remove(Collections.binarySearch(_history, old, OLDEST_FIRST));
+            _unconfirmed.remove(txid);
+         }
+      }
+   }
+
+   /**
+    * Backing of a single account. It only knows the ID of its account, and looks up the state on every call.
+    */
+   private class FileAccountBacking implements Bip44AccountBacking, SingleAddressAccountBacking {
+      private final UUID _id;
+
+      private FileAccountBacking(UUID id) {
+         _id = id;
+      }
+
+      private AccountState account() {
+         return getAccountState(_id);
+      }
+
+      @Override
+      public void updateAccountContext(Bip44AccountContext context) {
+         write(bip44ContextRecord(context));
+      }
+
+      @Override
+      public void updateAccountContext(SingleAddressAccountContext context) {
+         write(singleAddressContextRecord(context));
+      }
+
+      @Override
+      public void beginTransaction() {
+         FileWalletManagerBacking.this.beginTransaction();
+      }
+
+      @Override
+      public void setTransactionSuccessful() {
+         FileWalletManagerBacking.this.setTransactionSuccessful();
+      }
+
+      @Override
+      public void endTransaction() {
+         FileWalletManagerBacking.this.endTransaction();
+      }
+
+      @Override
+      public void clear() {
+         write(record(CLEAR_ACCOUNT, _id));
+      }
+
+      @Override
+      public Collection<TransactionOutputEx> getAllUnspentOutputs() {
+         _lock.lock();
+         try {
+            return new LinkedList<TransactionOutputEx>(account()._unspentOutputs.values());
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public TransactionOutputEx getUnspentOutput(OutPoint outPoint) {
+         _lock.lock();
+         try {
+            return account()._unspentOutputs.get(outPoint);
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public void deleteUnspentOutput(OutPoint outPoint) {
+         ByteWriter writer = record(DELETE_UNSPENT_OUTPUT, _id);
+         putOutPoint(writer, outPoint);
+         write(writer);
+      }
+
+      @Override
+      public void putUnspentOutput(TransactionOutputEx output) {
+         write(outputRecord(PUT_UNSPENT_OUTPUT, _id, output));
+      }
+
+      @Override
+      public void putParentTransactionOutput(TransactionOutputEx output) {
+         write(outputRecord(PUT_PARENT_OUTPUT, _id, output));
+      }
+
+      @Override
+      public TransactionOutputEx getParentTransactionOutput(OutPoint outPoint) {
+         _lock.lock();
+         try {
+            return account()._parentOutputs.get(outPoint);
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public boolean hasParentTransactionOutput(OutPoint outPoint) {
+         _lock.lock();
+         try {
+            return account()._parentOutputs.containsKey(outPoint);
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public void putTransaction(TransactionEx transaction) {
+         write(transactionRecord(_id, transaction));
+      }
+
+      @Override
+      public TransactionEx getTransaction(Sha256Hash hash) {
+         _lock.lock();
+         try {
+            StoredTransaction stored = account()._transactions.get(hash);
+            return stored == null ? null : stored.toTransactionEx();
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public void deleteTransaction(Sha256Hash hash) {
+         ByteWriter writer = record(DELETE_TRANSACTION, _id);
+         writer.putBytes(hash.getBytes());
+         write(writer);
+      }
+
+      @Override
+      public List<TransactionEx> getTransactionHistory(int offset, int limit) {
+         _lock.lock();
+         try {
+            List<StoredTransaction> history = account()._history;
+            if (offset >= history.size()) {
+               return Collections.emptyList();
+            }
+            // The history is newest first, so we page backwards from the end of the index
+            int count = Math.min(limit, history.size() - offset);
+            List<TransactionEx> list = new ArrayList<TransactionEx>(count);
+            for (int i = history.size() - 1 - offset; list.size() < count; i--) {
+               list.add(history.get(i).toTransactionEx());
+            }
+            return Collections.unmodifiableList(list);
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public Collection<TransactionEx> getUnconfirmedTransactions() {
+         _lock.lock();
+         try {
+            AccountState account = account();
+            List<TransactionEx> unconfirmed = new ArrayList<TransactionEx>(account._unconfirmed.size());
+            for (Sha256Hash txid : account._unconfirmed) {
+               unconfirmed.add(account._transactions.get(txid).toTransactionEx());
+            }
+            return unconfirmed;
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public Collection<TransactionEx> getYoungTransactions(int maxConfirmations, int blockChainHeight) {
+         _lock.lock();
+         try {
+            // Unconfirmed transactions and those with the highest block height are at the end of the index
+            List<StoredTransaction> history = account()._history;
+            List<TransactionEx> young = new LinkedList<TransactionEx>();
+            for (int i = history.size() - 1; i >= 0; i--) {
+               StoredTransaction stored = history.get(i);
+               if (stored.calculateConfirmations(blockChainHeight) > maxConfirmations) {
+                  break;
+               }
+               young.add(stored.toTransactionEx());
+            }
+            return young;
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public boolean hasTransaction(Sha256Hash txid) {
+         _lock.lock();
+         try {
+            return account()._transactions.containsKey(txid);
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public void putOutgoingTransaction(Sha256Hash txid, byte[] rawTransaction) {
+         write(outgoingTransactionRecord(_id, txid, rawTransaction));
+      }
+
+      @Override
+      public List<byte[]> getOutgoingTransactions() {
+         _lock.lock();
+         try {
+            return new ArrayList<byte[]>(account()._outgoingTransactions.values());
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public boolean isOutgoingTransaction(Sha256Hash txid) {
+         _lock.lock();
+         try {
+            return account()._outgoingTransactions.containsKey(txid);
+         } finally {
+            _lock.unlock();
+         }
+      }
+
+      @Override
+      public void removeOutgoingTransaction(Sha256Hash txid) {
+         ByteWriter writer = record(REMOVE_OUTGOING_TRANSACTION, _id);
+         writer.putBytes(txid.getBytes());
+         write(writer);
+      }
+   }
+}
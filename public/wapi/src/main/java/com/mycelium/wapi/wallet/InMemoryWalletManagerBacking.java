@@ -38,10 +38,12 @@ public class InMemoryWalletManagerBacking implements WalletManagerBacking {
    private final Map<UUID, SingleAddressAccountContext> _singleAddressAccountContexts;
 
    public InMemoryWalletManagerBacking() {
-      _values = new HashMap<String, byte[]>();
+      // Secure key value stores may read values while they are being written
+      _values = Collections.synchronizedMap(new HashMap<String, byte[]>());
       _backings = new HashMap<UUID, InMemoryAccountBacking>();
-      _bip44Contexts = new HashMap<UUID, Bip44AccountContext>();
-      _singleAddressAccountContexts = new HashMap<UUID, SingleAddressAccountContext>();
+      // Accounts may be synchronized concurrently, and they all update their contexts here
+      _bip44Contexts = Collections.synchronizedMap(new HashMap<UUID, Bip44AccountContext>());
+      _singleAddressAccountContexts = Collections.synchronizedMap(new HashMap<UUID, SingleAddressAccountContext>());
    }
 
    @Override
@@ -63,8 +65,10 @@ public class InMemoryWalletManagerBacking implements WalletManagerBacking {
    public List<Bip44AccountContext> loadBip44AccountContexts() {
       // Return a list containing copies
       List<Bip44AccountContext> list = new ArrayList<Bip44AccountContext>();
-      for (Bip44AccountContext c : _bip44Contexts.values()) {
-         list.add(new Bip44AccountContext(c));
+      synchronized (_bip44Contexts) {
+         for (Bip44AccountContext c : _bip44Contexts.values()) {
+            list.add(new Bip44AccountContext(c));
+         }
       }
       return list;
    }
@@ -79,8 +83,10 @@ public class InMemoryWalletManagerBacking implements WalletManagerBacking {
    public List<SingleAddressAccountContext> loadSingleAddressAccountContexts() {
       // Return a list containing copies
       List<SingleAddressAccountContext> list = new ArrayList<SingleAddressAccountContext>();
-      for (SingleAddressAccountContext c : _singleAddressAccountContexts.values()) {
-         list.add(new SingleAddressAccountContext(c));
+      synchronized (_singleAddressAccountContexts) {
+         for (SingleAddressAccountContext c : _singleAddressAccountContexts.values()) {
+            list.add(new SingleAddressAccountContext(c));
+         }
       }
       return list;
    }
@@ -123,23 +129,41 @@ public class InMemoryWalletManagerBacking implements WalletManagerBacking {
 
    @Override
    public void deleteValue(byte[] id) {
-      _values.remove(id);
+      _values.remove(idToString(id));
    }
 
    private String idToString(byte[] id) {
       return HexUtils.toHex(id);
    }
 
+   /**
+    * Orders transactions from oldest to newest, which is the reverse of their natural order. Transactions with the
+    * same height and time are ordered by their ID, so that every transaction has a unique position.
+    */
+   private static final Comparator<TransactionEx> OLDEST_FIRST = new Comparator<TransactionEx>() {
+      @Override
+      public int compare(TransactionEx a, TransactionEx b) {
+         int result = b.compareTo(a);
+         return result != 0 ? result : a.txid.compareTo(b.txid);
+      }
+   };
+
    private class InMemoryAccountBacking implements Bip44AccountBacking, SingleAddressAccountBacking {
 
       private Map<OutPoint, TransactionOutputEx> _unspentOuputs;
       private Map<Sha256Hash, TransactionEx> _transactions;
+      // All transactions ordered by height, time and ID from oldest to newest. The youngest and unconfirmed
+      // transactions are found at the end
+      private TreeSet<TransactionEx> _history;
+      private Set<Sha256Hash> _unconfirmed;
       private Map<OutPoint, TransactionOutputEx> _parentOutputs;
       private Map<Sha256Hash, byte[]> _outgoingTransactions;
 
       public InMemoryAccountBacking() {
          _unspentOuputs = new HashMap<OutPoint, TransactionOutputEx>();
          _transactions = new HashMap<Sha256Hash, TransactionEx>();
+         _history = new TreeSet<TransactionEx>(OLDEST_FIRST);
+         _unconfirmed = new HashSet<Sha256Hash>();
          _parentOutputs = new HashMap<OutPoint, TransactionOutputEx>();
          _outgoingTransactions = new HashMap<Sha256Hash, byte[]>();
       }
@@ -172,9 +196,11 @@ public class InMemoryWalletManagerBacking implements WalletManagerBacking {
       }
 
       @Override
-      public void clear() {
+      public synchronized void clear() {
          _unspentOuputs.clear();
          _transactions.clear();
+         _history.clear();
+         _unconfirmed.clear();
          _parentOutputs.clear();
          _outgoingTransactions.clear();
       }
@@ -215,57 +241,79 @@ public class InMemoryWalletManagerBacking implements WalletManagerBacking {
       }
 
       @Override
-      public void putTransaction(TransactionEx transaction) {
-         _transactions.put(transaction.txid, transaction);
+      public synchronized void putTransaction(TransactionEx transaction) {
+         TransactionEx old = _transactions.put(transaction.txid, transaction);
+         if (old != null) {
+            removeFromIndex(old);
+         }
+         _history.add(transaction);
+         if (transaction.height == -1) {
+            _unconfirmed.add(transaction.txid);
+         }
+      }
+
+      private void removeFromIndex(TransactionEx transaction) {
+         _history.remove(transaction);
+         _unconfirmed.remove(transaction.txid);
       }
 
       @Override
-      public TransactionEx getTransaction(Sha256Hash hash) {
+      public synchronized TransactionEx getTransaction(Sha256Hash hash) {
          return _transactions.get(hash);
       }
 
       @Override
-      public void deleteTransaction(Sha256Hash hash) {
-         _transactions.remove(hash);
+      public synchronized void deleteTransaction(Sha256Hash hash) {
+         TransactionEx old = _transactions.remove(hash);
+         if (old != null) {
+            removeFromIndex(old);
+         }
       }
 
       @Override
-      public List<TransactionEx> getTransactionHistory(int offset, int limit) {
-         List<TransactionEx> list = new ArrayList<TransactionEx>();
-         list.addAll(_transactions.values());
-         Collections.sort(list);
-         if (offset >= list.size()) {
+      public synchronized List<TransactionEx> getTransactionHistory(int offset, int limit) {
+         if (offset >= _history.size()) {
             return Collections.emptyList();
          }
-         int endIndex = Math.min(offset + limit, list.size());
-         return Collections.unmodifiableList(list.subList(offset, endIndex));
+         // The history is newest first, so we page backwards from the end of the index
+         int count = Math.min(limit, _history.size() - offset);
+         List<TransactionEx> list = new ArrayList<TransactionEx>(count);
+         Iterator<TransactionEx> it = _history.descendingIterator();
+         for (int i = 0; i < offset; i++) {
+            it.next();
+         }
+         while (list.size() < count) {
+            list.add(it.next());
+         }
+         return Collections.unmodifiableList(list);
       }
 
       @Override
-      public Collection<TransactionEx> getUnconfirmedTransactions() {
-         List<TransactionEx> unconfirmed = new LinkedList<TransactionEx>();
-         for (TransactionEx tex : _transactions.values()) {
-            if (tex.height == -1) {
-               unconfirmed.add(tex);
-            }
+      public synchronized Collection<TransactionEx> getUnconfirmedTransactions() {
+         List<TransactionEx> unconfirmed = new ArrayList<TransactionEx>(_unconfirmed.size());
+         for (Sha256Hash txid : _unconfirmed) {
+            unconfirmed.add(_transactions.get(txid));
          }
          return unconfirmed;
       }
 
       @Override
-      public Collection<TransactionEx> getYoungTransactions(int maxConfirmations, int blockChainHeight) {
+      public synchronized Collection<TransactionEx> getYoungTransactions(int maxConfirmations, int blockChainHeight) {
+         // Unconfirmed transactions and those with the highest block height are at the end of the index, and
+         // confirmations only grow as we walk towards the start
          List<TransactionEx> young = new LinkedList<TransactionEx>();
-         for (TransactionEx tex : _transactions.values()) {
+         for (TransactionEx tex : _history.descendingSet()) {
             int confirmations = tex.calculateConfirmations(blockChainHeight);
-            if (confirmations <= maxConfirmations) {
-               young.add(tex);
+            if (confirmations > maxConfirmations) {
+               break;
             }
+            young.add(tex);
          }
          return young;
       }
 
       @Override
-      public boolean hasTransaction(Sha256Hash txid) {
+      public synchronized boolean hasTransaction(Sha256Hash txid) {
          return _transactions.containsKey(txid);
       }
 
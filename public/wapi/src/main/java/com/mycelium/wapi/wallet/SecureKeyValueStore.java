@@ -20,6 +20,10 @@ import com.google.common.base.Preconditions;
 import com.mrd.bitlib.crypto.RandomSource;
 import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Secure encrypted storage and plaintext storage for arbitrary binary values using a user defined encryption key.
  * <p/>
@@ -30,6 +34,9 @@ import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
  * <p/>Note that the same user defined encryption key is used for all values inserted. The encryption key can be
  * replaced by calling {@link #replaceEncryptionKey(KeyCipher, KeyCipher)}
  * <p/>Note that for every ID an encrypted and a plaintext component can be stored.
+ * <p/>Every operation on encrypted values first decrypts the key encryption key with the user defined encryption key,
+ * and wipes it when done. The bulk operations {@link #getEncryptedValues} and {@link #encryptAndStoreValues} do that once for all values.
+ * {@link #encryptAndStoreValues} and {@link #storePlaintextValues} write all values in one backing transaction.
  */
 public class SecureKeyValueStore {
 
@@ -37,7 +44,7 @@ public class SecureKeyValueStore {
    private static final byte PLAIN_PREFIX = 1;
    private static final byte CIPHER_PREFIX = 2;
 
-   private SecureKeyValueStoreBacking _backing;
+   final SecureKeyValueStoreBacking _backing;
 
    public SecureKeyValueStore(SecureKeyValueStoreBacking backing, RandomSource randomSource) {
       _backing = backing;
@@ -51,6 +58,29 @@ public class SecureKeyValueStore {
       Preconditions.checkNotNull(getEncryptedKeyEncryptionKey());
    }
 
+   /**
+    * Begin a transaction of the backing. Values stored until the matching {@link #endTransaction} are only kept if
+    * every nested transaction was marked successful. Code writing to the same backing directly should open its
+    * transaction through the store, so that the store knows about it.
+    */
+   public void beginTransaction() {
+      _backing.beginTransaction();
+   }
+
+   /**
+    * Mark the innermost open transaction successful
+    */
+   public void setTransactionSuccessful() {
+      _backing.setTransactionSuccessful();
+   }
+
+   /**
+    * End the innermost open transaction
+    */
+   public void endTransaction() {
+      _backing.endTransaction();
+   }
+
    /**
     * Get the plaintext value of a specified id.
     *
@@ -79,6 +109,32 @@ public class SecureKeyValueStore {
       _backing.setValue(getRealId(id, false), plaintextValue);
    }
 
+   /**
+    * Store a list of plaintext values under the given IDs in one backing transaction.
+    * <p/>
+    * If other plaintext values are stored under the same IDs they are overwritten
+    *
+    * @param ids             the IDs to store the values under
+    * @param plaintextValues the values to store, in the same order as the IDs
+    */
+   public synchronized void storePlaintextValues(List<byte[]> ids, List<byte[]> plaintextValues) {
+      Preconditions.checkArgument(ids.size() == plaintextValues.size());
+      for (byte[] id : ids) {
+         if (id.length == 0) {
+            throw new RuntimeException("IDs cannot have zero length");
+         }
+      }
+      beginTransaction();
+      try {
+         for (int i = 0; i < ids.size(); i++) {
+            _backing.setValue(getRealId(ids.get(i), false), plaintextValues.get(i));
+         }
+         setTransactionSuccessful();
+      } finally {
+         endTransaction();
+      }
+   }
+
    /**
     * Delete the plain text value associated with an ID
     *
@@ -94,7 +150,7 @@ public class SecureKeyValueStore {
     */
    public boolean isValidEncryptionKey(KeyCipher userCipher) {
       try {
-         getKeyEncryptionKey(userCipher);
+         getKeyEncryptionKey(userCipher).wipe();
          return true;
       } catch (InvalidKeyCipher invalidKeyCipher) {
          return false;
@@ -114,9 +170,13 @@ public class SecureKeyValueStore {
       // Decrypt the key encryption key using the current user key. If the current user cipher is invalid, this will 
       // throw
       AesKeyCipher kekCipher = getKeyEncryptionKey(currentUserCipher);
-      // Encrypt the key encryption key using the new user key
-      byte[] newEncryptedKek = newUserCipher.encrypt(kekCipher.getKeyBytes());
-      storeEncryptedKeyEncryptionKey(newEncryptedKek);
+      try {
+         // Encrypt the key encryption key using the new user key
+         byte[] newEncryptedKek = newUserCipher.encrypt(kekCipher.getKeyBytes());
+         storeEncryptedKeyEncryptionKey(newEncryptedKek);
+      } finally {
+         kekCipher.wipe();
+      }
    }
 
    /**
@@ -142,11 +202,15 @@ public class SecureKeyValueStore {
          throw new RuntimeException("IDs cannot have zero length");
       }
       AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
-      byte[] encryptedValue = _backing.getValue(getRealId(id, true));
-      if (encryptedValue == null) {
-         return null;
+      try {
+         byte[] encryptedValue = _backing.getValue(getRealId(id, true));
+         if (encryptedValue == null) {
+            return null;
+         }
+         return kekCipher.decrypt(encryptedValue);
+      } finally {
+         kekCipher.wipe();
       }
-      return kekCipher.decrypt(encryptedValue);
    }
 
    /**
@@ -162,18 +226,93 @@ public class SecureKeyValueStore {
          throw new RuntimeException("IDs cannot have zero length");
       }
       AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
-      byte[] encryptedValue = kekCipher.encrypt(plaintextValue);
-      _backing.setValue(getRealId(id, true), encryptedValue);
+      try {
+         byte[] encryptedValue = kekCipher.encrypt(plaintextValue);
+         _backing.setValue(getRealId(id, true), encryptedValue);
+      } finally {
+         kekCipher.wipe();
+      }
    }
 
-   public void deleteEncryptedValue(byte[] id, KeyCipher userCipher) throws InvalidKeyCipher {
+   /**
+    * Get the decrypted ciphertext values associated with a list of IDs.
+    *
+    * @param ids        The IDs of the values to get
+    * @param userCipher The user defined encryption key
+    * @return The values associated with the specified IDs in the same order, with null for IDs without a value
+    * @throws InvalidKeyCipher if the specified encryption key is invalid
+    */
+   public synchronized List<byte[]> getEncryptedValues(List<byte[]> ids, KeyCipher userCipher) throws InvalidKeyCipher {
+      for (byte[] id : ids) {
+         if (id.length == 0) {
+            throw new RuntimeException("IDs cannot have zero length");
+         }
+      }
+      AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
+      try {
+         List<byte[]> values = new ArrayList<byte[]>(ids.size());
+         for (byte[] id : ids) {
+            byte[] encryptedValue = _backing.getValue(getRealId(id, true));
+            values.add(encryptedValue == null ? null : kekCipher.decrypt(encryptedValue));
+         }
+         return values;
+      } finally {
+         kekCipher.wipe();
+      }
+   }
+
+   /**
+    * Encrypt a list of values and store them as the ciphertext values under the given IDs
+    *
+    * @param ids             the IDs to store the values under
+    * @param plaintextValues the plaintext values to encrypt and store, in the same order as the IDs
+    * @param userCipher      the user defined encryption key
+    * @throws InvalidKeyCipher if the user defined encryption key is invalid
+    */
+   public synchronized void encryptAndStoreValues(List<byte[]> ids, List<byte[]> plaintextValues, KeyCipher userCipher)
+         throws InvalidKeyCipher {
+      Preconditions.checkArgument(ids.size() == plaintextValues.size());
+      for (byte[] id : ids) {
+         if (id.length == 0) {
+            throw new RuntimeException("IDs cannot have zero length");
+         }
+      }
       AesKeyCipher kekCipher = getKeyEncryptionKey(userCipher); // may throw InvalidKeyCipher
+      try {
+         beginTransaction();
+         try {
+            for (int i = 0; i < ids.size(); i++) {
+               _backing.setValue(getRealId(ids.get(i), true), kekCipher.encrypt(plaintextValues.get(i)));
+            }
+            setTransactionSuccessful();
+         } finally {
+            endTransaction();
+         }
+      } finally {
+         kekCipher.wipe();
+      }
+   }
+
+   public void deleteEncryptedValue(byte[] id, KeyCipher userCipher) throws InvalidKeyCipher {
+      // Only checks the user cipher, may throw InvalidKeyCipher
+      getKeyEncryptionKey(userCipher).wipe();
       _backing.deleteValue(getRealId(id, true));
    }
 
    private synchronized AesKeyCipher getKeyEncryptionKey(KeyCipher userCipher) throws InvalidKeyCipher {
+      return unwrapKeyEncryptionKey(userCipher);
+   }
+
+   /**
+    * Decrypt the key encryption key without locking the store. The caller must wipe it when done with it.
+    */
+   AesKeyCipher unwrapKeyEncryptionKey(KeyCipher userCipher) throws InvalidKeyCipher {
       byte[] rawKek = userCipher.decrypt(getEncryptedKeyEncryptionKey());
-      return new AesKeyCipher(rawKek);
+      try {
+         return new AesKeyCipher(rawKek);
+      } finally {
+         Arrays.fill(rawKek, (byte) 0);
+      }
    }
 
    private byte[] getEncryptedKeyEncryptionKey() {
@@ -185,7 +324,7 @@ public class SecureKeyValueStore {
    }
 
 
-   private byte[] getRealId(byte[] id, boolean isEncrypted) {
+   byte[] getRealId(byte[] id, boolean isEncrypted) {
       byte[] realId = new byte[id.length + 1];
       realId[0] = isEncrypted ? CIPHER_PREFIX : PLAIN_PREFIX;
       System.arraycopy(id, 0, realId, 1, id.length);
@@ -45,5 +45,21 @@ public interface SecureKeyValueStoreBacking {
     */
    void deleteValue(byte[] id);
 
+   /**
+    * Begin a transaction. Transactions may be nested, and the changes are only kept if every nested transaction
+    * was marked successful.
+    */
+   void beginTransaction();
+
+   /**
+    * Mark the current transaction as successful, so that its changes are kept when it ends
+    */
+   void setTransactionSuccessful();
+
+   /**
+    * End the current transaction, discarding its changes unless it was marked successful
+    */
+   void endTransaction();
+
 
 }
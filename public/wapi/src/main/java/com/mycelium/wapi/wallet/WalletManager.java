@@ -26,8 +26,10 @@ import com.mrd.bitlib.crypto.InMemoryPrivateKey;
 import com.mrd.bitlib.crypto.PublicKey;
 import com.mrd.bitlib.model.Address;
 import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.util.ComputePool;
 import com.mrd.bitlib.util.HexUtils;
 import com.mycelium.wapi.api.Wapi;
+import com.mycelium.wapi.api.WapiException;
 import com.mycelium.wapi.api.WapiLogger;
 import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
 import com.mycelium.wapi.wallet.bip44.Bip44Account;
@@ -38,6 +40,11 @@ import com.mycelium.wapi.wallet.single.SingleAddressAccount;
 import com.mycelium.wapi.wallet.single.SingleAddressAccountContext;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * Allows you to manage a wallet that contains multiple HD accounts and
@@ -48,6 +55,9 @@ import java.util.*;
 public class WalletManager {
 
    private static final byte[] MASTER_SEED_ID = HexUtils.toBytes("D64CA2B680D8C8909A367F28EB47F990");
+   // Backings are not required to be safe for concurrent account updates, so accounts are synchronized one
+   // after the other unless configured otherwise
+   private static final int DEFAULT_SYNCHRONIZATION_PARALLELISM = 1;
 
    /**
     * Implement this interface to get a callback when the wallet manager changes
@@ -125,9 +135,12 @@ public class WalletManager {
    private Thread _synchronizationThread;
    private AccountEventManager _accountEventManager;
    private NetworkParameters _network;
-   private Wapi _wapi;
+   private BatchingWapi _wapi;
    private WapiLogger _logger;
    private boolean _synchronizeTransactionHistory;
+   private volatile int _synchronizationParallelism;
+   private ThreadPoolExecutor _synchronizationExecutor;
+   private volatile boolean _batchedSynchronization;
 
    /**
     * Create a new wallet manager instance
@@ -141,7 +154,8 @@ public class WalletManager {
       _secureKeyValueStore = secureKeyValueStore;
       _backing = backing;
       _network = network;
-      _wapi = wapi;
+      // Accounts talk to the server through a Wapi which can answer from combined queries
+      _wapi = new BatchingWapi(wapi, network);
       _logger = _wapi.getLogger();
       _allAccounts = new HashMap<UUID, AbstractAccount>();
       _bip44Accounts = new ArrayList<Bip44Account>();
@@ -149,6 +163,7 @@ public class WalletManager {
       _accountEventManager = new AccountEventManager();
       _observers = new LinkedList<Observer>();
       _synchronizeTransactionHistory = true;
+      _synchronizationParallelism = DEFAULT_SYNCHRONIZATION_PARALLELISM;
       loadAccounts();
    }
 
@@ -196,19 +211,28 @@ public class WalletManager {
          if (_allAccounts.containsKey(id)) {
             return id;
          }
-         _backing.beginTransaction();
+         // The key value store has to know about the transaction, so that it does not cache values which get
+         // rolled back
+         _secureKeyValueStore.beginTransaction();
          try {
-            SingleAddressAccountContext context = new SingleAddressAccountContext(id, address, false, 0);
-            _backing.createSingleAddressAccountContext(context);
-            SingleAddressAccountBacking accountBacking = _backing.getSingleAddressAccountBacking(context.getId());
-            Preconditions.checkNotNull(accountBacking);
-            PublicPrivateKeyStore store = new PublicPrivateKeyStore(_secureKeyValueStore);
-            SingleAddressAccount account = new SingleAddressAccount(context, store, _network, accountBacking, _wapi);
-            context.persist(accountBacking);
-            _backing.setTransactionSuccessful();
-            addAccount(account);
+            _backing.beginTransaction();
+            try {
+               SingleAddressAccountContext context = new SingleAddressAccountContext(id, address, false, 0);
+               _backing.createSingleAddressAccountContext(context);
+               SingleAddressAccountBacking accountBacking = _backing.getSingleAddressAccountBacking(context.getId());
+               Preconditions.checkNotNull(accountBacking);
+               PublicPrivateKeyStore store = new PublicPrivateKeyStore(_secureKeyValueStore);
+               SingleAddressAccount account = new SingleAddressAccount(context, store, _network,
+                     new BatchingAccountBacking(accountBacking), _wapi);
+               context.persist(accountBacking);
+               _backing.setTransactionSuccessful();
+               addAccount(account);
+            } finally {
+               _backing.endTransaction();
+            }
+            _secureKeyValueStore.setTransactionSuccessful();
          } finally {
-            _backing.endTransaction();
+            _secureKeyValueStore.endTransaction();
          }
       }
       return id;
@@ -263,6 +287,45 @@ public class WalletManager {
       _synchronizeTransactionHistory = false;
    }
 
+   /**
+    * Set the maximum number of accounts that are synchronized concurrently.
+    * <p/>
+    * Each account synchronizes against the Wapi independently, so running several of them at the same time hides
+    * most of the network round trip latency. A value of 1 synchronizes the accounts one after the other. The new
+    * value takes effect on the next synchronization.
+    * <p/>
+    * Values above 1 require a backing whose account backings can be updated from several threads at once.
+    *
+    * @param parallelism the maximum number of accounts to synchronize concurrently, must be positive
+    */
+   public void setSynchronizationParallelism(int parallelism) {
+      Preconditions.checkArgument(parallelism > 0, "Synchronization parallelism must be positive");
+      _synchronizationParallelism = parallelism;
+   }
+
+   /**
+    * Enable or disable batched synchronization.
+    * <p/>
+    * When enabled, the unspent outputs and the transaction inventory of all active accounts are fetched with one
+    * combined query per call type (split into chunks if there are many addresses) before the accounts synchronize.
+    * Each account is then served its share of the results without an additional round trip, which makes
+    * synchronization on high latency connections faster the more accounts there are.
+    *
+    * @param batched true to enable batched synchronization
+    */
+   public void setBatchedSynchronization(boolean batched) {
+      _batchedSynchronization = batched;
+   }
+
+   /**
+    * Get the maximum number of accounts that are synchronized concurrently
+    *
+    * @return the maximum number of accounts that are synchronized concurrently
+    */
+   public int getSynchronizationParallelism() {
+      return _synchronizationParallelism;
+   }
+
    /**
     * Get the IDs of the accounts managed by the wallet manager
     *
@@ -438,7 +501,8 @@ public class WalletManager {
          Bip44AccountKeyManager keyManager = new Bip44AccountKeyManager(context.getAccountIndex(), _network, _secureKeyValueStore);
          Bip44AccountBacking accountBacking = _backing.getBip44AccountBacking(context.getId());
          Preconditions.checkNotNull(accountBacking);
-         Bip44Account account = new Bip44Account(context, keyManager, _network, accountBacking, _wapi);
+         Bip44Account account = new Bip44Account(context, keyManager, _network,
+               new BatchingAccountBacking(accountBacking), _wapi);
          addAccount(account);
          _bip44Accounts.add(account);
       }
@@ -451,7 +515,8 @@ public class WalletManager {
          PublicPrivateKeyStore store = new PublicPrivateKeyStore(_secureKeyValueStore);
          SingleAddressAccountBacking accountBacking = _backing.getSingleAddressAccountBacking(context.getId());
          Preconditions.checkNotNull(accountBacking);
-         SingleAddressAccount account = new SingleAddressAccount(context, store, _network, accountBacking, _wapi);
+         SingleAddressAccount account = new SingleAddressAccount(context, store, _network,
+               new BatchingAccountBacking(accountBacking), _wapi);
          addAccount(account);
       }
    }
@@ -478,12 +543,18 @@ public class WalletManager {
                   return;
                }
 
+               // Fetch what the accounts need with as few queries as possible
+               if (_batchedSynchronization) {
+                  prefetch();
+               }
+
                // Synchronize every account with the blockchain
                if (!synchronize()) {
                   return;
                }
             }
          } finally {
+            _wapi.clear();
             _synchronizationThread = null;
             setStateAndNotify(State.READY);
          }
@@ -503,22 +574,137 @@ public class WalletManager {
          return true;
       }
 
-      private boolean synchronize() {
+      /**
+       * Fetch the unspent outputs and transaction inventory of all active accounts using combined queries.
+       * <p/>
+       * If this fails the accounts just query for themselves, and report any errors when doing so.
+       */
+      private void prefetch() {
+         List<AbstractAccount> accounts = new ArrayList<AbstractAccount>();
+         Set<Address> monitored = new HashSet<Address>();
          for (AbstractAccount account : _allAccounts.values()) {
             if (account.isArchived()) {
                continue;
             }
-            if (!account.synchronize(_synchronizeTransactionHistory)) {
-               // We failed to broadcast due to API error, we will have to try
-               // again later
-               return false;
+            accounts.add(account);
+            monitored.addAll(account.getMonitoredAddresses());
+         }
+         try {
+            if (!monitored.isEmpty()) {
+               _wapi.prefetchUnspentOutputs(monitored);
+            }
+            // Accounts may look at the prefetched unspent outputs to tell whether they need to discover transactions
+            Set<Address> discovery = new HashSet<Address>();
+            for (AbstractAccount account : accounts) {
+               discovery.addAll(account.getDiscoveryAddresses(_synchronizeTransactionHistory));
+            }
+            if (!discovery.isEmpty()) {
+               _wapi.prefetchTransactionInventory(discovery);
+            }
+         } catch (WapiException e) {
+            _logger.logError("Batched query failed with error code: " + e.errorCode, e);
+         }
+      }
+
+      /**
+       * Synchronize all active accounts on a bounded pool of worker threads.
+       * <p/>
+       * Accounts are synchronized independently of each other. If one account fails, for instance due to a
+       * {@link WapiException}, the remaining accounts still get synchronized.
+       *
+       * @return true if all accounts were synchronized successfully
+       */
+      private boolean synchronize() {
+         List<AbstractAccount> accounts = new ArrayList<AbstractAccount>(_allAccounts.size());
+         for (AbstractAccount account : _allAccounts.values()) {
+            if (!account.isArchived()) {
+               accounts.add(account);
+            }
+         }
+         if (accounts.isEmpty()) {
+            return true;
+         }
+         int parallelism = _synchronizationParallelism;
+         int threads = Math.min(parallelism, accounts.size());
+         if (threads == 1) {
+            boolean success = true;
+            for (AbstractAccount account : accounts) {
+               success &= new AccountSynchronizer(account).call();
+            }
+            return success;
+         }
+
+         ExecutorService executor = getSynchronizationExecutor(parallelism);
+         List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(accounts.size());
+         try {
+            for (AbstractAccount account : accounts) {
+               results.add(executor.submit(new AccountSynchronizer(account)));
+            }
+            boolean success = true;
+            for (Future<Boolean> result : results) {
+               try {
+                  success &= result.get();
+               } catch (ExecutionException e) {
+                  // Never happens, the account synchronizer catches everything
+                  _logger.logError("Account synchronization failed", e);
+                  success = false;
+               }
+            }
+            return success;
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+         } finally {
+            // Only does something if we got interrupted
+            for (Future<Boolean> result : results) {
+               result.cancel(true);
             }
          }
-         return true;
       }
 
    }
 
+   /**
+    * Get the executor for synchronizing accounts concurrently. It is created on first use and kept across
+    * synchronizations, its idle threads time out.
+    */
+   private synchronized ExecutorService getSynchronizationExecutor(int threads) {
+      if (_synchronizationExecutor == null) {
+         _synchronizationExecutor = ComputePool.createPool(threads,
+               AccountSynchronizer.class.getSimpleName() + "-%d");
+      } else if (threads > _synchronizationExecutor.getMaximumPoolSize()) {
+         _synchronizationExecutor.setMaximumPoolSize(threads);
+         _synchronizationExecutor.setCorePoolSize(threads);
+      } else if (threads < _synchronizationExecutor.getCorePoolSize()) {
+         _synchronizationExecutor.setCorePoolSize(threads);
+         _synchronizationExecutor.setMaximumPoolSize(threads);
+      }
+      return _synchronizationExecutor;
+   }
+
+   /**
+    * Synchronizes a single account and isolates its failures from the other accounts
+    */
+   private class AccountSynchronizer implements Callable<Boolean> {
+      private final AbstractAccount _account;
+
+      private AccountSynchronizer(AbstractAccount account) {
+         _account = account;
+      }
+
+      @Override
+      public Boolean call() {
+         try {
+            // The account posts SERVER_CONNECTION_ERROR itself if the Wapi
+            // fails, we will have to try again later
+            return _account.synchronize(_synchronizeTransactionHistory);
+         } catch (RuntimeException e) {
+            _logger.logError("Synchronization of account " + _account.getId() + " failed", e);
+            return false;
+         }
+      }
+   }
+
    private class AccountEventManager implements AbstractAccount.EventHandler {
       @Override
       public void onEvent(UUID accountId, Event event) {
@@ -632,32 +818,42 @@ public class WalletManager {
          // Determine the next BIP44 account index
          int accountIndex = getNextBip44Index();
 
-         _backing.beginTransaction();
+         // See createSingleAddressAccount
+         UUID accountId;
+         _secureKeyValueStore.beginTransaction();
          try {
-            // Create the base keys for the account
-            Bip44AccountKeyManager keyManager = Bip44AccountKeyManager.createNew(root, _network, accountIndex, _secureKeyValueStore, cipher);
-
-            // Generate the context for the account
-            Bip44AccountContext context = new Bip44AccountContext(keyManager.getAccountId(), accountIndex, false);
-            _backing.createBip44AccountContext(context);
-
-            // Get the backing for the new account
-            Bip44AccountBacking accountBacking = _backing.getBip44AccountBacking(context.getId());
-            Preconditions.checkNotNull(accountBacking);
-
-
-            // Create actual account
-            Bip44Account account = new Bip44Account(context, keyManager, _network, accountBacking, _wapi);
-
-            // Finally persist context and add account
-            context.persist(accountBacking);
-            _backing.setTransactionSuccessful();
-            addAccount(account);
-            _bip44Accounts.add(account);
-            return account.getId();
+            _backing.beginTransaction();
+            try {
+               // Create the base keys for the account
+               Bip44AccountKeyManager keyManager = Bip44AccountKeyManager.createNew(root, _network, accountIndex, _secureKeyValueStore, cipher);
+
+               // Generate the context for the account
+               Bip44AccountContext context = new Bip44AccountContext(keyManager.getAccountId(), accountIndex, false);
+               _backing.createBip44AccountContext(context);
+
+               // Get the backing for the new account
+               Bip44AccountBacking accountBacking = _backing.getBip44AccountBacking(context.getId());
+               Preconditions.checkNotNull(accountBacking);
+
+
+               // Create actual account
+               Bip44Account account = new Bip44Account(context, keyManager, _network,
+                     new BatchingAccountBacking(accountBacking), _wapi);
+
+               // Finally persist context and add account
+               context.persist(accountBacking);
+               _backing.setTransactionSuccessful();
+               addAccount(account);
+               _bip44Accounts.add(account);
+               accountId = account.getId();
+            } finally {
+               _backing.endTransaction();
+            }
+            _secureKeyValueStore.setTransactionSuccessful();
          } finally {
-            _backing.endTransaction();
+            _secureKeyValueStore.endTransaction();
          }
+         return accountId;
       }
    }
 
@@ -24,12 +24,6 @@ import java.util.UUID;
 
 public interface WalletManagerBacking extends SecureKeyValueStoreBacking {
 
-   void beginTransaction();
-
-   void setTransactionSuccessful();
-
-   void endTransaction();
-
    List<Bip44AccountContext> loadBip44AccountContexts();
 
    void createBip44AccountContext(Bip44AccountContext context);
@@ -36,6 +36,7 @@ import com.mycelium.wapi.wallet.WalletManager.Event;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -176,12 +177,15 @@ public class Bip44Account extends AbstractAccount {
          }
          addressMap = _externalAddresses;
       }
-      while (index >= 0) {
-         if (addressMap.inverse().containsKey(index)) {
-            return;
-         }
-         addressMap.put(_keyManager.getAddress(isChangeChain, index), index);
-         index--;
+      // Find the range of indexes we have no address for, and derive them in one go
+      int fromIndex = index;
+      while (fromIndex >= 0 && !addressMap.inverse().containsKey(fromIndex)) {
+         fromIndex--;
+      }
+      fromIndex++;
+      List<Address> addresses = _keyManager.deriveAddresses(isChangeChain, fromIndex, index - fromIndex + 1);
+      for (int i = 0; i < addresses.size(); i++) {
+         addressMap.put(addresses.get(i), fromIndex + i);
       }
    }
 
@@ -189,6 +193,7 @@ public class Bip44Account extends AbstractAccount {
    public synchronized boolean synchronize(boolean synchronizeTransactionHistory) {
       checkNotArchived();
       _isSynchronizing = true;
+      beginBackingBatch();
       try {
 
          // Discover new addresses once in a while
@@ -196,6 +201,7 @@ public class Bip44Account extends AbstractAccount {
             if (!discovery()) {
                return false;
             }
+            flushBackingBatch();
          }
 
          // Update unspent outputs
@@ -204,6 +210,7 @@ public class Bip44Account extends AbstractAccount {
          }
          return true;
       } finally {
+         endBackingBatch();
          _isSynchronizing = false;
       }
    }
@@ -239,17 +246,9 @@ public class Bip44Account extends AbstractAccount {
     * @throws com.mycelium.wapi.api.WapiException
     */
    private boolean doDiscovery() throws WapiException {
-      // Ensure that all addresses in the look ahead window have been created
-      ensureAddressIndexes(true);
-
       // Make look ahead address list
-      List<Address> lookAhead = new ArrayList<Address>(EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH + INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH);
-      for (int i = 0; i < EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH; i++) {
-         lookAhead.add(_externalAddresses.inverse().get(_context.getLastExternalIndexWithActivity() + 1 + i));
-      }
-      for (int i = 0; i < INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH; i++) {
-         lookAhead.add(_internalAddresses.inverse().get(_context.getLastInternalIndexWithActivity() + 1 + i));
-      }
+      List<Address> lookAhead = getLookAheadAddresses();
+
       // Do look ahead query
       List<Sha256Hash> ids = _wapi.queryTransactionInventory(
             new QueryTransactionInventoryRequest(Wapi.VERSION, lookAhead, Wapi.MAX_TRANSACTION_INVENTORY_LIMIT)).getResult().txIds;
@@ -267,8 +266,33 @@ public class Bip44Account extends AbstractAccount {
       return lastExternalIndex != _context.getLastExternalIndexWithActivity() || lastInternalIndex != _context.getLastInternalIndexWithActivity();
    }
 
-   private boolean updateUnspentOutputs() {
-      // Get the list of addresses to monitor
+   /**
+    * Get the full look ahead window of external and internal addresses, creating them if necessary
+    */
+   private List<Address> getLookAheadAddresses() {
+      // Ensure that all addresses in the look ahead window have been created
+      ensureAddressIndexes(true);
+
+      List<Address> lookAhead = new ArrayList<Address>(EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH + INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH);
+      for (int i = 0; i < EXTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH; i++) {
+         lookAhead.add(_externalAddresses.inverse().get(_context.getLastExternalIndexWithActivity() + 1 + i));
+      }
+      for (int i = 0; i < INTERNAL_FULL_ADDRESS_LOOK_AHEAD_LENGTH; i++) {
+         lookAhead.add(_internalAddresses.inverse().get(_context.getLastInternalIndexWithActivity() + 1 + i));
+      }
+      return lookAhead;
+   }
+
+   @Override
+   protected synchronized Collection<Address> getDiscoveryAddresses(boolean synchronizeTransactionHistory) {
+      if (!needsDiscovery()) {
+         return Collections.emptyList();
+      }
+      return getLookAheadAddresses();
+   }
+
+   @Override
+   protected synchronized Collection<Address> getMonitoredAddresses() {
       Collection<Address> combined = new ArrayList<Address>(_externalAddresses.keySet().size()
             + _context.getLastInternalIndexWithActivity() - _context.getFirstMonitoredInternalIndex() + 1);
       // Add all external addresses
@@ -277,6 +301,12 @@ public class Bip44Account extends AbstractAccount {
       for (int i = _context.getFirstMonitoredInternalIndex(); i < _internalAddresses.keySet().size(); i++) {
          combined.add(_internalAddresses.inverse().get(i));
       }
+      return combined;
+   }
+
+   private boolean updateUnspentOutputs() {
+      // Get the list of addresses to monitor
+      Collection<Address> combined = getMonitoredAddresses();
 
       if (!synchronizeUnspentOutputs(combined)) {
          return false;
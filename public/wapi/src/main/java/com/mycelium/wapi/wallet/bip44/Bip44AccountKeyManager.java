@@ -25,9 +25,13 @@ import com.mrd.bitlib.model.NetworkParameters;
 import com.mrd.bitlib.util.BitUtils;
 import com.mrd.bitlib.util.ByteReader;
 import com.mrd.bitlib.util.ByteWriter;
+import com.mrd.bitlib.util.ComputePool;
 import com.mycelium.wapi.wallet.KeyCipher;
 import com.mycelium.wapi.wallet.SecureKeyValueStore;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -41,13 +45,18 @@ import java.util.UUID;
  * retrieval next time they are requested.
  * <p/>
  * Addresses are calculated from the appropriate public key on demand once, and then stored in plain text for fast
- * retrieval next time they are requested.
+ * retrieval next time they are requested. Ranges of addresses can be derived in bulk, in which case the missing ones
+ * are calculated on several threads.
  */
 public class Bip44AccountKeyManager {
 
    private static final int BIP44_PURPOSE = 0x8000002c;
    private static final int BIP44_PRODNET_COIN_TYPE = 0x80000000;
    private static final int BIP44_TESTNET_COIN_TYPE = 0x80000001;
+   /**
+    * The minimum number of addresses to derive per thread, below this it is not worth starting threads
+    */
+   private static final int MIN_DERIVATIONS_PER_THREAD = 4;
    private int _accountIndex;
    private final SecureKeyValueStore _secureKeyValueStore;
    private HdKeyNode _publicAccountRoot;
@@ -59,20 +68,24 @@ public class Bip44AccountKeyManager {
       HdKeyNode bip44Root = bip32Root.createChildNode(BIP44_PURPOSE);
       HdKeyNode coinTypeRoot = bip44Root.createChildNode(network.isProdnet() ? BIP44_PRODNET_COIN_TYPE : BIP44_TESTNET_COIN_TYPE);
 
-      // Create the account root. Store the private node encrypted and the public node in plain text
+      // Create the account root and the external and change chain roots. Store the private nodes encrypted and the
+      // public nodes in plain text
       HdKeyNode accountRoot = coinTypeRoot.createChildNode(accountIndex | 0x80000000);
-      secureKeyValueStore.encryptAndStoreValue(getAccountNodeId(network, accountIndex), accountRoot.toCustomByteFormat(), cipher);
-      secureKeyValueStore.storePlaintextValue(getAccountNodeId(network, accountIndex), accountRoot.getPublicNode().toCustomByteFormat());
-
-      // Create the external chain root. Store the private node encrypted and the public node in plain text
       HdKeyNode externalChainRoot = accountRoot.createChildNode(0);
-      secureKeyValueStore.encryptAndStoreValue(getChainNodeId(network, accountIndex, false), externalChainRoot.toCustomByteFormat(), cipher);
-      secureKeyValueStore.storePlaintextValue(getChainNodeId(network, accountIndex, false), externalChainRoot.getPublicNode().toCustomByteFormat());
-
-      // Create the change chain root. Store the private node encrypted and the public node in plain text
       HdKeyNode changeChainRoot = accountRoot.createChildNode(1);
-      secureKeyValueStore.encryptAndStoreValue(getChainNodeId(network, accountIndex, true), changeChainRoot.toCustomByteFormat(), cipher);
-      secureKeyValueStore.storePlaintextValue(getChainNodeId(network, accountIndex, true), changeChainRoot.getPublicNode().toCustomByteFormat());
+      List<byte[]> ids = Arrays.asList(getAccountNodeId(network, accountIndex),
+            getChainNodeId(network, accountIndex, false), getChainNodeId(network, accountIndex, true));
+      List<HdKeyNode> nodes = Arrays.asList(accountRoot, externalChainRoot, changeChainRoot);
+      List<byte[]> privateNodes = new ArrayList<byte[]>(nodes.size());
+      for (HdKeyNode node : nodes) {
+         privateNodes.add(node.toCustomByteFormat());
+      }
+      List<byte[]> publicNodes = new ArrayList<byte[]>(nodes.size());
+      for (HdKeyNode node : nodes) {
+         publicNodes.add(node.getPublicNode().toCustomByteFormat());
+      }
+      secureKeyValueStore.encryptAndStoreValues(ids, privateNodes, cipher);
+      secureKeyValueStore.storePlaintextValues(ids, publicNodes);
       return new Bip44AccountKeyManager(accountIndex, network, secureKeyValueStore);
    }
 
@@ -166,6 +179,68 @@ public class Bip44AccountKeyManager {
       return address;
    }
 
+   /**
+    * Get a range of addresses, deriving the ones we do not have yet in parallel and storing them for next time.
+    *
+    * @param isChangeChain whether to derive from the change chain or the external chain
+    * @param fromIndex     the index of the first address
+    * @param count         the number of addresses
+    * @return the addresses with the indexes fromIndex to fromIndex + count - 1 in that order
+    */
+   public List<Address> deriveAddresses(boolean isChangeChain, int fromIndex, int count) {
+      Preconditions.checkArgument(fromIndex >= 0 && count >= 0);
+      Address[] addresses = new Address[count];
+
+      // See which ones we have in the store
+      List<Integer> missing = new ArrayList<Integer>();
+      for (int i = 0; i < count; i++) {
+         byte[] addressNodeBytes = _secureKeyValueStore.getPlaintextValue(getLeafNodeId(_network, _accountIndex,
+               isChangeChain, fromIndex + i, false));
+         if (addressNodeBytes == null) {
+            missing.add(fromIndex + i);
+         } else {
+            addresses[i] = bytesToAddress(addressNodeBytes);
+         }
+      }
+      if (missing.isEmpty()) {
+         return Arrays.asList(addresses);
+      }
+
+      // Calculate the missing ones from the chain node, and store them for next time
+      HdKeyNode chainNode = isChangeChain ? _publicChangeChainRoot : _publicExternalChainRoot;
+      List<HdKeyNode> publicLeafNodes = deriveChildNodes(chainNode, missing);
+      List<byte[]> ids = new ArrayList<byte[]>(2 * missing.size());
+      List<byte[]> values = new ArrayList<byte[]>(2 * missing.size());
+      for (int i = 0; i < missing.size(); i++) {
+         int index = missing.get(i);
+         HdKeyNode publicLeafNode = publicLeafNodes.get(i);
+         Address address = publicLeafNode.getPublicKey().toAddress(_network);
+         ids.add(getLeafNodeId(_network, _accountIndex, isChangeChain, index, true));
+         values.add(publicLeafNode.toCustomByteFormat());
+         ids.add(getLeafNodeId(_network, _accountIndex, isChangeChain, index, false));
+         values.add(addressToBytes(address));
+         addresses[index - fromIndex] = address;
+      }
+      // One backing transaction for the whole range
+      _secureKeyValueStore.storePlaintextValues(ids, values);
+      return Arrays.asList(addresses);
+   }
+
+   /**
+    * Derive the child nodes with the given indexes, spreading the work over the available processors
+    */
+   private static List<HdKeyNode> deriveChildNodes(final HdKeyNode parent, List<Integer> indexes) {
+      final HdKeyNode[] derived = new HdKeyNode[indexes.size()];
+      final Integer[] indexArray = indexes.toArray(new Integer[indexes.size()]);
+      ComputePool.forEach(indexArray.length, MIN_DERIVATIONS_PER_THREAD, new ComputePool.Body() {
+         @Override
+         public void run(int index) {
+            derived[index] = parent.createChildNode(indexArray[index]);
+         }
+      });
+      return Arrays.asList(derived);
+   }
+
    private static byte[] getAccountNodeId(NetworkParameters network, int accountIndex) {
       // Create a compact unique account ID
       byte[] id = new byte[1 + 1 + 4];
@@ -20,15 +20,18 @@ import com.mrd.bitlib.crypto.InMemoryPrivateKey;
 import com.mrd.bitlib.crypto.PublicKey;
 import com.mrd.bitlib.model.Address;
 import com.mrd.bitlib.model.NetworkParameters;
+import com.mrd.bitlib.model.OutPoint;
 import com.mrd.bitlib.model.Transaction;
 import com.mrd.bitlib.util.Sha256Hash;
 import com.mycelium.wapi.api.Wapi;
 import com.mycelium.wapi.api.WapiException;
 import com.mycelium.wapi.api.request.GetTransactionsRequest;
 import com.mycelium.wapi.api.request.QueryTransactionInventoryRequest;
+import com.mycelium.wapi.api.request.QueryUnspentOutputsRequest;
 import com.mycelium.wapi.api.response.GetTransactionsResponse;
 import com.mycelium.wapi.model.Balance;
 import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
 import com.mycelium.wapi.wallet.AbstractAccount;
 import com.mycelium.wapi.wallet.KeyCipher;
 import com.mycelium.wapi.wallet.KeyCipher.InvalidKeyCipher;
@@ -36,8 +39,11 @@ import com.mycelium.wapi.wallet.SingleAddressAccountBacking;
 import com.mycelium.wapi.wallet.WalletManager.Event;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 public class SingleAddressAccount extends AbstractAccount {
@@ -99,11 +105,13 @@ public class SingleAddressAccount extends AbstractAccount {
    public synchronized boolean synchronize(boolean synchronizeTransactionHistory) {
       checkNotArchived();
       _isSynchronizing = true;
+      beginBackingBatch();
       try {
 
          if (!synchronizeUnspentOutputs(_addressList)) {
             return false;
          }
+         flushBackingBatch();
 
          if (synchronizeTransactionHistory) {
             // Monitor young transactions
@@ -125,11 +133,47 @@ public class SingleAddressAccount extends AbstractAccount {
          _context.persistIfNecessary(_backing);
          return true;
       } finally {
+         endBackingBatch();
          _isSynchronizing = false;
       }
 
    }
 
+   @Override
+   protected Collection<Address> getMonitoredAddresses() {
+      return _addressList;
+   }
+
+   /**
+    * We only discover transactions when the balance changes, which is when the unspent outputs we know about differ
+    * from the ones the server reports
+    */
+   @Override
+   protected synchronized Collection<Address> getDiscoveryAddresses(boolean synchronizeTransactionHistory) {
+      if (!synchronizeTransactionHistory || isArchived()) {
+         return Collections.emptyList();
+      }
+      Collection<TransactionOutputEx> remoteUnspent;
+      try {
+         remoteUnspent = _wapi.queryUnspentOutputs(new QueryUnspentOutputsRequest(Wapi.VERSION, _addressList))
+               .getResult().unspent;
+      } catch (WapiException e) {
+         // The account reports the error when it synchronizes
+         return Collections.emptyList();
+      }
+      Map<OutPoint, TransactionOutputEx> localMap = toMap(_backing.getAllUnspentOutputs());
+      if (localMap.size() != remoteUnspent.size()) {
+         return _addressList;
+      }
+      for (TransactionOutputEx r : remoteUnspent) {
+         TransactionOutputEx l = localMap.get(r.outPoint);
+         if (l == null || l.height != r.height) {
+            return _addressList;
+         }
+      }
+      return Collections.emptyList();
+   }
+
    private boolean discoverTransactions() {
       // Get the latest transactions
       List<Sha256Hash> discovered;
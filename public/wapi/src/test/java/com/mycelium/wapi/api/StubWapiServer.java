@@ -0,0 +1,134 @@
+package com.mycelium.wapi.api;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A local HTTP server which answers every WAPI call with a fixed response,
+ * and records what it has seen
+ */
+public class StubWapiServer {
+
+   private final HttpServer _server;
+   private final byte[] _response;
+   private final byte[] _gzippedResponse;
+   private final boolean _keepAlive;
+   private final boolean _gzip;
+   private final Set<Integer> _clientPorts;
+   private final List<String> _requestEncodings;
+   private final List<byte[]> _requests;
+   private volatile int _failures;
+   private volatile boolean _corruptGzip;
+
+   /**
+    * @param response  the JSON to answer with
+    * @param keepAlive whether to keep connections open
+    * @param gzip      whether to compress the response if the client accepts it
+    */
+   public StubWapiServer(byte[] response, boolean keepAlive, boolean gzip) throws IOException {
+      _response = response;
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      GZIPOutputStream out = new GZIPOutputStream(bytes);
+      out.write(response);
+      out.close();
+      _gzippedResponse = bytes.toByteArray();
+      _keepAlive = keepAlive;
+      _gzip = gzip;
+      _clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+      _requestEncodings = Collections.synchronizedList(new ArrayList<String>());
+      _requests = Collections.synchronizedList(new ArrayList<byte[]>());
+      _server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      _server.createContext(WapiConst.WAPI_BASE_PATH, new HttpHandler() {
+         @Override
+         public void handle(HttpExchange exchange) throws IOException {
+            StubWapiServer.this.handle(exchange);
+         }
+      });
+      _server.start();
+   }
+
+   private void handle(HttpExchange exchange) throws IOException {
+      _clientPorts.add(exchange.getRemoteAddress().getPort());
+      String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+      _requestEncodings.add(encoding);
+      InputStream in = exchange.getRequestBody();
+      if ("gzip".equals(encoding)) {
+         in = new GZIPInputStream(in);
+      }
+      _requests.add(readAll(in));
+      if (!_keepAlive) {
+         exchange.getResponseHeaders().set("Connection", "close");
+      }
+      if (_failures > 0) {
+         _failures--;
+         exchange.sendResponseHeaders(500, -1);
+         exchange.close();
+         return;
+      }
+      String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+      byte[] body = _response;
+      if (_gzip && accept != null && accept.contains("gzip")) {
+         exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+         body = _corruptGzip ? _response : _gzippedResponse;
+      }
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      exchange.sendResponseHeaders(200, body.length);
+      OutputStream out = exchange.getResponseBody();
+      out.write(body);
+      out.close();
+   }
+
+   private static byte[] readAll(InputStream in) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int n;
+      while ((n = in.read(buffer)) != -1) {
+         bytes.write(buffer, 0, n);
+      }
+      return bytes.toByteArray();
+   }
+
+   public WapiClient.HttpEndpoint getEndpoint() {
+      return new WapiClient.HttpEndpoint("http://127.0.0.1:" + _server.getAddress().getPort());
+   }
+
+   /**
+    * Answer the next requests with status 500
+    */
+   public void failNext(int count) {
+      _failures = count;
+   }
+
+   /**
+    * Claim to compress responses but send them uncompressed
+    */
+   public void setCorruptGzip(boolean corruptGzip) {
+      _corruptGzip = corruptGzip;
+   }
+
+   public int getConnectionCount() {
+      return _clientPorts.size();
+   }
+
+   public List<String> getRequestEncodings() {
+      return _requestEncodings;
+   }
+
+   public List<byte[]> getRequests() {
+      return _requests;
+   }
+
+   public void stop() {
+      _server.stop(0);
+   }
+}
@@ -0,0 +1,51 @@
+package com.mycelium.wapi.api;
+
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.api.request.GetTransactionsRequest;
+import com.mycelium.wapi.model.TransactionEx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures getTransactions calls with 500 transactions against a local stub
+ * server, with and without keep-alive and gzip on the server side
+ */
+public class WapiClientBenchmark {
+
+   private static final int TRANSACTIONS = 500;
+   private static final int CALLS = 200;
+
+   public static void main(String[] args) throws Exception {
+      List<TransactionEx> transactions = WapiClientTest.createTransactions(TRANSACTIONS);
+      byte[] response = WapiClientTest.createGetTransactionsResponse(transactions);
+      List<Sha256Hash> txIds = new ArrayList<Sha256Hash>();
+      for (TransactionEx tex : transactions) {
+         txIds.add(tex.txid);
+      }
+      GetTransactionsRequest request = new GetTransactionsRequest(Wapi.VERSION, txIds);
+      System.out.println("Response size: " + response.length + " bytes");
+      for (int round = 0; round < 2; round++) {
+         run(request, false, false);
+         run(request, true, false);
+         run(request, true, true);
+      }
+   }
+
+   private static void run(GetTransactionsRequest request, boolean keepAlive, boolean gzip) throws Exception {
+      StubWapiServer server = new StubWapiServer(WapiClientTest.createGetTransactionsResponse(
+            WapiClientTest.createTransactions(TRANSACTIONS)), keepAlive, gzip);
+      try {
+         WapiClient client = new WapiClient(new WapiClient.HttpEndpoint[]{server.getEndpoint()}, null);
+         long start = System.nanoTime();
+         for (int i = 0; i < CALLS; i++) {
+            client.getTransactions(request).getResult();
+         }
+         long elapsed = System.nanoTime() - start;
+         System.out.println(String.format("keep-alive %-5s gzip %-5s: %.2f ms per call, %d connections", keepAlive,
+               gzip, elapsed / 1e6 / CALLS, server.getConnectionCount()));
+      } finally {
+         server.stop();
+      }
+   }
+}
@@ -0,0 +1,129 @@
+package com.mycelium.wapi.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.api.request.GetTransactionsRequest;
+import com.mycelium.wapi.api.response.GetTransactionsResponse;
+import com.mycelium.wapi.model.TransactionEx;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WapiClientTest {
+
+   private StubWapiServer _server;
+
+   @After
+   public void tearDown() {
+      if (_server != null) {
+         _server.stop();
+      }
+   }
+
+   static List<TransactionEx> createTransactions(int count) {
+      Random random = new Random(42);
+      List<TransactionEx> transactions = new ArrayList<TransactionEx>();
+      for (int i = 0; i < count; i++) {
+         byte[] txid = new byte[32];
+         random.nextBytes(txid);
+         byte[] binary = new byte[250];
+         random.nextBytes(binary);
+         transactions.add(new TransactionEx(new Sha256Hash(txid), 300000 + i, 1400000000 + i, binary));
+      }
+      return transactions;
+   }
+
+   static byte[] createGetTransactionsResponse(List<TransactionEx> transactions) throws IOException {
+      ObjectMapper mapper = new ObjectMapper();
+      mapper.registerModule(new WapiJsonModule());
+      return mapper.writeValueAsBytes(new WapiResponse<GetTransactionsResponse>(new GetTransactionsResponse(
+            transactions)));
+   }
+
+   private static GetTransactionsRequest createRequest(List<TransactionEx> transactions) {
+      List<Sha256Hash> txIds = new ArrayList<Sha256Hash>();
+      for (TransactionEx tex : transactions) {
+         txIds.add(tex.txid);
+      }
+      return new GetTransactionsRequest(Wapi.VERSION, txIds);
+   }
+
+   private static void assertTransactions(List<TransactionEx> expected, WapiResponse<GetTransactionsResponse> response)
+         throws WapiException {
+      List<TransactionEx> actual = new ArrayList<TransactionEx>(response.getResult().transactions);
+      assertEquals(expected.size(), actual.size());
+      for (int i = 0; i < expected.size(); i++) {
+         assertEquals(expected.get(i).txid, actual.get(i).txid);
+         assertEquals(expected.get(i).height, actual.get(i).height);
+         assertArrayEquals(expected.get(i).binary, actual.get(i).binary);
+      }
+   }
+
+   @Test
+   public void gzipResponsesOverReusedConnection() throws Exception {
+      List<TransactionEx> transactions = createTransactions(200);
+      _server = new StubWapiServer(createGetTransactionsResponse(transactions), true, true);
+      WapiClient client = new WapiClient(new WapiClient.HttpEndpoint[]{_server.getEndpoint()}, null);
+      for (int i = 0; i < 10; i++) {
+         assertTransactions(transactions, client.getTransactions(createRequest(transactions)));
+      }
+      assertEquals(1, _server.getConnectionCount());
+   }
+
+   @Test
+   public void uncompressedResponse() throws Exception {
+      List<TransactionEx> transactions = createTransactions(20);
+      _server = new StubWapiServer(createGetTransactionsResponse(transactions), true, false);
+      WapiClient client = new WapiClient(new WapiClient.HttpEndpoint[]{_server.getEndpoint()}, null);
+      assertTransactions(transactions, client.getTransactions(createRequest(transactions)));
+   }
+
+   @Test
+   public void connectionIsReusedAfterError() throws Exception {
+      List<TransactionEx> transactions = createTransactions(20);
+      _server = new StubWapiServer(createGetTransactionsResponse(transactions), true, true);
+      _server.failNext(1);
+      WapiClient client = new WapiClient(new WapiClient.HttpEndpoint[]{_server.getEndpoint()}, null);
+      // The first attempt fails, and the client tries again with a longer timeout
+      assertTransactions(transactions, client.getTransactions(createRequest(transactions)));
+      assertEquals(2, _server.getRequests().size());
+      assertEquals(1, _server.getConnectionCount());
+   }
+
+   @Test
+   public void connectionIsReleasedAfterBadGzip() throws Exception {
+      List<TransactionEx> transactions = createTransactions(20);
+      _server = new StubWapiServer(createGetTransactionsResponse(transactions), true, true);
+      _server.setCorruptGzip(true);
+      WapiClient client = new WapiClient(new WapiClient.HttpEndpoint[]{_server.getEndpoint()}, null);
+      assertEquals(Wapi.ERROR_CODE_INTERNAL_CLIENT_ERROR, client.getTransactions(createRequest(transactions))
+            .getErrorCode());
+      _server.setCorruptGzip(false);
+      // The undecodable response was read and closed, so its connection is reused
+      assertTransactions(transactions, client.getTransactions(createRequest(transactions)));
+      assertEquals(1, _server.getConnectionCount());
+   }
+
+   @Test
+   public void gzipRequests() throws Exception {
+      List<TransactionEx> transactions = createTransactions(100);
+      _server = new StubWapiServer(createGetTransactionsResponse(transactions), true, true);
+      WapiClient client = new WapiClient(new WapiClient.HttpEndpoint[]{_server.getEndpoint()}, null);
+      client.setGzipRequests(true);
+      assertTransactions(transactions, client.getTransactions(createRequest(transactions)));
+      // Too small to compress
+      client.getTransactions(createRequest(transactions.subList(0, 1)));
+      assertEquals("gzip", _server.getRequestEncodings().get(0));
+      assertNull(_server.getRequestEncodings().get(1));
+      ObjectMapper mapper = new ObjectMapper();
+      mapper.registerModule(new WapiJsonModule());
+      GetTransactionsRequest received = mapper.readValue(_server.getRequests().get(0), GetTransactionsRequest.class);
+      assertEquals(100, received.txIds.size());
+   }
+}
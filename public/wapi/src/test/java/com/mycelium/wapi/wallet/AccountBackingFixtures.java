@@ -0,0 +1,63 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.wallet.single.SingleAddressAccountContext;
+
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Random transactions and outputs for filling account backings in tests
+ */
+public class AccountBackingFixtures {
+
+   private AccountBackingFixtures() {
+   }
+
+   /**
+    * Create the backing of a single address account in a fresh in-memory backing
+    */
+   static AccountBacking createAccountBacking() {
+      InMemoryWalletManagerBacking backing = new InMemoryWalletManagerBacking();
+      Address address = WalletManagerSynchronizationTest.createAddress(1);
+      SingleAddressAccountContext context = new SingleAddressAccountContext(UUID.randomUUID(), address, false, 0);
+      backing.createSingleAddressAccountContext(context);
+      return backing.getSingleAddressAccountBacking(context.getId());
+   }
+
+   /**
+    * Create a transaction without a body
+    */
+   static TransactionEx createTransaction(Random random, int maxHeight) {
+      byte[] txid = new byte[32];
+      random.nextBytes(txid);
+      // Every tenth transaction is unconfirmed, and many share height and time
+      int height = random.nextInt(10) == 0 ? -1 : random.nextInt(maxHeight);
+      int time = 1400000000 + random.nextInt(100);
+      return new TransactionEx(new Sha256Hash(txid), height, time, new byte[0]);
+   }
+
+   /**
+    * Create a transaction with a random body, for backings which store it
+    */
+   static TransactionEx createTransaction(Random random) {
+      TransactionEx tex = createTransaction(random, 500);
+      byte[] binary = new byte[100 + random.nextInt(200)];
+      random.nextBytes(binary);
+      return new TransactionEx(tex.txid, tex.height, tex.time, binary);
+   }
+
+   static TransactionOutputEx createOutput(Random random) {
+      byte[] hash = new byte[32];
+      random.nextBytes(hash);
+      byte[] script = new byte[25];
+      random.nextBytes(script);
+      return new TransactionOutputEx(new OutPoint(new Sha256Hash(hash), random.nextInt(4)), random.nextInt(500),
+            random.nextInt(100000), script, random.nextBoolean());
+   }
+
+}
@@ -0,0 +1,72 @@
+package com.mycelium.wapi.wallet;
+
+import java.util.Random;
+
+/**
+ * Compares the JCA and the pure Java AES engines, the allocating and the
+ * buffer based key cipher methods, and a key cipher created for every use
+ */
+public class AesKeyCipherBenchmark {
+
+   private static final int ROUNDS = 20000;
+
+   public static void main(String[] args) throws Exception {
+      Random random = new Random(42);
+      byte[] key = new byte[AesKeyCipher.AES_KEY_BYTE_LENGTH];
+      random.nextBytes(key);
+      for (int size : new int[]{32, 1024, 16384}) {
+         byte[] data = new byte[size];
+         random.nextBytes(data);
+         for (int i = 0; i < 3; i++) {
+            runEngine("rijndael", AesCbcEngine.createRijndael(key), data);
+            runEngine("jca", AesCbcEngine.create(key), data);
+         }
+      }
+
+      AesKeyCipher cipher = new AesKeyCipher(key);
+      // The size of a serialized HD key node
+      byte[] data = new byte[78];
+      random.nextBytes(data);
+      byte[] buffer = new byte[AesKeyCipher.getEncryptedLength(data.length)];
+      for (int i = 0; i < 3; i++) {
+         long start = System.nanoTime();
+         for (int j = 0; j < ROUNDS; j++) {
+            cipher.decrypt(cipher.encrypt(data));
+         }
+         report("key cipher, byte arrays", start, data.length);
+         start = System.nanoTime();
+         for (int j = 0; j < ROUNDS; j++) {
+            cipher.encrypt(data, 0, data.length, buffer, 0);
+            cipher.decrypt(buffer, 0, buffer.length, buffer, 0);
+         }
+         report("key cipher, buffers", start, data.length);
+         // What the secure key value store does for every operation with the key encryption key
+         start = System.nanoTime();
+         for (int j = 0; j < ROUNDS; j++) {
+            AesKeyCipher once = new AesKeyCipher(key);
+            try {
+               once.encrypt(data, 0, data.length, buffer, 0);
+               once.decrypt(buffer, 0, buffer.length, buffer, 0);
+            } finally {
+               once.wipe();
+            }
+         }
+         report("key cipher, per use", start, data.length);
+      }
+   }
+
+   private static void runEngine(String name, AesCbcEngine engine, byte[] data) {
+      byte[] buffer = data.clone();
+      long start = System.nanoTime();
+      for (int j = 0; j < ROUNDS; j++) {
+         engine.encrypt(buffer, 0, buffer.length, buffer, 0);
+         engine.decrypt(buffer, 0, buffer.length, buffer, 0);
+      }
+      report(name, start, data.length);
+   }
+
+   private static void report(String name, long start, int size) {
+      System.out.println(String.format("%-24s %6d bytes %8.2f us per round trip", name, size,
+            (System.nanoTime() - start) / 1000.0 / ROUNDS));
+   }
+}
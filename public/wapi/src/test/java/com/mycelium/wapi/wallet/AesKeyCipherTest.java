@@ -0,0 +1,169 @@
+package com.mycelium.wapi.wallet;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.mrd.bitlib.util.HexUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class AesKeyCipherTest {
+
+   // Produced by the block by block implementation this cipher used to have
+   private static final String ENCRYPTED_5 = "b8e8b374bf7745e4270c0e36d0ec67079bd7abda3405cf987d067870c68ac01c";
+   private static final String ENCRYPTED_300 = "728bbe35a4fd1e57f506fb0a82c800f5efefd6b107a5f8d96bab3aebf6bdfbece85b19"
+         + "17971bb7c1beca1dd0e5206838703b62146ec842afa1b7e995e01610c6cf7a42a9083df70eb15d6398a41530f2541843d8f406282670"
+         + "bfc69df64d9afa8908c2950d48c000cd4dfbf109f41265c0b3508f4695dea8f20b1e71ce2681101c90d3a0bbaaf8cba8c760c6a7ef5b"
+         + "e54873dc00f9bafd717685f7442b94770fdf1d6e2b82f92eb7b48991032f5b0ee8817f77b34b1fda6f894e62778f46ac78805b8dbf26"
+         + "a5ccdf851f0dc1f0497f7bc1a02faf4ba534adbcb1dee4c2a3772133fa2cfa4bc51f3c4ed78abae060999aaea9a247cfa9127a7af57d"
+         + "b0d91e0a094fbcc8807c67f26c234627ac52220dd308beb0f25c2d17810c630a0eebb36b81332881c3e2d890afbf77339e1d0097cab1"
+         + "b36f51f514d11c6cd3a9656327f180";
+   private static final String DEFAULT_ENCRYPTED = "290e60821bd8153aece98904af5ef48d55c53f5d490297900cefa825d0c8e8e9";
+
+   private static byte[] createData(int length) {
+      byte[] data = new byte[length];
+      for (int i = 0; i < length; i++) {
+         data[i] = (byte) (i * 7 + 1);
+      }
+      return data;
+   }
+
+   @Test
+   public void testCompatibleFormat() throws KeyCipher.InvalidKeyCipher {
+      AesKeyCipher cipher = new AesKeyCipher("password");
+      assertEquals(ENCRYPTED_5, HexUtils.toHex(cipher.encrypt(createData(5))));
+      assertEquals(ENCRYPTED_300, HexUtils.toHex(cipher.encrypt(createData(300))));
+      assertArrayEquals(createData(300), cipher.decrypt(HexUtils.toBytes(ENCRYPTED_300)));
+      assertArrayEquals(HexUtils.toBytes("0123456789abcdef"),
+            AesKeyCipher.defaultKeyCipher().decrypt(HexUtils.toBytes(DEFAULT_ENCRYPTED)));
+   }
+
+   @Test
+   public void testEnginesAgree() {
+      Random random = new Random(42);
+      byte[] key = new byte[AesKeyCipher.AES_KEY_BYTE_LENGTH];
+      random.nextBytes(key);
+      AesCbcEngine jca = AesCbcEngine.create(key);
+      AesCbcEngine rijndael = AesCbcEngine.createRijndael(key);
+      for (int blocks = 1; blocks < 20; blocks++) {
+         byte[] plaintext = new byte[blocks * AesCbcEngine.BLOCK_SIZE];
+         random.nextBytes(plaintext);
+         byte[] expected = new byte[plaintext.length];
+         rijndael.encrypt(plaintext, 0, plaintext.length, expected, 0);
+         byte[] actual = new byte[plaintext.length];
+         jca.encrypt(plaintext, 0, plaintext.length, actual, 0);
+         assertArrayEquals(expected, actual);
+
+         // In place
+         rijndael.decrypt(actual, 0, actual.length, actual, 0);
+         assertArrayEquals(plaintext, actual);
+         jca.decrypt(expected, 0, expected.length, expected, 0);
+         assertArrayEquals(plaintext, expected);
+      }
+   }
+
+   @Test
+   public void testBufferApi() throws KeyCipher.InvalidKeyCipher {
+      AesKeyCipher cipher = new AesKeyCipher("password");
+      for (int length : new int[]{0, 1, 15, 16, 251, 252, 253, 1000, 70000}) {
+         byte[] data = createData(length);
+         int encryptedLength = AesKeyCipher.getEncryptedLength(length);
+         byte[] buffer = new byte[encryptedLength + 10];
+         System.arraycopy(data, 0, buffer, 3, length);
+         assertEquals(encryptedLength, cipher.encrypt(buffer, 3, length, buffer, 3));
+         assertEquals(HexUtils.toHex(cipher.encrypt(data)), HexUtils.toHex(buffer, 3, encryptedLength));
+
+         assertEquals(length, cipher.decrypt(buffer, 3, encryptedLength, buffer, 3));
+         assertEquals(HexUtils.toHex(data), HexUtils.toHex(buffer, 3, length));
+      }
+   }
+
+   @Test
+   public void testWrongKey() {
+      byte[] encrypted = new AesKeyCipher("password").encrypt(createData(100));
+      try {
+         new AesKeyCipher("Password").decrypt(encrypted);
+         fail();
+      } catch (KeyCipher.InvalidKeyCipher e) {
+         // expected
+      }
+      encrypted[encrypted.length - 1]++;
+      try {
+         new AesKeyCipher("password").decrypt(encrypted);
+         fail();
+      } catch (KeyCipher.InvalidKeyCipher e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testWipedEnginesRefuseWork() {
+      byte[] key = createData(AesKeyCipher.AES_KEY_BYTE_LENGTH);
+      for (AesCbcEngine engine : new AesCbcEngine[]{AesCbcEngine.create(key), AesCbcEngine.createRijndael(key)}) {
+         byte[] block = new byte[AesCbcEngine.BLOCK_SIZE];
+         engine.encrypt(block, 0, block.length, block, 0);
+         engine.wipe();
+         try {
+            engine.decrypt(block, 0, block.length, block, 0);
+            fail("a wiped engine must not decrypt");
+         } catch (IllegalStateException e) {
+            // expected
+         }
+      }
+   }
+
+   @Test
+   public void testEnginesAfterWipedOnes() {
+      Random random = new Random(42);
+      byte[] block = new byte[4 * AesCbcEngine.BLOCK_SIZE];
+      random.nextBytes(block);
+      for (int i = 0; i < 5; i++) {
+         byte[] key = new byte[AesKeyCipher.AES_KEY_BYTE_LENGTH];
+         random.nextBytes(key);
+         // Wiping twice must not hand out the same cipher twice
+         AesCbcEngine wiped = AesCbcEngine.create(key);
+         wiped.wipe();
+         wiped.wipe();
+         // These engines get the ciphers of the wiped engines
+         byte[] otherKey = new byte[AesKeyCipher.AES_KEY_BYTE_LENGTH];
+         random.nextBytes(otherKey);
+         AesCbcEngine first = AesCbcEngine.create(key);
+         AesCbcEngine second = AesCbcEngine.create(otherKey);
+         byte[] expected = new byte[block.length];
+         AesCbcEngine.createRijndael(key).encrypt(block, 0, block.length, expected, 0);
+         byte[] actual = new byte[block.length];
+         first.encrypt(block, 0, block.length, actual, 0);
+         second.encrypt(block, 0, block.length, new byte[block.length], 0);
+         assertArrayEquals(expected, actual);
+         first.encrypt(block, 0, block.length, actual, 0);
+         assertArrayEquals(expected, actual);
+         first.wipe();
+         second.wipe();
+      }
+   }
+
+   @Test
+   public void testWipeAfterUseOnOtherThreads() throws Exception {
+      final AesKeyCipher cipher = new AesKeyCipher("password");
+      Thread thread = new Thread(new Runnable() {
+         @Override
+         public void run() {
+            cipher.encrypt(createData(5));
+         }
+      });
+      thread.start();
+      thread.join();
+      cipher.wipe();
+      assertArrayEquals(new byte[AesKeyCipher.AES_KEY_BYTE_LENGTH], cipher.getKeyBytes());
+      try {
+         cipher.encrypt(createData(5));
+         fail("a wiped key cipher must not encrypt");
+      } catch (IllegalStateException e) {
+         // expected
+      }
+   }
+
+}
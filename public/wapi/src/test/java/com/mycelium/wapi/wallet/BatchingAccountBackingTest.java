@@ -0,0 +1,213 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.wallet.single.SingleAddressAccountContext;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BatchingAccountBackingTest {
+
+   private AccountBacking _inner;
+   private Map<String, Integer> _calls;
+   private BatchingAccountBacking _batching;
+
+   @Before
+   public void setUp() {
+      _inner = AccountBackingFixtures.createAccountBacking();
+      _calls = new HashMap<String, Integer>();
+      // Count the calls that reach the inner backing
+      AccountBacking counting = (AccountBacking) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[]{Bip44AccountBacking.class, SingleAddressAccountBacking.class}, new InvocationHandler() {
+               @Override
+               public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                  Integer count = _calls.get(method.getName());
+                  _calls.put(method.getName(), count == null ? 1 : count + 1);
+                  try {
+                     return method.invoke(_inner, args);
+                  } catch (InvocationTargetException e) {
+                     throw e.getCause();
+                  }
+               }
+            });
+      _batching = new BatchingAccountBacking(counting);
+   }
+
+   private int calls(String method) {
+      Integer count = _calls.get(method);
+      return count == null ? 0 : count;
+   }
+
+   @Test
+   public void writesGoThroughOutsideOfBatch() {
+      Random random = new Random(42);
+      TransactionEx tex = AccountBackingFixtures.createTransaction(random, 500);
+      _batching.putTransaction(tex);
+      assertSame(tex, _inner.getTransaction(tex.txid));
+      assertEquals(0, calls("beginTransaction"));
+   }
+
+   @Test
+   public void batchIsWrittenInOneTransaction() {
+      Random random = new Random(42);
+      TransactionOutputEx existing = AccountBackingFixtures.createOutput(random);
+      _inner.putUnspentOutput(existing);
+
+      _batching.beginBatch();
+      List<TransactionEx> transactions = new ArrayList<TransactionEx>();
+      for (int i = 0; i < 100; i++) {
+         TransactionEx tex = AccountBackingFixtures.createTransaction(random, 500);
+         transactions.add(tex);
+         _batching.putTransaction(tex);
+         _batching.putUnspentOutput(AccountBackingFixtures.createOutput(random));
+         _batching.putParentTransactionOutput(AccountBackingFixtures.createOutput(random));
+      }
+      _batching.deleteUnspentOutput(existing.outPoint);
+
+      // Reads see the buffer, the inner backing does not see anything yet
+      assertEquals(0, calls("putTransaction"));
+      assertSame(transactions.get(7), _batching.getTransaction(transactions.get(7).txid));
+      assertTrue(_batching.hasTransaction(transactions.get(7).txid));
+      assertNull(_inner.getTransaction(transactions.get(7).txid));
+      assertNull(_batching.getUnspentOutput(existing.outPoint));
+      assertEquals(100, _batching.getAllUnspentOutputs().size());
+      assertSame(existing, _inner.getUnspentOutput(existing.outPoint));
+
+      _batching.endBatch();
+      assertEquals(1, calls("beginTransaction"));
+      assertEquals(1, calls("setTransactionSuccessful"));
+      assertEquals(1, calls("endTransaction"));
+      assertEquals(100, calls("putTransaction"));
+      assertSame(transactions.get(7), _inner.getTransaction(transactions.get(7).txid));
+      assertNull(_inner.getUnspentOutput(existing.outPoint));
+      assertEquals(100, _inner.getAllUnspentOutputs().size());
+   }
+
+   @Test
+   public void historyReadsThroughBuffer() {
+      Random random = new Random(42);
+      List<TransactionEx> stored = new ArrayList<TransactionEx>();
+      for (int i = 0; i < 200; i++) {
+         TransactionEx tex = AccountBackingFixtures.createTransaction(random, 500);
+         stored.add(tex);
+         _inner.putTransaction(tex);
+      }
+
+      _batching.beginBatch();
+      for (int i = 0; i < 100; i++) {
+         _batching.putTransaction(AccountBackingFixtures.createTransaction(random, 500));
+      }
+      for (int i = 0; i < 20; i++) {
+         _batching.deleteTransaction(stored.get(i).txid);
+         TransactionEx old = stored.get(20 + i);
+         // Confirm or reorg
+         _batching.putTransaction(new TransactionEx(old.txid, random.nextInt(500), old.time, old.binary));
+      }
+
+      List<List<TransactionEx>> pages = new ArrayList<List<TransactionEx>>();
+      for (int offset = 0; offset < 300; offset += 25) {
+         pages.add(_batching.getTransactionHistory(offset, 25));
+      }
+      Set<Sha256Hash> unconfirmed = toIds(_batching.getUnconfirmedTransactions());
+      Set<Sha256Hash> young = toIds(_batching.getYoungTransactions(5, 500));
+      _batching.endBatch();
+
+      for (int offset = 0, i = 0; offset < 300; offset += 25, i++) {
+         assertEquals(toIds(_inner.getTransactionHistory(offset, 25)), toIds(pages.get(i)));
+      }
+      assertEquals(toIds(_inner.getUnconfirmedTransactions()), unconfirmed);
+      assertEquals(toIds(_inner.getYoungTransactions(5, 500)), young);
+   }
+
+   private static Set<Sha256Hash> toIds(Collection<TransactionEx> transactions) {
+      Set<Sha256Hash> ids = new LinkedHashSet<Sha256Hash>();
+      for (TransactionEx tex : transactions) {
+         ids.add(tex.txid);
+      }
+      return ids;
+   }
+
+   @Test
+   public void failedTransactionWithinBatchIsDropped() {
+      Random random = new Random(42);
+      TransactionEx kept = AccountBackingFixtures.createTransaction(random, 500);
+      TransactionEx dropped = AccountBackingFixtures.createTransaction(random, 500);
+      _batching.beginBatch();
+
+      _batching.beginTransaction();
+      _batching.putTransaction(kept);
+      _batching.setTransactionSuccessful();
+      _batching.endTransaction();
+
+      _batching.beginTransaction();
+      _batching.putTransaction(dropped);
+      assertSame(dropped, _batching.getTransaction(dropped.txid));
+      _batching.endTransaction();
+      assertNull(_batching.getTransaction(dropped.txid));
+
+      _batching.endBatch();
+      assertSame(kept, _inner.getTransaction(kept.txid));
+      assertNull(_inner.getTransaction(dropped.txid));
+      assertEquals(1, calls("beginTransaction"));
+   }
+
+   @Test
+   public void contextIsWrittenWithBatch() {
+      SingleAddressAccountContext context = new SingleAddressAccountContext(UUID.randomUUID(),
+            WalletManagerSynchronizationTest.createAddress(2), false, 100);
+      _batching.beginBatch();
+      _batching.updateAccountContext(context);
+      assertEquals(0, calls("updateAccountContext"));
+      _batching.endBatch();
+      assertEquals(1, calls("updateAccountContext"));
+   }
+
+   @Test
+   public void outgoingTransactionsAreNotBuffered() {
+      Random random = new Random(42);
+      TransactionEx tex = AccountBackingFixtures.createTransaction(random, 500);
+      _batching.beginBatch();
+      _batching.putTransaction(tex);
+      _batching.putOutgoingTransaction(tex.txid, new byte[]{1, 2, 3});
+      // The buffer was written first
+      assertSame(tex, _inner.getTransaction(tex.txid));
+      assertTrue(_inner.isOutgoingTransaction(tex.txid));
+      _batching.endBatch();
+   }
+
+   @Test
+   public void outgoingTransactionsCannotChangeWithinBufferedTransaction() {
+      Random random = new Random(42);
+      TransactionEx tex = AccountBackingFixtures.createTransaction(random, 500);
+      _batching.beginBatch();
+      _batching.beginTransaction();
+      _batching.putTransaction(tex);
+      try {
+         _batching.putOutgoingTransaction(tex.txid, new byte[]{1, 2, 3});
+         fail();
+      } catch (IllegalStateException e) {
+         // expected
+      }
+      _batching.endTransaction();
+      _batching.endBatch();
+      // Neither the transaction nor the outgoing transaction made it
+      assertNull(_inner.getTransaction(tex.txid));
+      assertFalse(_inner.isOutgoingTransaction(tex.txid));
+
+      // Without a batch the transaction goes to the backing, and the change is part of it
+      _batching.beginTransaction();
+      _batching.putOutgoingTransaction(tex.txid, new byte[]{1, 2, 3});
+      _batching.setTransactionSuccessful();
+      _batching.endTransaction();
+      assertTrue(_inner.isOutgoingTransaction(tex.txid));
+   }
+}
@@ -0,0 +1,249 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.crypto.PublicKey;
+import com.mrd.bitlib.model.*;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.api.Wapi;
+import com.mycelium.wapi.api.WapiException;
+import com.mycelium.wapi.api.WapiLogger;
+import com.mycelium.wapi.api.WapiResponse;
+import com.mycelium.wapi.api.request.*;
+import com.mycelium.wapi.api.response.*;
+import com.mycelium.wapi.model.TransactionEx;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BatchingWapiTest {
+
+   private static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+
+   /**
+    * A fake server which knows a set of transactions and counts the calls made to it
+    */
+   private static class InventoryWapi implements Wapi {
+      private final Map<Address, Set<Sha256Hash>> _byAddress = new HashMap<Address, Set<Sha256Hash>>();
+      private final Map<Sha256Hash, TransactionEx> _transactions = new HashMap<Sha256Hash, TransactionEx>();
+      private final List<Integer> _inventoryRequestSizes = new ArrayList<Integer>();
+      private int _getTransactionsCalls;
+
+      void addTransaction(Transaction t, Collection<Address> involved) {
+         TransactionEx tex = TransactionEx.fromUnconfirmedTransaction(t);
+         _transactions.put(tex.txid, tex);
+         for (Address address : involved) {
+            if (!_byAddress.containsKey(address)) {
+               _byAddress.put(address, new HashSet<Sha256Hash>());
+            }
+            _byAddress.get(address).add(tex.txid);
+         }
+      }
+
+      int getCallCount() {
+         return _inventoryRequestSizes.size() + _getTransactionsCalls;
+      }
+
+      @Override
+      public WapiLogger getLogger() {
+         return new WapiLogger() {
+            @Override
+            public void logError(String message, Exception e) {
+            }
+
+            @Override
+            public void logError(String message) {
+            }
+
+            @Override
+            public void logInfo(String message) {
+            }
+         };
+      }
+
+      @Override
+      public WapiResponse<QueryTransactionInventoryResponse> queryTransactionInventory(QueryTransactionInventoryRequest request) {
+         _inventoryRequestSizes.add(request.addresses.size());
+         Set<Sha256Hash> txIds = new HashSet<Sha256Hash>();
+         for (Address address : request.addresses) {
+            if (_byAddress.containsKey(address)) {
+               txIds.addAll(_byAddress.get(address));
+            }
+         }
+         List<Sha256Hash> limited = new ArrayList<Sha256Hash>(txIds).subList(0, Math.min(txIds.size(), request.limit));
+         return new WapiResponse<QueryTransactionInventoryResponse>(new QueryTransactionInventoryResponse(100,
+               new ArrayList<Sha256Hash>(limited)));
+      }
+
+      @Override
+      public WapiResponse<GetTransactionsResponse> getTransactions(GetTransactionsRequest request) {
+         _getTransactionsCalls++;
+         List<TransactionEx> transactions = new ArrayList<TransactionEx>();
+         for (Sha256Hash txId : request.txIds) {
+            transactions.add(_transactions.get(txId));
+         }
+         return new WapiResponse<GetTransactionsResponse>(new GetTransactionsResponse(transactions));
+      }
+
+      @Override
+      public WapiResponse<QueryUnspentOutputsResponse> queryUnspentOutputs(QueryUnspentOutputsRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<BroadcastTransactionResponse> broadcastTransaction(BroadcastTransactionRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<CheckTransactionsResponse> checkTransactions(CheckTransactionsRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<QueryExchangeRatesResponse> queryExchangeRates(QueryExchangeRatesRequest request) {
+         throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public WapiResponse<PingResponse> ping() {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   private InventoryWapi _server;
+   private List<Address> _addresses;
+   private Map<Address, Set<Sha256Hash>> _expected;
+
+   @Before
+   public void setUp() {
+      _server = new InventoryWapi();
+      _addresses = new ArrayList<Address>();
+      _expected = new HashMap<Address, Set<Sha256Hash>>();
+      Random random = new Random(42);
+      // More than two chunks worth of addresses
+      int count = 2 * BatchingWapi.MAX_ADDRESSES_PER_REQUEST + 50;
+      List<byte[]> publicKeys = new ArrayList<byte[]>();
+      for (int i = 0; i < count; i++) {
+         byte[] publicKey = new byte[33];
+         random.nextBytes(publicKey);
+         publicKeys.add(publicKey);
+         Address address = new PublicKey(publicKey).toAddress(NETWORK);
+         _addresses.add(address);
+         _expected.put(address, new HashSet<Sha256Hash>());
+      }
+      for (int i = 0; i < count; i++) {
+         // Pay to this and the next address, so transactions span the chunk boundaries, and every seventh
+         // transaction spends from an address in another chunk
+         Address to = _addresses.get(i);
+         Address next = _addresses.get((i + 1) % count);
+         List<Address> involved = new ArrayList<Address>(Arrays.asList(to, next));
+         TransactionInput[] inputs = new TransactionInput[1];
+         byte[] hash = new byte[32];
+         random.nextBytes(hash);
+         byte[] signature = createSignature(random);
+         byte[] publicKey = new byte[33];
+         random.nextBytes(publicKey);
+         if (i % 7 == 0) {
+            int from = (i + BatchingWapi.MAX_ADDRESSES_PER_REQUEST + 3) % count;
+            publicKey = publicKeys.get(from);
+            involved.add(_addresses.get(from));
+         }
+         inputs[0] = new TransactionInput(new OutPoint(new Sha256Hash(hash), 0),
+               new ScriptInputStandard(signature, publicKey));
+         TransactionOutput[] outputs = new TransactionOutput[]{
+               new TransactionOutput(1000 + i, new ScriptOutputStandard(to.getTypeSpecificBytes())),
+               new TransactionOutput(2000 + i, new ScriptOutputStandard(next.getTypeSpecificBytes()))};
+         Transaction t = new Transaction(1, inputs, outputs, 0);
+         _server.addTransaction(t, involved);
+         for (Address address : involved) {
+            _expected.get(address).add(t.getHash());
+         }
+      }
+   }
+
+   /**
+    * Create a random signature that looks DER encoded, so the input parses as a standard input
+    */
+   private static byte[] createSignature(Random random) {
+      byte[] signature = new byte[71];
+      random.nextBytes(signature);
+      signature[0] = 0x30;
+      signature[1] = 68;
+      signature[2] = 0x02;
+      signature[3] = 32;
+      signature[36] = 0x02;
+      signature[37] = 32;
+      signature[70] = 0x01;
+      return signature;
+   }
+
+   @Test
+   public void attributesInventoryToEachAddressAcrossChunks() throws WapiException {
+      BatchingWapi wapi = new BatchingWapi(_server, NETWORK);
+      wapi.prefetchTransactionInventory(_addresses);
+
+      // One inventory query per chunk, and the transactions in chunks
+      assertEquals(Arrays.asList(BatchingWapi.MAX_ADDRESSES_PER_REQUEST, BatchingWapi.MAX_ADDRESSES_PER_REQUEST, 50),
+            _server._inventoryRequestSizes);
+      int calls = _server.getCallCount();
+
+      for (Address address : _addresses) {
+         List<Sha256Hash> txIds = wapi.queryTransactionInventory(new QueryTransactionInventoryRequest(Wapi.VERSION,
+               Collections.singletonList(address), 30)).getResult().txIds;
+         assertEquals(address.toString(), _expected.get(address), new HashSet<Sha256Hash>(txIds));
+         Collection<TransactionEx> transactions = wapi.getTransactions(new GetTransactionsRequest(Wapi.VERSION, txIds))
+               .getResult().transactions;
+         assertEquals(txIds.size(), transactions.size());
+      }
+      // Everything was answered from the prefetched data
+      assertEquals(calls, _server.getCallCount());
+   }
+
+   @Test
+   public void passesOnQueriesNotCovered() throws WapiException {
+      BatchingWapi wapi = new BatchingWapi(_server, NETWORK);
+      wapi.prefetchTransactionInventory(_addresses.subList(0, 10));
+      int calls = _server.getCallCount();
+
+      // Partly covered
+      List<Address> addresses = _addresses.subList(5, 15);
+      Set<Sha256Hash> expected = new HashSet<Sha256Hash>();
+      for (Address address : addresses) {
+         expected.addAll(_expected.get(address));
+      }
+      List<Sha256Hash> txIds = wapi.queryTransactionInventory(new QueryTransactionInventoryRequest(Wapi.VERSION,
+            addresses, Wapi.MAX_TRANSACTION_INVENTORY_LIMIT)).getResult().txIds;
+      assertEquals(expected, new HashSet<Sha256Hash>(txIds));
+      assertEquals(calls + 1, _server.getCallCount());
+
+      // More transactions than the limit of the request
+      wapi.queryTransactionInventory(new QueryTransactionInventoryRequest(Wapi.VERSION, _addresses.subList(0, 10), 2));
+      assertEquals(calls + 2, _server.getCallCount());
+   }
+
+   @Test
+   public void cachesNothingForTruncatedInventory() throws WapiException {
+      // Pile up more transactions on one address than the server returns
+      Random random = new Random(1);
+      Address busy = _addresses.get(0);
+      for (int i = 0; i < Wapi.MAX_TRANSACTION_INVENTORY_LIMIT; i++) {
+         byte[] hash = new byte[32];
+         random.nextBytes(hash);
+         TransactionInput[] inputs = new TransactionInput[]{new TransactionInput(
+               new OutPoint(new Sha256Hash(hash), 0), new ScriptInputStandard(createSignature(random), new byte[33]))};
+         TransactionOutput[] outputs = new TransactionOutput[]{
+               new TransactionOutput(1000, new ScriptOutputStandard(busy.getTypeSpecificBytes()))};
+         _server.addTransaction(new Transaction(1, inputs, outputs, 0), Collections.singletonList(busy));
+      }
+      BatchingWapi wapi = new BatchingWapi(_server, NETWORK);
+      wapi.prefetchTransactionInventory(_addresses);
+      int calls = _server.getCallCount();
+
+      wapi.queryTransactionInventory(new QueryTransactionInventoryRequest(Wapi.VERSION, _addresses.subList(300, 301),
+            30));
+      assertEquals(calls + 1, _server.getCallCount());
+   }
+
+}
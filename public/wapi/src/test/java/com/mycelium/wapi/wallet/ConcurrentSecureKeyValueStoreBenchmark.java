@@ -0,0 +1,79 @@
+package com.mycelium.wapi.wallet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.mrd.bitlib.crypto.RandomSource;
+
+/**
+ * Measures the read throughput of the locking and the concurrent secure key
+ * value store with several reader threads, each reading a plaintext and an
+ * encrypted value per operation
+ */
+public class ConcurrentSecureKeyValueStoreBenchmark {
+
+   private static final int IDS = 64;
+   private static final int OPERATIONS = 20000;
+
+   public static void main(String[] args) throws Exception {
+      RandomSource randomSource = new RandomSource() {
+         private final Random _random = new Random(42);
+
+         @Override
+         public synchronized void nextBytes(byte[] bytes) {
+            _random.nextBytes(bytes);
+         }
+      };
+      SecureKeyValueStore locking = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), randomSource);
+      SecureKeyValueStore concurrent = new ConcurrentSecureKeyValueStore(new InMemoryWalletManagerBacking(),
+            randomSource);
+      for (SecureKeyValueStore store : new SecureKeyValueStore[]{locking, concurrent}) {
+         for (int i = 0; i < IDS; i++) {
+            // The size of a serialized HD key node
+            store.encryptAndStoreValue(new byte[]{(byte) i}, new byte[78], AesKeyCipher.defaultKeyCipher());
+            store.storePlaintextValue(new byte[]{(byte) i}, new byte[78]);
+         }
+      }
+
+      for (int round = 0; round < 2; round++) {
+         for (int threads : new int[]{1, 2, 4, 8}) {
+            run("locking", locking, threads);
+            run("concurrent", concurrent, threads);
+         }
+      }
+   }
+
+   private static void run(String name, final SecureKeyValueStore store, int threads) throws Exception {
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+         List<Future<Void>> futures = new ArrayList<Future<Void>>();
+         long start = System.nanoTime();
+         for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+               @Override
+               public Void call() throws Exception {
+                  for (int i = 0; i < OPERATIONS; i++) {
+                     byte[] id = new byte[]{(byte) (i % IDS)};
+                     store.getPlaintextValue(id);
+                     store.getEncryptedValue(id, AesKeyCipher.defaultKeyCipher());
+                  }
+                  return null;
+               }
+            }));
+         }
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.println(String.format("%-12s %d threads %10.0f operations per second", name, threads,
+               threads * OPERATIONS / seconds));
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+}
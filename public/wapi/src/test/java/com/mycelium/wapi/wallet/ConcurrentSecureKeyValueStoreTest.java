@@ -0,0 +1,238 @@
+package com.mycelium.wapi.wallet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.mrd.bitlib.crypto.RandomSource;
+import com.mrd.bitlib.util.HexUtils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentSecureKeyValueStoreTest {
+
+   @Rule
+   public TemporaryFolder _folder = new TemporaryFolder();
+
+   private static final byte[] ID_1 = HexUtils.toBytes("000102030405060708090a0b0c0d0e0f");
+   private static final byte[] VALUE_1 = HexUtils.toBytes("0123456789abcdef");
+   private static final byte[] VALUE_2 = HexUtils.toBytes("fedcba9876543210");
+
+   private static final RandomSource RANDOM_SOURCE = new RandomSource() {
+      private final Random _random = new Random(42);
+
+      @Override
+      public synchronized void nextBytes(byte[] bytes) {
+         _random.nextBytes(bytes);
+      }
+   };
+
+   /**
+    * Counts how often the key encryption key gets decrypted
+    */
+   private static class CountingKeyCipher implements KeyCipher {
+      private final KeyCipher _cipher = AesKeyCipher.defaultKeyCipher();
+      private final AtomicInteger _decryptions = new AtomicInteger();
+
+      @Override
+      public long getThumbprint() {
+         return _cipher.getThumbprint();
+      }
+
+      @Override
+      public byte[] decrypt(byte[] data) throws InvalidKeyCipher {
+         _decryptions.incrementAndGet();
+         return _cipher.decrypt(data);
+      }
+
+      @Override
+      public byte[] encrypt(byte[] data) {
+         return _cipher.encrypt(data);
+      }
+   }
+
+   @Test
+   public void testPlaintextValues() {
+      ConcurrentSecureKeyValueStore store = new ConcurrentSecureKeyValueStore(new InMemoryWalletManagerBacking(),
+            RANDOM_SOURCE);
+      assertNull(store.getPlaintextValue(ID_1));
+      store.storePlaintextValue(ID_1, VALUE_1);
+      assertArrayEquals(VALUE_1, store.getPlaintextValue(ID_1));
+
+      // Callers cannot change the cached value
+      store.getPlaintextValue(ID_1)[0]++;
+      assertArrayEquals(VALUE_1, store.getPlaintextValue(ID_1));
+
+      store.storePlaintextValue(ID_1, VALUE_2);
+      assertArrayEquals(VALUE_2, store.getPlaintextValue(ID_1));
+      store.deletePlaintextValue(ID_1);
+      assertNull(store.getPlaintextValue(ID_1));
+   }
+
+   @Test
+   public void testRolledBackValuesAreNotCached() {
+      FileWalletManagerBacking backing = new FileWalletManagerBacking(_folder.newFolder("wallet"), false);
+      try {
+         ConcurrentSecureKeyValueStore store = new ConcurrentSecureKeyValueStore(backing, RANDOM_SOURCE);
+         store.storePlaintextValue(ID_1, VALUE_1);
+         assertArrayEquals(VALUE_1, store.getPlaintextValue(ID_1));
+
+         // Not marked successful
+         store.beginTransaction();
+         try {
+            store.storePlaintextValue(ID_1, VALUE_2);
+            assertArrayEquals(VALUE_2, store.getPlaintextValue(ID_1));
+         } finally {
+            store.endTransaction();
+         }
+         assertArrayEquals(VALUE_1, store.getPlaintextValue(ID_1));
+      } finally {
+         backing.close();
+      }
+   }
+
+   @Test
+   public void testKeyEncryptionKeyIsCached() throws KeyCipher.InvalidKeyCipher, InterruptedException {
+      ConcurrentSecureKeyValueStore store = new ConcurrentSecureKeyValueStore(new InMemoryWalletManagerBacking(),
+            RANDOM_SOURCE, 50);
+      CountingKeyCipher cipher = new CountingKeyCipher();
+      store.encryptAndStoreValue(ID_1, VALUE_1, cipher);
+      int decryptions = cipher._decryptions.get();
+      for (int i = 0; i < 10; i++) {
+         assertArrayEquals(VALUE_1, store.getEncryptedValue(ID_1, cipher));
+      }
+      assertEquals(decryptions + 1, cipher._decryptions.get());
+
+      // Expired
+      Thread.sleep(100);
+      assertArrayEquals(VALUE_1, store.getEncryptedValue(ID_1, cipher));
+      assertEquals(decryptions + 2, cipher._decryptions.get());
+
+      store.clearCache();
+      assertArrayEquals(VALUE_1, store.getEncryptedValues(Arrays.asList(ID_1), cipher).get(0));
+      assertEquals(decryptions + 3, cipher._decryptions.get());
+   }
+
+   @Test
+   public void testExpiredKeyEncryptionKeyIsWipedWithoutUse() throws KeyCipher.InvalidKeyCipher,
+         InterruptedException {
+      ConcurrentSecureKeyValueStore store = new ConcurrentSecureKeyValueStore(new InMemoryWalletManagerBacking(),
+            RANDOM_SOURCE, 50);
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      store.encryptAndStoreValue(ID_1, VALUE_1, cipher);
+      assertArrayEquals(VALUE_1, store.getEncryptedValue(ID_1, cipher));
+      assertEquals(1, store.getCachedKeyCount());
+
+      // Nothing touches the store anymore
+      for (int i = 0; i < 100 && store.getCachedKeyCount() > 0; i++) {
+         Thread.sleep(20);
+      }
+      assertEquals(0, store.getCachedKeyCount());
+   }
+
+   @Test
+   public void testEqualAesKeyCiphersShareCache() throws KeyCipher.InvalidKeyCipher {
+      ConcurrentSecureKeyValueStore store = new ConcurrentSecureKeyValueStore(new InMemoryWalletManagerBacking(),
+            RANDOM_SOURCE);
+      store.encryptAndStoreValue(ID_1, VALUE_1, AesKeyCipher.defaultKeyCipher());
+      assertArrayEquals(VALUE_1, store.getEncryptedValue(ID_1, AesKeyCipher.defaultKeyCipher()));
+      assertFalse(store.isValidEncryptionKey(new AesKeyCipher("password")));
+      try {
+         store.getEncryptedValue(ID_1, new AesKeyCipher("password"));
+         fail();
+      } catch (KeyCipher.InvalidKeyCipher e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testReplaceEncryptionKey() throws KeyCipher.InvalidKeyCipher {
+      ConcurrentSecureKeyValueStore store = new ConcurrentSecureKeyValueStore(new InMemoryWalletManagerBacking(),
+            RANDOM_SOURCE);
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      KeyCipher newCipher = new AesKeyCipher("new password");
+      store.encryptAndStoreValue(ID_1, VALUE_1, cipher);
+      assertArrayEquals(VALUE_1, store.getEncryptedValue(ID_1, cipher));
+      store.replaceEncryptionKey(cipher, newCipher);
+
+      // The cached key encryption key of the old cipher is gone
+      assertFalse(store.isValidEncryptionKey(cipher));
+      try {
+         store.getEncryptedValue(ID_1, cipher);
+         fail();
+      } catch (KeyCipher.InvalidKeyCipher e) {
+         // expected
+      }
+      assertArrayEquals(VALUE_1, store.getEncryptedValue(ID_1, newCipher));
+   }
+
+   @Test
+   public void testConcurrentReadsAndWrites() throws Exception {
+      final ConcurrentSecureKeyValueStore store = new ConcurrentSecureKeyValueStore(new InMemoryWalletManagerBacking(),
+            RANDOM_SOURCE, 1);
+      final KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      final int ids = 16;
+      for (int i = 0; i < ids; i++) {
+         store.encryptAndStoreValue(new byte[]{(byte) i}, new byte[]{(byte) i}, cipher);
+         store.storePlaintextValue(new byte[]{(byte) i}, new byte[]{(byte) i, 0});
+      }
+      ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+         List<Future<Void>> futures = new ArrayList<Future<Void>>();
+         for (int t = 0; t < 3; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+               @Override
+               public Void call() throws Exception {
+                  for (int i = 0; i < 2000; i++) {
+                     byte[] id = new byte[]{(byte) (i % ids)};
+                     assertArrayEquals(id, store.getEncryptedValue(id, cipher));
+                     byte[] plaintext = store.getPlaintextValue(id);
+                     assertEquals(id[0], plaintext[0]);
+                  }
+                  return null;
+               }
+            }));
+         }
+         futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+               for (int i = 0; i < 2000; i++) {
+                  byte[] id = new byte[]{(byte) (i % ids)};
+                  store.storePlaintextValue(id, new byte[]{id[0], (byte) i});
+                  if (i % 100 == 0) {
+                     store.clearCache();
+                  }
+               }
+               return null;
+            }
+         }));
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+      } finally {
+         executor.shutdownNow();
+      }
+
+      // Every plaintext value reads as last written
+      for (int i = 0; i < ids; i++) {
+         byte[] expected = new byte[]{(byte) i, (byte) (2000 - ids + i)};
+         assertArrayEquals(expected, store.getPlaintextValue(new byte[]{(byte) i}));
+      }
+      assertTrue(store.isValidEncryptionKey(cipher));
+   }
+}
@@ -0,0 +1,87 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.wallet.bip44.Bip44AccountContext;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Measures how long it takes to open a file backed wallet with 100k transactions, once from the log and once
+ * from a snapshot, and how long a page of the history takes to read afterwards
+ */
+public class FileWalletManagerBackingBenchmark {
+
+   private static final int TRANSACTIONS = 100000;
+   private static final int TRANSACTIONS_PER_BATCH = 1000;
+   private static final int RUNS = 5;
+
+   public static void main(String[] args) throws Exception {
+      File directory = File.createTempFile("wallet", "");
+      directory.delete();
+      try {
+         FileWalletManagerBacking backing = new FileWalletManagerBacking(directory, false);
+         UUID id = UUID.randomUUID();
+         backing.createBip44AccountContext(new Bip44AccountContext(id, 0, false));
+         Bip44AccountBacking account = backing.getBip44AccountBacking(id);
+         Random random = new Random(42);
+         long start = System.nanoTime();
+         for (int i = 0; i < TRANSACTIONS; i += TRANSACTIONS_PER_BATCH) {
+            account.beginTransaction();
+            for (int j = 0; j < TRANSACTIONS_PER_BATCH; j++) {
+               byte[] txid = new byte[32];
+               random.nextBytes(txid);
+               // The size of a typical transaction
+               byte[] binary = new byte[250];
+               random.nextBytes(binary);
+               account.putTransaction(new TransactionEx(new Sha256Hash(txid), i / 10 + j / 100, 1400000000 + i, binary));
+               account.putParentTransactionOutput(new TransactionOutputEx(new OutPoint(new Sha256Hash(txid), 0),
+                     i / 10, 1000, new byte[25], false));
+            }
+            account.setTransactionSuccessful();
+            account.endTransaction();
+         }
+         System.out.println(String.format("Writing %d transactions: %d ms", TRANSACTIONS,
+               (System.nanoTime() - start) / 1000000));
+         backing.close();
+         // The log was compacted on the way, measure both
+         System.out.println("Files: " + Arrays.toString(directory.list()));
+         measure(directory, "snapshot and log");
+         backing = new FileWalletManagerBacking(directory, false);
+         backing.compact();
+         backing.close();
+         measure(directory, "snapshot only");
+      } finally {
+         for (File file : directory.listFiles()) {
+            file.delete();
+         }
+         directory.delete();
+      }
+   }
+
+   private static void measure(File directory, String what) {
+      long best = Long.MAX_VALUE;
+      long page = Long.MAX_VALUE;
+      for (int run = 0; run < RUNS; run++) {
+         long start = System.nanoTime();
+         FileWalletManagerBacking backing = new FileWalletManagerBacking(directory, false);
+         best = Math.min(best, System.nanoTime() - start);
+         UUID id = backing.loadBip44AccountContexts().get(0).getId();
+         start = System.nanoTime();
+         List<TransactionEx> history = backing.getBip44AccountBacking(id).getTransactionHistory(50000, 20);
+         page = Math.min(page, System.nanoTime() - start);
+         if (history.size() != 20) {
+            throw new IllegalStateException();
+         }
+         backing.close();
+      }
+      System.out.println(String.format("Opening from %s: %d ms, reading a history page: %d us", what,
+            best / 1000000, page / 1000));
+   }
+}
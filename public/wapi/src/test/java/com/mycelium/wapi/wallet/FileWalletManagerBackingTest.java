@@ -0,0 +1,309 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.wallet.bip44.Bip44AccountContext;
+import com.mycelium.wapi.wallet.single.SingleAddressAccountContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FileWalletManagerBackingTest {
+
+   @Rule
+   public TemporaryFolder _folder = new TemporaryFolder();
+
+   private File _directory;
+   private FileWalletManagerBacking _backing;
+   private UUID _bip44Id;
+   private UUID _singleId;
+
+   @Before
+   public void setUp() {
+      _directory = _folder.newFolder("wallet");
+      _backing = new FileWalletManagerBacking(_directory, false);
+      _bip44Id = UUID.randomUUID();
+      _singleId = UUID.randomUUID();
+      _backing.createBip44AccountContext(new Bip44AccountContext(_bip44Id, 0, false, 100, 5, 3, 2, 0));
+      _backing.createSingleAddressAccountContext(new SingleAddressAccountContext(_singleId,
+            WalletManagerSynchronizationTest.createAddress(1), false, 200));
+   }
+
+   @After
+   public void tearDown() {
+      _backing.close();
+   }
+
+   private void reopen() {
+      _backing.close();
+      _backing = new FileWalletManagerBacking(_directory, false);
+   }
+
+   /**
+    * Fill the backing under test and an in-memory backing with the same changes
+    */
+   private void fill(Random random, AccountBacking expected, int count) {
+      AccountBacking actual = _backing.getBip44AccountBacking(_bip44Id);
+      List<TransactionEx> transactions = new ArrayList<TransactionEx>();
+      for (int i = 0; i < count; i++) {
+         TransactionEx tex = AccountBackingFixtures.createTransaction(random);
+         transactions.add(tex);
+         actual.putTransaction(tex);
+         expected.putTransaction(tex);
+         TransactionOutputEx output = AccountBackingFixtures.createOutput(random);
+         actual.putUnspentOutput(output);
+         expected.putUnspentOutput(output);
+         output = AccountBackingFixtures.createOutput(random);
+         actual.putParentTransactionOutput(output);
+         expected.putParentTransactionOutput(output);
+      }
+      for (int i = 0; i < count / 10; i++) {
+         TransactionEx tex = transactions.get(random.nextInt(transactions.size()));
+         actual.deleteTransaction(tex.txid);
+         expected.deleteTransaction(tex.txid);
+         tex = transactions.get(random.nextInt(transactions.size()));
+         // Confirm or reorg
+         TransactionEx moved = new TransactionEx(tex.txid, random.nextInt(500), tex.time, tex.binary);
+         actual.putTransaction(moved);
+         expected.putTransaction(moved);
+      }
+      actual.putOutgoingTransaction(transactions.get(0).txid, transactions.get(0).binary);
+      expected.putOutgoingTransaction(transactions.get(0).txid, transactions.get(0).binary);
+   }
+
+   private void assertSameContent(AccountBacking expected) {
+      AccountBacking actual = _backing.getBip44AccountBacking(_bip44Id);
+      List<TransactionEx> expectedHistory = expected.getTransactionHistory(0, Integer.MAX_VALUE);
+      List<TransactionEx> actualHistory = actual.getTransactionHistory(0, Integer.MAX_VALUE);
+      assertEquals(expectedHistory.size(), actualHistory.size());
+      for (int i = 0; i < expectedHistory.size(); i++) {
+         TransactionEx e = expectedHistory.get(i);
+         TransactionEx a = actualHistory.get(i);
+         assertEquals(e.txid, a.txid);
+         assertEquals(e.height, a.height);
+         assertEquals(e.time, a.time);
+         assertArrayEquals(e.binary, a.binary);
+         assertTrue(actual.hasTransaction(e.txid));
+      }
+      assertEquals(ids(expected.getUnconfirmedTransactions()), ids(actual.getUnconfirmedTransactions()));
+      assertEquals(ids(expected.getYoungTransactions(10, 500)), ids(actual.getYoungTransactions(10, 500)));
+      assertEquals(new HashSet<TransactionOutputEx>(expected.getAllUnspentOutputs()),
+            new HashSet<TransactionOutputEx>(actual.getAllUnspentOutputs()));
+      for (TransactionOutputEx output : expected.getAllUnspentOutputs()) {
+         TransactionOutputEx stored = actual.getUnspentOutput(output.outPoint);
+         assertEquals(output.value, stored.value);
+         assertEquals(output.height, stored.height);
+         assertEquals(output.isCoinBase, stored.isCoinBase);
+         assertArrayEquals(output.script, stored.script);
+      }
+      assertEquals(expected.getOutgoingTransactions().size(), actual.getOutgoingTransactions().size());
+      assertArrayEquals(expected.getOutgoingTransactions().get(0), actual.getOutgoingTransactions().get(0));
+   }
+
+   private static Set<Sha256Hash> ids(Collection<TransactionEx> transactions) {
+      Set<Sha256Hash> ids = new HashSet<Sha256Hash>();
+      for (TransactionEx tex : transactions) {
+         ids.add(tex.txid);
+      }
+      return ids;
+   }
+
+   @Test
+   public void stateSurvivesReopen() {
+      Random random = new Random(42);
+      AccountBacking expected = AccountBackingFixtures.createAccountBacking();
+      fill(random, expected, 500);
+      _backing.setValue(new byte[]{1, 2}, new byte[]{3, 4});
+      _backing.setValue(new byte[]{5}, new byte[]{6});
+      _backing.deleteValue(new byte[]{5});
+      Bip44AccountContext context = _backing.loadBip44AccountContexts().get(0);
+      context.setLastExternalIndexWithActivity(17);
+      _backing.getBip44AccountBacking(_bip44Id).updateAccountContext(context);
+      assertSameContent(expected);
+
+      reopen();
+      assertSameContent(expected);
+      assertArrayEquals(new byte[]{3, 4}, _backing.getValue(new byte[]{1, 2}));
+      assertNull(_backing.getValue(new byte[]{5}));
+      assertEquals(17, _backing.loadBip44AccountContexts().get(0).getLastExternalIndexWithActivity());
+      assertEquals(200, _backing.loadSingleAddressAccountContexts().get(0).getBlockHeight());
+
+      // Once more from a snapshot
+      _backing.compact();
+      assertSameContent(expected);
+      reopen();
+      assertSameContent(expected);
+      assertArrayEquals(new byte[]{3, 4}, _backing.getValue(new byte[]{1, 2}));
+      assertEquals(17, _backing.loadBip44AccountContexts().get(0).getLastExternalIndexWithActivity());
+      assertEquals(3, _directory.list().length);
+
+      // And from a snapshot with a log on top
+      fill(random, expected, 100);
+      reopen();
+      assertSameContent(expected);
+   }
+
+   @Test
+   public void deletedAccountIsGone() {
+      _backing.getSingleAddressAccountBacking(_singleId).putTransaction(AccountBackingFixtures.createTransaction(new Random(42)));
+      _backing.deleteSingleAddressAccountContext(_singleId);
+      reopen();
+      assertTrue(_backing.loadSingleAddressAccountContexts().isEmpty());
+      assertEquals(1, _backing.loadBip44AccountContexts().size());
+   }
+
+   @Test
+   public void partiallyWrittenFrameIsDropped() throws IOException {
+      Random random = new Random(42);
+      TransactionEx first = AccountBackingFixtures.createTransaction(random);
+      TransactionEx second = AccountBackingFixtures.createTransaction(random);
+      AccountBacking account = _backing.getBip44AccountBacking(_bip44Id);
+      account.putTransaction(first);
+      account.putTransaction(second);
+      _backing.close();
+
+      // Cut off the end of the last frame as if the process died while writing it
+      RandomAccessFile log = new RandomAccessFile(new File(_directory, "log.0"), "rw");
+      log.setLength(log.length() - 10);
+      log.close();
+
+      _backing = new FileWalletManagerBacking(_directory, false);
+      account = _backing.getBip44AccountBacking(_bip44Id);
+      assertNotNull(account.getTransaction(first.txid));
+      assertNull(account.getTransaction(second.txid));
+
+      // Writing goes on after the last intact frame
+      account.putTransaction(second);
+      reopen();
+      account = _backing.getBip44AccountBacking(_bip44Id);
+      assertNotNull(account.getTransaction(first.txid));
+      assertNotNull(account.getTransaction(second.txid));
+   }
+
+   @Test
+   public void damagedFrameFailsOpening() throws IOException {
+      Random random = new Random(42);
+      AccountBacking account = _backing.getBip44AccountBacking(_bip44Id);
+      account.putTransaction(AccountBackingFixtures.createTransaction(random));
+      account.putTransaction(AccountBackingFixtures.createTransaction(random));
+      _backing.close();
+
+      // Damage the payload of the first frame, the frames after it were committed and must not be dropped
+      File logFile = new File(_directory, "log.0");
+      long length = logFile.length();
+      flipByte(logFile, 9);
+      try {
+         _backing = new FileWalletManagerBacking(_directory, false);
+         fail();
+      } catch (RuntimeException e) {
+         // expected
+      }
+      assertEquals(length, logFile.length());
+      // Restore it so that tearDown has something to close
+      flipByte(logFile, 9);
+      _backing = new FileWalletManagerBacking(_directory, false);
+   }
+
+   @Test
+   public void damagedSnapshotFailsOpening() throws IOException {
+      fill(new Random(42), AccountBackingFixtures.createAccountBacking(), 100);
+      _backing.compact();
+      _backing.close();
+
+      // The log of the generation exists, so the snapshot was complete once and must not be skipped
+      File snapshotFile = new File(_directory, "snapshot.1");
+      flipByte(snapshotFile, 9);
+      try {
+         _backing = new FileWalletManagerBacking(_directory, false);
+         fail();
+      } catch (RuntimeException e) {
+         // expected
+      }
+      assertTrue(snapshotFile.exists());
+      flipByte(snapshotFile, 9);
+      _backing = new FileWalletManagerBacking(_directory, false);
+   }
+
+   private static void flipByte(File file, long position) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, "rw");
+      try {
+         raf.seek(position);
+         int b = raf.read();
+         raf.seek(position);
+         raf.write(b ^ 0xFF);
+      } finally {
+         raf.close();
+      }
+   }
+
+   @Test
+   public void failedTransactionIsRolledBack() {
+      Random random = new Random(42);
+      TransactionEx kept = AccountBackingFixtures.createTransaction(random);
+      TransactionEx dropped = AccountBackingFixtures.createTransaction(random);
+      AccountBacking account = _backing.getBip44AccountBacking(_bip44Id);
+
+      account.beginTransaction();
+      account.putTransaction(kept);
+      account.setTransactionSuccessful();
+      account.endTransaction();
+
+      account.beginTransaction();
+      account.putTransaction(dropped);
+      account.deleteTransaction(kept.txid);
+      assertNotNull(account.getTransaction(dropped.txid));
+      account.endTransaction();
+
+      assertNotNull(account.getTransaction(kept.txid));
+      assertNull(account.getTransaction(dropped.txid));
+      reopen();
+      account = _backing.getBip44AccountBacking(_bip44Id);
+      assertNotNull(account.getTransaction(kept.txid));
+      assertNull(account.getTransaction(dropped.txid));
+   }
+
+   @Test
+   public void incompleteSnapshotIsIgnored() throws IOException {
+      Random random = new Random(42);
+      AccountBacking expected = AccountBackingFixtures.createAccountBacking();
+      fill(random, expected, 100);
+      _backing.compact();
+      fill(random, expected, 100);
+      _backing.close();
+
+      // Pretend that the process died while writing the snapshot of the next generation
+      copy(new File(_directory, "blobs.1"), new File(_directory, "blobs.2"));
+      copy(new File(_directory, "snapshot.1"), new File(_directory, "snapshot.2"));
+      RandomAccessFile snapshot = new RandomAccessFile(new File(_directory, "snapshot.2"), "rw");
+      snapshot.setLength(snapshot.length() - 1);
+      snapshot.close();
+
+      _backing = new FileWalletManagerBacking(_directory, false);
+      assertSameContent(expected);
+      assertFalse(new File(_directory, "snapshot.2").exists());
+      assertFalse(new File(_directory, "blobs.2").exists());
+   }
+
+   private static void copy(File from, File to) throws IOException {
+      RandomAccessFile in = new RandomAccessFile(from, "r");
+      RandomAccessFile out = new RandomAccessFile(to, "rw");
+      try {
+         byte[] bytes = new byte[(int) in.length()];
+         in.readFully(bytes);
+         out.write(bytes);
+      } finally {
+         in.close();
+         out.close();
+      }
+   }
+}
@@ -0,0 +1,54 @@
+package com.mycelium.wapi.wallet;
+
+import com.mycelium.wapi.model.TransactionEx;
+
+import java.util.Random;
+
+/**
+ * Measures transaction history paging and the unconfirmed and young transaction queries of the in-memory account
+ * backing for growing transaction histories.
+ */
+public class InMemoryBackingHistoryBenchmark {
+
+   private static final int[] HISTORY_SIZES = {10000, 25000, 50000, 100000};
+   private static final int PAGE_SIZE = 20;
+   private static final int ITERATIONS = 2000;
+
+   public static void main(String[] args) {
+      System.out.println("transactions\tinsert(us/tx)\tpage(us)\tunconfirmed(us)\tyoung(us)");
+      for (int size : HISTORY_SIZES) {
+         Random random = new Random(size);
+         AccountBacking backing = AccountBackingFixtures.createAccountBacking();
+         long start = System.nanoTime();
+         for (int i = 0; i < size; i++) {
+            backing.putTransaction(AccountBackingFixtures.createTransaction(random, size));
+         }
+         double insertUs = (System.nanoTime() - start) / 1000.0 / size;
+
+         // Warm up and measure paging through the first pages, as the wallet UI does
+         long sink = 0;
+         start = System.nanoTime();
+         for (int i = 0; i < ITERATIONS; i++) {
+            for (TransactionEx tex : backing.getTransactionHistory((i % 50) * PAGE_SIZE, PAGE_SIZE)) {
+               sink += tex.height;
+            }
+         }
+         double pageUs = (System.nanoTime() - start) / 1000.0 / ITERATIONS;
+
+         start = System.nanoTime();
+         for (int i = 0; i < ITERATIONS; i++) {
+            sink += backing.getUnconfirmedTransactions().size();
+         }
+         double unconfirmedUs = (System.nanoTime() - start) / 1000.0 / ITERATIONS;
+
+         start = System.nanoTime();
+         for (int i = 0; i < ITERATIONS; i++) {
+            sink += backing.getYoungTransactions(5, size).size();
+         }
+         double youngUs = (System.nanoTime() - start) / 1000.0 / ITERATIONS;
+
+         System.out.println(String.format("%d\t%.2f\t%.2f\t%.2f\t%.2f\t(%d)", size, insertUs, pageUs, unconfirmedUs,
+               youngUs, sink % 10));
+      }
+   }
+}
@@ -0,0 +1,66 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.model.TransactionEx;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+public class InMemoryWalletManagerBackingTest {
+
+   @Test
+   public void indexMatchesFullScan() {
+      Random random = new Random(42);
+      AccountBacking backing = AccountBackingFixtures.createAccountBacking();
+      Map<Sha256Hash, TransactionEx> all = new HashMap<Sha256Hash, TransactionEx>();
+      List<Sha256Hash> ids = new ArrayList<Sha256Hash>();
+      for (int i = 0; i < 2000; i++) {
+         int action = random.nextInt(10);
+         if (action == 0 && !ids.isEmpty()) {
+            // Delete
+            Sha256Hash id = ids.remove(random.nextInt(ids.size()));
+            all.remove(id);
+            backing.deleteTransaction(id);
+         } else if (action == 1 && !ids.isEmpty()) {
+            // Confirm or reorg an existing transaction
+            TransactionEx old = all.get(ids.get(random.nextInt(ids.size())));
+            TransactionEx tex = new TransactionEx(old.txid, random.nextInt(500), old.time, old.binary);
+            all.put(tex.txid, tex);
+            backing.putTransaction(tex);
+         } else {
+            TransactionEx tex = AccountBackingFixtures.createTransaction(random, 500);
+            all.put(tex.txid, tex);
+            ids.add(tex.txid);
+            backing.putTransaction(tex);
+         }
+      }
+
+      List<TransactionEx> sorted = new ArrayList<TransactionEx>(all.values());
+      Collections.sort(sorted);
+      List<TransactionEx> history = backing.getTransactionHistory(0, Integer.MAX_VALUE);
+      assertEquals(sorted.size(), history.size());
+      for (int i = 0; i < sorted.size(); i++) {
+         // Transactions with same height and time may come in any order
+         assertEquals(0, sorted.get(i).compareTo(history.get(i)));
+      }
+      assertEquals(history.subList(100, 150), backing.getTransactionHistory(100, 50));
+      assertEquals(history.subList(history.size() - 3, history.size()), backing.getTransactionHistory(history.size() - 3, 50));
+      assertEquals(0, backing.getTransactionHistory(history.size(), 50).size());
+
+      Set<TransactionEx> unconfirmed = new HashSet<TransactionEx>();
+      Set<TransactionEx> young = new HashSet<TransactionEx>();
+      for (TransactionEx tex : all.values()) {
+         if (tex.height == -1) {
+            unconfirmed.add(tex);
+         }
+         if (tex.calculateConfirmations(480) <= 5) {
+            young.add(tex);
+         }
+      }
+      assertEquals(unconfirmed, new HashSet<TransactionEx>(backing.getUnconfirmedTransactions()));
+      assertEquals(young, new HashSet<TransactionEx>(backing.getYoungTransactions(5, 480)));
+   }
+
+}
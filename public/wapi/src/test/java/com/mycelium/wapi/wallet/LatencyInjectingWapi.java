@@ -0,0 +1,160 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.OutPoint;
+import com.mrd.bitlib.model.ScriptOutputStandard;
+import com.mrd.bitlib.util.Sha256Hash;
+import com.mycelium.wapi.api.Wapi;
+import com.mycelium.wapi.api.WapiLogger;
+import com.mycelium.wapi.api.WapiResponse;
+import com.mycelium.wapi.api.request.*;
+import com.mycelium.wapi.api.response.*;
+import com.mycelium.wapi.model.ExchangeRate;
+import com.mycelium.wapi.model.TransactionEx;
+import com.mycelium.wapi.model.TransactionOutputEx;
+import com.mycelium.wapi.model.TransactionStatus;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fake Wapi implementation for accounts with confirmed unspent outputs only, that sleeps for a fixed amount of time on every call to simulate the
+ * round trip latency of a real server. Queries involving one of the failing addresses return an error.
+ */
+public class LatencyInjectingWapi implements Wapi {
+
+   private final long _latencyMs;
+   private final Set<Address> _failingAddresses;
+   private final AtomicInteger _calls;
+   private final Set<Address> _queriedAddresses;
+   private final Map<Address, TransactionOutputEx> _unspent;
+
+   public LatencyInjectingWapi(long latencyMs) {
+      _latencyMs = latencyMs;
+      _failingAddresses = new HashSet<Address>();
+      _calls = new AtomicInteger();
+      _queriedAddresses = new HashSet<Address>();
+      _unspent = new HashMap<Address, TransactionOutputEx>();
+   }
+
+   public synchronized void addUnspentOutput(Address address, long value) {
+      byte[] txid = new byte[32];
+      System.arraycopy(address.getTypeSpecificBytes(), 0, txid, 0, 20);
+      byte[] script = new ScriptOutputStandard(address.getTypeSpecificBytes()).getScriptBytes();
+      _unspent.put(address, new TransactionOutputEx(new OutPoint(new Sha256Hash(txid), 0), 1, value, script, false));
+   }
+
+   public synchronized void addFailingAddress(Address address) {
+      _failingAddresses.add(address);
+   }
+
+   public int getCallCount() {
+      return _calls.get();
+   }
+
+   public synchronized Set<Address> getQueriedAddresses() {
+      return new HashSet<Address>(_queriedAddresses);
+   }
+
+   private synchronized boolean isFailing(Collection<Address> addresses) {
+      for (Address address : addresses) {
+         if (_failingAddresses.contains(address)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private void simulateLatency() {
+      _calls.incrementAndGet();
+      try {
+         Thread.sleep(_latencyMs);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   @Override
+   public WapiLogger getLogger() {
+      return new WapiLogger() {
+         @Override
+         public void logError(String message, Exception e) {
+            System.err.println(message);
+         }
+
+         @Override
+         public void logError(String message) {
+            System.err.println(message);
+         }
+
+         @Override
+         public void logInfo(String message) {
+         }
+      };
+   }
+
+   @Override
+   public WapiResponse<QueryUnspentOutputsResponse> queryUnspentOutputs(QueryUnspentOutputsRequest request) {
+      simulateLatency();
+      synchronized (this) {
+         _queriedAddresses.addAll(request.addresses);
+      }
+      if (isFailing(request.addresses)) {
+         return new WapiResponse<QueryUnspentOutputsResponse>(ERROR_CODE_INTERNAL_SERVER_ERROR, null);
+      }
+      List<TransactionOutputEx> unspent = new ArrayList<TransactionOutputEx>();
+      synchronized (this) {
+         for (Address address : request.addresses) {
+            if (_unspent.containsKey(address)) {
+               unspent.add(_unspent.get(address));
+            }
+         }
+      }
+      QueryUnspentOutputsResponse response = new QueryUnspentOutputsResponse(0, unspent);
+      return new WapiResponse<QueryUnspentOutputsResponse>(response);
+   }
+
+   @Override
+   public WapiResponse<QueryTransactionInventoryResponse> queryTransactionInventory(QueryTransactionInventoryRequest request) {
+      simulateLatency();
+      if (isFailing(request.addresses)) {
+         return new WapiResponse<QueryTransactionInventoryResponse>(ERROR_CODE_INTERNAL_SERVER_ERROR, null);
+      }
+      QueryTransactionInventoryResponse response = new QueryTransactionInventoryResponse(0, new ArrayList<Sha256Hash>());
+      return new WapiResponse<QueryTransactionInventoryResponse>(response);
+   }
+
+   @Override
+   public WapiResponse<GetTransactionsResponse> getTransactions(GetTransactionsRequest request) {
+      simulateLatency();
+      GetTransactionsResponse response = new GetTransactionsResponse(new ArrayList<TransactionEx>());
+      return new WapiResponse<GetTransactionsResponse>(response);
+   }
+
+   @Override
+   public WapiResponse<BroadcastTransactionResponse> broadcastTransaction(BroadcastTransactionRequest request) {
+      simulateLatency();
+      BroadcastTransactionResponse response = new BroadcastTransactionResponse(true, Sha256Hash.ZERO_HASH);
+      return new WapiResponse<BroadcastTransactionResponse>(response);
+   }
+
+   @Override
+   public WapiResponse<CheckTransactionsResponse> checkTransactions(CheckTransactionsRequest request) {
+      simulateLatency();
+      CheckTransactionsResponse response = new CheckTransactionsResponse(new ArrayList<TransactionStatus>());
+      return new WapiResponse<CheckTransactionsResponse>(response);
+   }
+
+   @Override
+   public WapiResponse<QueryExchangeRatesResponse> queryExchangeRates(QueryExchangeRatesRequest request) {
+      simulateLatency();
+      QueryExchangeRatesResponse response = new QueryExchangeRatesResponse(request.currency, new ExchangeRate[]{});
+      return new WapiResponse<QueryExchangeRatesResponse>(response);
+   }
+
+   @Override
+   public WapiResponse<PingResponse> ping() {
+      simulateLatency();
+      return new WapiResponse<PingResponse>(new PingResponse("latency injecting fake"));
+   }
+}
@@ -6,13 +6,19 @@ import com.mrd.bitlib.util.HexUtils;
 import org.junit.Test;
 
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
 
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class SecureKeyValueStoreTest {
 
    private static final byte[] ID_1 = HexUtils.toBytes("000102030405060708090a0b0c0d0e0f");
    private static final byte[] VALUE_1 = HexUtils.toBytes("0123456789abcdef");
+   private static final byte[] ID_2 = HexUtils.toBytes("0f0e0d0c0b0a09080706050403020100");
+   private static final byte[] VALUE_2 = HexUtils.toBytes("fedcba9876543210");
+   private static final byte[] ID_3 = HexUtils.toBytes("00");
 
    private static class MyRandomSource implements RandomSource {
       SecureRandom _rnd;
@@ -45,4 +51,28 @@ public class SecureKeyValueStoreTest {
       assertTrue(BitUtils.areEqual(result, VALUE_1));
    }
 
+   @Test
+   public void storeAndRetrieveEncryptedInBulk() throws KeyCipher.InvalidKeyCipher {
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource());
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      store.encryptAndStoreValues(Arrays.asList(ID_1, ID_2), Arrays.asList(VALUE_1, VALUE_2), cipher);
+      assertTrue(BitUtils.areEqual(store.getEncryptedValue(ID_2, cipher), VALUE_2));
+      List<byte[]> result = store.getEncryptedValues(Arrays.asList(ID_2, ID_3, ID_1), cipher);
+      assertTrue(BitUtils.areEqual(result.get(0), VALUE_2));
+      assertNull(result.get(1));
+      assertTrue(BitUtils.areEqual(result.get(2), VALUE_1));
+   }
+
+   @Test
+   public void replaceEncryptionKey() throws KeyCipher.InvalidKeyCipher {
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new MyRandomSource());
+      KeyCipher cipher = AesKeyCipher.defaultKeyCipher();
+      KeyCipher newCipher = new AesKeyCipher("new password");
+      store.encryptAndStoreValue(ID_1, VALUE_1, cipher);
+      store.replaceEncryptionKey(cipher, newCipher);
+      assertTrue(store.isValidEncryptionKey(newCipher));
+      assertTrue(!store.isValidEncryptionKey(cipher));
+      assertTrue(BitUtils.areEqual(store.getEncryptedValue(ID_1, newCipher), VALUE_1));
+   }
+
 }
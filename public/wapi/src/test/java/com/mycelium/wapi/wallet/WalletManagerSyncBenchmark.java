@@ -0,0 +1,36 @@
+package com.mycelium.wapi.wallet;
+
+/**
+ * Measures the wall clock time of a full wallet synchronization against a Wapi with simulated round trip latency,
+ * for a growing number of accounts and different levels of synchronization parallelism.
+ * <p/>
+ * Usage: WalletManagerSyncBenchmark [latency ms]
+ */
+public class WalletManagerSyncBenchmark {
+
+   private static final int[] ACCOUNT_COUNTS = {1, 5, 10, 20, 40};
+   private static final int[] PARALLELISM = {1, 2, 4, 8, 16};
+
+   public static void main(String[] args) throws Exception {
+      long latencyMs = args.length > 0 ? Long.parseLong(args[0]) : 50;
+      System.out.println("Simulated Wapi latency: " + latencyMs + " ms");
+      System.out.print("accounts");
+      for (int parallelism : PARALLELISM) {
+         System.out.print("\tp=" + parallelism);
+      }
+      System.out.println();
+      for (int accounts : ACCOUNT_COUNTS) {
+         System.out.print(accounts);
+         for (int parallelism : PARALLELISM) {
+            LatencyInjectingWapi wapi = new LatencyInjectingWapi(latencyMs);
+            WalletManager walletManager = WalletManagerSynchronizationTest.createWalletManager(wapi, accounts);
+            walletManager.setSynchronizationParallelism(parallelism);
+            long start = System.nanoTime();
+            WalletManagerSynchronizationTest.synchronizeAndWait(walletManager);
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            System.out.print("\t" + elapsedMs + " ms");
+         }
+         System.out.println();
+      }
+   }
+}
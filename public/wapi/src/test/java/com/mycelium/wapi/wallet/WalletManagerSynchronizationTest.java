@@ -0,0 +1,134 @@
+package com.mycelium.wapi.wallet;
+
+import com.mrd.bitlib.crypto.RandomSource;
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import org.junit.Test;
+
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WalletManagerSynchronizationTest {
+
+   private static final NetworkParameters NETWORK = NetworkParameters.productionNetwork;
+
+   private static class MyRandomSource implements RandomSource {
+      SecureRandom _rnd = new SecureRandom(new byte[]{42});
+
+      @Override
+      public void nextBytes(byte[] bytes) {
+         _rnd.nextBytes(bytes);
+      }
+   }
+
+   /**
+    * Create a wallet manager with a number of read-only single address accounts
+    */
+   static WalletManager createWalletManager(LatencyInjectingWapi wapi, int accounts) {
+      WalletManagerBacking backing = new InMemoryWalletManagerBacking();
+      SecureKeyValueStore store = new SecureKeyValueStore(backing, new MyRandomSource());
+      WalletManager walletManager = new WalletManager(store, backing, NETWORK, wapi);
+      for (int i = 0; i < accounts; i++) {
+         walletManager.createSingleAddressAccount(createAddress(i));
+      }
+      return walletManager;
+   }
+
+   static Address createAddress(int index) {
+      byte[] hash = new byte[20];
+      hash[0] = (byte) (index >> 8);
+      hash[1] = (byte) index;
+      return Address.fromStandardBytes(hash, NETWORK);
+   }
+
+   /**
+    * Start synchronization and block until the wallet manager is ready again
+    */
+   static void synchronizeAndWait(WalletManager walletManager) throws InterruptedException {
+      final CountDownLatch done = new CountDownLatch(1);
+      WalletManager.Observer observer = new WalletManager.Observer() {
+         @Override
+         public void onWalletStateChanged(WalletManager wallet, WalletManager.State state) {
+            if (state == WalletManager.State.READY) {
+               done.countDown();
+            }
+         }
+
+         @Override
+         public void onAccountEvent(WalletManager wallet, UUID accountId, WalletManager.Event events) {
+         }
+      };
+      walletManager.addObserver(observer);
+      try {
+         walletManager.startSynchronization();
+         assertTrue(done.await(60, TimeUnit.SECONDS));
+      } finally {
+         walletManager.removeObserver(observer);
+      }
+   }
+
+   @Test(timeout = 60000)
+   public void failingAccountDoesNotAbortOthers() throws InterruptedException {
+      LatencyInjectingWapi wapi = new LatencyInjectingWapi(10);
+      Address failing = createAddress(0);
+      wapi.addFailingAddress(failing);
+      WalletManager walletManager = createWalletManager(wapi, 10);
+      walletManager.setSynchronizationParallelism(4);
+
+      final List<UUID> errors = Collections.synchronizedList(new ArrayList<UUID>());
+      walletManager.addObserver(new WalletManager.Observer() {
+         @Override
+         public void onWalletStateChanged(WalletManager wallet, WalletManager.State state) {
+         }
+
+         @Override
+         public void onAccountEvent(WalletManager wallet, UUID accountId, WalletManager.Event event) {
+            if (event == WalletManager.Event.SERVER_CONNECTION_ERROR) {
+               errors.add(accountId);
+            }
+         }
+      });
+
+      synchronizeAndWait(walletManager);
+
+      // Every account was synchronized, and only the failing one reported an error
+      assertEquals(10, wapi.getQueriedAddresses().size());
+      assertEquals(Collections.singletonList(walletManager.getAccountByAddress(failing).get()), errors);
+   }
+
+   @Test(timeout = 60000)
+   public void sequentialSynchronization() throws InterruptedException {
+      LatencyInjectingWapi wapi = new LatencyInjectingWapi(0);
+      WalletManager walletManager = createWalletManager(wapi, 5);
+      walletManager.setSynchronizationParallelism(1);
+      synchronizeAndWait(walletManager);
+      assertEquals(5, wapi.getQueriedAddresses().size());
+      assertEquals(WalletManager.State.READY, walletManager.getState());
+   }
+
+   @Test(timeout = 60000)
+   public void batchedSynchronization() throws InterruptedException {
+      LatencyInjectingWapi wapi = new LatencyInjectingWapi(0);
+      int accounts = BatchingWapi.MAX_ADDRESSES_PER_REQUEST + 10;
+      for (int i = 0; i < accounts; i++) {
+         wapi.addUnspentOutput(createAddress(i), 1000 + i);
+      }
+      WalletManager walletManager = createWalletManager(wapi, accounts);
+      walletManager.setBatchedSynchronization(true);
+      synchronizeAndWait(walletManager);
+
+      // One unspent output query and one transaction inventory query for each chunk of addresses, as the balance of
+      // every account changed. Each account still fetches the transaction of its new output
+      assertEquals(4 + accounts, wapi.getCallCount());
+      for (int i = 0; i < accounts; i++) {
+         UUID id = walletManager.getAccountByAddress(createAddress(i)).get();
+         assertEquals(1000 + i, walletManager.getAccount(id).getBalance().confirmed);
+      }
+   }
+
+}
@@ -0,0 +1,124 @@
+package com.mycelium.wapi.wallet.bip44;
+
+import com.mrd.bitlib.crypto.Bip39;
+import com.mrd.bitlib.crypto.HdKeyNode;
+import com.mrd.bitlib.crypto.RandomSource;
+import com.mrd.bitlib.model.Address;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mycelium.wapi.wallet.AesKeyCipher;
+import com.mycelium.wapi.wallet.InMemoryWalletManagerBacking;
+import com.mycelium.wapi.wallet.KeyCipher;
+import com.mycelium.wapi.wallet.SecureKeyValueStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Bip44AccountKeyManagerTest {
+
+   private static final String MASTER_SEED_WORDS = "degree rain vendor coffee push math onion inside pyramid blush stick treat";
+   private static final String MASTER_SEED_512_A0_R0_ADDRESS = "1F1QAzNLutBEuB4QZLXghqu6PdxEFdb2PV";
+   private static final String MASTER_SEED_512_A0_C0_ADDRESS = "1PGrHHNjVXBr8JJhg9zRQVFvmUSu9XsMeV";
+
+   private SecureKeyValueStore _store;
+   private HdKeyNode _root;
+
+   @Before
+   public void setUp() {
+      final Random random = new Random(42);
+      _store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new RandomSource() {
+         @Override
+         public void nextBytes(byte[] bytes) {
+            random.nextBytes(bytes);
+         }
+      });
+      Bip39.MasterSeed masterSeed = Bip39.generateSeedFromWordList(MASTER_SEED_WORDS.split(" "), "");
+      _root = HdKeyNode.fromSeed(masterSeed.getBip32Seed());
+   }
+
+   private Bip44AccountKeyManager createKeyManager() throws KeyCipher.InvalidKeyCipher {
+      return Bip44AccountKeyManager.createNew(_root, NetworkParameters.productionNetwork, 0, _store,
+            AesKeyCipher.defaultKeyCipher());
+   }
+
+   @Test
+   public void deriveAddressesMatchesSingleDerivation() throws KeyCipher.InvalidKeyCipher {
+      List<Address> external = createKeyManager().deriveAddresses(false, 0, 50);
+      List<Address> change = createKeyManager().deriveAddresses(true, 0, 10);
+      assertEquals(Address.fromString(MASTER_SEED_512_A0_R0_ADDRESS), external.get(0));
+      assertEquals(Address.fromString(MASTER_SEED_512_A0_C0_ADDRESS), change.get(0));
+
+      // Compare with a key manager on a fresh store that derives one address at a time
+      setUp();
+      Bip44AccountKeyManager single = createKeyManager();
+      for (int i = 0; i < external.size(); i++) {
+         assertEquals(single.getAddress(false, i), external.get(i));
+      }
+      for (int i = 0; i < change.size(); i++) {
+         assertEquals(single.getAddress(true, i), change.get(i));
+      }
+   }
+
+   @Test
+   public void deriveAddressesStoresResults() throws KeyCipher.InvalidKeyCipher {
+      Bip44AccountKeyManager keyManager = createKeyManager();
+      // Derive a part of the range first, so that the bulk call mixes stored and new addresses
+      Address fifth = keyManager.getAddress(false, 5);
+      List<Address> addresses = keyManager.deriveAddresses(false, 3, 30);
+      assertEquals(30, addresses.size());
+      assertEquals(fifth, addresses.get(2));
+
+      // A key manager loaded from the same store sees the stored addresses and public keys
+      Bip44AccountKeyManager loaded = new Bip44AccountKeyManager(0, NetworkParameters.productionNetwork, _store);
+      assertEquals(addresses, loaded.deriveAddresses(false, 3, 30));
+      for (int i = 0; i < addresses.size(); i++) {
+         assertEquals(addresses.get(i), loaded.getPublicKey(false, 3 + i).toAddress(NetworkParameters.productionNetwork));
+      }
+      assertTrue(keyManager.deriveAddresses(false, 7, 0).isEmpty());
+   }
+
+   @Test
+   public void deriveAddressesStoresRangeInOneTransaction() throws KeyCipher.InvalidKeyCipher {
+      final int[] transactions = new int[1];
+      final int[] writesOutsideTransaction = new int[1];
+      final Random random = new Random(42);
+      _store = new SecureKeyValueStore(new InMemoryWalletManagerBacking() {
+         private int _depth;
+
+         @Override
+         public void beginTransaction() {
+            if (_depth++ == 0) {
+               transactions[0]++;
+            }
+         }
+
+         @Override
+         public void endTransaction() {
+            _depth--;
+         }
+
+         @Override
+         public void setValue(byte[] id, byte[] plaintextValue) {
+            if (_depth == 0) {
+               writesOutsideTransaction[0]++;
+            }
+            super.setValue(id, plaintextValue);
+         }
+      }, new RandomSource() {
+         @Override
+         public void nextBytes(byte[] bytes) {
+            random.nextBytes(bytes);
+         }
+      });
+      Bip44AccountKeyManager keyManager = createKeyManager();
+      int before = transactions[0];
+      int writesBefore = writesOutsideTransaction[0];
+      keyManager.deriveAddresses(false, 0, 40);
+      assertEquals(before + 1, transactions[0]);
+      assertEquals(writesBefore, writesOutsideTransaction[0]);
+   }
+}
@@ -0,0 +1,63 @@
+package com.mycelium.wapi.wallet.bip44;
+
+import com.mrd.bitlib.crypto.Bip39;
+import com.mrd.bitlib.crypto.HdKeyNode;
+import com.mrd.bitlib.crypto.RandomSource;
+import com.mrd.bitlib.model.NetworkParameters;
+import com.mycelium.wapi.wallet.AesKeyCipher;
+import com.mycelium.wapi.wallet.InMemoryWalletManagerBacking;
+import com.mycelium.wapi.wallet.KeyCipher;
+import com.mycelium.wapi.wallet.SecureKeyValueStore;
+
+import java.util.Random;
+
+/**
+ * Compares deriving the addresses of an account one at a time with deriving them in bulk, as when restoring a wallet
+ * with a large gap limit.
+ * <p/>
+ * Run as a plain Java program, the first round serves as warm up.
+ */
+public class Bip44AddressDerivationBenchmark {
+
+   private static final int ADDRESSES = 500;
+   private static final int ROUNDS = 3;
+
+   public static void main(String[] args) throws KeyCipher.InvalidKeyCipher {
+      Bip39.MasterSeed masterSeed = Bip39.generateSeedFromWordList(
+            "degree rain vendor coffee push math onion inside pyramid blush stick treat".split(" "), "");
+      HdKeyNode root = HdKeyNode.fromSeed(masterSeed.getBip32Seed());
+      for (int round = 0; round < ROUNDS; round++) {
+         Bip44AccountKeyManager keyManager = createKeyManager(root);
+         long start = System.nanoTime();
+         for (int i = 0; i < ADDRESSES; i++) {
+            keyManager.getAddress(false, i);
+         }
+         report(round, "one at a time", System.nanoTime() - start);
+
+         keyManager = createKeyManager(root);
+         start = System.nanoTime();
+         keyManager.deriveAddresses(false, 0, ADDRESSES);
+         report(round, "bulk", System.nanoTime() - start);
+
+         start = System.nanoTime();
+         keyManager.deriveAddresses(false, 0, ADDRESSES);
+         report(round, "bulk, stored", System.nanoTime() - start);
+      }
+   }
+
+   private static Bip44AccountKeyManager createKeyManager(HdKeyNode root) throws KeyCipher.InvalidKeyCipher {
+      final Random random = new Random(42);
+      SecureKeyValueStore store = new SecureKeyValueStore(new InMemoryWalletManagerBacking(), new RandomSource() {
+         @Override
+         public void nextBytes(byte[] bytes) {
+            random.nextBytes(bytes);
+         }
+      });
+      return Bip44AccountKeyManager.createNew(root, NetworkParameters.productionNetwork, 0, store,
+            AesKeyCipher.defaultKeyCipher());
+   }
+
+   private static void report(int round, String name, long nanos) {
+      System.out.println(String.format("round %d, %s: %d addresses/s", round, name, ADDRESSES * 1000000000L / nanos));
+   }
+}